@@ -0,0 +1,43 @@
+package jp.hituzi.kamome;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * A stand-in of Android's main looper. The thread running a benchmark is the main thread,
+ * and posted tasks run when the benchmark drains them.
+ * Delayed tasks never run, since timeouts don't expire within a benchmark.
+ */
+final class BenchmarkDispatcher implements Dispatcher {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public boolean isMainThread() {
+        return true;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        tasks.add(task);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        // Nothing to do.
+    }
+
+    @Override
+    public void runOnMainThread(Runnable task) {
+        task.run();
+    }
+
+    /**
+     * Runs posted tasks, including tasks posted by them.
+     */
+    void drain() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving a request and evaluating the script of the result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompletionBenchmark {
+    @Param({"0", "10", "1000", "10000"})
+    public int items;
+
+    private BenchmarkDispatcher dispatcher;
+    private Messenger messenger;
+    private Messenger directMessenger;
+    private Map<String, Object> map;
+    private JSONObject object;
+    private long evaluatedLength;
+
+    @Setup
+    public void setUp() {
+        dispatcher = new BenchmarkDispatcher();
+        messenger = new Messenger(js -> evaluatedLength += js.length(), Messenger.looperTurn(dispatcher));
+        directMessenger = new Messenger(js -> evaluatedLength += js.length(), Messenger.looperTurn(dispatcher));
+        directMessenger.setCodec(PayloadCodec.DIRECT);
+        map = Payloads.map(items);
+        object = new JSONObject(map);
+    }
+
+    @Benchmark
+    public long resolveMap() {
+        new Completion(messenger, "req").resolve(map);
+        return flush();
+    }
+
+    @Benchmark
+    public long resolveMapDirect() {
+        new Completion(directMessenger, "req").resolve(map);
+        return flush();
+    }
+
+    @Benchmark
+    public long resolveJSONObject() {
+        new Completion(messenger, "req").resolve(object);
+        return flush();
+    }
+
+    private long flush() {
+        dispatcher.drain();
+        return evaluatedLength;
+    }
+}
@@ -0,0 +1,137 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A producer updating the page at 1 kHz for a simulated second, e.g., a download progress,
+ * with or without conflation at one frame of 16 milliseconds. The counters tell how many scripts
+ * the WebView evaluates per simulated second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConflationBenchmark {
+    private static final int RATE_HZ = 1000;
+
+    /**
+     * A stand-in of Android's main looper running delayed tasks on a simulated clock.
+     */
+    private static final class ClockDispatcher implements Dispatcher {
+        private static final class Task {
+            final Runnable runnable;
+            final long at;
+            final long sequence;
+
+            Task(final Runnable runnable, final long at, final long sequence) {
+                this.runnable = runnable;
+                this.at = at;
+                this.sequence = sequence;
+            }
+        }
+
+        private final PriorityQueue<Task> tasks = new PriorityQueue<>(64, (a, b) -> a.at != b.at
+                ? Long.compare(a.at, b.at)
+                : Long.compare(a.sequence, b.sequence));
+        private long now;
+        private long sequence;
+
+        @Override
+        public boolean isMainThread() {
+            return true;
+        }
+
+        @Override
+        public void post(Runnable task) {
+            postDelayed(task, 0);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            tasks.add(new Task(task, now + Math.max(0, delayMillis), sequence++));
+        }
+
+        @Override
+        public void runOnMainThread(Runnable task) {
+            task.run();
+        }
+
+        /**
+         * Advances the clock, running tasks due by then.
+         */
+        void advance(final long millis) {
+            final long end = now + millis;
+            Task task;
+            while ((task = tasks.peek()) != null && task.at <= end) {
+                tasks.poll();
+                now = Math.max(now, task.at);
+                task.runnable.run();
+            }
+            now = end;
+        }
+    }
+
+    /**
+     * The number of scripts evaluated and updates produced.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Evaluations {
+        public long evaluations;
+        public long updates;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            evaluations = 0;
+            updates = 0;
+        }
+    }
+
+    @Param({"false", "true"})
+    public boolean conflate;
+
+    private ClockDispatcher dispatcher;
+    private Client client;
+    private SendOptions options;
+    private JSONObject progress;
+    private long scripts;
+
+    @Setup
+    public void setUp() throws JSONException {
+        dispatcher = new ClockDispatcher();
+        client = new Client(js -> scripts++, null, dispatcher);
+        client.kamomeSend("{\"id\":\"syn\",\"name\":\"_kamomeSYN\",\"data\":{\"events\":true}}");
+        dispatcher.advance(0);
+        options = conflate ? new SendOptions().setConflation("progress", 16) : new SendOptions();
+        progress = new JSONObject().put("loaded", 0).put("total", RATE_HZ);
+    }
+
+    /**
+     * One simulated second, where the looper turns once a millisecond after each update.
+     */
+    @Benchmark
+    public long produceForOneSecond(final Evaluations counters) throws JSONException {
+        final long before = scripts;
+        for (int i = 0; i < RATE_HZ; i++) {
+            progress.put("loaded", i);
+            client.emit(progress, "progress", options);
+            dispatcher.advance(1);
+        }
+        counters.evaluations += scripts - before;
+        counters.updates += RATE_HZ;
+        return scripts;
+    }
+}
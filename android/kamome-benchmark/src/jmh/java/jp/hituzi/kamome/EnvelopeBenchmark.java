@@ -0,0 +1,74 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the envelope of a message from the JavaScript library
+ * by parsing the whole message, and by scanning it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EnvelopeBenchmark {
+    /**
+     * The number of items in the data.
+     */
+    @Param({"10", "1000", "10000"})
+    public int items;
+
+    private String message;
+
+    @Setup
+    public void setUp() throws JSONException {
+        message = new JSONObject()
+                .put("id", "_km_42")
+                .put("name", "upload")
+                .put("data", new JSONObject(Payloads.map(items)))
+                .toString();
+    }
+
+    /**
+     * What kamomeSend did before scanning envelopes.
+     */
+    @Benchmark
+    public void parseWholeMessage(final Blackhole blackhole) throws JSONException {
+        final JSONObject object = new JSONObject(message);
+        blackhole.consume(object.getString("id"));
+        blackhole.consume(object.getString("name"));
+        blackhole.consume(object.isNull("data") ? null : object.getJSONObject("data"));
+    }
+
+    /**
+     * A handler passing the raw data through.
+     */
+    @Benchmark
+    public void scanEnvelope(final Blackhole blackhole) throws JSONException {
+        final Envelope envelope = Envelope.scan(message);
+        blackhole.consume(envelope.id);
+        blackhole.consume(envelope.name);
+        blackhole.consume(Payload.ofRaw(envelope.data, PayloadCodec.ORG_JSON, false).getRaw());
+    }
+
+    /**
+     * A handler reading the data as a JSONObject.
+     */
+    @Benchmark
+    public void scanEnvelopeAndParseData(final Blackhole blackhole) throws JSONException {
+        final Envelope envelope = Envelope.scan(message);
+        blackhole.consume(envelope.id);
+        blackhole.consume(envelope.name);
+        blackhole.consume(Payload.ofRaw(envelope.data, PayloadCodec.ORG_JSON, false).getJSONObject());
+    }
+}
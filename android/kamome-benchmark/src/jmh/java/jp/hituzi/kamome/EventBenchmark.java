@@ -0,0 +1,83 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushing a sensor update to the page, as a message the JavaScript receiver replies to,
+ * or as an event without reply. The counters tell how many times an update crosses the bridge:
+ * three times for a message, i.e., the script, its reply and the completion of the reply, and once for an event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventBenchmark {
+    private static final String REPLY_DATA = ",\"data\":{\"success\":true,\"result\":null}}";
+
+    /**
+     * The number of times updates crossed the bridge in either direction.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Crossings {
+        public long crossings;
+        public long updates;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            crossings = 0;
+            updates = 0;
+        }
+    }
+
+    private BenchmarkDispatcher dispatcher;
+    private Client client;
+    private JSONObject reading;
+    private long sequence;
+    private long scripts;
+
+    @Setup
+    public void setUp() throws JSONException {
+        dispatcher = new BenchmarkDispatcher();
+        client = new Client(js -> scripts++, null, dispatcher);
+        client.kamomeSend("{\"id\":\"syn\",\"name\":\"_kamomeSYN\",\"data\":{\"events\":true}}");
+        dispatcher.drain();
+        reading = new JSONObject().put("x", 0.12).put("y", -9.81).put("z", 0.03);
+    }
+
+    /**
+     * A message without a callback, which is still replied to and claimed from the table of pending replies.
+     */
+    @Benchmark
+    public long sendWithoutCallback(final Crossings counters) {
+        final long before = scripts;
+        client.send(reading, "sensor", null);
+        dispatcher.drain();
+        client.kamomeSend("{\"id\":\"r\",\"name\":\"" + PendingReplies.CALLBACK_ID_PREFIX + "sensor_" + ++sequence + "\"" + REPLY_DATA);
+        dispatcher.drain();
+        counters.crossings += scripts - before + 1;
+        counters.updates++;
+        return scripts;
+    }
+
+    @Benchmark
+    public long emit(final Crossings counters) {
+        final long before = scripts;
+        client.emit(reading, "sensor");
+        dispatcher.drain();
+        counters.crossings += scripts - before;
+        counters.updates++;
+        return scripts;
+    }
+}
@@ -0,0 +1,89 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receiving a request through Client.kamomeSend, dispatching it to a handler,
+ * and evaluating the script of its result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KamomeSendBenchmark {
+    @Param({"0", "10", "1000"})
+    public int items;
+    /**
+     * Whether the client records metrics, to compare its overhead.
+     */
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private BenchmarkDispatcher dispatcher;
+    private Client client;
+    private String echo;
+    private String ignore;
+    private String raw;
+    private long evaluatedLength;
+
+    @Setup
+    public void setUp() throws JSONException {
+        dispatcher = new BenchmarkDispatcher();
+        client = new Client(js -> evaluatedLength += js.length(), null, dispatcher);
+        client.add(new Command("echo", (commandName, data, completion) -> completion.resolve(data)))
+                .add(new Command("ignore", (commandName, data, completion) -> completion.resolve()))
+                .add(Command.withPayload("raw", (commandName, data, completion) -> completion.resolve()));
+        if (metrics) {
+            client.setMetrics(new BridgeMetrics());
+        }
+
+        final JSONObject data = new JSONObject(Payloads.map(items));
+        echo = message("echo", data);
+        ignore = message("ignore", data);
+        raw = message("raw", data);
+    }
+
+    /**
+     * A handler reading the data and resolving it.
+     */
+    @Benchmark
+    public long echo() {
+        return receive(echo);
+    }
+
+    /**
+     * A handler ignoring the data, which is still parsed for it.
+     */
+    @Benchmark
+    public long ignore() {
+        return receive(ignore);
+    }
+
+    /**
+     * A handler taking the data as a payload, which is never parsed.
+     */
+    @Benchmark
+    public long rawPayload() {
+        return receive(raw);
+    }
+
+    private long receive(final String message) {
+        client.kamomeSend(message);
+        dispatcher.drain();
+        return evaluatedLength;
+    }
+
+    private static String message(final String name, final JSONObject data) throws JSONException {
+        return new JSONObject().put("id", "req").put("name", name).put("data", data).toString();
+    }
+}
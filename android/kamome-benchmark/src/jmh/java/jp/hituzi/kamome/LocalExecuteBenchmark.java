@@ -0,0 +1,95 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The native code executing a shared command in process, through JSONObjects or passing Java objects through.
+ * Each command returns a data as large as it receives.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LocalExecuteBenchmark {
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"1", "100"})
+    public int items;
+
+    private Client client;
+    private Map<String, Object> data;
+    private Map<String, Object> result;
+    private LocalBatch batch;
+    private Object last;
+
+    private final LocalCompletion.Callback callback = new LocalCompletion.Callback() {
+        @Override
+        public void onResolved(@Nullable final Object result) {
+            last = result;
+        }
+
+        @Override
+        public void onRejected(@NonNull final String errorMessage) {
+            last = errorMessage;
+        }
+    };
+
+    private final LocalCompletion.TypedCallback<Map> typedCallback = new LocalCompletion.TypedCallback<Map>() {
+        @Override
+        public void onResolved(@Nullable final Map result) {
+            last = result;
+        }
+
+        @Override
+        public void onRejected(@NonNull final String errorMessage) {
+            last = errorMessage;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        client = new Client(js -> { }, null, new BenchmarkDispatcher());
+        data = Payloads.map(items);
+        result = Payloads.map(items);
+        client.add(new Command("json", (commandName, object, completion) -> completion.resolve(object != null ? result : null)));
+        client.add(Command.typed("typed", Map.class, (commandName, map, completion) -> completion.resolve(map != null ? result : null)));
+        batch = new LocalBatch();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add("typed", data);
+        }
+    }
+
+    @Benchmark
+    public Object executeJSONObject() {
+        client.execute("json", data, callback);
+        return last;
+    }
+
+    @Benchmark
+    public Object executeTyped() {
+        client.execute("typed", data, Map.class, typedCallback);
+        return last;
+    }
+
+    /**
+     * A hundred typed commands in one batch. Divide the score by 100 to compare it with a single command.
+     */
+    @Benchmark
+    public Object executeAllTyped() {
+        client.executeAll(batch, results -> last = results);
+        return ((List<?>) last).size();
+    }
+}
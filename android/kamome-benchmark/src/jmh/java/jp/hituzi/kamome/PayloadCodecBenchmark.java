@@ -0,0 +1,49 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding a Map by the org.json codec, which creates org.json objects first,
+ * and by the direct codec. Run with the gc profiler to see the allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PayloadCodecBenchmark {
+    @Param({"10", "1000"})
+    public int items;
+
+    private Map<String, Object> data;
+
+    @Setup
+    public void setUp() {
+        data = Payloads.map(items);
+    }
+
+    @Benchmark
+    public String orgJson() throws JSONException {
+        return encode(PayloadCodec.ORG_JSON);
+    }
+
+    @Benchmark
+    public String direct() throws JSONException {
+        return encode(PayloadCodec.DIRECT);
+    }
+
+    private String encode(final PayloadCodec codec) throws JSONException {
+        final StringBuilder sb = new StringBuilder();
+        codec.encode(data, sb);
+        return sb.toString();
+    }
+}
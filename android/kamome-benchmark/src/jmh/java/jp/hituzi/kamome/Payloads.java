@@ -0,0 +1,31 @@
+package jp.hituzi.kamome;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Payloads of the benchmarks. An item is about 100 characters of JSON text.
+ */
+final class Payloads {
+    private Payloads() {
+    }
+
+    static Map<String, Object> map(final int items) {
+        final List<Object> list = new ArrayList<>();
+        for (int i = 0; i < items; i++) {
+            final Map<String, Object> item = new HashMap<>();
+            item.put("id", i);
+            item.put("title", "Item \"" + i + "\"");
+            item.put("tags", Arrays.asList("a", "b"));
+            item.put("price", i * 1.5);
+            item.put("description", "A description of the item.");
+            list.add(item);
+        }
+        final Map<String, Object> map = new HashMap<>();
+        map.put("items", list);
+        return map;
+    }
+}
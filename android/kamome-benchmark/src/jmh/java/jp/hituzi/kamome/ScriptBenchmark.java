@@ -0,0 +1,69 @@
+package jp.hituzi.kamome;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escaping strings and building the scripts evaluated in the WebView.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScriptBenchmark {
+    @Param({"16", "1024", "65536"})
+    public int length;
+    /**
+     * "plain" has no character to escape, and "escaped" has one in every 8 characters.
+     */
+    @Param({"plain", "escaped"})
+    public String text;
+
+    private BridgeTransport transport;
+    private String value;
+    private String json;
+
+    @Setup
+    public void setUp() {
+        transport = new BridgeTransport(js -> {
+        });
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append("escaped".equals(text) && i % 8 == 7 ? (i % 16 == 7 ? '\'' : '\n') : (char) ('a' + i % 26));
+        }
+        value = sb.toString();
+        json = "{\"text\":\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"}";
+    }
+
+    @Benchmark
+    public String escapeForJSStringLiteral() {
+        return Messenger.escapeForJSStringLiteral(value);
+    }
+
+    @Benchmark
+    public String percentEncode() {
+        return Messenger.percentEncode(value);
+    }
+
+    @Benchmark
+    public String encodeComplete() {
+        return transport.encodeComplete(json, "_km_greeting_1");
+    }
+
+    @Benchmark
+    public String encodeReceive() {
+        return transport.encodeReceive("greeting", json, "_km_greeting_1");
+    }
+
+    @Benchmark
+    public String encodeChunk() {
+        return transport.encodeChunk("n1", value);
+    }
+}
@@ -0,0 +1,60 @@
+package jp.hituzi.kamome;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending a message to the JavaScript receiver with a callback and receiving its reply.
+ * The callback is registered in the table of pending replies and claimed by the reply.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SendBenchmark {
+    private static final String REPLY_DATA = ",\"data\":{\"success\":true,\"result\":null}}";
+
+    private BenchmarkDispatcher dispatcher;
+    private Client client;
+    private SendOptions timeout;
+    private long sequence;
+    private long results;
+
+    @Setup
+    public void setUp() {
+        dispatcher = new BenchmarkDispatcher();
+        client = new Client(js -> {
+        }, null, dispatcher);
+        client.kamomeSend("{\"id\":\"syn\",\"name\":\"_kamomeSYN\",\"data\":null}");
+        dispatcher.drain();
+        timeout = new SendOptions().setTimeout(60000);
+    }
+
+    @Benchmark
+    public long sendAndReply() {
+        client.send("greeting", (commandName, result, error) -> results++);
+        return reply();
+    }
+
+    /**
+     * The callback has a timeout scheduled on the timing wheel as well.
+     */
+    @Benchmark
+    public long sendAndReplyWithTimeout() {
+        client.send("greeting", timeout, (commandName, result, error) -> results++);
+        return reply();
+    }
+
+    private long reply() {
+        dispatcher.drain();
+        client.kamomeSend("{\"id\":\"r\",\"name\":\"" + PendingReplies.CALLBACK_ID_PREFIX + "greeting_" + ++sequence + "\"" + REPLY_DATA);
+        dispatcher.drain();
+        return results;
+    }
+}
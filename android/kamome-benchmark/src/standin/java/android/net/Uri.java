@@ -0,0 +1,7 @@
+package android.net;
+
+public abstract class Uri {
+    public static Uri parse(String uriString) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+}
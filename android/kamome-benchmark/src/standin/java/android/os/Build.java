@@ -0,0 +1,16 @@
+package android.os;
+
+public class Build {
+    public static class VERSION {
+        /**
+         * The benchmarks take the code paths of the latest Android.
+         */
+        public static final int SDK_INT = 34;
+    }
+
+    public static class VERSION_CODES {
+        public static final int KITKAT = 19;
+        public static final int M = 23;
+        public static final int Q = 29;
+    }
+}
@@ -0,0 +1,19 @@
+package android.os;
+
+public class Handler {
+    public Handler(Looper looper) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public final boolean post(Runnable r) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public final Looper getLooper() {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+}
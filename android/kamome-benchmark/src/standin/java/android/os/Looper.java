@@ -0,0 +1,11 @@
+package android.os;
+
+public final class Looper {
+    public static Looper getMainLooper() {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public Thread getThread() {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+}
@@ -0,0 +1,11 @@
+package android.os;
+
+public final class Trace {
+    public static void beginAsyncSection(String methodName, int cookie) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public static void endAsyncSection(String methodName, int cookie) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+}
@@ -0,0 +1,15 @@
+package android.view;
+
+public final class Choreographer {
+    public interface FrameCallback {
+        void doFrame(long frameTimeNanos);
+    }
+
+    public static Choreographer getInstance() {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public void postFrameCallback(FrameCallback callback) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+}
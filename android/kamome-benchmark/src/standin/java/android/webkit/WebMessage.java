@@ -0,0 +1,15 @@
+package android.webkit;
+
+public class WebMessage {
+    public WebMessage(String data) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public WebMessage(String data, WebMessagePort[] ports) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public String getData() {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+}
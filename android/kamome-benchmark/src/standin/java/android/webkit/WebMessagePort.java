@@ -0,0 +1,14 @@
+package android.webkit;
+
+public abstract class WebMessagePort {
+    public static abstract class WebMessageCallback {
+        public void onMessage(WebMessagePort port, WebMessage message) {
+        }
+    }
+
+    public abstract void postMessage(WebMessage message);
+
+    public abstract void close();
+
+    public abstract void setWebMessageCallback(WebMessageCallback callback);
+}
@@ -0,0 +1,38 @@
+package android.webkit;
+
+import android.content.Context;
+import android.net.Uri;
+
+public class WebView {
+    public WebView(Context context) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public WebSettings getSettings() {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public void addJavascriptInterface(Object object, String name) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public void evaluateJavascript(String script, ValueCallback<String> resultCallback) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public String getUrl() {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public void loadUrl(String url) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public WebMessagePort[] createWebMessageChannel() {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+
+    public void postWebMessage(WebMessage message, Uri targetOrigin) {
+        throw new UnsupportedOperationException("Not available on the JVM.");
+    }
+}
@@ -0,0 +1,5 @@
+package jp.hituzi.kamome;
+
+public final class BuildConfig {
+    public static final int VERSION_CODE = 50400;
+}
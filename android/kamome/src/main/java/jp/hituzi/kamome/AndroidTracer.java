@@ -0,0 +1,39 @@
+package jp.hituzi.kamome;
+
+import android.os.Build;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Emits spans as async sections of android.os.Trace, which system traces and Perfetto show.
+ * Async sections require Android 10 or later. Nothing is emitted on earlier versions.
+ */
+public final class AndroidTracer implements Tracer {
+    /**
+     * The maximum length of a section name.
+     */
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    @Override
+    public void beginSpan(@NonNull final Stage stage, @NonNull final String commandName, @NonNull final String requestId) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(sectionName(stage, commandName), requestId.hashCode());
+        }
+    }
+
+    @Override
+    public void endSpan(@NonNull final Stage stage, @NonNull final String commandName, @NonNull final String requestId) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(sectionName(stage, commandName), requestId.hashCode());
+        }
+    }
+
+    @NonNull
+    private static String sectionName(@NonNull final Stage stage, @NonNull final String commandName) {
+        final String name = "Kamome " + stage.name().toLowerCase(Locale.US) + " " + commandName;
+        return name.length() > MAX_SECTION_NAME_LENGTH ? name.substring(0, MAX_SECTION_NAME_LENGTH) : name;
+    }
+}
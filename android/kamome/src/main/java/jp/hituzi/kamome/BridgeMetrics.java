@@ -0,0 +1,370 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the latencies and payload lengths of the bridge per command name, and the depth of its queues.
+ * Set a registry to a client by {@link Client#setMetrics(BridgeMetrics)}, and ship its {@link #snapshot()} to your telemetry.
+ * A registry is for one client. Recording doesn't allocate after the first request of each command.
+ */
+public final class BridgeMetrics {
+    /**
+     * A snapshot of the distribution of recorded values.
+     */
+    public static final class Distribution {
+        private final long count;
+        private final long sum;
+        private final long max;
+        @NonNull
+        private final long[] buckets;
+
+        Distribution(final long count, final long sum, final long max, @NonNull final long[] buckets) {
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+            this.buckets = buckets;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getMean() {
+            return count > 0 ? sum / count : 0;
+        }
+
+        /**
+         * Returns an estimate of a percentile. It is within 25% above the actual value.
+         *
+         * @param percentile A percentile from 0 to 100.
+         */
+        public long getPercentile(final double percentile) {
+            long total = 0;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(max, Histogram.upperBoundOf(i));
+                }
+            }
+            return max;
+        }
+
+        @NonNull
+        JSONObject toJSONObject() throws JSONException {
+            return new JSONObject()
+                    .put("count", count)
+                    .put("sum", sum)
+                    .put("mean", getMean())
+                    .put("max", max)
+                    .put("p50", getPercentile(50))
+                    .put("p90", getPercentile(90))
+                    .put("p99", getPercentile(99));
+        }
+    }
+
+    /**
+     * A snapshot of the metrics of a command.
+     */
+    public static final class CommandStats {
+        @NonNull
+        private final Distribution handlerNanos;
+        @NonNull
+        private final Distribution completionNanos;
+        @NonNull
+        private final Distribution roundTripNanos;
+        @NonNull
+        private final Distribution inboundLength;
+        @NonNull
+        private final Distribution outboundLength;
+        private final long rejectedCount;
+        private final long timeoutCount;
+
+        CommandStats(@NonNull final Distribution handlerNanos,
+                     @NonNull final Distribution completionNanos,
+                     @NonNull final Distribution roundTripNanos,
+                     @NonNull final Distribution inboundLength,
+                     @NonNull final Distribution outboundLength,
+                     final long rejectedCount,
+                     final long timeoutCount) {
+            this.handlerNanos = handlerNanos;
+            this.completionNanos = completionNanos;
+            this.roundTripNanos = roundTripNanos;
+            this.inboundLength = inboundLength;
+            this.outboundLength = outboundLength;
+            this.rejectedCount = rejectedCount;
+            this.timeoutCount = timeoutCount;
+        }
+
+        /**
+         * The time a handler takes to return.
+         */
+        @NonNull
+        public Distribution getHandlerNanos() {
+            return handlerNanos;
+        }
+
+        /**
+         * The time from receiving a request from the JavaScript code to resolving or rejecting it.
+         */
+        @NonNull
+        public Distribution getCompletionNanos() {
+            return completionNanos;
+        }
+
+        /**
+         * The time from sending a message to the JavaScript receiver to receiving its reply.
+         */
+        @NonNull
+        public Distribution getRoundTripNanos() {
+            return roundTripNanos;
+        }
+
+        /**
+         * The lengths in characters of the JSON text of data received from the JavaScript code,
+         * i.e., the data of requests and the replies to sent messages.
+         */
+        @NonNull
+        public Distribution getInboundLength() {
+            return inboundLength;
+        }
+
+        /**
+         * The lengths in characters of the JSON text of data sent to the JavaScript code,
+         * i.e., the data of sent messages and the results of requests. Data read from a reader isn't counted.
+         */
+        @NonNull
+        public Distribution getOutboundLength() {
+            return outboundLength;
+        }
+
+        public long getRejectedCount() {
+            return rejectedCount;
+        }
+
+        /**
+         * The number of sent messages whose reply didn't arrive in time.
+         */
+        public long getTimeoutCount() {
+            return timeoutCount;
+        }
+
+        @NonNull
+        JSONObject toJSONObject() throws JSONException {
+            return new JSONObject()
+                    .put("handlerNanos", handlerNanos.toJSONObject())
+                    .put("completionNanos", completionNanos.toJSONObject())
+                    .put("roundTripNanos", roundTripNanos.toJSONObject())
+                    .put("inboundLength", inboundLength.toJSONObject())
+                    .put("outboundLength", outboundLength.toJSONObject())
+                    .put("rejectedCount", rejectedCount)
+                    .put("timeoutCount", timeoutCount);
+        }
+    }
+
+    /**
+     * A snapshot of all metrics.
+     */
+    public static final class Snapshot {
+        @NonNull
+        private final Map<String, CommandStats> commands;
+        private final int readyQueueDepth;
+        private final int maxReadyQueueDepth;
+        private final int pendingReplyCount;
+
+        Snapshot(@NonNull final Map<String, CommandStats> commands,
+                 final int readyQueueDepth,
+                 final int maxReadyQueueDepth,
+                 final int pendingReplyCount) {
+            this.commands = commands;
+            this.readyQueueDepth = readyQueueDepth;
+            this.maxReadyQueueDepth = maxReadyQueueDepth;
+            this.pendingReplyCount = pendingReplyCount;
+        }
+
+        /**
+         * Returns the metrics of each command name.
+         */
+        @NonNull
+        public Map<String, CommandStats> getCommands() {
+            return commands;
+        }
+
+        @Nullable
+        public CommandStats getCommand(@NonNull final String commandName) {
+            return commands.get(commandName);
+        }
+
+        /**
+         * The number of sent messages waiting for the JavaScript library to be ready.
+         */
+        public int getReadyQueueDepth() {
+            return readyQueueDepth;
+        }
+
+        public int getMaxReadyQueueDepth() {
+            return maxReadyQueueDepth;
+        }
+
+        /**
+         * The number of sent messages waiting for the reply.
+         */
+        public int getPendingReplyCount() {
+            return pendingReplyCount;
+        }
+
+        /**
+         * Returns the snapshot as JSON, e.g., to send it to your telemetry.
+         */
+        @NonNull
+        public JSONObject toJSONObject() throws JSONException {
+            final JSONObject commandsJson = new JSONObject();
+            for (Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+                commandsJson.put(entry.getKey(), entry.getValue().toJSONObject());
+            }
+            return new JSONObject()
+                    .put("commands", commandsJson)
+                    .put("readyQueueDepth", readyQueueDepth)
+                    .put("maxReadyQueueDepth", maxReadyQueueDepth)
+                    .put("pendingReplyCount", pendingReplyCount);
+        }
+    }
+
+    private static final class CommandMetrics {
+        final Histogram handlerNanos = new Histogram();
+        final Histogram completionNanos = new Histogram();
+        final Histogram roundTripNanos = new Histogram();
+        final Histogram inboundLength = new Histogram();
+        final Histogram outboundLength = new Histogram();
+        final AtomicLong rejectedCount = new AtomicLong();
+        final AtomicLong timeoutCount = new AtomicLong();
+    }
+
+    @NonNull
+    private final ConcurrentMap<String, CommandMetrics> commands = new ConcurrentHashMap<>();
+    @NonNull
+    private final AtomicInteger readyQueueDepth = new AtomicInteger();
+    @NonNull
+    private final AtomicInteger maxReadyQueueDepth = new AtomicInteger();
+    @NonNull
+    private final AtomicInteger pendingReplyCount = new AtomicInteger();
+
+    /**
+     * Takes a snapshot of all metrics.
+     */
+    @NonNull
+    public Snapshot snapshot() {
+        final Map<String, CommandStats> stats = new HashMap<>();
+        for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+            final CommandMetrics metrics = entry.getValue();
+            stats.put(entry.getKey(), new CommandStats(
+                    metrics.handlerNanos.snapshot(),
+                    metrics.completionNanos.snapshot(),
+                    metrics.roundTripNanos.snapshot(),
+                    metrics.inboundLength.snapshot(),
+                    metrics.outboundLength.snapshot(),
+                    metrics.rejectedCount.get(),
+                    metrics.timeoutCount.get()));
+        }
+        return new Snapshot(Collections.unmodifiableMap(stats),
+                readyQueueDepth.get(),
+                maxReadyQueueDepth.get(),
+                pendingReplyCount.get());
+    }
+
+    /**
+     * Clears all metrics except the depth of the queues.
+     */
+    public void reset() {
+        commands.clear();
+        maxReadyQueueDepth.set(readyQueueDepth.get());
+    }
+
+    void recordHandler(@NonNull final String commandName, final long nanos) {
+        of(commandName).handlerNanos.record(nanos);
+    }
+
+    void recordCompletion(@NonNull final String commandName, final long nanos, final boolean resolved) {
+        final CommandMetrics metrics = of(commandName);
+        metrics.completionNanos.record(nanos);
+        if (!resolved) {
+            metrics.rejectedCount.incrementAndGet();
+        }
+    }
+
+    void recordRoundTrip(@NonNull final String commandName, final long nanos) {
+        of(commandName).roundTripNanos.record(nanos);
+    }
+
+    void recordTimeout(@NonNull final String commandName) {
+        of(commandName).timeoutCount.incrementAndGet();
+    }
+
+    void recordInbound(@NonNull final String commandName, final int length) {
+        of(commandName).inboundLength.record(length);
+    }
+
+    /**
+     * @param length A length, or a negative number if it is unknown.
+     */
+    void recordOutbound(@NonNull final String commandName, final int length) {
+        if (length >= 0) {
+            of(commandName).outboundLength.record(length);
+        }
+    }
+
+    void setReadyQueueDepth(final int depth) {
+        readyQueueDepth.set(depth);
+        int current;
+        while ((current = maxReadyQueueDepth.get()) < depth) {
+            if (maxReadyQueueDepth.compareAndSet(current, depth)) {
+                return;
+            }
+        }
+    }
+
+    void setPendingReplyCount(final int count) {
+        pendingReplyCount.set(count);
+    }
+
+    @NonNull
+    private CommandMetrics of(@NonNull final String commandName) {
+        CommandMetrics metrics = commands.get(commandName);
+        if (metrics == null) {
+            final CommandMetrics created = new CommandMetrics();
+            metrics = commands.putIfAbsent(commandName, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+}
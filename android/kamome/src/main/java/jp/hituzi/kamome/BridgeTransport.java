@@ -0,0 +1,186 @@
+package jp.hituzi.kamome;
+
+import android.os.Build;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * The transport evaluating scripts calling the JavaScript library in the WebView.
+ * Messages from the JavaScript library arrive at {@link Client#kamomeSend(String)} through the JavaScript interface.
+ */
+final class BridgeTransport extends Transport {
+    @NonNull
+    static final String NAME = "bridge";
+
+    @NonNull
+    private static final ScriptEmitter.Template ON_COMPLETE = new ScriptEmitter.Template("window.KM.onComplete({}, '{}')");
+    @NonNull
+    private static final ScriptEmitter.Template ON_COMPLETE_NULL = new ScriptEmitter.Template("window.KM.onComplete(null, '{}')");
+    /**
+     * Takes the payload of a stream out of the JavaScript library in place of the data.
+     */
+    @NonNull
+    private static final ScriptEmitter.Template ON_COMPLETE_STREAM =
+            new ScriptEmitter.Template("window.KM.onComplete(window.KM.takeStream('{}'), '{}')");
+    @NonNull
+    private static final ScriptEmitter.Template ON_PROGRESS = new ScriptEmitter.Template("window.KM.onProgress({}, '{}')");
+    @NonNull
+    private static final ScriptEmitter.Template ON_PROGRESS_NULL = new ScriptEmitter.Template("window.KM.onProgress(null, '{}')");
+    @NonNull
+    private static final ScriptEmitter.Template ON_PROGRESS_STREAM =
+            new ScriptEmitter.Template("window.KM.onProgress(window.KM.takeStream('{}'), '{}')");
+    @NonNull
+    private static final ScriptEmitter.Template ON_ERROR = new ScriptEmitter.Template("window.KM.onError('{}', '{}')");
+    @NonNull
+    private static final ScriptEmitter.Template ON_ERROR_NULL = new ScriptEmitter.Template("window.KM.onError(null, '{}')");
+    @NonNull
+    private static final ScriptEmitter.Template ON_RECEIVE = new ScriptEmitter.Template("window.KM.onReceive('{}', {}, '{}')");
+    @NonNull
+    private static final ScriptEmitter.Template ON_RECEIVE_NULL = new ScriptEmitter.Template("window.KM.onReceive('{}', null, '{}')");
+    @NonNull
+    private static final ScriptEmitter.Template ON_RECEIVE_STREAM =
+            new ScriptEmitter.Template("window.KM.onReceive('{}', window.KM.takeStream('{}'), '{}')");
+    @NonNull
+    private static final ScriptEmitter.Template ON_EVENT = new ScriptEmitter.Template("window.KM.onEvent('{}', {})");
+    @NonNull
+    private static final ScriptEmitter.Template ON_EVENT_NULL = new ScriptEmitter.Template("window.KM.onEvent('{}', null)");
+    @NonNull
+    private static final ScriptEmitter.Template ON_EVENT_STREAM =
+            new ScriptEmitter.Template("window.KM.onEvent('{}', window.KM.takeStream('{}'))");
+    @NonNull
+    private static final ScriptEmitter.Template ON_CHUNK = new ScriptEmitter.Template("window.KM.onChunk('{}', '{}')");
+    @NonNull
+    private static final ScriptEmitter.Template ON_CHUNK_ACK = new ScriptEmitter.Template("window.KM.onChunkAck('{}', {})");
+    @NonNull
+    private static final ScriptEmitter.Template ON_TRACE = new ScriptEmitter.Template("window.KM.onTrace('{}', {})");
+
+    /**
+     * Isolates a message of a batch, so that a message throwing doesn't stop the following messages.
+     * The error is thrown again asynchronously to keep it visible in the console.
+     */
+    @NonNull
+    static final String ISOLATE_BEGIN = "try{";
+    @NonNull
+    static final String ISOLATE_END = "}catch(e){setTimeout(function(){throw e})}";
+
+    @NonNull
+    private final Messenger.Evaluator evaluator;
+
+    BridgeTransport(@NonNull final Messenger.Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    @NonNull
+    static Messenger.Evaluator evaluatorOf(@NonNull final WebView webView) {
+        return js -> {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                webView.evaluateJavascript(js, value -> {
+                    // Nothing to do.
+                });
+            } else {
+                webView.loadUrl("javascript:" + js);
+            }
+        };
+    }
+
+    @NonNull
+    @Override
+    String getName() {
+        return NAME;
+    }
+
+    @NonNull
+    @Override
+    String encodeComplete(@Nullable final Object data, @NonNull final String requestId) {
+        if (data instanceof StreamRef) {
+            return ScriptEmitter.begin(ON_COMPLETE_STREAM).string(((StreamRef) data).id).string(requestId).end();
+        } else if (data != null) {
+            return ScriptEmitter.begin(ON_COMPLETE).raw(data).string(requestId).end();
+        } else {
+            return ScriptEmitter.begin(ON_COMPLETE_NULL).string(requestId).end();
+        }
+    }
+
+    @NonNull
+    @Override
+    String encodeProgress(@Nullable final Object data, @NonNull final String requestId) {
+        if (data instanceof StreamRef) {
+            return ScriptEmitter.begin(ON_PROGRESS_STREAM).string(((StreamRef) data).id).string(requestId).end();
+        } else if (data != null) {
+            return ScriptEmitter.begin(ON_PROGRESS).raw(data).string(requestId).end();
+        } else {
+            return ScriptEmitter.begin(ON_PROGRESS_NULL).string(requestId).end();
+        }
+    }
+
+    @NonNull
+    @Override
+    String encodeError(@Nullable final String error, @NonNull final String requestId) {
+        if (error != null) {
+            // The error is percent-encoded, so it needs no escape.
+            return ScriptEmitter.begin(ON_ERROR).raw(error).string(requestId).end();
+        } else {
+            return ScriptEmitter.begin(ON_ERROR_NULL).string(requestId).end();
+        }
+    }
+
+    @NonNull
+    @Override
+    String encodeReceive(@NonNull final String name, @Nullable final Object data, @NonNull final String callbackId) {
+        if (data instanceof StreamRef) {
+            return ScriptEmitter.begin(ON_RECEIVE_STREAM).string(name).string(((StreamRef) data).id).string(callbackId).end();
+        } else if (data != null) {
+            return ScriptEmitter.begin(ON_RECEIVE).string(name).raw(data).string(callbackId).end();
+        } else {
+            return ScriptEmitter.begin(ON_RECEIVE_NULL).string(name).string(callbackId).end();
+        }
+    }
+
+    @NonNull
+    @Override
+    String encodeEvent(@NonNull final String name, @Nullable final Object data) {
+        if (data instanceof StreamRef) {
+            return ScriptEmitter.begin(ON_EVENT_STREAM).string(name).string(((StreamRef) data).id).end();
+        } else if (data != null) {
+            return ScriptEmitter.begin(ON_EVENT).string(name).raw(data).end();
+        } else {
+            return ScriptEmitter.begin(ON_EVENT_NULL).string(name).end();
+        }
+    }
+
+    @NonNull
+    @Override
+    String encodeTrace(@NonNull final String requestId, @NonNull final String trace) {
+        return ScriptEmitter.begin(ON_TRACE).string(requestId).raw(trace).end();
+    }
+
+    @NonNull
+    @Override
+    String encodeChunk(@NonNull final String streamId, @NonNull final String chunk) {
+        return ScriptEmitter.begin(ON_CHUNK).string(streamId).string(chunk).end();
+    }
+
+    @NonNull
+    @Override
+    String encodeChunkAck(@NonNull final String streamId, final int received) {
+        return ScriptEmitter.begin(ON_CHUNK_ACK).string(streamId).number(received).end();
+    }
+
+    @Override
+    void deliver(@NonNull final List<String> messages) {
+        if (messages.size() == 1) {
+            evaluator.evaluate(messages.get(0));
+            return;
+        }
+
+        final StringBuilder js = new StringBuilder();
+        for (String message : messages) {
+            js.append(ISOLATE_BEGIN).append(message).append(ISOLATE_END);
+        }
+        evaluator.evaluate(js.toString());
+    }
+}
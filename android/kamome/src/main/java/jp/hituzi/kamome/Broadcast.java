@@ -0,0 +1,51 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An event sent to several WebViews. Its data is encoded once, and its message is encoded once for each kind of
+ * transport, so that every WebView of the same kind receives the same string.
+ */
+final class Broadcast {
+    @NonNull
+    final String name;
+    /**
+     * The JSON text of the data, or null.
+     */
+    @Nullable
+    final String json;
+    @NonNull
+    final SendOptions.Priority priority;
+    @NonNull
+    private final Map<String, String> messages = new HashMap<>();
+
+    Broadcast(@NonNull final String name, @Nullable final String json, @NonNull final SendOptions.Priority priority) {
+        this.name = name;
+        this.json = json;
+        this.priority = priority;
+    }
+
+    /**
+     * Returns the message encoded for a transport, encoding it only for the first transport of its kind.
+     *
+     * @param eventsEnabled Whether the JavaScript library supports events.
+     */
+    @NonNull
+    String encode(@NonNull final Transport transport, final boolean eventsEnabled) {
+        final String kind = eventsEnabled ? transport.getName() : transport.getName() + ":receive";
+        synchronized (messages) {
+            String message = messages.get(kind);
+            if (message == null) {
+                message = eventsEnabled
+                        ? transport.encodeEvent(name, json)
+                        : transport.encodeReceive(name, json, PendingReplies.CALLBACK_ID_PREFIX + name + "_event");
+                messages.put(kind, message);
+            }
+            return message;
+        }
+    }
+}
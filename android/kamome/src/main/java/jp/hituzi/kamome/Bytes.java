@@ -0,0 +1,300 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Binary data exchanged with the JavaScript library.
+ * Bytes travel as Base64 in an object tagged by a reserved key, e.g., {@code {"_kamome":"bytes","base64":"AAE="}},
+ * and arrive at the JavaScript code as a Uint8Array. Base64 takes 4 characters per 3 bytes, and never needs escapes
+ * in JSON text.
+ * <p>
+ * A data that is an object having the reserved key itself is sent tagged as a value,
+ * e.g., {@code {"_kamome":"value","value":{"_kamome":1}}}, and the receiver takes it out,
+ * so that no data is mistaken for binary data.
+ * <p>
+ * The tags are used only if the JavaScript library tells that it supports them in the handshake.
+ */
+public final class Bytes {
+    @NonNull
+    static final String KEY = "_kamome";
+    @NonNull
+    private static final String TAG_BYTES = "bytes";
+    @NonNull
+    private static final String TAG_VALUE = "value";
+    @NonNull
+    private static final String BASE64_KEY = "base64";
+    @NonNull
+    private static final String VALUE_KEY = "value";
+    @NonNull
+    private static final String QUOTED_KEY = "\"" + KEY + "\"";
+    @NonNull
+    private static final String VALUE_PREFIX = "{" + QUOTED_KEY + ":\"" + TAG_VALUE + "\",\"" + VALUE_KEY + "\":";
+    @NonNull
+    private static final String BYTES_PREFIX = "{" + QUOTED_KEY + ":\"" + TAG_BYTES + "\",\"" + BASE64_KEY + "\":\"";
+
+    @NonNull
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    @NonNull
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        for (int i = 0; i < BASE64.length; i++) {
+            BASE64_VALUES[BASE64[i]] = i;
+        }
+    }
+
+    /**
+     * The data of binary data, told apart from an object that only has the same keys.
+     */
+    static final class BinaryData extends JSONObject {
+        BinaryData(@NonNull final String json) throws JSONException {
+            super(json);
+        }
+    }
+
+    private Bytes() {
+    }
+
+    /**
+     * Tells whether a data sent from the JavaScript code is binary data, e.g., a Uint8Array.
+     *
+     * @param data A data.
+     */
+    public static boolean isBytes(@Nullable final Object data) {
+        return data instanceof BinaryData;
+    }
+
+    /**
+     * Returns the bytes of binary data sent from the JavaScript code.
+     *
+     * @param data A data.
+     * @return Bytes, or null if the data isn't binary data or its Base64 is malformed.
+     */
+    @Nullable
+    public static byte[] from(@Nullable final Object data) {
+        if (!isBytes(data)) {
+            return null;
+        }
+        return decodeBase64(((JSONObject) data).optString(BASE64_KEY));
+    }
+
+    /**
+     * Takes out a data received from the JavaScript code: bytes of binary data,
+     * the data of an object tagged as a value, or the data as is.
+     */
+    @Nullable
+    static Object decode(@Nullable final Object data) {
+        if (!(data instanceof JSONObject)) {
+            return data;
+        }
+        final JSONObject object = (JSONObject) data;
+        final Object tag = object.opt(KEY);
+        if (TAG_BYTES.equals(tag) && object.opt(BASE64_KEY) instanceof String) {
+            final byte[] bytes = decodeBase64(object.optString(BASE64_KEY));
+            return bytes != null ? bytes : data;
+        }
+        if (TAG_VALUE.equals(tag) && object.has(VALUE_KEY)) {
+            final Object value = object.opt(VALUE_KEY);
+            return value != JSONObject.NULL ? value : null;
+        }
+        return data;
+    }
+
+    /**
+     * Parses the JSON text of the data of a request: binary data to a {@link BinaryData},
+     * and an object tagged as a value to the object.
+     * Only text starting with the reserved key is told apart, because the JavaScript library puts the tag first.
+     *
+     * @throws JSONException If the data isn't a JSON object.
+     */
+    @NonNull
+    static JSONObject parse(@NonNull final String json) throws JSONException {
+        if (json.startsWith(BYTES_PREFIX)) {
+            return new BinaryData(json);
+        }
+        if (json.startsWith(VALUE_PREFIX)) {
+            final Object value = new JSONObject(json).opt(VALUE_KEY);
+            if (value instanceof JSONObject) {
+                return (JSONObject) value;
+            }
+            throw new JSONException("The data isn't a JSON object.");
+        }
+        return new JSONObject(json);
+    }
+
+    /**
+     * Takes out the JSON text of an object tagged as a value, or returns the JSON text as is.
+     * The text isn't parsed, because both libraries write the tag as the prefix and the closing brace.
+     */
+    @NonNull
+    static String unescape(@NonNull final String json) {
+        return isEscaped(json) ? json.substring(VALUE_PREFIX.length(), json.length() - 1) : json;
+    }
+
+    /**
+     * Tells whether JSON text is an object tagged as a value.
+     */
+    static boolean isEscaped(@NonNull final String json) {
+        return json.startsWith(VALUE_PREFIX) && json.endsWith("}");
+    }
+
+    /**
+     * Tags the JSON text of a data as a value if it's an object that may have the reserved key.
+     * An object having it only in a nested object is tagged too, which is harmless.
+     */
+    @NonNull
+    static String escape(@NonNull final String json) {
+        if (json.isEmpty() || json.charAt(0) != '{' || !json.contains(QUOTED_KEY)) {
+            return json;
+        }
+        return VALUE_PREFIX + json + "}";
+    }
+
+    /**
+     * Encodes an object to JSON text, tagging it as a value if it may have the reserved key.
+     * Binary data received from the JavaScript code is sent back as binary data.
+     */
+    @NonNull
+    static String escape(@NonNull final JSONObject object) {
+        return object instanceof BinaryData ? object.toString() : escape(object.toString());
+    }
+
+    /**
+     * Returns binary data as a JSONObject, e.g., for a completion taking only a JSONObject.
+     */
+    @NonNull
+    static JSONObject toJSONObject(@NonNull final String json) {
+        try {
+            return new BinaryData(json);
+        } catch (JSONException e) {
+            // The JSON text of binary data is always valid.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Tags JSON text read from a reader as a value, since it can't be told whether it has the reserved key
+     * before it's read.
+     */
+    @NonNull
+    static Reader escape(@NonNull final Reader json) {
+        return new Reader() {
+            private final String suffix = "}";
+            private int prefixOffset;
+            private int suffixOffset;
+            private boolean eof;
+
+            @Override
+            public int read(@NonNull final char[] buffer, final int offset, final int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                if (prefixOffset < VALUE_PREFIX.length()) {
+                    final int n = Math.min(length, VALUE_PREFIX.length() - prefixOffset);
+                    VALUE_PREFIX.getChars(prefixOffset, prefixOffset + n, buffer, offset);
+                    prefixOffset += n;
+                    return n;
+                }
+                if (!eof) {
+                    final int n = json.read(buffer, offset, length);
+                    if (n >= 0) {
+                        return n;
+                    }
+                    eof = true;
+                }
+                if (suffixOffset < suffix.length()) {
+                    final int n = Math.min(length, suffix.length() - suffixOffset);
+                    suffix.getChars(suffixOffset, suffixOffset + n, buffer, offset);
+                    suffixOffset += n;
+                    return n;
+                }
+                return -1;
+            }
+
+            @Override
+            public void close() throws IOException {
+                json.close();
+            }
+        };
+    }
+
+    /**
+     * Encodes bytes as the JSON text of binary data.
+     */
+    @NonNull
+    static String toJson(@NonNull final byte[] bytes) {
+        return toJson(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Encodes the remaining bytes of a buffer as the JSON text of binary data. The position of the buffer is not changed.
+     */
+    @NonNull
+    static String toJson(@NonNull final ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return toJson(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return toJson(bytes);
+    }
+
+    @NonNull
+    private static String toJson(@NonNull final byte[] bytes, final int offset, final int length) {
+        final StringBuilder sb = new StringBuilder(BYTES_PREFIX.length() + (length + 2) / 3 * 4 + 2);
+        sb.append(BYTES_PREFIX);
+        final int end = offset + length;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            final int n = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            sb.append(BASE64[n >>> 18]).append(BASE64[(n >>> 12) & 0x3f]).append(BASE64[(n >>> 6) & 0x3f]).append(BASE64[n & 0x3f]);
+        }
+        if (i + 1 == end) {
+            final int n = (bytes[i] & 0xff) << 16;
+            sb.append(BASE64[n >>> 18]).append(BASE64[(n >>> 12) & 0x3f]).append("==");
+        } else if (i + 2 == end) {
+            final int n = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8;
+            sb.append(BASE64[n >>> 18]).append(BASE64[(n >>> 12) & 0x3f]).append(BASE64[(n >>> 6) & 0x3f]).append('=');
+        }
+        return sb.append("\"}").toString();
+    }
+
+    @Nullable
+    private static byte[] decodeBase64(@NonNull final String text) {
+        int length = text.length();
+        while (length > 0 && text.charAt(length - 1) == '=') {
+            length--;
+        }
+        if (length % 4 == 1) {
+            return null;
+        }
+        final byte[] bytes = new byte[length * 3 / 4];
+        int buffer = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            final int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                return null;
+            }
+            buffer = buffer << 6 | value;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                bytes[count++] = (byte) (buffer >>> bits);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,188 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A completion caching the resolved result of a handler before passing it to the completion of the request.
+ */
+final class CachingCompletion implements Completable {
+    @NonNull
+    private final Completable completion;
+    @NonNull
+    private final ResultCache cache;
+    @NonNull
+    private final String key;
+    private final long generation;
+    @NonNull
+    private final PayloadCodec codec;
+
+    CachingCompletion(@NonNull final Completable completion,
+                      @NonNull final ResultCache cache,
+                      @NonNull final String key,
+                      @NonNull final PayloadCodec codec) {
+        this.completion = completion;
+        this.cache = cache;
+        this.key = key;
+        this.generation = cache.getGeneration();
+        this.codec = codec;
+    }
+
+    /**
+     * Answers a request with the JSON text of a cached result.
+     */
+    static void resolveCached(@NonNull final Completable completion, @NonNull final String result) {
+        if (resolveJson(completion, result)) {
+            return;
+        }
+        final Object value;
+        try {
+            value = new JSONTokener(result).nextValue();
+        } catch (JSONException e) {
+            completion.reject("Failed to read the cached result.");
+            return;
+        }
+        if (value == JSONObject.NULL) {
+            completion.resolve();
+        } else {
+            completion.resolve(Bytes.decode(value));
+        }
+    }
+
+    /**
+     * Resolves a completion taking the JSON text of a result as is, so that the result isn't encoded again.
+     *
+     * @return false if the completion doesn't take JSON text.
+     */
+    static boolean resolveJson(@NonNull final Completable completion, @NonNull final String json) {
+        if (completion instanceof Completion) {
+            ((Completion) completion).resolveJson(json);
+            return true;
+        }
+        if (completion instanceof SingleFlight.Flight) {
+            ((SingleFlight.Flight) completion).resolveJson(json);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isCompleted() {
+        return completion.isCompleted();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return completion.isCancelled();
+    }
+
+    @Override
+    public void setCancelListener(@Nullable final CancelListener listener) {
+        completion.setCancelListener(listener);
+    }
+
+    @Override
+    public long getRemainingMillis() {
+        return completion.getRemainingMillis();
+    }
+
+    @Override
+    public void resolve() {
+        complete("null", completion::resolve);
+    }
+
+    @Override
+    public void resolve(@Nullable final Map data) {
+        resolve((Object) data);
+    }
+
+    @Override
+    public void resolve(@Nullable final JSONObject data) {
+        complete(data != null ? Bytes.escape(data) : "null", () -> completion.resolve(data));
+    }
+
+    @Override
+    public void resolve(@Nullable final Collection data) {
+        resolve((Object) data);
+    }
+
+    @Override
+    public void resolve(@Nullable final JSONArray data) {
+        complete(String.valueOf(data), () -> completion.resolve(data));
+    }
+
+    @Override
+    public void resolve(@Nullable final Object data) {
+        if (completion.isCompleted()) {
+            return;
+        }
+        final String json;
+        try {
+            final StringBuilder sb = new StringBuilder();
+            codec.encode(data, sb);
+            json = Bytes.escape(sb.toString());
+        } catch (Exception e) {
+            // Lets the completion fail to encode it.
+            completion.resolve(data);
+            return;
+        }
+        complete(json, () -> completion.resolve(data));
+    }
+
+    @Override
+    public void resolve(@Nullable final byte[] data) {
+        complete(data != null ? Bytes.toJson(data) : "null", () -> completion.resolve(data));
+    }
+
+    @Override
+    public void resolve(@Nullable final ByteBuffer data) {
+        complete(data != null ? Bytes.toJson(data) : "null", () -> completion.resolve(data));
+    }
+
+    @Override
+    public void resolveStream(@NonNull final Reader json) {
+        completion.resolveStream(json);
+    }
+
+    /**
+     * A partial result isn't cached.
+     */
+    @Override
+    public void progress(@Nullable final Object data) {
+        completion.progress(data);
+    }
+
+    @Override
+    public void reject() {
+        completion.reject();
+    }
+
+    @Override
+    public void reject(@Nullable final String errorMessage) {
+        completion.reject(errorMessage);
+    }
+
+    /**
+     * Caches the JSON text of a result, and resolves the request unless it is completed.
+     * A completion taking JSON text gets the text as is instead of encoding the result again.
+     */
+    private void complete(@NonNull final String json, @NonNull final Runnable resolveResult) {
+        if (completion.isCompleted()) {
+            return;
+        }
+        cache.put(key, json, generation);
+        if (!resolveJson(completion, json)) {
+            resolveResult.run();
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package jp.hituzi.kamome;
 
 import android.annotation.SuppressLint;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 import android.webkit.JavascriptInterface;
 import android.webkit.WebView;
@@ -14,12 +12,14 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import jp.hituzi.kamome.exception.CommandNotAddedException;
 
@@ -39,6 +39,49 @@ public final class Client {
         EXCEPTION
     }
 
+    public enum ScriptFlushTiming {
+        /**
+         * Flushes pending scripts once per main looper turn.
+         */
+        LOOPER_TURN,
+        /**
+         * Flushes pending scripts once per frame.
+         */
+        FRAME
+    }
+
+    public enum ReadyQueueOverflow {
+        /**
+         * Drops the oldest queued message to queue a new message. The callback of the dropped message isn't called.
+         */
+        DROP_OLDEST,
+        /**
+         * Drops a new message. Its callback isn't called.
+         */
+        DROP_NEWEST,
+        /**
+         * Fails a new message. Its callback receives a "QueueFull" error.
+         */
+        FAIL,
+        /**
+         * Keeps only the latest message of each command name, e.g., for messages telling a state.
+         * A new message replaces the queued message of the same command name, and drops the oldest message if still full.
+         * The callbacks of the replaced and dropped messages aren't called.
+         */
+        LATEST_PER_COMMAND
+    }
+
+    public enum TransportType {
+        /**
+         * Receives messages through the JavaScript interface and sends messages by evaluating scripts.
+         */
+        BRIDGE,
+        /**
+         * Exchanges messages through a WebMessagePort channel. Requires Android 6.0 or later.
+         */
+        MESSAGE_PORT
+    }
+
     public interface ReadyEventListener {
         void onReady();
     }
@@ -48,7 +91,7 @@ public final class Client {
          * Receives a result from the JavaScript receiver when it processed a task of a command.
          *
          * @param commandName A command name.
-         * @param result      A result when the native client receives it successfully from the JavaScript receiver.
+         * @param result      A result when the native client receives it successfully from the JavaScript receiver. Binary data is a byte[] if the JavaScript library supports it.
          * @param error       An error when the native client receives it from the JavaScript receiver. If a task in JavaScript results in successful, the error will be null.
          */
         void onReceiveResult(@NonNull final String commandName, @Nullable final Object result, @Nullable final Error error);
@@ -60,12 +103,39 @@ public final class Client {
     private static final String COMMAND_SYN = "_kamomeSYN";
     @NonNull
     private static final String COMMAND_ACK = "_kamomeACK";
+    @NonNull
+    private static final String COMMAND_CHUNK = "_kamomeChunk";
+    @NonNull
+    private static final String COMMAND_CHUNK_ACK = "_kamomeChunkAck";
+    @NonNull
+    private static final String COMMAND_CANCEL = "_kamomeCancel";
 
     /**
      * How to handle non-existent command.
      */
     @NonNull
     public HowToHandleNonExistentCommand howToHandleNonExistentCommand = HowToHandleNonExistentCommand.RESOLVED;
+    /**
+     * The transport preferred to exchange messages with the Kamome JavaScript library.
+     * It is used when both the JavaScript library and the WebView support it,
+     * otherwise the JavaScript interface and evaluated scripts are used.
+     */
+    @NonNull
+    public TransportType preferredTransport = TransportType.BRIDGE;
+    /**
+     * A default timeout in milliseconds waiting for the reply of the JavaScript receiver to a sent message.
+     * If the reply doesn't arrive in time, the callback receives a "RequestTimeout" error.
+     * If it is less than or equal to 0, sent messages wait for the reply forever, or until the page is reloaded.
+     * You can specify a timeout individually by {@link SendOptions#setTimeout(long)}. Default is 0.
+     */
+    public long defaultReplyTimeoutMillis = 0;
+    /**
+     * A timeout in milliseconds waiting for the Kamome JavaScript library to be ready.
+     * Messages sent before ready are queued and sent as soon as the library goes ready state.
+     * If a message is still queued after this timeout, its callback receives a "RequestTimeout" error.
+     * If it is less than or equal to 0, queued messages wait for ready forever.
+     */
+    public long readyTimeoutMillis = 10000;
     /**
      * A ready event listener.
      * The listener is called when the Kamome JavaScript library goes ready state.
@@ -74,32 +144,137 @@ public final class Client {
     public ReadyEventListener readyEventListener;
 
     @NonNull
-    private final WebView webView;
+    private final Dispatcher dispatcher;
+    @NonNull
+    private final CommandExecutor.Scope executorScope;
+    @NonNull
+    private final BridgeTransport bridgeTransport;
+    @Nullable
+    private final MessagePortTransport.Opener messagePortOpener;
+    @NonNull
+    private final Messenger messenger;
+    @NonNull
+    private final CommandRegistry commands;
+    @NonNull
+    private final TimingWheel timingWheel;
+    @NonNull
+    private final PendingReplies pendingReplies;
     @NonNull
-    private final Map<String, Command> commands = new HashMap<>();
+    private final InboundStreams inboundStreams;
     @NonNull
-    private final List<Request> requests = new ArrayList<>();
+    private final ReadyQueue readyQueue = new ReadyQueue(1000, ReadyQueueOverflow.FAIL);
+    @NonNull
+    private final Conflator conflator;
+    /**
+     * The requests with a deadline waiting for their results, which the JavaScript library can cancel.
+     */
     @NonNull
-    private final WaitForReady waitForReady = new WaitForReady();
-    private boolean ready = false;
+    private final ConcurrentMap<String, Completion> inFlight = new ConcurrentHashMap<>();
+    @Nullable
+    private volatile BridgeMetrics metrics;
+    @Nullable
+    private volatile Tracer tracer;
+    private volatile boolean ready = false;
 
-    @SuppressLint("SetJavaScriptEnabled")
     public Client(@NonNull final WebView webView) {
-        this.webView = webView;
+        this(webView, MainThreadDispatcher.getInstance());
+    }
+
+    /**
+     * Creates a client running the bridge on given dispatcher.
+     *
+     * @param webView    A WebView.
+     * @param dispatcher A dispatcher running the tasks of the bridge on its main thread.
+     */
+    public Client(@NonNull final WebView webView, @NonNull final Dispatcher dispatcher) {
+        this(webView, dispatcher, Collections.<String, Command>emptyMap());
+    }
+
+    /**
+     * @param sharedCommands Immutable commands shared with other clients, e.g., of a {@link Hub}.
+     */
+    @SuppressLint({"SetJavaScriptEnabled", "AddJavascriptInterface"})
+    Client(@NonNull final WebView webView,
+           @NonNull final Dispatcher dispatcher,
+           @NonNull final Map<String, Command> sharedCommands) {
+        this(BridgeTransport.evaluatorOf(webView), MessagePortTransport.openerOf(webView), dispatcher, sharedCommands);
         webView.getSettings().setJavaScriptEnabled(true);
         webView.addJavascriptInterface(this, "kamomeAndroid");
+    }
+
+    Client(@NonNull final Messenger.Evaluator evaluator,
+           @Nullable final MessagePortTransport.Opener messagePortOpener,
+           @NonNull final Dispatcher dispatcher) {
+        this(evaluator, messagePortOpener, dispatcher, Collections.<String, Command>emptyMap());
+    }
+
+    Client(@NonNull final Messenger.Evaluator evaluator,
+           @Nullable final MessagePortTransport.Opener messagePortOpener,
+           @NonNull final Dispatcher dispatcher,
+           @NonNull final Map<String, Command> sharedCommands) {
+        this.dispatcher = dispatcher;
+        this.executorScope = new CommandExecutor.Scope(dispatcher);
+        this.commands = new CommandRegistry(sharedCommands);
+        this.bridgeTransport = new BridgeTransport(evaluator);
+        this.messagePortOpener = messagePortOpener;
+        this.messenger = new Messenger(bridgeTransport, Messenger.looperTurn(dispatcher));
+        this.timingWheel = new TimingWheel(dispatcher);
+        this.conflator = new Conflator(dispatcher);
+        this.pendingReplies = new PendingReplies(timingWheel);
+        this.inboundStreams = new InboundStreams(new InboundStreams.Listener() {
+            @Override
+            public void onAck(@NonNull final String streamId, final int received) {
+                messenger.ackChunk(streamId, received);
+            }
+
+            @Override
+            public void onMessage(@NonNull final String message) {
+                receive(message);
+            }
+        }, timingWheel);
+        messenger.setTimingWheel(timingWheel);
 
         // Add preset commands.
         add(new Command(COMMAND_SYN, (commandName, data, completion) -> {
-            ready = true;
+            // A reloaded page never replies to the messages sent to the previous page,
+            // nor continues the streams of the previous page.
+            failSentRequests();
+            inboundStreams.clear();
+            messenger.resetStreams();
+            // A reloaded page starts over with the bridge until another channel is negotiated.
+            final String transport = negotiateTransport(data);
+            switchTransport(bridgeTransport);
+            final boolean chunking = data != null && data.optBoolean("chunking");
+            messenger.setChunkingEnabled(false);
+            messenger.setEventsEnabled(data != null && data.optBoolean("events"));
+            messenger.setProgressEnabled(data != null && data.optBoolean("progress"));
+            messenger.setBinaryEnabled(data != null && data.optBoolean("binary"));
 
             try {
-                completion.resolve(new JSONObject().put("versionCode", BuildConfig.VERSION_CODE));
+                final JSONObject result = new JSONObject()
+                        .put("versionCode", BuildConfig.VERSION_CODE)
+                        .put("transport", transport)
+                        .put("cancellation", true)
+                        .put("binary", true);
+                if (chunking) {
+                    result.put("chunkSize", messenger.getChunkSize())
+                            .put("chunkWindow", messenger.getChunkWindow());
+                }
+                completion.resolve(result);
             } catch (JSONException e) {
                 Log.e(TAG, "Failed to resolve with versionCode json.", e);
             }
+            // The reply of the handshake is never sent in chunks.
+            messenger.setChunkingEnabled(chunking);
+
+            sendQueuedRequests();
+
+            if (MessagePortTransport.NAME.equals(transport)) {
+                final String origin = MessagePortTransport.originOf(data.optString("origin", null));
+                dispatcher.post(() -> openMessagePort(origin));
+            }
         })).add(new Command(COMMAND_ACK, (commandName, data, completion) -> {
-            new Handler(Looper.getMainLooper()).post(() -> {
+            dispatcher.post(() -> {
                 if (readyEventListener != null) {
                     readyEventListener.onReady();
                 }
@@ -116,6 +291,138 @@ public final class Client {
         return ready;
     }
 
+    /**
+     * Sends an event encoded once for all WebViews of a hub.
+     *
+     * @return false if the JavaScript library isn't ready, and the event isn't sent.
+     */
+    boolean broadcast(@NonNull final Broadcast broadcast) {
+        if (!ready) {
+            return false;
+        }
+        messenger.sendBroadcast(broadcast);
+        return true;
+    }
+
+    /**
+     * Sets the timing to flush messages sent to the JavaScript library.
+     * All messages queued until the flush are delivered at once.
+     * Default is {@link ScriptFlushTiming#LOOPER_TURN}.
+     *
+     * @param timing A timing.
+     * @return Self.
+     */
+    @NonNull
+    public Client setScriptFlushTiming(@NonNull final ScriptFlushTiming timing) {
+        messenger.setFlushScheduler(timing == ScriptFlushTiming.FRAME
+                ? Messenger.perFrame(dispatcher)
+                : Messenger.looperTurn(dispatcher));
+        return this;
+    }
+
+    /**
+     * Sets the maximum length of a script evaluated at once.
+     * If messages queued until a flush exceed this length, they are split into several scripts.
+     *
+     * @param length A maximum length in characters.
+     * @return Self.
+     */
+    @NonNull
+    public Client setMaxScriptBatchLength(final int length) {
+        messenger.setMaxBatchLength(length);
+        return this;
+    }
+
+    /**
+     * Sets the maximum length of messages delivered per flush, so that a burst of messages doesn't block the main thread
+     * for long. Messages beyond it wait for the next flush. Messages of a higher {@link SendOptions.Priority} are
+     * delivered first, and messages of each lower priority still get a share of every flush. Default is unlimited.
+     *
+     * @param length A maximum length in characters.
+     * @return Self.
+     */
+    @NonNull
+    public Client setMaxFlushLength(final int length) {
+        messenger.setMaxFlushLength(length);
+        return this;
+    }
+
+    /**
+     * Sets the length of a chunk. A payload longer than this length is sent in chunks in both directions,
+     * if the JavaScript library supports it. Default is 64 KiB.
+     *
+     * @param length A length in characters.
+     * @return Self.
+     */
+    @NonNull
+    public Client setChunkSize(final int length) {
+        messenger.setChunkSize(length);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of chunks of a payload sent without the acknowledgment of the receiver.
+     * Default is 4.
+     *
+     * @param window A number of chunks.
+     * @return Self.
+     */
+    @NonNull
+    public Client setChunkWindow(final int window) {
+        messenger.setChunkWindow(window);
+        return this;
+    }
+
+    /**
+     * Sets a codec converting data to and from JSON text. Default is {@link PayloadCodec#ORG_JSON}.
+     * The codec encodes Map, Collection and other objects sent to the JavaScript code,
+     * and decodes the data of requests read by {@link Payload#as(Class)}.
+     *
+     * @param codec A codec.
+     * @return Self.
+     */
+    @NonNull
+    public Client setPayloadCodec(@NonNull final PayloadCodec codec) {
+        messenger.setCodec(codec);
+        return this;
+    }
+
+    /**
+     * Sets metrics recording the latencies and payload lengths of each command, and the depth of the queues.
+     * Nothing is measured while no metrics are set, which is default.
+     *
+     * @param metrics Metrics, or null to stop measuring.
+     * @return Self.
+     */
+    @NonNull
+    public Client setMetrics(@Nullable final BridgeMetrics metrics) {
+        this.metrics = metrics;
+        if (metrics != null) {
+            metrics.setReadyQueueDepth(readyQueue.size());
+            metrics.setPendingReplyCount(pendingReplies.size());
+        }
+        return this;
+    }
+
+    @Nullable
+    public BridgeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets a tracer receiving the spans of the stages of each request from the JavaScript code:
+     * waiting to run the handler, running the handler, and delivering the result.
+     * Nothing is traced while no tracer is set, which is default.
+     *
+     * @param tracer A tracer, e.g., {@link AndroidTracer}, or null to stop tracing.
+     * @return Self.
+     */
+    @NonNull
+    public Client setTracer(@Nullable final Tracer tracer) {
+        this.tracer = tracer;
+        return this;
+    }
+
     /**
      * Adds a command called by the JavaScript code.
      *
@@ -124,7 +431,7 @@ public final class Client {
      */
     @NonNull
     public Client add(@NonNull final Command command) {
-        commands.put(command.getName(), command);
+        commands.register(command);
         return this;
     }
 
@@ -134,9 +441,7 @@ public final class Client {
      * @param commandName A command name that you will remove.
      */
     public void remove(@NonNull final String commandName) {
-        if (hasCommand(commandName)) {
-            commands.remove(commandName);
-        }
+        commands.unregister(commandName);
     }
 
     /**
@@ -146,7 +451,21 @@ public final class Client {
      * @return true if the command of specified name is added, otherwise false.
      */
     public boolean hasCommand(@NonNull final String name) {
-        return commands.containsKey(name);
+        return commands.contains(name);
+    }
+
+    /**
+     * Removes the cached results of a command.
+     *
+     * @param commandName A command name.
+     * @see Command#setCache(ResultCache)
+     */
+    public void invalidateCache(@NonNull final String commandName) {
+        final Command command = commands.get(commandName);
+        final ResultCache cache = command != null ? command.getCache() : null;
+        if (cache != null) {
+            cache.invalidate();
+        }
     }
 
     /**
@@ -159,6 +478,17 @@ public final class Client {
         send((JSONObject) null, commandName, callback);
     }
 
+    /**
+     * Sends a message to the JavaScript receiver.
+     *
+     * @param commandName A command name.
+     * @param options     Options of the message.
+     * @param callback    A callback.
+     */
+    public void send(@NonNull final String commandName, @Nullable final SendOptions options, @Nullable final SendMessageCallback callback) {
+        send((JSONObject) null, commandName, options, callback);
+    }
+
     /**
      * Sends a message with a data as Map to the JavaScript receiver.
      *
@@ -167,7 +497,19 @@ public final class Client {
      * @param callback    A callback.
      */
     public void send(@Nullable final Map data, @NonNull final String commandName, @Nullable final SendMessageCallback callback) {
-        send(data != null ? new JSONObject(data) : null, commandName, callback);
+        send(data, commandName, null, callback);
+    }
+
+    /**
+     * Sends a message with a data as Map to the JavaScript receiver.
+     *
+     * @param data        A data as Map.
+     * @param commandName A command name.
+     * @param options     Options of the message.
+     * @param callback    A callback.
+     */
+    public void send(@Nullable final Map data, @NonNull final String commandName, @Nullable final SendOptions options, @Nullable final SendMessageCallback callback) {
+        sendEncoded(data, commandName, options, callback);
     }
 
     /**
@@ -178,10 +520,19 @@ public final class Client {
      * @param callback    A callback.
      */
     public void send(@Nullable final JSONObject data, @NonNull final String commandName, @Nullable final SendMessageCallback callback) {
-        String callbackId = addSendMessageCallback(commandName, callback);
-        requests.add(new Request(commandName, callbackId, data));
+        send(data, commandName, null, callback);
+    }
 
-        waitForReadyAndSendRequests();
+    /**
+     * Sends a message with a data as JSONObject to the JavaScript receiver.
+     *
+     * @param data        A data as JSONObject.
+     * @param commandName A command name.
+     * @param options     Options of the message.
+     * @param callback    A callback.
+     */
+    public void send(@Nullable final JSONObject data, @NonNull final String commandName, @Nullable final SendOptions options, @Nullable final SendMessageCallback callback) {
+        enqueueRequest(data, commandName, options, callback);
     }
 
     /**
@@ -192,7 +543,19 @@ public final class Client {
      * @param callback    A callback.
      */
     public void send(@Nullable final Collection data, @NonNull final String commandName, @Nullable final SendMessageCallback callback) {
-        send(data != null ? new JSONArray(data) : null, commandName, callback);
+        send(data, commandName, null, callback);
+    }
+
+    /**
+     * Sends a message with a data as Collection to the JavaScript receiver.
+     *
+     * @param data        A data as Collection.
+     * @param commandName A command name.
+     * @param options     Options of the message.
+     * @param callback    A callback.
+     */
+    public void send(@Nullable final Collection data, @NonNull final String commandName, @Nullable final SendOptions options, @Nullable final SendMessageCallback callback) {
+        sendEncoded(data, commandName, options, callback);
     }
 
     /**
@@ -203,10 +566,192 @@ public final class Client {
      * @param callback    A callback.
      */
     public void send(@Nullable final JSONArray data, @NonNull final String commandName, @Nullable final SendMessageCallback callback) {
-        String callbackId = addSendMessageCallback(commandName, callback);
-        requests.add(new Request(commandName, callbackId, data));
+        send(data, commandName, null, callback);
+    }
 
-        waitForReadyAndSendRequests();
+    /**
+     * Sends a message with a data as JSONArray to the JavaScript receiver.
+     *
+     * @param data        A data as JSONArray.
+     * @param commandName A command name.
+     * @param options     Options of the message.
+     * @param callback    A callback.
+     */
+    public void send(@Nullable final JSONArray data, @NonNull final String commandName, @Nullable final SendOptions options, @Nullable final SendMessageCallback callback) {
+        enqueueRequest(data, commandName, options, callback);
+    }
+
+    /**
+     * Sends a message with binary data to the JavaScript receiver. The receiver receives it as a Uint8Array.
+     * The bytes are sent as Base64, which is a third longer than them.
+     *
+     * @param data        Bytes.
+     * @param commandName A command name.
+     * @param options     Options of the message.
+     * @param callback    A callback.
+     */
+    public void send(@NonNull final byte[] data, @NonNull final String commandName, @Nullable final SendOptions options, @Nullable final SendMessageCallback callback) {
+        enqueueRequest(Bytes.toJson(data), commandName, options, callback);
+    }
+
+    /**
+     * Sends a message with binary data to the JavaScript receiver.
+     * The receiver receives the remaining bytes of the buffer as a Uint8Array.
+     *
+     * @param data        A buffer.
+     * @param commandName A command name.
+     * @param options     Options of the message.
+     * @param callback    A callback.
+     */
+    public void send(@NonNull final ByteBuffer data, @NonNull final String commandName, @Nullable final SendOptions options, @Nullable final SendMessageCallback callback) {
+        enqueueRequest(Bytes.toJson(data), commandName, options, callback);
+    }
+
+    /**
+     * Sends a message with a data encoded by the payload codec to the JavaScript receiver.
+     * If the data can't be encoded, the callback receives an error.
+     *
+     * @param data        A data, e.g., an object of your data class the payload codec supports.
+     * @param commandName A command name.
+     * @param options     Options of the message.
+     * @param callback    A callback.
+     * @see #setPayloadCodec(PayloadCodec)
+     */
+    public void send(@Nullable final Object data, @NonNull final String commandName, @Nullable final SendOptions options, @Nullable final SendMessageCallback callback) {
+        sendEncoded(data, commandName, options, callback);
+    }
+
+    /**
+     * Sends a message with a data read from a reader of JSON text to the JavaScript receiver.
+     * The text is read and sent in chunks as the JavaScript library receives them,
+     * so that it is never held in memory at once. The reader is closed after it is read.
+     *
+     * @param data        A reader of JSON text.
+     * @param commandName A command name.
+     * @param options     Options of the message.
+     * @param callback    A callback.
+     */
+    public void send(@NonNull final Reader data, @NonNull final String commandName, @Nullable final SendOptions options, @Nullable final SendMessageCallback callback) {
+        // A reader isn't conflated since a superseded reader would never be closed.
+        registerRequest(data, commandName, options, callback);
+    }
+
+    /**
+     * Emits an event to the JavaScript subscribers of given name. Unlike {@link #send(String, SendMessageCallback)},
+     * the JavaScript code never replies to an event, so it crosses the bridge once.
+     * Use it for frequent updates nobody waits for, e.g., sensor or location updates.
+     *
+     * @param eventName An event name.
+     */
+    public void emit(@NonNull final String eventName) {
+        emit((JSONObject) null, eventName, null);
+    }
+
+    /**
+     * Emits an event with a data as JSONObject to the JavaScript subscribers.
+     *
+     * @param data      A data as JSONObject.
+     * @param eventName An event name.
+     */
+    public void emit(@Nullable final JSONObject data, @NonNull final String eventName) {
+        emit(data, eventName, null);
+    }
+
+    /**
+     * Emits an event with a data as JSONObject to the JavaScript subscribers.
+     *
+     * @param data      A data as JSONObject.
+     * @param eventName An event name.
+     * @param options   Options of the event. Its timeout is ignored.
+     */
+    public void emit(@Nullable final JSONObject data, @NonNull final String eventName, @Nullable final SendOptions options) {
+        enqueueEvent(data, eventName, options);
+    }
+
+    /**
+     * Emits an event with a data encoded by the payload codec to the JavaScript subscribers,
+     * e.g., a Map, a Collection or an object the codec supports.
+     *
+     * @param data      A data.
+     * @param eventName An event name.
+     */
+    public void emit(@Nullable final Object data, @NonNull final String eventName) {
+        emit(data, eventName, null);
+    }
+
+    /**
+     * Emits an event with a data encoded by the payload codec to the JavaScript subscribers.
+     *
+     * @param data      A data.
+     * @param eventName An event name.
+     * @param options   Options of the event. Its timeout is ignored.
+     */
+    public void emit(@Nullable final Object data, @NonNull final String eventName, @Nullable final SendOptions options) {
+        final String key = options != null ? options.getConflationKey() : null;
+        if (key != null) {
+            conflator.submit(key, options.getMinIntervalMillis(), eventName, null,
+                    () -> emitEncoded(data, eventName, options));
+        } else {
+            emitEncoded(data, eventName, options);
+        }
+    }
+
+    /**
+     * Sets the capacity of the queue of messages sent before the Kamome JavaScript library is ready,
+     * and what to do when it is full. Default is 1000 messages failing new messages.
+     * Messages given up never reach the JavaScript receiver. With {@link ReadyQueueOverflow#FAIL},
+     * the callback of a failed message receives a "QueueFull" error. With the other policies,
+     * the callbacks of dropped messages aren't called.
+     *
+     * @param capacity A number of messages.
+     * @param overflow An overflow policy.
+     * @return Self.
+     */
+    @NonNull
+    public Client setReadyQueueCapacity(final int capacity, @NonNull final ReadyQueueOverflow overflow) {
+        readyQueue.configure(capacity, overflow);
+        return this;
+    }
+
+    /**
+     * Returns the number of messages waiting for the Kamome JavaScript library to be ready.
+     */
+    public int getReadyQueueDepth() {
+        return readyQueue.size();
+    }
+
+    /**
+     * Returns the number of messages dropped or failed because the queue waiting for ready was full.
+     */
+    public long getDroppedMessageCount() {
+        return readyQueue.getDroppedCount();
+    }
+
+    /**
+     * Returns the number of messages superseded by later messages of the same conflation key.
+     *
+     * @see SendOptions#setConflation(String, long)
+     */
+    public long getConflatedMessageCount() {
+        return conflator.getDroppedCount();
+    }
+
+    /**
+     * Returns the statistics of the handlers of this client run by an executor.
+     * {@link CommandExecutor#getStats()} returns them of all clients.
+     *
+     * @param executor An executor.
+     */
+    @NonNull
+    public CommandExecutor.Stats getExecutorStats(@NonNull final CommandExecutor executor) {
+        return executor.getStats(executorScope);
+    }
+
+    /**
+     * Returns the number of messages sent to the JavaScript receiver and waiting for its reply.
+     */
+    public int getPendingReplyCount() {
+        return pendingReplies.size();
     }
 
     /**
@@ -221,13 +766,14 @@ public final class Client {
 
     /**
      * Executes a command added to this client with a data.
+     * The Map is wrapped in a JSONObject only if the handler reads the data as a JSONObject.
      *
      * @param commandName A command name.
      * @param data        A data as Map.
      * @param callback    A callback.
      */
     public void execute(@NonNull final String commandName, @Nullable final Map data, @Nullable final LocalCompletion.Callback callback) {
-        handle(commandName, data != null ? new JSONObject(data) : null, new LocalCompletion(callback));
+        handle(commandName, Payload.ofValue(data, messenger.getCodec()), new LocalCompletion(callback));
     }
 
     /**
@@ -238,7 +784,38 @@ public final class Client {
      * @param callback    A callback.
      */
     public void execute(@NonNull final String commandName, @Nullable final JSONObject data, @Nullable final LocalCompletion.Callback callback) {
-        handle(commandName, data, new LocalCompletion(callback));
+        handle(commandName, Payload.of(data, messenger.getCodec()), new LocalCompletion(callback));
+    }
+
+    /**
+     * Executes a command added to this client, passing Java objects through without converting them to JSON.
+     * A handler of {@link Command#typed(String, Class, Command.TypedHandler)} receives the data as is,
+     * and the callback receives the result resolved by the handler as is, even a Map or a Collection.
+     * The payload codec converts the data or the result only if its type doesn't match.
+     *
+     * @param commandName A command name.
+     * @param data        A data, e.g., an object of your data class.
+     * @param resultType  A type of the result.
+     * @param callback    A callback.
+     */
+    public <T> void execute(@NonNull final String commandName,
+                            @Nullable final Object data,
+                            @NonNull final Class<T> resultType,
+                            @Nullable final LocalCompletion.TypedCallback<T> callback) {
+        final PayloadCodec codec = messenger.getCodec();
+        handle(commandName, Payload.ofValue(data, codec), new LocalCompletion(LocalCompletion.typed(callback, resultType, codec), true));
+    }
+
+    /**
+     * Executes a batch of commands added to this client, passing the data and the results through as is,
+     * and returns all results at once.
+     *
+     * @param batch    A batch of commands.
+     * @param callback A callback receiving the results in order.
+     */
+    public void executeAll(@NonNull final LocalBatch batch, @NonNull final LocalBatch.Callback callback) {
+        batch.run((commandName, data, completion) ->
+                handle(commandName, Payload.ofValue(data, messenger.getCodec()), completion), executorScope, callback);
     }
 
     /**
@@ -248,22 +825,83 @@ public final class Client {
      */
     @JavascriptInterface
     public void kamomeSend(@NonNull final String message) {
+        receive(message);
+    }
+
+    private void receive(@NonNull final String message) {
         try {
-            JSONObject object = new JSONObject(message);
-            String requestId = object.getString("id");
-            String name = object.getString("name");
-            JSONObject data = object.isNull("data") ? null : object.getJSONObject("data");
-            handle(name, data, new Completion(webView, requestId));
+            // Only the envelope is scanned here. The data is parsed when a handler reads it.
+            final Envelope envelope = Envelope.scan(message);
+
+            if (COMMAND_CHUNK.equals(envelope.name)) {
+                final JSONObject object = new JSONObject(message);
+                inboundStreams.append(envelope.id, object.getString("chunk"), object.optBoolean("last"));
+                return;
+            }
+            if (COMMAND_CHUNK_ACK.equals(envelope.name)) {
+                if (envelope.data == null) {
+                    throw new JSONException("No value for data");
+                }
+                messenger.onChunkAck(envelope.id, new JSONObject(envelope.data).getInt("received"));
+                return;
+            }
+            if (COMMAND_CANCEL.equals(envelope.name)) {
+                final Completion completion = inFlight.get(envelope.id);
+                if (completion != null) {
+                    completion.cancel();
+                }
+                return;
+            }
+            // A reply to a sent message carries a deadline too, but it's delivered even if late.
+            final boolean reply = PendingReplies.isCallbackId(envelope.name);
+            if (!reply && envelope.hasDeadline() && System.currentTimeMillis() >= envelope.deadline) {
+                // The JavaScript library already gave up waiting for the result, so the handler doesn't run.
+                return;
+            }
+
+            final BridgeMetrics metrics = this.metrics;
+            final Tracer tracer = this.tracer;
+            RequestProbe probe = null;
+            if ((metrics != null || tracer != null || envelope.isTraced()) && !reply) {
+                if (metrics != null) {
+                    metrics.recordInbound(envelope.name, envelope.data != null ? envelope.data.length() : 0);
+                }
+                probe = new RequestProbe(metrics, tracer, envelope.name, envelope.id, envelope.isTraced());
+            }
+            final Completion completion;
+            if (envelope.hasDeadline() && !reply) {
+                completion = new Completion(messenger, envelope.id, probe, envelope.deadline, inFlight);
+                inFlight.put(envelope.id, completion);
+            } else {
+                completion = new Completion(messenger, envelope.id, probe);
+            }
+            handle(envelope.name, Payload.ofRaw(envelope.data, messenger.getCodec(), messenger.isBinaryEnabled()), completion, probe);
         } catch (JSONException e) {
             Log.e(TAG, "Failed to parse JSON.", e);
         }
     }
 
-    private void handle(@NonNull final String commandName, @Nullable final JSONObject data, @NonNull final Completable completion) {
+    private void handle(@NonNull final String commandName, @NonNull final Payload data, @NonNull final Completable completion) {
+        handle(commandName, data, completion, null);
+    }
+
+    private void handle(@NonNull final String commandName,
+                        @NonNull final Payload data,
+                        @NonNull final Completable completion,
+                        @Nullable final RequestProbe probe) {
+        if (PendingReplies.isCallbackId(commandName)) {
+            handleReply(commandName, data, completion);
+            return;
+        }
+
         Command command = commands.get(commandName);
 
         if (command != null) {
-            command.execute(data, completion);
+            try {
+                command.execute(data, completion, executorScope, probe);
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to parse JSON.", e);
+            }
         } else {
             switch (howToHandleNonExistentCommand) {
                 case REJECTED:
@@ -277,64 +915,360 @@ public final class Client {
         }
     }
 
+    /**
+     * Chooses the message port only if the page offers it and tells its origin, which must not be opaque,
+     * so that the port is handed to that origin only.
+     */
     @NonNull
-    private String addSendMessageCallback(@NonNull final String commandName, @Nullable final SendMessageCallback callback) {
-        final String callbackId = "_km_" + commandName + "_" + UUID.randomUUID().toString();
-
-        // Add a temporary command receiving a result from the JavaScript handler.
-        add(new Command(callbackId, (commandName1, data, completion) -> {
-            if (data == null) {
-                if (callback != null) {
-                    callback.onReceiveResult(commandName1, null, new Error("UnknownError"));
+    private String negotiateTransport(@Nullable final JSONObject data) {
+        if (preferredTransport != TransportType.MESSAGE_PORT || messagePortOpener == null || data == null
+                || MessagePortTransport.originOf(data.optString("origin", null)) == null) {
+            return BridgeTransport.NAME;
+        }
+
+        final JSONArray transports = data.optJSONArray("transports");
+        if (transports != null) {
+            for (int i = 0; i < transports.length(); i++) {
+                if (MessagePortTransport.NAME.equals(transports.optString(i))) {
+                    return MessagePortTransport.NAME;
                 }
-                completion.resolve();
-                remove(callbackId);
-                return;
             }
+        }
 
-            boolean success = data.optBoolean("success");
+        return BridgeTransport.NAME;
+    }
 
-            if (success) {
-                if (callback != null) {
-                    callback.onReceiveResult(commandName1, data.opt("result"), null);
-                }
+    private void openMessagePort(@NonNull final String origin) {
+        if (messagePortOpener == null) {
+            return;
+        }
+
+        try {
+            final MessagePortTransport transport = messagePortOpener.open(this::receive, origin);
+            if (transport != null) {
+                switchTransport(transport);
+            }
+            // Otherwise, the page navigated away, and the JavaScript library falls back to the bridge.
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to open the message port.", e);
+        }
+    }
+
+    /**
+     * Switches the transport of the messenger.
+     * The previous transport is closed on the main thread after the messages queued for it are delivered.
+     */
+    private void switchTransport(@NonNull final Transport transport) {
+        final Transport previous = messenger.getTransport();
+        if (previous == transport) {
+            return;
+        }
+
+        messenger.setTransport(transport);
+        dispatcher.runOnMainThread(() -> {
+            messenger.flush();
+            previous.close();
+        });
+    }
+
+    /**
+     * Encodes a data by the payload codec and sends it. A conflated data is encoded only if it's sent.
+     */
+    private void sendEncoded(@Nullable final Object data,
+                             @NonNull final String commandName,
+                             @Nullable final SendOptions options,
+                             @Nullable final SendMessageCallback callback) {
+        final String key = options != null ? options.getConflationKey() : null;
+        if (key != null) {
+            conflator.submit(key, options.getMinIntervalMillis(), commandName, callback,
+                    () -> encodeRequest(data, commandName, options, callback));
+        } else {
+            encodeRequest(data, commandName, options, callback);
+        }
+    }
+
+    private void encodeRequest(@Nullable final Object data,
+                               @NonNull final String commandName,
+                               @Nullable final SendOptions options,
+                               @Nullable final SendMessageCallback callback) {
+        final String json;
+        try {
+            json = data != null ? messenger.encode(data) : null;
+        } catch (JSONException e) {
+            if (callback != null) {
+                callback.onReceiveResult(commandName, null, new Error("Failed to encode the data."));
             } else {
-                String errorMessage = data.optString("error");
-                Error error = new Error(!errorMessage.isEmpty() ? errorMessage : "UnknownError");
+                Log.e(TAG, "Failed to encode the data.", e);
+            }
+            return;
+        }
+        registerRequest(json, commandName, options, callback);
+    }
 
-                if (callback != null) {
-                    callback.onReceiveResult(commandName1, null, error);
-                }
+    /**
+     * Sends a message, conflating it by the conflation key of the options.
+     */
+    private void enqueueRequest(@Nullable final Object data,
+                                @NonNull final String commandName,
+                                @Nullable final SendOptions options,
+                                @Nullable final SendMessageCallback callback) {
+        final String key = options != null ? options.getConflationKey() : null;
+        if (key != null) {
+            conflator.submit(key, options.getMinIntervalMillis(), commandName, callback,
+                    () -> registerRequest(data, commandName, options, callback));
+        } else {
+            registerRequest(data, commandName, options, callback);
+        }
+    }
+
+    /**
+     * Registers a reply waiting for the JavaScript receiver, and sends a message.
+     */
+    private void registerRequest(@Nullable final Object data,
+                                 @NonNull final String commandName,
+                                 @Nullable final SendOptions options,
+                                 @Nullable final SendMessageCallback callback) {
+        final long timeoutMillis = options != null
+                ? options.timeoutMillis(defaultReplyTimeoutMillis)
+                : defaultReplyTimeoutMillis;
+        String callbackId = pendingReplies.add(commandName, callback, timeoutMillis, entry -> {
+            final BridgeMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.recordTimeout(entry.commandName);
+                metrics.setPendingReplyCount(pendingReplies.size());
             }
+            if (entry.callback != null) {
+                entry.callback.onReceiveResult(entry.commandName, null, new Error("RequestTimeout"));
+            }
+        });
+        enqueue(new Request(commandName, callbackId, data,
+                options != null ? options.getPriority() : SendOptions.Priority.NORMAL));
+    }
 
-            completion.resolve();
+    private void emitEncoded(@Nullable final Object data,
+                             @NonNull final String eventName,
+                             @Nullable final SendOptions options) {
+        final String json;
+        try {
+            json = data != null ? messenger.encode(data) : null;
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to encode the data.", e);
+            return;
+        }
+        sendEvent(json, eventName, options);
+    }
 
-            // Remove the temporary command.
-            remove(callbackId);
-        }));
+    /**
+     * Sends an event, conflating it by the conflation key of the options.
+     */
+    private void enqueueEvent(@Nullable final Object data,
+                              @NonNull final String eventName,
+                              @Nullable final SendOptions options) {
+        final String key = options != null ? options.getConflationKey() : null;
+        if (key != null) {
+            conflator.submit(key, options.getMinIntervalMillis(), eventName, null,
+                    () -> sendEvent(data, eventName, options));
+        } else {
+            sendEvent(data, eventName, options);
+        }
+    }
 
-        return callbackId;
+    /**
+     * Sends an event without a callback ID, or queues it until ready.
+     */
+    private void sendEvent(@Nullable final Object data,
+                           @NonNull final String eventName,
+                           @Nullable final SendOptions options) {
+        enqueue(new Request(eventName, null, data,
+                options != null ? options.getPriority() : SendOptions.Priority.NORMAL));
     }
 
     /**
-     * Waits for ready. If ready, sends requests to the JS library.
+     * Sends a message, or queues it until ready.
      */
-    private void waitForReadyAndSendRequests() {
+    private void enqueue(@NonNull final Request request) {
         if (!ready) {
-            boolean isWaiting = waitForReady.wait(this::waitForReadyAndSendRequests);
+            final ReadyQueue.Overflow overflow;
+            synchronized (readyQueue) {
+                if (ready) {
+                    overflow = null;
+                } else {
+                    // Queue the message until ready.
+                    overflow = readyQueue.offer(request);
+                    final BridgeMetrics metrics = this.metrics;
+                    if (metrics != null) {
+                        metrics.setReadyQueueDepth(readyQueue.size());
+                    }
+                    if (readyTimeoutMillis > 0 && !overflow.requests.contains(request)) {
+                        request.readyTimeout = timingWheel.schedule(() -> expireQueuedRequest(request), readyTimeoutMillis);
+                    }
+                }
+            }
+            if (overflow != null) {
+                giveUp(overflow);
+                return;
+            }
+        }
+
+        sendRequest(request);
+    }
+
+    /**
+     * Discards messages given up by the queue waiting for ready.
+     */
+    private void giveUp(@NonNull final ReadyQueue.Overflow overflow) {
+        for (Request request : overflow.requests) {
+            final TimingWheel.Timeout timeout = request.readyTimeout;
+            if (timeout != null) {
+                timingWheel.cancel(timeout);
+            }
+            if (request.callbackId == null) {
+                continue;
+            }
+            final PendingReplies.Entry entry = pendingReplies.claim(request.callbackId);
+            if (overflow.failed && entry != null && entry.callback != null) {
+                entry.callback.onReceiveResult(entry.commandName, null, new Error("QueueFull"));
+            }
+        }
+        final BridgeMetrics metrics = this.metrics;
+        if (metrics != null && !overflow.requests.isEmpty()) {
+            metrics.setPendingReplyCount(pendingReplies.size());
+        }
+    }
 
-            if (!isWaiting) {
-                Log.d(TAG, "Waiting for ready has timed out.");
+    /**
+     * Handles a reply of the JavaScript receiver to a sent message.
+     * A reply arriving after the timeout is ignored.
+     */
+    private void handleReply(@NonNull final String callbackId, @NonNull final Payload payload, @NonNull final Completable completion) {
+        final PendingReplies.Entry entry = pendingReplies.claim(callbackId);
+        completion.resolve();
+
+        final BridgeMetrics metrics = this.metrics;
+        if (metrics != null && entry != null) {
+            if (entry.sentAtNanos != 0) {
+                metrics.recordRoundTrip(entry.commandName, System.nanoTime() - entry.sentAtNanos);
             }
+            final String raw = payload.getRaw();
+            metrics.recordInbound(entry.commandName, raw != null ? raw.length() : 0);
+            metrics.setPendingReplyCount(pendingReplies.size());
+        }
+
+        if (entry == null || entry.callback == null) {
+            return;
+        }
+
+        JSONObject data;
+        try {
+            data = payload.getJSONObject();
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to parse JSON.", e);
+            data = null;
+        }
 
+        if (data == null) {
+            entry.callback.onReceiveResult(entry.commandName, null, new Error("UnknownError"));
             return;
         }
 
-        for (Request request : requests) {
-            Messenger.sendRequest(webView, request);
+        boolean success = data.optBoolean("success");
+
+        if (success) {
+            final Object result = data.opt("result");
+            entry.callback.onReceiveResult(entry.commandName,
+                    messenger.isBinaryEnabled() ? Bytes.decode(result) : result, null);
+        } else {
+            String errorMessage = data.optString("error");
+            Error error = new Error(!errorMessage.isEmpty() ? errorMessage : "UnknownError");
+            entry.callback.onReceiveResult(entry.commandName, null, error);
+        }
+    }
+
+    /**
+     * Goes ready state and sends messages queued until ready in order.
+     */
+    private void sendQueuedRequests() {
+        synchronized (readyQueue) {
+            ready = true;
+
+            for (Request request : readyQueue.drain()) {
+                final TimingWheel.Timeout timeout = request.readyTimeout;
+                if (timeout != null) {
+                    timingWheel.cancel(timeout);
+                }
+                sendRequest(request);
+            }
+
+            final BridgeMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.setReadyQueueDepth(0);
+            }
         }
+    }
 
-        // Reset
-        requests.clear();
+    private void sendRequest(@NonNull final Request request) {
+        final BridgeMetrics metrics = this.metrics;
+        final String callbackId = request.callbackId;
+        if (callbackId == null) {
+            final int length = messenger.sendRequest(request, e -> Log.e(TAG, "Failed to read the stream of an event.", e));
+            if (metrics != null) {
+                metrics.recordOutbound(request.name, length);
+            }
+            return;
+        }
+
+        pendingReplies.markSent(callbackId, metrics != null ? System.nanoTime() : 0);
+        final int length = messenger.sendRequest(request, e -> {
+            final PendingReplies.Entry entry = pendingReplies.claim(callbackId);
+            if (entry != null && entry.callback != null) {
+                entry.callback.onReceiveResult(entry.commandName, null, new Error("Failed to read the stream."));
+            }
+        });
+        if (metrics != null) {
+            metrics.recordOutbound(request.name, length);
+            metrics.setPendingReplyCount(pendingReplies.size());
+        }
+    }
+
+    /**
+     * Fails the messages sent to the page and still waiting for the reply.
+     */
+    private void failSentRequests() {
+        final List<PendingReplies.Entry> entries = pendingReplies.claimSent();
+        if (entries.isEmpty()) {
+            return;
+        }
+        final BridgeMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.setPendingReplyCount(pendingReplies.size());
+        }
+        for (PendingReplies.Entry entry : entries) {
+            if (entry.callback != null) {
+                entry.callback.onReceiveResult(entry.commandName, null, new Error("PageReloaded"));
+            }
+        }
+    }
+
+    /**
+     * Fails a message still queued after the ready timeout.
+     */
+    private void expireQueuedRequest(@NonNull final Request request) {
+        synchronized (readyQueue) {
+            if (!readyQueue.remove(request)) {
+                return;
+            }
+            final BridgeMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.setReadyQueueDepth(readyQueue.size());
+            }
+        }
+
+        if (request.callbackId == null) {
+            return;
+        }
+        final PendingReplies.Entry entry = pendingReplies.claim(request.callbackId);
+        if (entry != null && entry.callback != null) {
+            entry.callback.onReceiveResult(entry.commandName, null, new Error("RequestTimeout"));
+        }
     }
 }
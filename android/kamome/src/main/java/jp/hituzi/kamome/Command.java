@@ -3,6 +3,7 @@ package jp.hituzi.kamome;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
 public final class Command {
@@ -10,14 +11,95 @@ public final class Command {
         void execute(@NonNull String commandName, @Nullable JSONObject data, @NonNull Completable completion);
     }
 
+    /**
+     * A handler receiving the data as a {@link Payload}, which is parsed only if the handler reads it.
+     */
+    public interface PayloadHandler {
+        void execute(@NonNull String commandName, @NonNull Payload data, @NonNull Completable completion);
+    }
+
+    /**
+     * A handler receiving the data as an object of its type. An object passed by {@link Client#execute(String, Object, Class, LocalCompletion.TypedCallback)}
+     * is received as is, and a data from the JavaScript code is decoded by the payload codec.
+     */
+    public interface TypedHandler<T> {
+        void execute(@NonNull String commandName, @Nullable T data, @NonNull Completable completion);
+    }
+
+    public interface OrderingKey {
+        /**
+         * Returns a key of a request. Requests of the same key run in order on the executor.
+         *
+         * @param commandName A command name.
+         * @param data        A data of the request.
+         * @return A key, or null if the request isn't ordered.
+         */
+        @Nullable
+        Object of(@NonNull String commandName, @Nullable JSONObject data);
+    }
+
     @NonNull
     private final String name;
     @Nullable
     private final Handler handler;
+    @Nullable
+    private final PayloadHandler payloadHandler;
+    @NonNull
+    private volatile CommandExecutor executor = CommandExecutor.BRIDGE;
+    @Nullable
+    private volatile OrderingKey orderingKey;
+    @Nullable
+    private volatile ResultCache cache;
+    @Nullable
+    private volatile SingleFlight singleFlight;
 
     public Command(@NonNull final String name, @Nullable final Handler handler) {
+        this(name, handler, null);
+    }
+
+    private Command(@NonNull final String name, @Nullable final Handler handler, @Nullable final PayloadHandler payloadHandler) {
         this.name = name;
         this.handler = handler;
+        this.payloadHandler = payloadHandler;
+    }
+
+    /**
+     * Creates a command whose handler receives the data as a {@link Payload}.
+     * The handler can read the raw JSON text of the data without parsing it.
+     *
+     * @param name    A command name.
+     * @param handler A handler.
+     */
+    @NonNull
+    public static Command withPayload(@NonNull final String name, @Nullable final PayloadHandler handler) {
+        return new Command(name, null, handler);
+    }
+
+    /**
+     * Creates a command whose handler receives the data as an object of given type.
+     * A data that can't be decoded to the type is rejected without running the handler.
+     *
+     * @param name     A command name.
+     * @param dataType A type of the data, e.g., your data class.
+     * @param handler  A handler.
+     */
+    @NonNull
+    public static <T> Command typed(@NonNull final String name,
+                                    @NonNull final Class<T> dataType,
+                                    @Nullable final TypedHandler<T> handler) {
+        if (handler == null) {
+            return new Command(name, null, null);
+        }
+        return new Command(name, null, (commandName, data, completion) -> {
+            final T value;
+            try {
+                value = data.as(dataType);
+            } catch (JSONException e) {
+                completion.reject("Failed to decode the data.");
+                return;
+            }
+            handler.execute(commandName, value, completion);
+        });
     }
 
     @NonNull
@@ -25,9 +107,178 @@ public final class Command {
         return name;
     }
 
-    void execute(@Nullable final JSONObject data, @NonNull final Completable completion) {
-        if (handler != null) {
-            handler.execute(name, data, completion);
+    @NonNull
+    public CommandExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets where the handler runs. Default is {@link CommandExecutor#BRIDGE}.
+     *
+     * @param executor An executor.
+     * @return Self.
+     */
+    @NonNull
+    public Command setExecutor(@NonNull final CommandExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Sets an ordering key of requests. Requests of the same key run one at a time in order,
+     * and requests of different keys run in parallel if the executor has several threads.
+     *
+     * @param orderingKey An ordering key, or null if requests aren't ordered.
+     * @return Self.
+     */
+    @NonNull
+    public Command setOrderingKey(@Nullable final OrderingKey orderingKey) {
+        this.orderingKey = orderingKey;
+        return this;
+    }
+
+    @Nullable
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Caches the results of the handler, if it returns the same result for the same data, e.g., a config.
+     * A request whose result is cached is answered without running the handler.
+     *
+     * @param cache A cache, or null if results aren't cached.
+     * @return Self.
+     */
+    @NonNull
+    public Command setCache(@Nullable final ResultCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public boolean isSingleFlight() {
+        return singleFlight != null;
+    }
+
+    /**
+     * Coalesces concurrent requests with equal data into one run of the handler.
+     * A request arriving while the handler runs for equal data gets the same result, or the same rejection,
+     * without running the handler again. Use it for a handler whose result depends only on the data.
+     * Default is false.
+     *
+     * @param enabled true to coalesce requests.
+     * @return Self.
+     */
+    @NonNull
+    public Command setSingleFlight(final boolean enabled) {
+        if (enabled != (singleFlight != null)) {
+            singleFlight = enabled ? new SingleFlight() : null;
+        }
+        return this;
+    }
+
+    /**
+     * Runs the handler, or answers the request from the cache or a run of the handler in progress.
+     * A handler taking a JSONObject gets the data parsed before it is dispatched.
+     *
+     * @param probe A probe measuring the request, or null if it isn't measured.
+     * @throws JSONException If the data needed to be parsed but isn't a JSON object.
+     */
+    void execute(@NonNull final Payload data,
+                 @NonNull final Completable completion,
+                 @NonNull final CommandExecutor.Scope scope,
+                 @Nullable final RequestProbe probe) throws JSONException {
+        final ResultCache cache = this.cache;
+        final SingleFlight singleFlight = this.singleFlight;
+        if (cache == null && singleFlight == null) {
+            dispatch(data, completion, scope, probe, null);
+            return;
+        }
+
+        final String key = data.canonicalKey();
+        if (cache != null) {
+            final String result = cache.get(key);
+            if (result != null) {
+                CachingCompletion.resolveCached(completion, result);
+                return;
+            }
+        }
+
+        Completable target = completion;
+        SingleFlight.Flight flight = null;
+        if (singleFlight != null) {
+            flight = singleFlight.join(key, completion, data.getCodec());
+            if (flight == null) {
+                // The request gets the result of the run in progress.
+                return;
+            }
+            target = flight;
+        }
+        if (cache != null) {
+            target = new CachingCompletion(target, cache, key, data.getCodec());
+        }
+        dispatch(data, target, scope, probe, flight);
+    }
+
+    private void dispatch(@NonNull final Payload data,
+                          @NonNull final Completable completion,
+                          @NonNull final CommandExecutor.Scope scope,
+                          @Nullable final RequestProbe probe,
+                          @Nullable final SingleFlight.Flight flight) throws JSONException {
+        final OrderingKey orderingKey = this.orderingKey;
+        final PayloadHandler payloadHandler = this.payloadHandler;
+        if (payloadHandler != null) {
+            final Object key = orderingKey != null ? orderingKey.of(name, data.getJSONObject()) : null;
+            executor.execute(scope, key, probed(() -> payloadHandler.execute(name, data, completion), completion, probe, flight),
+                    () -> completion.reject("ExecutorRejected"));
+            return;
+        }
+
+        final Handler handler = this.handler;
+        if (handler == null) {
+            return;
+        }
+
+        final JSONObject object = data.getJSONObject();
+        final Object key = orderingKey != null ? orderingKey.of(name, object) : null;
+        executor.execute(scope, key, probed(() -> handler.execute(name, object, completion), completion, probe, flight),
+                () -> completion.reject("ExecutorRejected"));
+    }
+
+    /**
+     * Wraps a handler to skip it if its request is cancelled while waiting to run, to measure it,
+     * and to end its run of single-flight requests if it throws.
+     */
+    @NonNull
+    private static Runnable probed(@NonNull final Runnable task,
+                                   @NonNull final Completable completion,
+                                   @Nullable final RequestProbe probe,
+                                   @Nullable final SingleFlight.Flight flight) {
+        final boolean cancellable = completion.getRemainingMillis() != Long.MAX_VALUE;
+        if (probe == null && flight == null && !cancellable) {
+            return task;
         }
+        return () -> {
+            if (cancellable && completion.isCancelled()) {
+                // Nothing is sent for a cancelled request, but it ends the run of single-flight requests.
+                completion.reject("Canceled");
+                return;
+            }
+            if (probe != null) {
+                probe.onHandlerStart();
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                if (flight != null) {
+                    // Otherwise, later requests with equal data would join a run never completing.
+                    flight.reject(e.getMessage());
+                }
+                throw e;
+            } finally {
+                if (probe != null) {
+                    probe.onHandlerReturn();
+                }
+            }
+        };
     }
 }
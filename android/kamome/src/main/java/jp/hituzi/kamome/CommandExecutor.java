@@ -0,0 +1,436 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where a command handler runs.
+ * Requests of the same ordering key of a client run one at a time in order, and requests of different keys
+ * or of different clients run in parallel.
+ * Each executor measures its dispatch latency and queue depth, in total and for each client.
+ */
+public final class CommandExecutor {
+    /**
+     * Runs handlers directly on the thread receiving requests, e.g., the JavaBridge thread. This is the default.
+     */
+    @NonNull
+    public static final CommandExecutor BRIDGE = new CommandExecutor("bridge", null);
+    /**
+     * Runs handlers on the main thread of the client's dispatcher.
+     */
+    @NonNull
+    public static final CommandExecutor MAIN = new CommandExecutor("main", null);
+
+    private static final class BackgroundHolder {
+        @NonNull
+        static final CommandExecutor INSTANCE = new CommandExecutor("background", newBackgroundPool());
+    }
+
+    /**
+     * A snapshot of the statistics of an executor.
+     */
+    public static final class Stats {
+        private final long executedCount;
+        private final int queueDepth;
+        private final int maxQueueDepth;
+        private final long totalDispatchLatencyNanos;
+        private final long maxDispatchLatencyNanos;
+
+        Stats(final long executedCount,
+              final int queueDepth,
+              final int maxQueueDepth,
+              final long totalDispatchLatencyNanos,
+              final long maxDispatchLatencyNanos) {
+            this.executedCount = executedCount;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.totalDispatchLatencyNanos = totalDispatchLatencyNanos;
+            this.maxDispatchLatencyNanos = maxDispatchLatencyNanos;
+        }
+
+        /**
+         * The number of handlers started.
+         */
+        public long getExecutedCount() {
+            return executedCount;
+        }
+
+        /**
+         * The number of handlers waiting to start.
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        /**
+         * The average time from receiving a request to starting its handler.
+         */
+        public long getAverageDispatchLatencyNanos() {
+            return executedCount > 0 ? totalDispatchLatencyNanos / executedCount : 0;
+        }
+
+        public long getMaxDispatchLatencyNanos() {
+            return maxDispatchLatencyNanos;
+        }
+    }
+
+    /**
+     * The state of the executors for a client. The executors are shared by all clients,
+     * but the tasks of a client are ordered, dispatched and measured apart from the tasks of other clients.
+     */
+    static final class Scope {
+        @NonNull
+        final Dispatcher dispatcher;
+        @NonNull
+        private final Map<CommandExecutor, Lane> lanes = new HashMap<>();
+
+        /**
+         * @param dispatcher A dispatcher of the client, used by {@link #MAIN}.
+         */
+        Scope(@NonNull final Dispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+
+        @NonNull
+        private Lane lane(@NonNull final CommandExecutor executor) {
+            synchronized (lanes) {
+                Lane lane = lanes.get(executor);
+                if (lane == null) {
+                    lane = new Lane();
+                    lanes.put(executor, lane);
+                }
+                return lane;
+            }
+        }
+    }
+
+    /**
+     * The tasks of a client waiting for their ordering keys on an executor, and their statistics.
+     */
+    private static final class Lane {
+        @NonNull
+        final Map<Object, Queue<Task>> keyedQueues = new HashMap<>();
+        @NonNull
+        final Counters counters = new Counters();
+    }
+
+    private static final class Counters {
+        @NonNull
+        private final AtomicInteger queueDepth = new AtomicInteger();
+        @NonNull
+        private final AtomicInteger maxQueueDepth = new AtomicInteger();
+        @NonNull
+        private final AtomicLong executedCount = new AtomicLong();
+        @NonNull
+        private final AtomicLong totalDispatchLatencyNanos = new AtomicLong();
+        @NonNull
+        private final AtomicLong maxDispatchLatencyNanos = new AtomicLong();
+
+        void queued() {
+            updateMax(maxQueueDepth, queueDepth.incrementAndGet());
+        }
+
+        void rejected() {
+            queueDepth.decrementAndGet();
+        }
+
+        void started(final long latency) {
+            queueDepth.decrementAndGet();
+            executedCount.incrementAndGet();
+            totalDispatchLatencyNanos.addAndGet(latency);
+            updateMax(maxDispatchLatencyNanos, latency);
+        }
+
+        @NonNull
+        Stats snapshot() {
+            return new Stats(executedCount.get(),
+                    queueDepth.get(),
+                    maxQueueDepth.get(),
+                    totalDispatchLatencyNanos.get(),
+                    maxDispatchLatencyNanos.get());
+        }
+    }
+
+    @NonNull
+    private final String name;
+    @Nullable
+    private final Executor executor;
+    @NonNull
+    private final Counters total = new Counters();
+
+    private CommandExecutor(@NonNull final String name, @Nullable final Executor executor) {
+        this.name = name;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the background pool shared by all clients.
+     * It has as many threads as the available processors.
+     */
+    @NonNull
+    public static CommandExecutor background() {
+        return BackgroundHolder.INSTANCE;
+    }
+
+    /**
+     * Creates an executor running handlers on given executor.
+     *
+     * @param executor An executor.
+     */
+    @NonNull
+    public static CommandExecutor of(@NonNull final Executor executor) {
+        return new CommandExecutor(executor.toString(), executor);
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns a snapshot of the statistics of all clients.
+     *
+     * @see Client#getExecutorStats(CommandExecutor)
+     */
+    @NonNull
+    public Stats getStats() {
+        return total.snapshot();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of a client.
+     */
+    @NonNull
+    Stats getStats(@NonNull final Scope scope) {
+        return scope.lane(this).counters.snapshot();
+    }
+
+    /**
+     * A task waiting for the preceding task of its ordering key.
+     */
+    private static final class Task {
+        @NonNull
+        final Runnable runnable;
+        @Nullable
+        final Runnable onRejected;
+        /**
+         * The dispatcher of the client of the task, which dispatches it even if another task runs it after itself.
+         */
+        @NonNull
+        final Dispatcher dispatcher;
+        @NonNull
+        final Lane lane;
+
+        Task(@NonNull final Runnable runnable,
+             @Nullable final Runnable onRejected,
+             @NonNull final Dispatcher dispatcher,
+             @NonNull final Lane lane) {
+            this.runnable = runnable;
+            this.onRejected = onRejected;
+            this.dispatcher = dispatcher;
+            this.lane = lane;
+        }
+    }
+
+    /**
+     * Runs a task.
+     *
+     * @param scope       The state of the executors for the client.
+     * @param orderingKey A key of the task. Tasks of the same key run in order. If null, the task isn't ordered.
+     * @param task        A task.
+     * @throws RejectedExecutionException If the executor doesn't accept the task.
+     */
+    void execute(@NonNull final Scope scope, @Nullable final Object orderingKey, @NonNull final Runnable task) {
+        execute(scope, orderingKey, task, null);
+    }
+
+    /**
+     * Runs a task, or calls back if the executor doesn't accept it.
+     *
+     * @param scope       The state of the executors for the client.
+     * @param orderingKey A key of the task. Tasks of the same key run in order. If null, the task isn't ordered.
+     * @param task        A task.
+     * @param onRejected  Calls instead of the task if the executor doesn't accept it.
+     *                    If null, the exception is thrown to the caller, or dropped for a task waiting for its key.
+     * @throws RejectedExecutionException If the executor doesn't accept the task, and onRejected is null.
+     */
+    void execute(@NonNull final Scope scope,
+                 @Nullable final Object orderingKey,
+                 @NonNull final Runnable task,
+                 @Nullable final Runnable onRejected) {
+        final Lane lane = scope.lane(this);
+        final Task measured = new Task(measure(lane, task), onRejected, scope.dispatcher, lane);
+
+        if (orderingKey == null) {
+            try {
+                dispatch(measured.dispatcher, measured.runnable);
+            } catch (RejectedExecutionException e) {
+                reject(measured, e);
+            }
+            return;
+        }
+
+        synchronized (lane.keyedQueues) {
+            final Queue<Task> queue = lane.keyedQueues.get(orderingKey);
+            if (queue != null) {
+                // A preceding task of the same key runs this task after it.
+                queue.add(measured);
+                return;
+            }
+            lane.keyedQueues.put(orderingKey, new ArrayDeque<Task>());
+        }
+
+        try {
+            dispatch(measured.dispatcher, serial(orderingKey, measured));
+        } catch (RejectedExecutionException e) {
+            // Otherwise, the key would stay queued forever, and the tasks queued behind would never run.
+            next(lane, orderingKey);
+            reject(measured, e);
+        }
+    }
+
+    private void dispatch(@NonNull final Dispatcher dispatcher, @NonNull final Runnable task) {
+        if (this == BRIDGE) {
+            task.run();
+        } else if (this == MAIN) {
+            dispatcher.runOnMainThread(task);
+        } else if (executor != null) {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Wraps a task of an ordering key so that the next task of the key runs after it.
+     * On {@link #BRIDGE}, the following tasks run in a loop on the same thread instead of nesting on the stack.
+     */
+    @NonNull
+    private Runnable serial(@NonNull final Object orderingKey, @NonNull final Task first) {
+        return () -> {
+            RuntimeException failure = null;
+            Task task = first;
+            while (task != null) {
+                try {
+                    task.runnable.run();
+                } catch (RuntimeException e) {
+                    // The following tasks still run, and the first failure is thrown after them.
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+                task = next(first.lane, orderingKey);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        };
+    }
+
+    /**
+     * Takes the next task of a key, or removes the key if no task is left.
+     * The task is returned to run on the calling thread on {@link #BRIDGE}, and dispatched otherwise.
+     * A task the executor doesn't accept is rejected, and the one after it is tried.
+     *
+     * @return The next task to run on the calling thread, or null.
+     */
+    @Nullable
+    private Task next(@NonNull final Lane lane, @NonNull final Object orderingKey) {
+        while (true) {
+            final Task next;
+            synchronized (lane.keyedQueues) {
+                final Queue<Task> queue = lane.keyedQueues.get(orderingKey);
+                next = queue != null ? queue.poll() : null;
+                if (next == null) {
+                    lane.keyedQueues.remove(orderingKey);
+                    return null;
+                }
+            }
+            if (this == BRIDGE) {
+                return next;
+            }
+            try {
+                dispatch(next.dispatcher, serial(orderingKey, next));
+                return null;
+            } catch (RejectedExecutionException e) {
+                total.rejected();
+                next.lane.counters.rejected();
+                if (next.onRejected != null) {
+                    next.onRejected.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls back a task the executor doesn't accept, or throws if it has no callback.
+     */
+    private void reject(@NonNull final Task task, @NonNull final RejectedExecutionException e) {
+        total.rejected();
+        task.lane.counters.rejected();
+        if (task.onRejected == null) {
+            throw e;
+        }
+        task.onRejected.run();
+    }
+
+    @NonNull
+    private Runnable measure(@NonNull final Lane lane, @NonNull final Runnable task) {
+        final long queuedAt = System.nanoTime();
+        total.queued();
+        lane.counters.queued();
+
+        return () -> {
+            final long latency = System.nanoTime() - queuedAt;
+            total.started(latency);
+            lane.counters.started(latency);
+            task.run();
+        };
+    }
+
+    private static void updateMax(@NonNull final AtomicInteger max, final int value) {
+        int current;
+        while ((current = max.get()) < value) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    private static void updateMax(@NonNull final AtomicLong max, final long value) {
+        long current;
+        while ((current = max.get()) < value) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    @NonNull
+    private static Executor newBackgroundPool() {
+        final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(runnable, "kamome-command-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -0,0 +1,73 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe registry of commands.
+ * Lookups don't take locks, so the JavaBridge thread never waits for a registration on another thread.
+ * Commands not registered here are looked up in the shared commands, e.g., of a {@link Hub}, which never change.
+ */
+final class CommandRegistry {
+    @NonNull
+    private final ConcurrentMap<String, Command> commands = new ConcurrentHashMap<>();
+    @NonNull
+    private final Map<String, Command> shared;
+
+    CommandRegistry() {
+        this(Collections.<String, Command>emptyMap());
+    }
+
+    /**
+     * @param shared Immutable commands shared with other registries.
+     */
+    CommandRegistry(@NonNull final Map<String, Command> shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Registers a command, replacing a command of the same name.
+     */
+    void register(@NonNull final Command command) {
+        commands.put(command.getName(), command);
+    }
+
+    /**
+     * Unregisters a command of specified name.
+     *
+     * @return The unregistered command, or null if no command of the name was registered.
+     */
+    @Nullable
+    Command unregister(@NonNull final String name) {
+        return commands.remove(name);
+    }
+
+    /**
+     * Unregisters specified command only if it is still registered,
+     * so that a command registered again with the same name is kept.
+     *
+     * @return true if the command was unregistered.
+     */
+    boolean unregister(@NonNull final Command command) {
+        return commands.remove(command.getName(), command);
+    }
+
+    @Nullable
+    Command get(@NonNull final String name) {
+        final Command command = commands.get(name);
+        return command != null ? command : shared.get(name);
+    }
+
+    boolean contains(@NonNull final String name) {
+        return commands.containsKey(name) || shared.containsKey(name);
+    }
+
+    int size() {
+        return commands.size();
+    }
+}
@@ -1,16 +1,63 @@
 package jp.hituzi.kamome;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Map;
 
+/**
+ * A completion of a request, which sends the result to the JavaScript code.
+ * Methods added after the first release have default implementations built on the original ones,
+ * so that your implementations keep compiling.
+ */
 public interface Completable {
+    interface CancelListener {
+        /**
+         * Calls when the JavaScript code gave up waiting for the result of a request.
+         */
+        void onCancel();
+    }
+
     boolean isCompleted();
 
+    /**
+     * Tells whether the request is cancelled, i.e., the JavaScript code gave up waiting for the result,
+     * or the deadline of the request passed. The result of a cancelled request is never sent.
+     * The default implementation returns false.
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+
+    /**
+     * Sets a listener called when the JavaScript code cancels the request, e.g., to stop an expensive task.
+     * It is called at once if the request is already cancelled, and may be called on any thread.
+     *
+     * The default implementation ignores it, for a completion that is never cancelled.
+     *
+     * @param listener A listener, or null to remove it.
+     */
+    default void setCancelListener(@Nullable CancelListener listener) {
+    }
+
+    /**
+     * Returns the time remaining until the deadline of the request in milliseconds,
+     * 0 if it passed, or {@link Long#MAX_VALUE} if the request has no deadline.
+     * The default implementation returns {@link Long#MAX_VALUE}.
+     */
+    default long getRemainingMillis() {
+        return Long.MAX_VALUE;
+    }
+
     /**
      * Sends resolved result to a JavaScript callback function.
      */
@@ -44,6 +91,110 @@ public interface Completable {
      */
     void resolve(@Nullable JSONArray data);
 
+    /**
+     * Sends resolved result with a data encoded by the payload codec of the client to a JavaScript callback function.
+     *
+     * The default implementation sends a Map, a Collection, a JSONObject, a JSONArray, or binary data
+     * through the other methods, and rejects any other data.
+     *
+     * @param data A data, e.g., an object of your data class the payload codec supports.
+     * @see Client#setPayloadCodec(PayloadCodec)
+     */
+    default void resolve(@Nullable Object data) {
+        if (data == null) {
+            resolve();
+        } else if (data instanceof JSONObject) {
+            resolve((JSONObject) data);
+        } else if (data instanceof JSONArray) {
+            resolve((JSONArray) data);
+        } else if (data instanceof Map) {
+            resolve((Map) data);
+        } else if (data instanceof Collection) {
+            resolve((Collection) data);
+        } else if (data instanceof byte[]) {
+            resolve((byte[]) data);
+        } else if (data instanceof ByteBuffer) {
+            resolve((ByteBuffer) data);
+        } else {
+            reject("Failed to encode the data.");
+        }
+    }
+
+    /**
+     * Sends resolved result with binary data to a JavaScript callback function.
+     * The JavaScript callback function receives it as a Uint8Array.
+     * The bytes are sent as Base64, which is a third longer than them.
+     *
+     * @param data Bytes.
+     */
+    default void resolve(@Nullable byte[] data) {
+        if (data != null) {
+            resolve(Bytes.toJSONObject(Bytes.toJson(data)));
+        } else {
+            resolve();
+        }
+    }
+
+    /**
+     * Sends resolved result with binary data to a JavaScript callback function.
+     * The JavaScript callback function receives the remaining bytes of the buffer as a Uint8Array.
+     *
+     * @param data A buffer.
+     */
+    default void resolve(@Nullable ByteBuffer data) {
+        if (data != null) {
+            resolve(Bytes.toJSONObject(Bytes.toJson(data)));
+        } else {
+            resolve();
+        }
+    }
+
+    /**
+     * Sends resolved result with a data read from a reader of JSON text to a JavaScript callback function.
+     * The text is read and sent in chunks as the JavaScript library receives them,
+     * so that it is never held in memory at once. The reader is closed after it is read.
+     * The default implementation reads the whole text, and then sends it as a JSONObject or a JSONArray.
+     *
+     * @param json A reader of JSON text.
+     */
+    default void resolveStream(@NonNull Reader json) {
+        final StringBuilder text = new StringBuilder();
+        final char[] buffer = new char[8192];
+        try {
+            try {
+                int length;
+                while ((length = json.read(buffer)) != -1) {
+                    text.append(buffer, 0, length);
+                }
+            } finally {
+                json.close();
+            }
+            final Object value = new JSONTokener(text.toString()).nextValue();
+            if (value instanceof JSONObject || value instanceof JSONArray) {
+                resolve(value);
+            } else if (value == JSONObject.NULL) {
+                resolve();
+            } else {
+                reject("Failed to encode the data.");
+            }
+        } catch (IOException | JSONException e) {
+            reject(e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a partial result with a data encoded by the payload codec of the client to the JavaScript code
+     * before the final result, e.g., the progress of a long task or a page of results.
+     * It can be called any number of times until the request is completed. A byte[] or a ByteBuffer is sent as a Uint8Array.
+     * It is ignored if the request is completed or cancelled, or the JavaScript library doesn't support partial results.
+     *
+     * The default implementation ignores it.
+     *
+     * @param data A data.
+     */
+    default void progress(@Nullable Object data) {
+    }
+
     /**
      * Sends rejected result to a JavaScript callback function.
      */
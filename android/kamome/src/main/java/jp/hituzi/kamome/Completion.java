@@ -1,6 +1,6 @@
 package jp.hituzi.kamome;
 
-import android.webkit.WebView;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -8,24 +8,113 @@ import androidx.annotation.Nullable;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 public final class Completion implements Completable {
     @NonNull
-    private final WebView webView;
+    private static final String TAG = "Kamome";
+
+    @NonNull
+    private final Messenger messenger;
     @NonNull
     private final String requestId;
+    @Nullable
+    private final RequestProbe probe;
+    /**
+     * The deadline of the request in milliseconds since the epoch, or NaN if it has none.
+     */
+    private final double deadline;
+    @Nullable
+    private final ConcurrentMap<String, Completion> inFlight;
     private boolean completed;
+    private volatile boolean cancelled;
+    @Nullable
+    private CancelListener cancelListener;
+
+    Completion(@NonNull final Messenger messenger, @NonNull final String requestId) {
+        this(messenger, requestId, null);
+    }
+
+    /**
+     * @param probe A probe measuring the request, or null if it isn't measured.
+     */
+    Completion(@NonNull final Messenger messenger, @NonNull final String requestId, @Nullable final RequestProbe probe) {
+        this(messenger, requestId, probe, Double.NaN, null);
+    }
 
-    Completion(@NonNull final WebView webView, @NonNull final String requestId) {
-        this.webView = webView;
+    /**
+     * @param deadline The deadline of the request in milliseconds since the epoch, or NaN if it has none.
+     * @param inFlight The requests the JavaScript code can cancel. This completion removes itself when it completes.
+     */
+    Completion(@NonNull final Messenger messenger,
+               @NonNull final String requestId,
+               @Nullable final RequestProbe probe,
+               final double deadline,
+               @Nullable final ConcurrentMap<String, Completion> inFlight) {
+        this.messenger = messenger;
         this.requestId = requestId;
+        this.probe = probe;
+        this.deadline = deadline;
+        this.inFlight = inFlight;
     }
 
     @Override
     public boolean isCompleted() {
-        return completed;
+        synchronized (this) {
+            return completed;
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled || (!isCompleted() && isExpired());
+    }
+
+    @Override
+    public void setCancelListener(@Nullable final CancelListener listener) {
+        synchronized (this) {
+            if (!cancelled) {
+                cancelListener = listener;
+                return;
+            }
+        }
+        if (listener != null) {
+            listener.onCancel();
+        }
+    }
+
+    @Override
+    public long getRemainingMillis() {
+        if (Double.isNaN(deadline)) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, (long) Math.ceil(deadline - System.currentTimeMillis()));
+    }
+
+    /**
+     * Cancels the request, because the JavaScript code gave up waiting for the result.
+     */
+    void cancel() {
+        final CancelListener listener;
+        synchronized (this) {
+            if (cancelled || completed) {
+                return;
+            }
+            cancelled = true;
+            listener = cancelListener;
+            cancelListener = null;
+        }
+        if (inFlight != null) {
+            inFlight.remove(requestId, this);
+        }
+        if (listener != null) {
+            listener.onCancel();
+        }
     }
 
     @Override
@@ -35,46 +124,114 @@ public final class Completion implements Completable {
 
     @Override
     public void resolve(@Nullable final Map data) {
-        if (data == null) {
-            resolve((JSONObject) null);
-        } else {
-            try {
-                resolve(new JSONObject(data));
-            } catch (Exception e) {
-                reject("Failed to create JSONObject.");
-            }
-        }
+        resolve((Object) data);
     }
 
     @Override
     public void resolve(@Nullable final JSONObject data) {
-        if (completed) {
+        if (finish()) {
+            complete(data);
+        }
+    }
+
+    @Override
+    public void resolve(@Nullable final Collection data) {
+        resolve((Object) data);
+    }
+
+    @Override
+    public void resolve(@Nullable final JSONArray data) {
+        if (finish()) {
+            complete(data);
+        }
+    }
+
+    @Override
+    public void resolve(@Nullable final Object data) {
+        if (isCompleted()) {
+            return;
+        }
+        if (isCancelled()) {
+            // Nothing to encode for a request nobody waits for.
+            finish();
             return;
         }
 
-        completed = true;
+        final String json;
+        try {
+            json = data != null ? messenger.encode(data) : null;
+        } catch (Exception e) {
+            reject("Failed to encode the data.");
+            return;
+        }
 
-        Messenger.completeMessage(webView, data, requestId);
+        if (finish()) {
+            complete(json);
+        }
     }
 
     @Override
-    public void resolve(@Nullable final Collection data) {
-        if (data == null) {
-            resolve((JSONArray) null);
-        } else {
-            resolve(new JSONArray(data));
+    public void resolve(@Nullable final byte[] data) {
+        if (finish()) {
+            complete(data != null ? Bytes.toJson(data) : null);
         }
     }
 
     @Override
-    public void resolve(@Nullable final JSONArray data) {
-        if (completed) {
-            return;
+    public void resolve(@Nullable final ByteBuffer data) {
+        if (finish()) {
+            complete(data != null ? Bytes.toJson(data) : null);
         }
+    }
 
-        completed = true;
+    /**
+     * Resolves with the JSON text of a result as is, e.g., a cached result.
+     */
+    void resolveJson(@NonNull final String json) {
+        if (finish()) {
+            complete(json);
+        }
+    }
 
-        Messenger.completeMessage(webView, data, requestId);
+    @Override
+    public void resolveStream(@NonNull final Reader json) {
+        final boolean taken;
+        final boolean send;
+        synchronized (this) {
+            taken = !completed;
+            send = finish();
+        }
+        if (send) {
+            complete(json);
+        } else if (taken) {
+            // The request is cancelled, so the reader is never read.
+            try {
+                json.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public void progress(@Nullable final Object data) {
+        if (isCompleted() || isCancelled()) {
+            return;
+        }
+
+        final String json;
+        try {
+            if (data instanceof byte[]) {
+                json = Bytes.toJson((byte[]) data);
+            } else if (data instanceof ByteBuffer) {
+                json = Bytes.toJson((ByteBuffer) data);
+            } else {
+                json = data != null ? messenger.encode(data) : null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to encode the progress.", e);
+            return;
+        }
+        messenger.progressMessage(json, requestId);
     }
 
     @Override
@@ -84,12 +241,49 @@ public final class Completion implements Completable {
 
     @Override
     public void reject(@Nullable final String errorMessage) {
-        if (completed) {
+        if (!finish()) {
             return;
         }
 
-        completed = true;
+        if (probe != null) {
+            probe.onComplete(messenger);
+        }
+        messenger.failMessage(errorMessage, requestId);
+        if (probe != null) {
+            probe.onCompleted(-1, false);
+        }
+    }
 
-        Messenger.failMessage(webView, errorMessage, requestId);
+    /**
+     * Marks this completed. It's checked and set under the same lock as {@link #cancel()},
+     * so that a request is either cancelled or completed, even if they happen on different threads.
+     *
+     * @return false if this was already completed, or the request is cancelled and its result must not be sent.
+     */
+    private boolean finish() {
+        synchronized (this) {
+            if (completed) {
+                return false;
+            }
+            completed = true;
+        }
+        if (inFlight != null) {
+            inFlight.remove(requestId, this);
+        }
+        return !cancelled && !isExpired();
+    }
+
+    private boolean isExpired() {
+        return !Double.isNaN(deadline) && System.currentTimeMillis() >= deadline;
+    }
+
+    private void complete(@Nullable final Object data) {
+        if (probe != null) {
+            probe.onComplete(messenger);
+        }
+        final int length = messenger.completeMessage(data, requestId);
+        if (probe != null) {
+            probe.onCompleted(length, true);
+        }
     }
 }
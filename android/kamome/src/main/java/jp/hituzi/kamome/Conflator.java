@@ -0,0 +1,108 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Conflates messages sent with the same conflation key.
+ * The first message of a key is sent at once and opens a window of the minimum interval.
+ * Within the window, only the latest message is kept, and it is sent when the window closes, opening the next window.
+ * A message superseded by a later one is dropped, and its callback receives a "RequestDropped" error.
+ */
+final class Conflator {
+    private static final class Slot {
+        final long intervalMillis;
+        @Nullable
+        Runnable pending;
+        @Nullable
+        String commandName;
+        @Nullable
+        Client.SendMessageCallback callback;
+
+        Slot(final long intervalMillis) {
+            this.intervalMillis = intervalMillis;
+        }
+    }
+
+    @NonNull
+    private final Dispatcher dispatcher;
+    @NonNull
+    private final Map<String, Slot> slots = new HashMap<>();
+    @NonNull
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    Conflator(@NonNull final Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Sends a message now if no window of the key is open, otherwise keeps it until the window closes.
+     *
+     * @param send Sends the message. It runs on the calling thread or the main thread.
+     */
+    void submit(@NonNull final String key,
+                final long intervalMillis,
+                @NonNull final String commandName,
+                @Nullable final Client.SendMessageCallback callback,
+                @NonNull final Runnable send) {
+        final Slot opened;
+        String droppedName = null;
+        Client.SendMessageCallback dropped = null;
+        synchronized (slots) {
+            final Slot slot = slots.get(key);
+            if (slot == null) {
+                opened = new Slot(Math.max(0, intervalMillis));
+                slots.put(key, opened);
+            } else {
+                opened = null;
+                if (slot.pending != null) {
+                    droppedCount.incrementAndGet();
+                    droppedName = slot.commandName;
+                    dropped = slot.callback;
+                }
+                slot.pending = send;
+                slot.commandName = commandName;
+                slot.callback = callback;
+            }
+        }
+
+        if (dropped != null) {
+            dropped.onReceiveResult(droppedName, null, new Error("RequestDropped"));
+        }
+        if (opened != null) {
+            dispatcher.postDelayed(() -> close(key, opened), opened.intervalMillis);
+            send.run();
+        }
+    }
+
+    /**
+     * Returns the number of messages superseded by later messages of the same key.
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Closes the window of a key. The latest message kept in the window is sent, and opens the next window.
+     */
+    private void close(@NonNull final String key, @NonNull final Slot slot) {
+        final Runnable send;
+        synchronized (slots) {
+            send = slot.pending;
+            if (send == null) {
+                slots.remove(key);
+                return;
+            }
+            slot.pending = null;
+            slot.commandName = null;
+            slot.callback = null;
+        }
+
+        dispatcher.postDelayed(() -> close(key, slot), slot.intervalMillis);
+        send.run();
+    }
+}
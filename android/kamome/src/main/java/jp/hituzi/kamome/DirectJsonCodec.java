@@ -0,0 +1,119 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.reflect.Array;
+import java.util.Map;
+
+/**
+ * Writes values straight to JSON text without creating org.json objects.
+ * Strings are escaped like org.json does.
+ */
+final class DirectJsonCodec extends OrgJsonCodec {
+    @NonNull
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Override
+    public void encode(@Nullable final Object value, @NonNull final StringBuilder out) throws JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            out.append("null");
+        } else if (value instanceof String) {
+            quote((String) value, out);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            out.append(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            out.append(JSONObject.numberToString((Number) value));
+        } else if (value instanceof Boolean) {
+            out.append(((Boolean) value).booleanValue());
+        } else if (value instanceof Map) {
+            encodeMap((Map<?, ?>) value, out);
+        } else if (value instanceof Iterable) {
+            encodeIterable((Iterable<?>) value, out);
+        } else if (value instanceof JSONObject || value instanceof JSONArray) {
+            out.append(value);
+        } else if (value.getClass().isArray()) {
+            encodeArray(value, out);
+        } else {
+            // Other values are converted like org.json does, and an unsupported object throws an exception.
+            super.encode(value, out);
+        }
+    }
+
+    private void encodeMap(@NonNull final Map<?, ?> map, @NonNull final StringBuilder out) throws JSONException {
+        out.append('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (entry.getKey() == null) {
+                throw new JSONException("Null key");
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            quote(entry.getKey().toString(), out);
+            out.append(':');
+            encode(entry.getValue(), out);
+        }
+        out.append('}');
+    }
+
+    private void encodeIterable(@NonNull final Iterable<?> iterable, @NonNull final StringBuilder out) throws JSONException {
+        out.append('[');
+        boolean first = true;
+        for (Object element : iterable) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            encode(element, out);
+        }
+        out.append(']');
+    }
+
+    private void encodeArray(@NonNull final Object array, @NonNull final StringBuilder out) throws JSONException {
+        out.append('[');
+        final int length = Array.getLength(array);
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            encode(Array.get(array, i), out);
+        }
+        out.append(']');
+    }
+
+    private static void quote(@NonNull final String value, @NonNull final StringBuilder out) {
+        out.append('"');
+        int start = 0;
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '/') {
+                continue;
+            }
+            // Appends the run of characters that need no escape at once.
+            out.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    out.append('\\').append(c);
+                    break;
+                case '\b': out.append("\\b"); break;
+                case '\f': out.append("\\f"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+            }
+        }
+        out.append(value, start, length).append('"');
+    }
+}
@@ -0,0 +1,37 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Runs the tasks of the bridge on its main thread.
+ * The default implementation is {@link MainThreadDispatcher} running tasks on Android's main looper.
+ * A {@link ExecutorDispatcher} runs the bridge on a plain JVM executor in unit tests and benchmarks.
+ */
+public interface Dispatcher {
+    /**
+     * Tells whether the current thread is the main thread of this dispatcher.
+     */
+    boolean isMainThread();
+
+    /**
+     * Posts a task to the main thread.
+     *
+     * @param task A task.
+     */
+    void post(@NonNull Runnable task);
+
+    /**
+     * Posts a task to the main thread, to be run after the specified delay.
+     *
+     * @param task        A task.
+     * @param delayMillis A delay in milliseconds.
+     */
+    void postDelayed(@NonNull Runnable task, long delayMillis);
+
+    /**
+     * Runs a task immediately if the current thread is the main thread, otherwise posts it.
+     *
+     * @param task A task.
+     */
+    void runOnMainThread(@NonNull Runnable task);
+}
@@ -0,0 +1,302 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+
+/**
+ * The id and name of a message sent from the JavaScript library, and the JSON text of its data.
+ * The message is scanned without building a tree, so that the data is parsed only if a handler reads it.
+ */
+final class Envelope {
+    @NonNull
+    final String id;
+    @NonNull
+    final String name;
+    /**
+     * The JSON text of the data, or null if the data is null or missing.
+     */
+    @Nullable
+    final String data;
+    /**
+     * When the JavaScript library sent the message in milliseconds since the epoch,
+     * or NaN if it doesn't trace the message.
+     */
+    final double sentAt;
+    /**
+     * When the JavaScript library gives up waiting for the result in milliseconds since the epoch,
+     * or NaN if it waits forever.
+     */
+    final double deadline;
+
+    private Envelope(@NonNull final String id,
+                     @NonNull final String name,
+                     @Nullable final String data,
+                     final double sentAt,
+                     final double deadline) {
+        this.id = id;
+        this.name = name;
+        this.data = data;
+        this.sentAt = sentAt;
+        this.deadline = deadline;
+    }
+
+    boolean isTraced() {
+        return !Double.isNaN(sentAt);
+    }
+
+    boolean hasDeadline() {
+        return !Double.isNaN(deadline);
+    }
+
+    /**
+     * Scans a message. Members other than id, name, data, sentAt and deadline are skipped.
+     *
+     * @throws JSONException If the message isn't a JSON object, or lacks the id or name.
+     */
+    @NonNull
+    static Envelope scan(@NonNull final String message) throws JSONException {
+        return new Scanner(message).scanEnvelope();
+    }
+
+    private static final class Scanner {
+        @NonNull
+        private final String json;
+        private int pos;
+
+        Scanner(@NonNull final String json) {
+            this.json = json;
+        }
+
+        @NonNull
+        Envelope scanEnvelope() throws JSONException {
+            String id = null;
+            String name = null;
+            String data = null;
+            double sentAt = Double.NaN;
+            double deadline = Double.NaN;
+
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    expect('"');
+                    final String key = readString();
+                    expect(':');
+                    skipWhitespace();
+                    if ("id".equals(key)) {
+                        id = readValueAsString();
+                    } else if ("name".equals(key)) {
+                        name = readValueAsString();
+                    } else if ("sentAt".equals(key)) {
+                        sentAt = readNumber(key);
+                    } else if ("deadline".equals(key)) {
+                        deadline = readNumber(key);
+                    } else if ("data".equals(key)) {
+                        final int start = pos;
+                        skipValue();
+                        data = json.startsWith("null", start) && pos - start == 4 ? null : json.substring(start, pos);
+                    } else {
+                        skipValue();
+                    }
+
+                    final char c = next();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                }
+            }
+
+            if (id == null) {
+                throw new JSONException("No value for id");
+            }
+            if (name == null) {
+                throw new JSONException("No value for name");
+            }
+            return new Envelope(id, name, data, sentAt, deadline);
+        }
+
+        private double readNumber(@NonNull final String key) throws JSONException {
+            final int start = pos;
+            skipValue();
+            try {
+                return Double.parseDouble(json.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw new JSONException("Value " + json.substring(start, pos) + " at " + key + " is not a number");
+            }
+        }
+
+        /**
+         * Reads a string, or the text of a number like the JSONObject#getString method does.
+         */
+        @NonNull
+        private String readValueAsString() throws JSONException {
+            if (peek() == '"') {
+                pos++;
+                return readString();
+            }
+            final int start = pos;
+            skipValue();
+            final String value = json.substring(start, pos);
+            if (value.startsWith("{") || value.startsWith("[") || "null".equals(value)) {
+                throw new JSONException("Value " + value + " is not a string");
+            }
+            return value;
+        }
+
+        /**
+         * Reads the rest of a string after its opening quote.
+         */
+        @NonNull
+        private String readString() throws JSONException {
+            final int start = pos;
+            // Most strings have no escapes, so they are cut out of the message as is.
+            while (pos < json.length()) {
+                final char c = json.charAt(pos);
+                if (c == '"') {
+                    return json.substring(start, pos++);
+                }
+                if (c == '\\') {
+                    break;
+                }
+                pos++;
+            }
+
+            final StringBuilder sb = new StringBuilder(json.length() - start).append(json, start, pos);
+            while (pos < json.length()) {
+                final char c = json.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= json.length()) {
+                    break;
+                }
+                final char escaped = json.charAt(pos++);
+                switch (escaped) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > json.length()) {
+                            throw syntaxError("Unterminated escape sequence");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw syntaxError("Invalid escape sequence");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append(escaped);
+                }
+            }
+            throw syntaxError("Unterminated string");
+        }
+
+        /**
+         * Skips a value of any type.
+         */
+        private void skipValue() throws JSONException {
+            skipWhitespace();
+            if (pos >= json.length()) {
+                throw syntaxError("End of input");
+            }
+
+            final char first = json.charAt(pos);
+            if (first == '"') {
+                pos++;
+                skipString();
+                return;
+            }
+            if (first != '{' && first != '[') {
+                final int start = pos;
+                while (pos < json.length() && ",:]} \t\r\n\"{[".indexOf(json.charAt(pos)) < 0) {
+                    pos++;
+                }
+                if (pos == start) {
+                    throw syntaxError("Unexpected character");
+                }
+                return;
+            }
+
+            // Skips an object or array by counting brackets outside of strings.
+            int depth = 0;
+            while (pos < json.length()) {
+                final char c = json.charAt(pos++);
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+            }
+            throw syntaxError("Unterminated " + (first == '{' ? "object" : "array"));
+        }
+
+        private void skipString() throws JSONException {
+            while (pos < json.length()) {
+                final char c = json.charAt(pos++);
+                if (c == '"') {
+                    return;
+                }
+                if (c == '\\') {
+                    pos++;
+                }
+            }
+            throw syntaxError("Unterminated string");
+        }
+
+        private void expect(final char expected) throws JSONException {
+            if (next() != expected) {
+                throw syntaxError("Expected '" + expected + "'");
+            }
+        }
+
+        /**
+         * Returns the next character other than whitespace without consuming it, or 0 at the end.
+         */
+        private char peek() {
+            skipWhitespace();
+            return pos < json.length() ? json.charAt(pos) : 0;
+        }
+
+        private char next() throws JSONException {
+            final char c = peek();
+            if (c == 0 && pos >= json.length()) {
+                throw syntaxError("End of input");
+            }
+            pos++;
+            return c;
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length()) {
+                final char c = json.charAt(pos);
+                if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        @NonNull
+        private JSONException syntaxError(@NonNull final String message) {
+            return new JSONException(message + " at character " + pos + " of the message");
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatches tasks to a single-threaded executor instead of Android's main looper.
+ * The executor's thread plays the role of the main thread,
+ * so that the bridge can run on a plain JVM in unit tests and benchmarks.
+ */
+public final class ExecutorDispatcher implements Dispatcher {
+    @NonNull
+    private final ScheduledExecutorService executor;
+    @NonNull
+    private final ThreadLocal<Boolean> dispatching = new ThreadLocal<>();
+
+    /**
+     * Creates a dispatcher with its own thread.
+     */
+    public ExecutorDispatcher() {
+        this(Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kamome-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Creates a dispatcher with given executor.
+     * The executor should run tasks one at a time in order.
+     *
+     * @param executor An executor.
+     */
+    public ExecutorDispatcher(@NonNull final ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public boolean isMainThread() {
+        return dispatching.get() != null;
+    }
+
+    @Override
+    public void post(@NonNull final Runnable task) {
+        executor.execute(wrap(task));
+    }
+
+    @Override
+    public void postDelayed(@NonNull final Runnable task, final long delayMillis) {
+        executor.schedule(wrap(task), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void runOnMainThread(@NonNull final Runnable task) {
+        if (isMainThread()) {
+            task.run();
+        } else {
+            post(task);
+        }
+    }
+
+    /**
+     * Shuts down the executor.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @NonNull
+    private Runnable wrap(@NonNull final Runnable task) {
+        return () -> {
+            dispatching.set(Boolean.TRUE);
+            try {
+                task.run();
+            } finally {
+                dispatching.remove();
+            }
+        };
+    }
+}
@@ -0,0 +1,65 @@
+package jp.hituzi.kamome;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values, e.g., nanoseconds or lengths.
+ * Each power of two is split into 4 buckets, so that a percentile is within 25% of the recorded value.
+ * Recording a value doesn't allocate.
+ */
+final class Histogram {
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = SUB_BUCKETS + 62 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(final long value) {
+        final long v = Math.max(0, value);
+        buckets.incrementAndGet(indexOf(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long current;
+        while ((current = max.get()) < v) {
+            if (max.compareAndSet(current, v)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot. The snapshot is consistent enough for telemetry while values are recorded concurrently.
+     */
+    BridgeMetrics.Distribution snapshot() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new BridgeMetrics.Distribution(count.get(), sum.get(), max.get(), counts);
+    }
+
+    static int indexOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - 2) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the largest value of a bucket.
+     */
+    static long upperBoundOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + 2;
+        final long sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        final long next = (SUB_BUCKETS + sub + 1) << (exponent - 2);
+        return next > 0 ? next - 1 : Long.MAX_VALUE;
+    }
+}
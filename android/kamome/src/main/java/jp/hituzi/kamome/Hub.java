@@ -0,0 +1,160 @@
+package jp.hituzi.kamome;
+
+import android.util.Log;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A hub of clients of several WebViews, e.g., tabs, a pre-rendered page and hidden workers.
+ * The commands of the hub are registered once and shared by all clients, and never change.
+ * Each client still has its own ready state and queue, and can add its own commands, which take precedence.
+ */
+public final class Hub {
+    @NonNull
+    private static final String TAG = "Kamome";
+
+    @NonNull
+    private final Map<String, Command> commands;
+    @NonNull
+    private final Dispatcher dispatcher;
+    @NonNull
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    @NonNull
+    private volatile PayloadCodec codec = PayloadCodec.ORG_JSON;
+
+    /**
+     * Creates a hub sharing given commands.
+     *
+     * @param commands Commands called by the JavaScript code of every WebView.
+     */
+    public Hub(@NonNull final Collection<Command> commands) {
+        this(commands, MainThreadDispatcher.getInstance());
+    }
+
+    /**
+     * Creates a hub sharing given commands, running the bridges on given dispatcher.
+     *
+     * @param commands   Commands called by the JavaScript code of every WebView.
+     * @param dispatcher A dispatcher running the tasks of the bridges on its main thread.
+     */
+    public Hub(@NonNull final Collection<Command> commands, @NonNull final Dispatcher dispatcher) {
+        final Map<String, Command> map = new HashMap<>();
+        for (Command command : commands) {
+            map.put(command.getName(), command);
+        }
+        this.commands = Collections.unmodifiableMap(map);
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Sets a codec encoding broadcast data, and the codec of clients attached after this call.
+     * Default is {@link PayloadCodec#ORG_JSON}.
+     *
+     * @param codec A codec.
+     * @return Self.
+     */
+    @NonNull
+    public Hub setPayloadCodec(@NonNull final PayloadCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * Attaches a WebView. Its client shares the commands of this hub without registering them again.
+     *
+     * @param webView A WebView.
+     * @return The client of the WebView.
+     */
+    @NonNull
+    public Client attach(@NonNull final WebView webView) {
+        return attach(new Client(webView, dispatcher, commands));
+    }
+
+    /**
+     * Detaches a client. It no longer receives broadcasts, but keeps working with its WebView.
+     *
+     * @param client A client attached to this hub.
+     * @return false if the client isn't attached.
+     */
+    public boolean detach(@NonNull final Client client) {
+        return clients.remove(client);
+    }
+
+    /**
+     * Returns the attached clients.
+     */
+    @NonNull
+    public List<Client> getClients() {
+        return Collections.unmodifiableList(clients);
+    }
+
+    /**
+     * Broadcasts an event to the JavaScript subscribers of all ready WebViews.
+     *
+     * @param eventName An event name.
+     * @return The number of WebViews the event is sent to.
+     */
+    public int broadcast(@NonNull final String eventName) {
+        return broadcast(null, eventName, null);
+    }
+
+    /**
+     * Broadcasts an event with a data encoded by the payload codec to the JavaScript subscribers of all ready WebViews.
+     * The data is encoded once, and so is the message for each kind of transport.
+     * WebViews not ready yet don't receive the event.
+     *
+     * @param data      A data, e.g., a JSONObject, a Map or a Collection.
+     * @param eventName An event name.
+     * @param options   Options of the event. Its priority is used.
+     * @return The number of WebViews the event is sent to.
+     */
+    public int broadcast(@Nullable final Object data, @NonNull final String eventName, @Nullable final SendOptions options) {
+        final String json;
+        try {
+            json = data != null ? encode(data) : null;
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to encode the data.", e);
+            return 0;
+        }
+
+        final Broadcast broadcast = new Broadcast(eventName, json,
+                options != null ? options.getPriority() : SendOptions.Priority.NORMAL);
+        int count = 0;
+        for (Client client : clients) {
+            if (client.broadcast(broadcast)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @NonNull
+    Client attach(@NonNull final Messenger.Evaluator evaluator) {
+        return attach(new Client(evaluator, null, dispatcher, commands));
+    }
+
+    @NonNull
+    private Client attach(@NonNull final Client client) {
+        client.setPayloadCodec(codec);
+        clients.add(client);
+        return client;
+    }
+
+    @NonNull
+    private String encode(@NonNull final Object data) throws JSONException {
+        final StringBuilder sb = new StringBuilder();
+        codec.encode(data, sb);
+        return Bytes.escape(sb.toString());
+    }
+}
@@ -0,0 +1,116 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reassembles messages the JavaScript library sent in chunks.
+ * Each chunk is acknowledged, so that the JavaScript library sends the next chunks of its window.
+ * A stream whose next chunk doesn't arrive within the idle timeout is dropped, e.g., after the page navigated away.
+ */
+final class InboundStreams {
+    /**
+     * The time a stream waits for its next chunk before it's dropped.
+     */
+    static final long IDLE_TIMEOUT_MILLIS = 30000;
+
+    interface Listener {
+        /**
+         * Called with the number of chunks of a stream received so far.
+         */
+        void onAck(@NonNull String streamId, int received);
+
+        /**
+         * Called with the whole message after its last chunk.
+         */
+        void onMessage(@NonNull String message);
+    }
+
+    @NonNull
+    private final ConcurrentMap<String, Stream> streams = new ConcurrentHashMap<>();
+    @NonNull
+    private final Listener listener;
+    @NonNull
+    private final TimingWheel timingWheel;
+
+    InboundStreams(@NonNull final Listener listener, @NonNull final TimingWheel timingWheel) {
+        this.listener = listener;
+        this.timingWheel = timingWheel;
+    }
+
+    void append(@NonNull final String streamId, @NonNull final String chunk, final boolean last) {
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            final Stream created = new Stream();
+            stream = streams.putIfAbsent(streamId, created);
+            if (stream == null) {
+                stream = created;
+            }
+        }
+
+        final int received;
+        synchronized (stream) {
+            if (stream.dropped) {
+                return;
+            }
+            stream.text.append(chunk);
+            received = ++stream.received;
+            if (stream.idleTimeout != null) {
+                timingWheel.cancel(stream.idleTimeout);
+                stream.idleTimeout = null;
+            }
+            if (last) {
+                stream.dropped = true;
+            } else {
+                final Stream idle = stream;
+                stream.idleTimeout = timingWheel.schedule(() -> drop(streamId, idle), IDLE_TIMEOUT_MILLIS);
+            }
+        }
+
+        if (last) {
+            streams.remove(streamId, stream);
+            listener.onMessage(stream.text.toString());
+        } else {
+            listener.onAck(streamId, received);
+        }
+    }
+
+    /**
+     * Drops all streams, e.g., because the page was reloaded and never sends their remaining chunks.
+     */
+    void clear() {
+        for (String streamId : streams.keySet()) {
+            final Stream stream = streams.get(streamId);
+            if (stream != null) {
+                drop(streamId, stream);
+            }
+        }
+    }
+
+    int size() {
+        return streams.size();
+    }
+
+    private void drop(@NonNull final String streamId, @NonNull final Stream stream) {
+        synchronized (stream) {
+            stream.dropped = true;
+            if (stream.idleTimeout != null) {
+                timingWheel.cancel(stream.idleTimeout);
+                stream.idleTimeout = null;
+            }
+        }
+        streams.remove(streamId, stream);
+    }
+
+    private static final class Stream {
+        @NonNull
+        final StringBuilder text = new StringBuilder();
+        int received;
+        boolean dropped;
+        @Nullable
+        TimingWheel.Timeout idleTimeout;
+    }
+}
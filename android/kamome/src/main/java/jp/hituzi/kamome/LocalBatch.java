@@ -0,0 +1,248 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A batch of commands executed by the native code, whose results are returned together.
+ * The data and the results are passed as is like {@link Client#execute(String, Object, Class, LocalCompletion.TypedCallback)}.
+ *
+ * @see Client#executeAll(LocalBatch, Callback)
+ */
+public final class LocalBatch {
+    public interface Callback {
+        /**
+         * Calls when all commands of the batch are processed, on the thread completing the last one.
+         *
+         * @param results Results in the order the commands were added.
+         */
+        void onCompleted(@NonNull List<Result> results);
+    }
+
+    /**
+     * A result of a command of a batch.
+     */
+    public static final class Result {
+        @NonNull
+        private final String commandName;
+        @Nullable
+        private final Object result;
+        @Nullable
+        private final String errorMessage;
+
+        Result(@NonNull final String commandName, @Nullable final Object result, @Nullable final String errorMessage) {
+            this.commandName = commandName;
+            this.result = result;
+            this.errorMessage = errorMessage;
+        }
+
+        @NonNull
+        public String getCommandName() {
+            return commandName;
+        }
+
+        public boolean isResolved() {
+            return errorMessage == null;
+        }
+
+        /**
+         * Returns the result resolved by the handler as is, or null if the command is rejected.
+         */
+        @Nullable
+        public Object getResult() {
+            return result;
+        }
+
+        /**
+         * Returns the error message, or null if the command is resolved.
+         */
+        @Nullable
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+    }
+
+    interface Starter {
+        void start(@NonNull String commandName, @Nullable Object data, @NonNull LocalCompletion completion);
+    }
+
+    private static final class Request {
+        @NonNull
+        final String commandName;
+        @Nullable
+        final Object data;
+
+        Request(@NonNull final String commandName, @Nullable final Object data) {
+            this.commandName = commandName;
+            this.data = data;
+        }
+    }
+
+    @NonNull
+    private final List<Request> requests = new ArrayList<>();
+    private boolean parallel;
+
+    /**
+     * Adds a command without a data.
+     *
+     * @param commandName A command name.
+     * @return Self.
+     */
+    @NonNull
+    public LocalBatch add(@NonNull final String commandName) {
+        return add(commandName, null);
+    }
+
+    /**
+     * Adds a command with a data.
+     *
+     * @param commandName A command name.
+     * @param data        A data, e.g., a Map or an object of your data class.
+     * @return Self.
+     */
+    @NonNull
+    public LocalBatch add(@NonNull final String commandName, @Nullable final Object data) {
+        synchronized (requests) {
+            requests.add(new Request(commandName, data));
+        }
+        return this;
+    }
+
+    public int size() {
+        synchronized (requests) {
+            return requests.size();
+        }
+    }
+
+    public boolean isParallel() {
+        synchronized (requests) {
+            return parallel;
+        }
+    }
+
+    /**
+     * Sets whether the commands run in parallel. If false, each command starts after the previous one completes.
+     * If true, all commands start at once on the background pool, and then run on their own executors,
+     * so that handlers running on {@link CommandExecutor#BRIDGE} run in parallel too. Default is false.
+     *
+     * @param parallel true to run the commands in parallel.
+     * @return Self.
+     */
+    @NonNull
+    public LocalBatch setParallel(final boolean parallel) {
+        synchronized (requests) {
+            this.parallel = parallel;
+        }
+        return this;
+    }
+
+    /**
+     * Runs the commands added by now. The batch can be run again, or added more commands from any thread while running,
+     * because a run takes a copy of the commands under the lock guarding them.
+     */
+    void run(@NonNull final Starter starter, @NonNull final CommandExecutor.Scope scope, @NonNull final Callback callback) {
+        final Request[] snapshot;
+        final boolean parallel;
+        synchronized (requests) {
+            snapshot = requests.toArray(new Request[0]);
+            parallel = this.parallel;
+        }
+        final Run run = new Run(snapshot, starter, callback);
+        if (!parallel) {
+            run.signal();
+            return;
+        }
+        if (snapshot.length == 0) {
+            run.finish();
+            return;
+        }
+        for (int i = 0; i < snapshot.length; i++) {
+            final int index = i;
+            CommandExecutor.background().execute(scope, null, () -> run.start(index, false));
+        }
+    }
+
+    private static final class Run {
+        @NonNull
+        private final Request[] requests;
+        @NonNull
+        private final Starter starter;
+        @NonNull
+        private final Callback callback;
+        @NonNull
+        private final Result[] results;
+        @NonNull
+        private final AtomicInteger remaining;
+        /**
+         * The number of completions not drained yet in sequence. Only the thread raising it from 0 drains,
+         * so that handlers completing synchronously don't nest the next command on the stack.
+         */
+        @NonNull
+        private final AtomicInteger pending = new AtomicInteger();
+        private int next;
+
+        Run(@NonNull final Request[] requests, @NonNull final Starter starter, @NonNull final Callback callback) {
+            this.requests = requests;
+            this.starter = starter;
+            this.callback = callback;
+            results = new Result[requests.length];
+            remaining = new AtomicInteger(requests.length);
+        }
+
+        /**
+         * Starts the next command in sequence, or finishes after the last one.
+         */
+        void signal() {
+            if (pending.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                if (next < requests.length) {
+                    start(next++, true);
+                } else {
+                    finish();
+                }
+            } while (pending.decrementAndGet() != 0);
+        }
+
+        void start(final int index, final boolean sequential) {
+            final Request request = requests[index];
+            final LocalCompletion completion = new LocalCompletion(new LocalCompletion.Callback() {
+                @Override
+                public void onResolved(@Nullable final Object result) {
+                    complete(index, new Result(request.commandName, result, null), sequential);
+                }
+
+                @Override
+                public void onRejected(@NonNull final String errorMessage) {
+                    complete(index, new Result(request.commandName, null, errorMessage), sequential);
+                }
+            }, true);
+            try {
+                starter.start(request.commandName, request.data, completion);
+            } catch (RuntimeException e) {
+                // Otherwise, the batch would never complete.
+                completion.reject(e.getMessage());
+            }
+        }
+
+        private void complete(final int index, @NonNull final Result result, final boolean sequential) {
+            results[index] = result;
+            if (sequential) {
+                signal();
+            } else if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        void finish() {
+            callback.onCompleted(Collections.unmodifiableList(Arrays.asList(results)));
+        }
+    }
+}
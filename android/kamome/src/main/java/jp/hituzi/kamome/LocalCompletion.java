@@ -4,8 +4,13 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Map;
 
@@ -14,7 +19,7 @@ public final class LocalCompletion implements Completable {
         /**
          * Calls when a command is processed successfully.
          *
-         * @param result A result as JSONObject or JSONArray.
+         * @param result A result as JSONObject, JSONArray, byte[], or an object resolved by {@link LocalCompletion#resolve(Object)} as is.
          */
         void onResolved(@Nullable Object result);
 
@@ -26,12 +31,97 @@ public final class LocalCompletion implements Completable {
         void onRejected(@NonNull String errorMessage);
     }
 
+    /**
+     * A callback also receiving partial results before the final result.
+     */
+    public interface ProgressCallback extends Callback {
+        /**
+         * Calls when a command sends a partial result.
+         *
+         * @param data A partial result as is.
+         */
+        void onProgress(@Nullable Object data);
+    }
+
+    /**
+     * A callback receiving the result as an object of its type.
+     */
+    public interface TypedCallback<T> {
+        /**
+         * Calls when a command is processed successfully.
+         *
+         * @param result A result resolved by the handler as is if it is of the type, or otherwise converted by the payload codec.
+         */
+        void onResolved(@Nullable T result);
+
+        /**
+         * Calls when a command is processed incorrectly, or its result can't be converted to the type.
+         *
+         * @param errorMessage An error message.
+         */
+        void onRejected(@NonNull String errorMessage);
+    }
+
     @Nullable
     private final Callback callback;
+    /**
+     * Whether a Map or a Collection is passed to the callback as is instead of being wrapped in a JSONObject or a JSONArray.
+     */
+    private final boolean asIs;
     private boolean completed;
 
     LocalCompletion(@Nullable final Callback callback) {
+        this(callback, false);
+    }
+
+    LocalCompletion(@Nullable final Callback callback, final boolean asIs) {
         this.callback = callback;
+        this.asIs = asIs;
+    }
+
+    /**
+     * Adapts a typed callback, converting a result of another type by a codec.
+     */
+    @Nullable
+    static <T> Callback typed(@Nullable final TypedCallback<T> callback,
+                              @NonNull final Class<T> resultType,
+                              @NonNull final PayloadCodec codec) {
+        if (callback == null) {
+            return null;
+        }
+        return new Callback() {
+            @Override
+            public void onResolved(@Nullable final Object result) {
+                final T value;
+                try {
+                    value = convert(result, resultType, codec);
+                } catch (JSONException e) {
+                    callback.onRejected("Failed to decode the result.");
+                    return;
+                }
+                callback.onResolved(value);
+            }
+
+            @Override
+            public void onRejected(@NonNull final String errorMessage) {
+                callback.onRejected(errorMessage);
+            }
+        };
+    }
+
+    @Nullable
+    private static <T> T convert(@Nullable final Object result,
+                                 @NonNull final Class<T> type,
+                                 @NonNull final PayloadCodec codec) throws JSONException {
+        if (result == null || type.isInstance(result)) {
+            return type.cast(result);
+        }
+        if (result instanceof byte[]) {
+            return codec.decode(Bytes.toJson((byte[]) result), type);
+        }
+        final StringBuilder sb = new StringBuilder();
+        codec.encode(result, sb);
+        return codec.decode(sb.toString(), type);
     }
 
     @Override
@@ -39,6 +129,24 @@ public final class LocalCompletion implements Completable {
         return completed;
     }
 
+    /**
+     * A command executed by the native code is never cancelled.
+     */
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public void setCancelListener(@Nullable final CancelListener listener) {
+        // Nothing to do.
+    }
+
+    @Override
+    public long getRemainingMillis() {
+        return Long.MAX_VALUE;
+    }
+
     @Override
     public void resolve() {
         resolve((JSONObject) null);
@@ -46,7 +154,9 @@ public final class LocalCompletion implements Completable {
 
     @Override
     public void resolve(@Nullable final Map data) {
-        if (data == null) {
+        if (asIs) {
+            resolve((Object) data);
+        } else if (data == null) {
             resolve((JSONObject) null);
         } else {
             try {
@@ -72,7 +182,9 @@ public final class LocalCompletion implements Completable {
 
     @Override
     public void resolve(@Nullable final Collection data) {
-        if (data == null) {
+        if (asIs) {
+            resolve((Object) data);
+        } else if (data == null) {
             resolve((JSONArray) null);
         } else {
             resolve(new JSONArray(data));
@@ -92,6 +204,81 @@ public final class LocalCompletion implements Completable {
         }
     }
 
+    /**
+     * Passes a data to the callback as is without encoding it.
+     */
+    @Override
+    public void resolve(@Nullable final Object data) {
+        if (completed) {
+            return;
+        }
+
+        completed = true;
+
+        if (callback != null) {
+            callback.onResolved(data);
+        }
+    }
+
+    @Override
+    public void resolve(@Nullable final byte[] data) {
+        if (completed) {
+            return;
+        }
+
+        completed = true;
+
+        if (callback != null) {
+            callback.onResolved(data);
+        }
+    }
+
+    @Override
+    public void resolve(@Nullable final ByteBuffer data) {
+        if (data == null) {
+            resolve((byte[]) null);
+        } else {
+            final byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            resolve(bytes);
+        }
+    }
+
+    @Override
+    public void resolveStream(@NonNull final Reader json) {
+        if (completed) {
+            return;
+        }
+
+        final Object result;
+        try {
+            final StringBuilder text = new StringBuilder();
+            final char[] buffer = new char[8192];
+            int n;
+            while ((n = json.read(buffer)) >= 0) {
+                text.append(buffer, 0, n);
+            }
+            json.close();
+            result = new JSONTokener(text.toString()).nextValue();
+        } catch (IOException | JSONException e) {
+            reject("Failed to read the stream.");
+            return;
+        }
+
+        completed = true;
+
+        if (callback != null) {
+            callback.onResolved(result != JSONObject.NULL ? result : null);
+        }
+    }
+
+    @Override
+    public void progress(@Nullable final Object data) {
+        if (!completed && callback instanceof ProgressCallback) {
+            ((ProgressCallback) callback).onProgress(data);
+        }
+    }
+
     @Override
     public void reject() {
         reject(null);
@@ -0,0 +1,51 @@
+package jp.hituzi.kamome;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Dispatches tasks to Android's main looper through one cached handler.
+ */
+public final class MainThreadDispatcher implements Dispatcher {
+    private static final class Holder {
+        @NonNull
+        static final MainThreadDispatcher INSTANCE = new MainThreadDispatcher();
+    }
+
+    @NonNull
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private MainThreadDispatcher() {
+    }
+
+    @NonNull
+    public static MainThreadDispatcher getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    @Override
+    public boolean isMainThread() {
+        return handler.getLooper().getThread() == Thread.currentThread();
+    }
+
+    @Override
+    public void post(@NonNull final Runnable task) {
+        handler.post(task);
+    }
+
+    @Override
+    public void postDelayed(@NonNull final Runnable task, final long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void runOnMainThread(@NonNull final Runnable task) {
+        if (isMainThread()) {
+            task.run();
+        } else {
+            handler.post(task);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps spans in memory, e.g., to check the stages of requests in tests.
+ */
+public final class MemoryTracer implements Tracer {
+    /**
+     * An ended span.
+     */
+    public static final class Span {
+        @NonNull
+        private final Stage stage;
+        @NonNull
+        private final String commandName;
+        @NonNull
+        private final String requestId;
+        private final long startNanos;
+        private final long endNanos;
+
+        Span(@NonNull final Stage stage,
+             @NonNull final String commandName,
+             @NonNull final String requestId,
+             final long startNanos,
+             final long endNanos) {
+            this.stage = stage;
+            this.commandName = commandName;
+            this.requestId = requestId;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+
+        @NonNull
+        public Stage getStage() {
+            return stage;
+        }
+
+        @NonNull
+        public String getCommandName() {
+            return commandName;
+        }
+
+        @NonNull
+        public String getRequestId() {
+            return requestId;
+        }
+
+        /**
+         * The time the span began, by System.nanoTime().
+         */
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getEndNanos() {
+            return endNanos;
+        }
+
+        public long getDurationNanos() {
+            return endNanos - startNanos;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return stage + " " + commandName + " " + requestId;
+        }
+    }
+
+    @NonNull
+    private final Map<String, Long> started = new HashMap<>();
+    @NonNull
+    private final List<Span> spans = new ArrayList<>();
+
+    @Override
+    public synchronized void beginSpan(@NonNull final Stage stage, @NonNull final String commandName, @NonNull final String requestId) {
+        started.put(stage + "\n" + requestId, System.nanoTime());
+    }
+
+    @Override
+    public synchronized void endSpan(@NonNull final Stage stage, @NonNull final String commandName, @NonNull final String requestId) {
+        final Long start = started.remove(stage + "\n" + requestId);
+        if (start != null) {
+            spans.add(new Span(stage, commandName, requestId, start, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Returns ended spans in the order they ended.
+     */
+    @NonNull
+    public synchronized List<Span> getSpans() {
+        return new ArrayList<>(spans);
+    }
+
+    public synchronized void clear() {
+        started.clear();
+        spans.clear();
+    }
+}
@@ -0,0 +1,222 @@
+package jp.hituzi.kamome;
+
+import android.net.Uri;
+import android.os.Build;
+import android.webkit.WebMessage;
+import android.webkit.WebMessagePort;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The transport posting messages through a {@link WebMessagePort} channel.
+ * Messages are posted as JSON, so the JavaScript library doesn't compile a new script for each message.
+ */
+final class MessagePortTransport extends Transport {
+    /**
+     * One end of a message channel.
+     */
+    interface Port {
+        void postMessage(@NonNull String message);
+
+        void close();
+    }
+
+    /**
+     * Opens a message channel to the JavaScript library.
+     */
+    interface Opener {
+        /**
+         * Opens a channel, hands one end to the web page of given origin, and returns a transport on the other end.
+         * [NOTE] This method is called on the main thread.
+         *
+         * @param receiver A receiver of messages posted by the JavaScript library.
+         * @param origin   The origin of the page that performed the handshake.
+         * @return A transport, or null if the page in the WebView is no longer of the origin.
+         */
+        @Nullable
+        MessagePortTransport open(@NonNull Transport.Receiver receiver, @NonNull String origin);
+    }
+
+    @NonNull
+    static final String NAME = "messagePort";
+    /**
+     * The message carrying the port of the web page.
+     */
+    @NonNull
+    static final String PORT_MESSAGE = "_kamomePort";
+
+    @NonNull
+    private final Port port;
+
+    MessagePortTransport(@NonNull final Port port) {
+        this.port = port;
+    }
+
+    /**
+     * Returns an opener of a channel to the web page in given WebView,
+     * or null if the WebView doesn't support message channels.
+     */
+    @Nullable
+    static Opener openerOf(@NonNull final WebView webView) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return (receiver, origin) -> open(webView, receiver, origin);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the origin of a URL, e.g., "https://example.com:8080", or null if the origin is opaque, e.g., of a file or data URL.
+     * A port handed to an opaque origin could reach any page, so such a page keeps the bridge.
+     */
+    @Nullable
+    static String originOf(@Nullable final String url) {
+        if (url == null) {
+            return null;
+        }
+        final URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        final String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase(Locale.US) : null;
+        final String host = uri.getHost();
+        if (host == null || !("http".equals(scheme) || "https".equals(scheme))) {
+            return null;
+        }
+        final int port = uri.getPort();
+        final boolean defaultPort = port == -1 || ("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443);
+        return scheme + "://" + host.toLowerCase(Locale.US) + (defaultPort ? "" : ":" + port);
+    }
+
+    @RequiresApi(Build.VERSION_CODES.M)
+    @Nullable
+    private static MessagePortTransport open(@NonNull final WebView webView,
+                                             @NonNull final Transport.Receiver receiver,
+                                             @NonNull final String origin) {
+        if (!origin.equals(originOf(webView.getUrl()))) {
+            // The page navigated away after the handshake.
+            return null;
+        }
+
+        final WebMessagePort[] ports = webView.createWebMessageChannel();
+        final WebMessagePort nativePort = ports[0];
+        nativePort.setWebMessageCallback(new WebMessagePort.WebMessageCallback() {
+            @Override
+            public void onMessage(WebMessagePort port, WebMessage message) {
+                final String data = message.getData();
+                if (data != null) {
+                    receiver.onReceive(data);
+                }
+            }
+        });
+        webView.postWebMessage(new WebMessage(PORT_MESSAGE, new WebMessagePort[]{ports[1]}), Uri.parse(origin));
+
+        return new MessagePortTransport(new Port() {
+            @Override
+            public void postMessage(@NonNull final String message) {
+                nativePort.postMessage(new WebMessage(message));
+            }
+
+            @Override
+            public void close() {
+                nativePort.close();
+            }
+        });
+    }
+
+    @NonNull
+    @Override
+    String getName() {
+        return NAME;
+    }
+
+    @NonNull
+    @Override
+    String encodeComplete(@Nullable final Object data, @NonNull final String requestId) {
+        return "{\"type\":\"complete\",\"id\":" + JSONObject.quote(requestId) + dataOf(data) + "}";
+    }
+
+    @NonNull
+    @Override
+    String encodeProgress(@Nullable final Object data, @NonNull final String requestId) {
+        return "{\"type\":\"progress\",\"id\":" + JSONObject.quote(requestId) + dataOf(data) + "}";
+    }
+
+    @NonNull
+    @Override
+    String encodeError(@Nullable final String error, @NonNull final String requestId) {
+        return "{\"type\":\"error\",\"id\":" + JSONObject.quote(requestId)
+                + ",\"error\":" + (error != null ? JSONObject.quote(error) : "null") + "}";
+    }
+
+    @NonNull
+    @Override
+    String encodeReceive(@NonNull final String name, @Nullable final Object data, @NonNull final String callbackId) {
+        return "{\"type\":\"receive\",\"name\":" + JSONObject.quote(name) + dataOf(data)
+                + ",\"callbackId\":" + JSONObject.quote(callbackId) + "}";
+    }
+
+    @NonNull
+    @Override
+    String encodeEvent(@NonNull final String name, @Nullable final Object data) {
+        return "{\"type\":\"event\",\"name\":" + JSONObject.quote(name) + dataOf(data) + "}";
+    }
+
+    @NonNull
+    @Override
+    String encodeTrace(@NonNull final String requestId, @NonNull final String trace) {
+        return "{\"type\":\"trace\",\"id\":" + JSONObject.quote(requestId) + ",\"trace\":" + trace + "}";
+    }
+
+    @NonNull
+    @Override
+    String encodeChunk(@NonNull final String streamId, @NonNull final String chunk) {
+        return "{\"type\":\"chunk\",\"stream\":" + JSONObject.quote(streamId) + ",\"chunk\":" + JSONObject.quote(chunk) + "}";
+    }
+
+    @NonNull
+    @Override
+    String encodeChunkAck(@NonNull final String streamId, final int received) {
+        return "{\"type\":\"chunkAck\",\"stream\":" + JSONObject.quote(streamId) + ",\"received\":" + received + "}";
+    }
+
+    @Override
+    void deliver(@NonNull final List<String> messages) {
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(messages.get(i));
+        }
+        json.append(']');
+        port.postMessage(json.toString());
+    }
+
+    @Override
+    void close() {
+        port.close();
+    }
+
+    /**
+     * Encodes the data member, or the stream member referring to a payload sent in chunks.
+     */
+    @NonNull
+    private static String dataOf(@Nullable final Object data) {
+        if (data instanceof StreamRef) {
+            return ",\"stream\":" + JSONObject.quote(((StreamRef) data).id);
+        }
+        return ",\"data\":" + data;
+    }
+}
@@ -1,58 +1,480 @@
 package jp.hituzi.kamome;
 
-import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
-import android.webkit.ValueCallback;
-import android.webkit.WebView;
+import android.view.Choreographer;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 final class Messenger {
+    /**
+     * Evaluates a script in the WebView.
+     */
+    interface Evaluator {
+        void evaluate(@NonNull String js);
+    }
+
+    /**
+     * Schedules a flush of pending messages on the main thread.
+     */
+    interface FlushScheduler {
+        void schedule(@NonNull Runnable flush);
+    }
+
+    /**
+     * Called when the JSON text of a payload sent in chunks failed to be read.
+     */
+    interface StreamErrorHandler {
+        void onError(@NonNull IOException e);
+    }
+
+    /**
+     * The default maximum length of messages delivered at once.
+     */
+    static final int DEFAULT_MAX_BATCH_LENGTH = 256 * 1024;
+    /**
+     * The default length of a chunk. A payload longer than this length is sent in chunks.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    /**
+     * The default maximum number of chunks of a payload in flight.
+     */
+    static final int DEFAULT_CHUNK_WINDOW = 4;
+    /**
+     * Each waiting lane below another lane is reserved 1/8 of the maximum flush length, so that it is never starved.
+     */
+    private static final int LOWER_LANE_SHARE = 8;
+
+    @NonNull
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    @NonNull
+    private final Object lock = new Object();
+    @NonNull
+    private volatile Transport transport;
+    @NonNull
+    private volatile FlushScheduler flushScheduler;
+    private volatile int maxBatchLength = DEFAULT_MAX_BATCH_LENGTH;
+    /**
+     * Pending messages per priority, the highest first.
+     */
+    @NonNull
+    private final List<List<Pending>> lanes = new ArrayList<>();
+    private volatile int maxFlushLength = Integer.MAX_VALUE;
+    @NonNull
+    private List<Runnable> afterFlushTasks = new ArrayList<>();
+    private boolean flushScheduled;
+    @NonNull
+    private final Runnable flushTask = this::flush;
+    private volatile boolean chunkingEnabled;
+    private volatile boolean eventsEnabled;
+    private volatile boolean progressEnabled;
+    private volatile boolean binaryEnabled;
+    private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile int chunkWindow = DEFAULT_CHUNK_WINDOW;
     @NonNull
-    private static final String jsObj = "window.KM";
+    private volatile PayloadCodec codec = PayloadCodec.ORG_JSON;
+    @NonNull
+    private final ConcurrentMap<String, OutboundStream> streams = new ConcurrentHashMap<>();
+    @NonNull
+    private final AtomicLong streamSequence = new AtomicLong();
+    @Nullable
+    private volatile TimingWheel timingWheel;
+
+    Messenger(@NonNull final Evaluator evaluator, @NonNull final FlushScheduler flushScheduler) {
+        this(new BridgeTransport(evaluator), flushScheduler);
+    }
+
+    Messenger(@NonNull final Transport transport, @NonNull final FlushScheduler flushScheduler) {
+        this.transport = transport;
+        this.flushScheduler = flushScheduler;
+        for (int i = 0; i < SendOptions.Priority.values().length; i++) {
+            lanes.add(new ArrayList<Pending>());
+        }
+    }
+
+    /**
+     * Flushes pending messages once per main looper turn.
+     */
+    @NonNull
+    static FlushScheduler looperTurn(@NonNull final Dispatcher dispatcher) {
+        return dispatcher::post;
+    }
+
+    /**
+     * Flushes pending messages once per frame.
+     */
+    @NonNull
+    static FlushScheduler perFrame(@NonNull final Dispatcher dispatcher) {
+        // The Choreographer must be obtained on the main thread.
+        return flush -> dispatcher.runOnMainThread(() ->
+                Choreographer.getInstance().postFrameCallback(frameTimeNanos -> flush.run()));
+    }
+
+    @NonNull
+    Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Switches the transport. Messages queued before the switch are delivered through the previous transport.
+     */
+    void setTransport(@NonNull final Transport transport) {
+        this.transport = transport;
+    }
+
+    void setFlushScheduler(@NonNull final FlushScheduler flushScheduler) {
+        this.flushScheduler = flushScheduler;
+    }
+
+    /**
+     * Sets the maximum length of messages delivered at once.
+     * Pending messages exceeding this length are split into several deliveries.
+     * A single message longer than this length is delivered alone.
+     */
+    void setMaxBatchLength(final int maxBatchLength) {
+        this.maxBatchLength = Math.max(1, maxBatchLength);
+    }
+
+    /**
+     * Enables sending events without a callback ID. The JavaScript library tells whether it supports events in the handshake.
+     */
+    void setEventsEnabled(final boolean enabled) {
+        this.eventsEnabled = enabled;
+    }
+
+    /**
+     * Enables sending partial results of requests. The JavaScript library tells whether it supports them in the handshake.
+     */
+    void setProgressEnabled(final boolean enabled) {
+        this.progressEnabled = enabled;
+    }
+
+    /**
+     * Enables tagging binary data and objects having the reserved key of {@link Bytes}.
+     * The JavaScript library tells whether it supports them in the handshake.
+     * Otherwise, payloads are sent untagged, and binary data arrives as an object of Base64.
+     */
+    void setBinaryEnabled(final boolean enabled) {
+        this.binaryEnabled = enabled;
+    }
+
+    boolean isBinaryEnabled() {
+        return binaryEnabled;
+    }
+
+    /**
+     * Sets the maximum length of messages delivered per flush. Messages beyond it wait for the next flush.
+     * Default is unlimited.
+     */
+    void setMaxFlushLength(final int maxFlushLength) {
+        this.maxFlushLength = Math.max(1, maxFlushLength);
+    }
+
+    /**
+     * Enables sending payloads in chunks. The JavaScript library tells whether it supports chunks in the handshake.
+     */
+    void setChunkingEnabled(final boolean enabled) {
+        this.chunkingEnabled = enabled;
+    }
+
+    boolean isChunkingEnabled() {
+        return chunkingEnabled;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    void setChunkSize(final int chunkSize) {
+        this.chunkSize = Math.max(2, chunkSize);
+    }
+
+    int getChunkWindow() {
+        return chunkWindow;
+    }
+
+    void setChunkWindow(final int chunkWindow) {
+        this.chunkWindow = Math.max(1, chunkWindow);
+    }
+
+    @NonNull
+    PayloadCodec getCodec() {
+        return codec;
+    }
+
+    void setCodec(@NonNull final PayloadCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Encodes a data to JSON text by the payload codec. An object having the reserved key of {@link Bytes} is tagged as a value.
+     */
+    @NonNull
+    String encode(@Nullable final Object data) throws JSONException {
+        final StringBuilder sb = new StringBuilder();
+        codec.encode(data, sb);
+        return Bytes.escape(sb.toString());
+    }
+
+    /**
+     * Returns the number of payloads being sent in chunks.
+     */
+    int getStreamCount() {
+        return streams.size();
+    }
+
+    /**
+     * Completes a request. If the data is a reader of JSON text, it is sent in chunks,
+     * so that the text is never held in memory at once.
+     *
+     * @return The length of the JSON text of the data, 0 if it is null, or -1 if it is streamed from a reader.
+     */
+    int completeMessage(@Nullable final Object data, @NonNull final String requestId) {
+        return send(data,
+                (transport, payload) -> transport.encodeComplete(payload, requestId),
+                e -> failMessage("Failed to read the stream.", requestId),
+                SendOptions.Priority.NORMAL);
+    }
+
+    /**
+     * Sends a partial result of a request before its final result. A long payload is sent in chunks.
+     * Nothing is sent if the JavaScript library doesn't support partial results.
+     *
+     * @param data The JSON text of a partial result, or null.
+     */
+    void progressMessage(@Nullable final String data, @NonNull final String requestId) {
+        if (!progressEnabled) {
+            return;
+        }
+        send(data,
+                (transport, payload) -> transport.encodeProgress(payload, requestId),
+                e -> {
+                    // Nothing to do, since the data isn't read from a reader.
+                },
+                SendOptions.Priority.NORMAL);
+    }
+
+    /**
+     * Sends the timings of a traced request. It must be sent before the result of the request.
+     */
+    void sendTrace(@NonNull final String requestId, @NonNull final String trace) {
+        final Transport transport = this.transport;
+        enqueue(transport, transport.encodeTrace(requestId, trace), SendOptions.Priority.NORMAL);
+    }
+
+    /**
+     * Runs a task on the main thread after the next flush delivered the messages queued so far,
+     * except messages left to a later flush by the maximum flush length.
+     */
+    void runAfterFlush(@NonNull final Runnable task) {
+        final boolean schedule;
+        synchronized (lock) {
+            afterFlushTasks.add(task);
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
 
-    public static void completeMessage(@NonNull final WebView webView, @Nullable final Object data, @NonNull final String requestId) {
-        final String id = escapeForJSStringLiteral(requestId);
-        if (data != null) {
-            runJavaScript(String.format("%s.onComplete(%s, '%s')", jsObj, data, id), webView);
+        if (schedule) {
+            flushScheduler.schedule(flushTask);
+        }
+    }
+
+    void failMessage(@Nullable final String error, @NonNull final String requestId) {
+        final Transport transport = this.transport;
+        enqueue(transport, transport.encodeError(error != null ? percentEncode(error) : null, requestId), SendOptions.Priority.NORMAL);
+    }
+
+    void sendRequest(@NonNull final Request request) {
+        sendRequest(request, e -> {
+            // Nothing to do.
+        });
+    }
+
+    /**
+     * Sends a request, or an event if it has no callback ID. If the data is a reader of JSON text, it is sent in chunks.
+     *
+     * @param onStreamError Called if the reader fails.
+     * @return The length of the JSON text of the data, 0 if it is null, or -1 if it is streamed from a reader.
+     */
+    int sendRequest(@NonNull final Request request, @NonNull final StreamErrorHandler onStreamError) {
+        final String callbackId = request.callbackId;
+        final OutboundStream.Encoder encoder;
+        if (callbackId != null) {
+            encoder = (transport, payload) -> transport.encodeReceive(request.name, payload, callbackId);
+        } else if (eventsEnabled) {
+            encoder = (transport, payload) -> transport.encodeEvent(request.name, payload);
         } else {
-            runJavaScript(String.format("%s.onComplete(null, '%s')", jsObj, id), webView);
+            // A JavaScript library without events receives it as a message, and its reply is ignored.
+            final String ignoredId = PendingReplies.CALLBACK_ID_PREFIX + request.name + "_event";
+            encoder = (transport, payload) -> transport.encodeReceive(request.name, payload, ignoredId);
         }
+        return send(request.data, encoder, onStreamError, request.priority);
     }
 
-    public static void failMessage(@NonNull final WebView webView, @Nullable final String error, @NonNull final String requestId) {
-        final String id = escapeForJSStringLiteral(requestId);
-        if (error != null) {
-            String errMsg;
-            try {
-                errMsg = URLEncoder.encode(error, "utf-8");
-                // The URLEncoder converts spaces to '+' and
-                // the `decodeURIComponent` function on JS decodes '%20' to spaces.
-                errMsg = errMsg.replaceAll("\\+", "%20");
-            } catch (UnsupportedEncodingException e) {
-                errMsg = error;
+    /**
+     * Sends an event encoded once for all WebViews. A data longer than a chunk is still sent in chunks of this messenger.
+     */
+    void sendBroadcast(@NonNull final Broadcast broadcast) {
+        final String json = broadcast.json;
+        if (json != null && ((chunkingEnabled && json.length() > chunkSize) || (!binaryEnabled && Bytes.isEscaped(json)))) {
+            sendRequest(new Request(broadcast.name, null, json, broadcast.priority));
+            return;
+        }
+
+        final Transport transport = this.transport;
+        enqueue(transport, broadcast.encode(transport, eventsEnabled), broadcast.priority);
+    }
+
+    /**
+     * Sends more chunks of a payload as the JavaScript library acknowledged them.
+     *
+     * @param received The number of chunks the JavaScript library received so far.
+     */
+    void onChunkAck(@NonNull final String streamId, final int received) {
+        final OutboundStream stream = streams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+
+        synchronized (stream) {
+            stream.acked = Math.max(stream.acked, received);
+        }
+        pump(stream);
+    }
+
+    /**
+     * Acknowledges chunks of a payload sent from the JavaScript library.
+     * An acknowledgment is delivered first, so that the JavaScript library never waits to send more chunks.
+     */
+    void ackChunk(@NonNull final String streamId, final int received) {
+        final Transport transport = this.transport;
+        enqueue(transport, transport.encodeChunkAck(streamId, received), SendOptions.Priority.HIGH);
+    }
+
+    /**
+     * Delivers pending messages, those of a higher priority first. Consecutive messages of the same transport
+     * are delivered in as few batches as the maximum batch length allows.
+     * If pending messages exceed the maximum flush length, the rest is left to the next flush.
+     * [NOTE] This method must be called on the main thread.
+     */
+    void flush() {
+        final List<Pending> messages;
+        final List<Runnable> tasks;
+        final boolean more;
+        synchronized (lock) {
+            messages = takePending(maxFlushLength);
+            if (afterFlushTasks.isEmpty()) {
+                tasks = Collections.<Runnable>emptyList();
+            } else {
+                tasks = afterFlushTasks;
+                afterFlushTasks = new ArrayList<>();
             }
-            runJavaScript(String.format("%s.onError('%s', '%s')", jsObj, errMsg, id), webView);
-        } else {
-            runJavaScript(String.format("%s.onError(null, '%s')", jsObj, id), webView);
+            more = hasPending();
+            flushScheduled = more;
+        }
+
+        if (more) {
+            flushScheduler.schedule(flushTask);
+        }
+        if (!messages.isEmpty()) {
+            deliver(messages);
+        }
+        for (Runnable task : tasks) {
+            task.run();
         }
     }
 
-    public static void sendRequest(@NonNull final WebView webView, @NonNull final Request request) {
-        final String name = escapeForJSStringLiteral(request.name);
-        final String callbackId = escapeForJSStringLiteral(request.callbackId);
-        if (request.data != null) {
-            runJavaScript(String.format("%s.onReceive('%s', %s, '%s')",
-                    jsObj, name, request.data, callbackId), webView);
-        } else {
-            runJavaScript(String.format("%s.onReceive('%s', null, '%s')",
-                    jsObj, name, callbackId), webView);
+    /**
+     * Takes pending messages lane by lane, the highest first, within the maximum length.
+     * Each waiting lane gets at least one message and its reserved share, even while higher lanes are flooded.
+     * [NOTE] This method must be called holding the lock.
+     */
+    @NonNull
+    private List<Pending> takePending(final int maxLength) {
+        List<Pending> single = null;
+        int waitingLanes = 0;
+        for (int i = 0; i < lanes.size(); i++) {
+            final List<Pending> lane = lanes.get(i);
+            if (!lane.isEmpty()) {
+                waitingLanes++;
+                single = lane;
+            }
+        }
+        if (waitingLanes == 0) {
+            return Collections.emptyList();
+        }
+        if (maxLength == Integer.MAX_VALUE && waitingLanes == 1) {
+            // A common case, which needs no copy.
+            lanes.set(lanes.indexOf(single), new ArrayList<Pending>());
+            return single;
+        }
+
+        final long reserve = maxLength / LOWER_LANE_SHARE;
+        final List<Pending> taken = new ArrayList<>();
+        long remaining = maxLength;
+        for (int i = 0; i < lanes.size(); i++) {
+            final List<Pending> lane = lanes.get(i);
+            if (lane.isEmpty()) {
+                continue;
+            }
+            waitingLanes--;
+            final long limit = remaining - waitingLanes * reserve;
+            long used = 0;
+            int count = 0;
+            while (count < lane.size()) {
+                final int length = lane.get(count).message.length();
+                if (count > 0 && used + length > limit) {
+                    break;
+                }
+                used += length;
+                count++;
+            }
+            final List<Pending> head = lane.subList(0, count);
+            taken.addAll(head);
+            head.clear();
+            remaining -= used;
         }
+        return taken;
+    }
+
+    private boolean hasPending() {
+        for (int i = 0; i < lanes.size(); i++) {
+            if (!lanes.get(i).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void deliver(@NonNull final List<Pending> messages) {
+        final int limit = maxBatchLength;
+        final List<String> batch = new ArrayList<>();
+        Transport batchTransport = messages.get(0).transport;
+        int batchLength = 0;
+        for (Pending pending : messages) {
+            if (!batch.isEmpty()
+                    && (pending.transport != batchTransport || batchLength + 1 + pending.message.length() > limit)) {
+                batchTransport.deliver(batch);
+                batch.clear();
+                batchLength = 0;
+            }
+            batchTransport = pending.transport;
+            batchLength += (batch.isEmpty() ? 0 : 1) + pending.message.length();
+            batch.add(pending.message);
+        }
+        batchTransport.deliver(batch);
     }
 
     /**
@@ -60,38 +482,246 @@ final class Messenger {
      */
     @NonNull
     static String escapeForJSStringLiteral(@NonNull final String value) {
-        final StringBuilder sb = new StringBuilder(value.length());
-        for (int i = 0; i < value.length(); i++) {
-            final char c = value.charAt(i);
-            switch (c) {
-                case '\\': sb.append("\\\\"); break;
-                case '\'': sb.append("\\'"); break;
-                case '"': sb.append("\\\""); break;
-                case '\n': sb.append("\\n"); break;
-                case '\r': sb.append("\\r"); break;
-                case '\t': sb.append("\\t"); break;
-                case '\u2028': sb.append("\\u2028"); break;
-                case '\u2029': sb.append("\\u2029"); break;
-                default:
-                    if (c < 0x20) {
-                        sb.append(String.format("\\u%04x", (int) c));
-                    } else {
-                        sb.append(c);
-                    }
+        return ScriptEmitter.escape(value);
+    }
+
+    /**
+     * Encodes an error message like the URLEncoder in UTF-8 does, except that spaces are encoded to '%20',
+     * which the `decodeURIComponent` function on JS decodes to spaces.
+     * A lone surrogate is encoded to '?' like the URLEncoder does.
+     */
+    @NonNull
+    static String percentEncode(@NonNull final String value) {
+        final int length = value.length();
+        int i = 0;
+        while (i < length && isUnreserved(value.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return value;
+        }
+
+        final StringBuilder sb = new StringBuilder(length + 32).append(value, 0, i);
+        while (i < length) {
+            final char c = value.charAt(i++);
+            if (isUnreserved(c)) {
+                sb.append(c);
+            } else if (c < 0x80) {
+                appendPercent(sb, c);
+            } else if (c < 0x800) {
+                appendPercent(sb, 0xc0 | (c >> 6));
+                appendPercent(sb, 0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(value.charAt(i))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(i++));
+                appendPercent(sb, 0xf0 | (codePoint >> 18));
+                appendPercent(sb, 0x80 | ((codePoint >> 12) & 0x3f));
+                appendPercent(sb, 0x80 | ((codePoint >> 6) & 0x3f));
+                appendPercent(sb, 0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                appendPercent(sb, '?');
+            } else {
+                appendPercent(sb, 0xe0 | (c >> 12));
+                appendPercent(sb, 0x80 | ((c >> 6) & 0x3f));
+                appendPercent(sb, 0x80 | (c & 0x3f));
             }
         }
         return sb.toString();
     }
 
-    private static void runJavaScript(@NonNull final String js, @NonNull final WebView webView) {
-        new Handler(Looper.getMainLooper()).post(() -> {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                webView.evaluateJavascript(js, value -> {
-                    // Nothing to do.
-                });
+    private static boolean isUnreserved(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '.' || c == '-' || c == '*' || c == '_';
+    }
+
+    private static void appendPercent(@NonNull final StringBuilder sb, final int b) {
+        sb.append('%').append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+    }
+
+    /**
+     * Sends a message with a payload. A reader of JSON text, or a payload longer than the chunk size,
+     * is sent in chunks before the message if the JavaScript library supports chunks.
+     *
+     * @return The length of the JSON text of the data, 0 if it is null, or -1 if it is streamed from a reader.
+     */
+    private int send(@Nullable final Object data,
+                     @NonNull final OutboundStream.Encoder encoder,
+                     @NonNull final StreamErrorHandler errorHandler,
+                     @NonNull final SendOptions.Priority priority) {
+        final Transport transport = this.transport;
+        final OutboundStream.Source source;
+        final int length;
+        if (data instanceof Reader) {
+            final Reader reader = binaryEnabled ? Bytes.escape((Reader) data) : (Reader) data;
+            if (!chunkingEnabled) {
+                // The JavaScript library doesn't support chunks, so sends the whole text at once.
+                final String json;
+                try {
+                    json = readFully(reader);
+                } catch (IOException e) {
+                    errorHandler.onError(e);
+                    return -1;
+                }
+                enqueue(transport, encoder.encode(transport, json), priority);
+                return json.length();
+            }
+            source = OutboundStream.sourceOf(reader);
+            length = -1;
+        } else if (data != null) {
+            // Other JSON text is already encoded, and tagged if needed, so only the tag is taken out for
+            // a JavaScript library that doesn't support it.
+            final String json;
+            if (data instanceof JSONObject) {
+                json = binaryEnabled ? Bytes.escape((JSONObject) data) : data.toString();
             } else {
-                webView.loadUrl("javascript:" + js);
+                json = binaryEnabled ? data.toString() : Bytes.unescape(data.toString());
             }
-        });
+            if (!chunkingEnabled || json.length() <= chunkSize) {
+                enqueue(transport, encoder.encode(transport, json), priority);
+                return json.length();
+            }
+            source = OutboundStream.sourceOf(json);
+            length = json.length();
+        } else {
+            enqueue(transport, encoder.encode(transport, null), priority);
+            return 0;
+        }
+
+        start(new OutboundStream("n" + streamSequence.incrementAndGet(), source, encoder, errorHandler, priority));
+        return length;
+    }
+
+    private void start(@NonNull final OutboundStream stream) {
+        streams.put(stream.id, stream);
+        pump(stream);
+    }
+
+    /**
+     * Sends chunks while the window allows, and ends the stream after the last chunk.
+     * While the window is full, the stream is aborted if no acknowledgment arrives within the idle timeout.
+     */
+    private void pump(@NonNull final OutboundStream stream) {
+        final int size = chunkSize;
+        final int window = chunkWindow;
+        synchronized (stream) {
+            try {
+                while (!stream.finished) {
+                    final Transport transport = this.transport;
+                    if (!stream.source.hasNext(size)) {
+                        end(stream);
+                        enqueue(transport, stream.encoder.encode(transport, new Transport.StreamRef(stream.id)), stream.priority);
+                        return;
+                    }
+                    if (stream.sent - stream.acked >= window) {
+                        waitForAck(stream);
+                        return;
+                    }
+                    enqueue(transport, transport.encodeChunk(stream.id, stream.source.next(size)), stream.priority);
+                    stream.sent++;
+                }
+            } catch (IOException e) {
+                end(stream);
+                stream.errorHandler.onError(e);
+            }
+        }
+    }
+
+    private void waitForAck(@NonNull final OutboundStream stream) {
+        final TimingWheel timingWheel = this.timingWheel;
+        if (timingWheel == null) {
+            return;
+        }
+        if (stream.idleTimeout != null) {
+            timingWheel.cancel(stream.idleTimeout);
+        }
+        stream.idleTimeout = timingWheel.schedule(() -> {
+            synchronized (stream) {
+                if (stream.finished) {
+                    return;
+                }
+                end(stream);
+            }
+            stream.errorHandler.onError(new IOException("No acknowledgment of the stream arrived in time."));
+        }, OutboundStream.IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Ends a stream, and releases its source. It must be called while holding the lock of the stream.
+     */
+    private void end(@NonNull final OutboundStream stream) {
+        stream.finished = true;
+        streams.remove(stream.id);
+        final TimingWheel timingWheel = this.timingWheel;
+        if (timingWheel != null && stream.idleTimeout != null) {
+            timingWheel.cancel(stream.idleTimeout);
+            stream.idleTimeout = null;
+        }
+        stream.source.close();
+    }
+
+    /**
+     * Aborts the payloads being sent in chunks, e.g., because the page was reloaded and never acknowledges them.
+     * Their readers are closed, and their error handlers aren't called.
+     */
+    void resetStreams() {
+        for (OutboundStream stream : streams.values()) {
+            synchronized (stream) {
+                if (!stream.finished) {
+                    end(stream);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the timing wheel used to abort a stream the JavaScript library stopped acknowledging.
+     * Without it, such a stream is aborted only by {@link #resetStreams()}.
+     */
+    void setTimingWheel(@NonNull final TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    @NonNull
+    private static String readFully(@NonNull final Reader reader) throws IOException {
+        try {
+            final StringBuilder sb = new StringBuilder();
+            final char[] buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) >= 0) {
+                sb.append(buffer, 0, n);
+            }
+            return sb.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Queues a message in the lane of its priority. The first message queued after a flush schedules the next flush.
+     */
+    private void enqueue(@NonNull final Transport transport,
+                         @NonNull final String message,
+                         @NonNull final SendOptions.Priority priority) {
+        final boolean schedule;
+        synchronized (lock) {
+            lanes.get(priority.ordinal()).add(new Pending(transport, message));
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+
+        if (schedule) {
+            flushScheduler.schedule(flushTask);
+        }
+    }
+
+    private static final class Pending {
+        @NonNull
+        final Transport transport;
+        @NonNull
+        final String message;
+
+        Pending(@NonNull final Transport transport, @NonNull final String message) {
+            this.transport = transport;
+            this.message = message;
+        }
     }
 }
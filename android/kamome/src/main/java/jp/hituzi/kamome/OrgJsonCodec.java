@@ -0,0 +1,108 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts values through org.json objects.
+ */
+class OrgJsonCodec implements PayloadCodec {
+
+    @Override
+    public void encode(@Nullable final Object value, @NonNull final StringBuilder out) throws JSONException {
+        final Object json;
+        if (value instanceof Map) {
+            json = new JSONObject((Map) value);
+        } else if (value instanceof Collection) {
+            json = new JSONArray((Collection) value);
+        } else {
+            json = JSONObject.wrap(value);
+        }
+
+        if (json == null) {
+            throw new JSONException("Unsupported type: " + value.getClass().getName());
+        }
+        if (json instanceof String || json instanceof Character) {
+            out.append(JSONObject.quote(json.toString()));
+        } else if (json instanceof Number) {
+            out.append(JSONObject.numberToString((Number) json));
+        } else {
+            out.append(json);
+        }
+    }
+
+    @Nullable
+    @Override
+    public <T> T decode(@NonNull final String json, @NonNull final Class<T> type) throws JSONException {
+        final Object value = new JSONTokener(json).nextValue();
+        if (value == JSONObject.NULL) {
+            return null;
+        }
+        if (type.isInstance(value)) {
+            return type.cast(value);
+        }
+        if (value instanceof JSONObject && type.isAssignableFrom(HashMap.class)) {
+            return type.cast(toMap((JSONObject) value));
+        }
+        if (value instanceof JSONArray && type.isAssignableFrom(ArrayList.class)) {
+            return type.cast(toList((JSONArray) value));
+        }
+        if (value instanceof Number) {
+            final Number number = (Number) value;
+            if (type == Integer.class) {
+                return type.cast(number.intValue());
+            }
+            if (type == Long.class) {
+                return type.cast(number.longValue());
+            }
+            if (type == Double.class) {
+                return type.cast(number.doubleValue());
+            }
+        }
+        throw new JSONException("Value " + value + " of type " + value.getClass().getName()
+                + " cannot be converted to " + type.getName());
+    }
+
+    @NonNull
+    private static Map<String, Object> toMap(@NonNull final JSONObject object) {
+        final Map<String, Object> map = new HashMap<>();
+        final Iterator<?> keys = object.keys();
+        while (keys.hasNext()) {
+            final String key = keys.next().toString();
+            map.put(key, toJava(object.opt(key)));
+        }
+        return map;
+    }
+
+    @NonNull
+    private static List<Object> toList(@NonNull final JSONArray array) {
+        final List<Object> list = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            list.add(toJava(array.opt(i)));
+        }
+        return list;
+    }
+
+    @Nullable
+    private static Object toJava(@Nullable final Object value) {
+        if (value instanceof JSONObject) {
+            return toMap((JSONObject) value);
+        }
+        if (value instanceof JSONArray) {
+            return toList((JSONArray) value);
+        }
+        return value == JSONObject.NULL ? null : value;
+    }
+}
@@ -0,0 +1,170 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A payload sent to the JavaScript library in chunks.
+ * At most a window of chunks is in flight, and the JavaScript library acknowledges each chunk it received.
+ * After the last chunk, the stream ends with a message referring to the stream instead of its data.
+ * Each message is encoded for the transport current when it's sent, so that a stream continues after a switch.
+ */
+final class OutboundStream {
+    /**
+     * The time a stream waits for an acknowledgment before it's aborted, e.g., after the page navigated away.
+     */
+    static final long IDLE_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Produces the JSON text of a payload piece by piece.
+     * A chunk never ends with a high surrogate, so that each chunk is a well-formed string.
+     */
+    interface Source {
+        boolean hasNext(int maxLength) throws IOException;
+
+        @NonNull
+        String next(int maxLength) throws IOException;
+
+        /**
+         * Releases the source, e.g., closes a reader, when the stream ends or is aborted.
+         */
+        void close();
+    }
+
+    /**
+     * Encodes the message carrying a payload. The message ending a stream carries a {@link Transport.StreamRef}.
+     */
+    interface Encoder {
+        @NonNull
+        String encode(@NonNull Transport transport, @Nullable Object data);
+    }
+
+    @NonNull
+    final String id;
+    @NonNull
+    final Source source;
+    @NonNull
+    final Encoder encoder;
+    @NonNull
+    final Messenger.StreamErrorHandler errorHandler;
+    @NonNull
+    final SendOptions.Priority priority;
+    int sent;
+    int acked;
+    boolean finished;
+    @Nullable
+    TimingWheel.Timeout idleTimeout;
+
+    OutboundStream(@NonNull final String id,
+                   @NonNull final Source source,
+                   @NonNull final Encoder encoder,
+                   @NonNull final Messenger.StreamErrorHandler errorHandler,
+                   @NonNull final SendOptions.Priority priority) {
+        this.id = id;
+        this.source = source;
+        this.encoder = encoder;
+        this.errorHandler = errorHandler;
+        this.priority = priority;
+    }
+
+    @NonNull
+    static Source sourceOf(@NonNull final String json) {
+        return new Source() {
+            private int offset;
+
+            @Override
+            public boolean hasNext(final int maxLength) {
+                return offset < json.length();
+            }
+
+            @NonNull
+            @Override
+            public String next(final int maxLength) {
+                int end = Math.min(json.length(), offset + maxLength);
+                if (end < json.length() && end - 1 > offset && Character.isHighSurrogate(json.charAt(end - 1))) {
+                    end--;
+                }
+                final String chunk = json.substring(offset, end);
+                offset = end;
+                return chunk;
+            }
+
+            @Override
+            public void close() {
+                // Nothing to release.
+            }
+        };
+    }
+
+    @NonNull
+    static Source sourceOf(@NonNull final Reader json) {
+        return new Source() {
+            @Nullable
+            private String ahead;
+            private boolean started;
+            private boolean eof;
+            private int carry = -1;
+
+            @Override
+            public boolean hasNext(final int maxLength) throws IOException {
+                if (!started) {
+                    started = true;
+                    ahead = read(maxLength);
+                }
+                return ahead != null;
+            }
+
+            @NonNull
+            @Override
+            public String next(final int maxLength) throws IOException {
+                if (!hasNext(maxLength)) {
+                    throw new IOException("The stream has ended.");
+                }
+                final String chunk = ahead;
+                ahead = read(maxLength);
+                return chunk;
+            }
+
+            @Nullable
+            private String read(final int maxLength) throws IOException {
+                final int length = Math.max(2, maxLength);
+                final char[] buffer = new char[length];
+                int count = 0;
+                if (carry >= 0) {
+                    buffer[count++] = (char) carry;
+                    carry = -1;
+                }
+                while (!eof && count < length) {
+                    final int n = json.read(buffer, count, length - count);
+                    if (n < 0) {
+                        eof = true;
+                        json.close();
+                    } else {
+                        count += n;
+                    }
+                }
+                if (count == 0) {
+                    return null;
+                }
+                if (!eof && count > 1 && Character.isHighSurrogate(buffer[count - 1])) {
+                    // Keep a surrogate pair in one chunk.
+                    carry = buffer[--count];
+                }
+                return new String(buffer, 0, count);
+            }
+
+            @Override
+            public void close() {
+                eof = true;
+                try {
+                    json.close();
+                } catch (IOException ignored) {
+                    // The stream has ended anyway.
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,228 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A data of a request. The JSON text received from the JavaScript library is parsed only on first access,
+ * and a Java object passed by the native code is handed to the handler as is.
+ */
+public final class Payload {
+    @Nullable
+    private final String raw;
+    /**
+     * A Java object passed by the native code, converted to JSON only if a handler asks for another type.
+     */
+    @Nullable
+    private final Object value;
+    @NonNull
+    private final PayloadCodec codec;
+    /**
+     * Whether the JSON text may be tagged by the JavaScript library, which supports the tags of {@link Bytes}.
+     */
+    private final boolean tagged;
+    @Nullable
+    private JSONObject object;
+    private boolean parsed;
+
+    private Payload(@Nullable final String raw,
+                    @Nullable final Object value,
+                    @Nullable final JSONObject object,
+                    final boolean parsed,
+                    @NonNull final PayloadCodec codec,
+                    final boolean tagged) {
+        this.raw = raw;
+        this.value = value;
+        this.object = object;
+        this.parsed = parsed;
+        this.codec = codec;
+        this.tagged = tagged;
+    }
+
+    /**
+     * Creates a payload of a JSON text that is parsed on first access.
+     *
+     * @param raw    A JSON text, or null.
+     * @param codec  A codec decoding the JSON text to other types.
+     * @param tagged Whether the JSON text may be tagged as binary data or a value.
+     */
+    @NonNull
+    static Payload ofRaw(@Nullable final String raw, @NonNull final PayloadCodec codec, final boolean tagged) {
+        return new Payload(raw, null, null, raw == null, codec, tagged);
+    }
+
+    /**
+     * Creates a payload of a parsed data.
+     *
+     * @param object A data, or null.
+     * @param codec  A codec decoding the data to other types.
+     */
+    @NonNull
+    static Payload of(@Nullable final JSONObject object, @NonNull final PayloadCodec codec) {
+        return new Payload(null, null, object, true, codec, false);
+    }
+
+    /**
+     * Creates a payload of a Java object passed in process. A handler asking for the type of the object gets it as is.
+     *
+     * @param value A data, e.g., a Map or an object of your data class, or null.
+     * @param codec A codec converting the data to other types.
+     */
+    @NonNull
+    static Payload ofValue(@Nullable final Object value, @NonNull final PayloadCodec codec) {
+        if (value == null || value instanceof JSONObject) {
+            return of((JSONObject) value, codec);
+        }
+        return new Payload(null, value, null, false, codec, false);
+    }
+
+    @NonNull
+    PayloadCodec getCodec() {
+        return codec;
+    }
+
+    public boolean isNull() {
+        return raw == null && value == null && object == null;
+    }
+
+    /**
+     * Returns the JSON text of the data without parsing it. An object the JavaScript library tagged,
+     * because it has the reserved key of {@link Bytes}, is taken out.
+     * A Java object passed by the native code is encoded by the payload codec.
+     *
+     * @return A JSON text, or null if the data is null or can't be encoded.
+     */
+    @Nullable
+    public String getRaw() {
+        if (raw != null) {
+            return tagged ? Bytes.unescape(raw) : raw;
+        }
+        if (value != null) {
+            try {
+                return encode(value);
+            } catch (JSONException e) {
+                return null;
+            }
+        }
+        final JSONObject object = this.object;
+        return object != null ? object.toString() : null;
+    }
+
+    /**
+     * Returns the data as a JSONObject. The JSON text is parsed on the first call, and the result is reused.
+     *
+     * @return A data, or null if the data is null.
+     * @throws JSONException If the data isn't a JSON object.
+     */
+    @Nullable
+    public synchronized JSONObject getJSONObject() throws JSONException {
+        if (!parsed) {
+            if (value instanceof Map) {
+                object = new JSONObject((Map) value);
+            } else {
+                if (raw != null) {
+                    object = tagged ? Bytes.parse(raw) : new JSONObject(raw);
+                } else {
+                    object = new JSONObject(encode(value));
+                }
+            }
+            parsed = true;
+        }
+        return object;
+    }
+
+    /**
+     * Decodes the data to given type by the payload codec of the client.
+     * A Java object of the type passed by the native code is returned as is without any conversion.
+     *
+     * @param type A type, e.g., your data class.
+     * @return A value, or null if the data is null.
+     * @throws JSONException If the data can't be decoded to the type.
+     * @see Client#setPayloadCodec(PayloadCodec)
+     */
+    @Nullable
+    public <T> T as(@NonNull final Class<T> type) throws JSONException {
+        if (type.isInstance(value)) {
+            return type.cast(value);
+        }
+        if (type == JSONObject.class) {
+            return type.cast(getJSONObject());
+        }
+        final String json = value != null ? encode(value) : getRaw();
+        return json != null ? codec.decode(json, type) : null;
+    }
+
+    /**
+     * Returns the JSON text of the data with the keys of objects sorted, so that equal data have the same key.
+     *
+     * @throws JSONException If the data isn't a JSON object.
+     */
+    @NonNull
+    String canonicalKey() throws JSONException {
+        final JSONObject object = getJSONObject();
+        if (object == null) {
+            return "null";
+        }
+        final StringBuilder sb = new StringBuilder();
+        if (Bytes.isBytes(object)) {
+            // Otherwise, binary data would have the key of an object having the same keys.
+            sb.append('#');
+        }
+        writeCanonical(object, sb);
+        return sb.toString();
+    }
+
+    @NonNull
+    private String encode(@Nullable final Object value) throws JSONException {
+        final StringBuilder sb = new StringBuilder();
+        codec.encode(value, sb);
+        return sb.toString();
+    }
+
+    private static void writeCanonical(@Nullable final Object value, @NonNull final StringBuilder sb) throws JSONException {
+        if (value instanceof JSONObject) {
+            final JSONObject object = (JSONObject) value;
+            final List<String> keys = new ArrayList<>(object.length());
+            final Iterator<?> iterator = object.keys();
+            while (iterator.hasNext()) {
+                keys.add(iterator.next().toString());
+            }
+            Collections.sort(keys);
+            sb.append('{');
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(JSONObject.quote(keys.get(i))).append(':');
+                writeCanonical(object.opt(keys.get(i)), sb);
+            }
+            sb.append('}');
+        } else if (value instanceof JSONArray) {
+            final JSONArray array = (JSONArray) value;
+            sb.append('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                writeCanonical(array.opt(i), sb);
+            }
+            sb.append(']');
+        } else if (value instanceof String) {
+            sb.append(JSONObject.quote((String) value));
+        } else if (value instanceof Number) {
+            sb.append(JSONObject.numberToString((Number) value));
+        } else {
+            sb.append(value == null ? JSONObject.NULL : value);
+        }
+    }
+}
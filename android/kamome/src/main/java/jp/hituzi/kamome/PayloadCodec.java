@@ -0,0 +1,48 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+
+/**
+ * Converts data exchanged with the JavaScript library to and from JSON text.
+ * You can plug in your JSON library to send and receive your own types.
+ */
+public interface PayloadCodec {
+    /**
+     * Converts values through org.json objects. This is the default.
+     * It supports Map, Collection, arrays and the values org.json supports.
+     * An object of another class, e.g., your data class, can't be encoded and throws a JSONException.
+     */
+    @NonNull
+    PayloadCodec ORG_JSON = new OrgJsonCodec();
+    /**
+     * Writes Map, Collection, arrays and the values org.json supports straight to JSON text
+     * without creating org.json objects. Other objects are encoded like {@link #ORG_JSON},
+     * so that an object of your data class throws a JSONException too.
+     * It decodes JSON text like {@link #ORG_JSON}.
+     */
+    @NonNull
+    PayloadCodec DIRECT = new DirectJsonCodec();
+
+    /**
+     * Appends the JSON text of a value.
+     *
+     * @param value A value.
+     * @param out   A destination of the JSON text.
+     * @throws JSONException If the value can't be encoded.
+     */
+    void encode(@Nullable Object value, @NonNull StringBuilder out) throws JSONException;
+
+    /**
+     * Decodes JSON text to a value of given type.
+     *
+     * @param json A JSON text.
+     * @param type A type of the value.
+     * @return A value, or null if the JSON text is null.
+     * @throws JSONException If the JSON text can't be decoded to the type.
+     */
+    @Nullable
+    <T> T decode(@NonNull String json, @NonNull Class<T> type) throws JSONException;
+}
@@ -0,0 +1,155 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A table of messages sent to the JavaScript receiver and waiting for its reply.
+ * Each entry is claimed exactly once, either by the reply or by its timeout.
+ */
+final class PendingReplies {
+    /**
+     * A message waiting for the reply.
+     */
+    static final class Entry {
+        @NonNull
+        final String commandName;
+        @Nullable
+        final Client.SendMessageCallback callback;
+        @Nullable
+        volatile TimingWheel.Timeout timeout;
+        /**
+         * When the message was sent to the JavaScript receiver, or 0 if the time isn't measured.
+         */
+        volatile long sentAtNanos;
+        /**
+         * Whether the message was sent to the page, rather than waiting in the queue until ready.
+         */
+        volatile boolean sent;
+
+        Entry(@NonNull final String commandName, @Nullable final Client.SendMessageCallback callback) {
+            this.commandName = commandName;
+            this.callback = callback;
+        }
+    }
+
+    interface TimeoutHandler {
+        void onTimeout(@NonNull Entry entry);
+    }
+
+    /**
+     * The prefix of callback IDs. The JavaScript receiver replies to a callback ID as a command name.
+     */
+    @NonNull
+    static final String CALLBACK_ID_PREFIX = "_km_";
+
+    @NonNull
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    @NonNull
+    private final AtomicLong sequence = new AtomicLong();
+    @NonNull
+    private final TimingWheel timingWheel;
+
+    PendingReplies(@NonNull final TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    static boolean isCallbackId(@NonNull final String name) {
+        return name.startsWith(CALLBACK_ID_PREFIX);
+    }
+
+    /**
+     * Adds an entry waiting for the reply.
+     *
+     * @param timeoutMillis A timeout in milliseconds. If it is less than or equal to 0, the entry waits forever.
+     * @param onTimeout     Called on the main thread with the entry if the reply doesn't arrive in time.
+     * @return A callback ID the JavaScript receiver replies to.
+     */
+    @NonNull
+    String add(@NonNull final String commandName,
+               @Nullable final Client.SendMessageCallback callback,
+               final long timeoutMillis,
+               @NonNull final TimeoutHandler onTimeout) {
+        final String callbackId = CALLBACK_ID_PREFIX + commandName + "_" + sequence.incrementAndGet();
+        final Entry entry = new Entry(commandName, callback);
+        entries.put(callbackId, entry);
+
+        if (timeoutMillis > 0) {
+            final TimingWheel.Timeout timeout = timingWheel.schedule(() -> {
+                if (entries.remove(callbackId, entry)) {
+                    onTimeout.onTimeout(entry);
+                }
+            }, timeoutMillis);
+            entry.timeout = timeout;
+        }
+
+        return callbackId;
+    }
+
+    /**
+     * Claims an entry for its reply.
+     *
+     * @return The entry, or null if no entry waits for the callback ID, e.g., it has timed out.
+     */
+    @Nullable
+    Entry claim(@NonNull final String callbackId) {
+        final Entry entry = entries.remove(callbackId);
+        if (entry == null) {
+            return null;
+        }
+
+        final TimingWheel.Timeout timeout = entry.timeout;
+        if (timeout != null) {
+            timingWheel.cancel(timeout);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Records that the message of a callback ID was sent, and when, to measure the time until the reply.
+     *
+     * @param nanos When the message was sent, or 0 if the time isn't measured.
+     */
+    void markSent(@NonNull final String callbackId, final long nanos) {
+        final Entry entry = entries.get(callbackId);
+        if (entry != null) {
+            entry.sentAtNanos = nanos;
+            entry.sent = true;
+        }
+    }
+
+    /**
+     * Claims the entries whose messages were sent, e.g., to a page that has been reloaded and never replies.
+     * Entries of messages still waiting until ready are kept.
+     */
+    @NonNull
+    List<Entry> claimSent() {
+        final List<Entry> claimed = new ArrayList<>();
+        final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Entry> next = iterator.next();
+            final Entry entry = next.getValue();
+            if (entry.sent && entries.remove(next.getKey(), entry)) {
+                final TimingWheel.Timeout timeout = entry.timeout;
+                if (timeout != null) {
+                    timingWheel.cancel(timeout);
+                }
+                claimed.add(entry);
+            }
+        }
+        return claimed;
+    }
+
+    int size() {
+        return entries.size();
+    }
+}
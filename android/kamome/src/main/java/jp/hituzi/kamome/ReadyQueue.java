@@ -0,0 +1,136 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue of messages sent before the JavaScript library is ready.
+ * Messages can be offered from any thread. When the queue is full, the overflow policy chooses a message to give up.
+ */
+final class ReadyQueue {
+    /**
+     * The messages given up to queue a message, and whether their callbacks fail.
+     */
+    static final class Overflow {
+        static final Overflow NONE = new Overflow(Collections.<Request>emptyList(), false);
+
+        @NonNull
+        final List<Request> requests;
+        /**
+         * true if the callbacks receive an error, otherwise the messages are dropped silently.
+         */
+        final boolean failed;
+
+        Overflow(@NonNull final List<Request> requests, final boolean failed) {
+            this.requests = requests;
+            this.failed = failed;
+        }
+    }
+
+    @NonNull
+    private final ArrayDeque<Request> requests = new ArrayDeque<>();
+    @NonNull
+    private final AtomicLong droppedCount = new AtomicLong();
+    private int capacity;
+    @NonNull
+    private Client.ReadyQueueOverflow overflow;
+
+    ReadyQueue(final int capacity, @NonNull final Client.ReadyQueueOverflow overflow) {
+        this.capacity = Math.max(1, capacity);
+        this.overflow = overflow;
+    }
+
+    /**
+     * Sets the capacity and the overflow policy. Messages beyond a smaller capacity are kept until the next offer.
+     */
+    synchronized void configure(final int capacity, @NonNull final Client.ReadyQueueOverflow overflow) {
+        this.capacity = Math.max(1, capacity);
+        this.overflow = overflow;
+    }
+
+    /**
+     * Queues a message, giving up other messages or the message itself by the overflow policy.
+     *
+     * @return The messages given up, which may include the offered message.
+     */
+    @NonNull
+    synchronized Overflow offer(@NonNull final Request request) {
+        List<Request> given = null;
+        if (overflow == Client.ReadyQueueOverflow.LATEST_PER_COMMAND) {
+            final Iterator<Request> iterator = requests.iterator();
+            while (iterator.hasNext()) {
+                final Request queued = iterator.next();
+                if (queued.name.equals(request.name)) {
+                    iterator.remove();
+                    given = add(given, queued);
+                }
+            }
+        }
+
+        if (requests.size() >= capacity) {
+            switch (overflow) {
+                case DROP_NEWEST:
+                case FAIL:
+                    droppedCount.incrementAndGet();
+                    return new Overflow(Collections.singletonList(request), overflow == Client.ReadyQueueOverflow.FAIL);
+                case DROP_OLDEST:
+                case LATEST_PER_COMMAND:
+                    while (requests.size() >= capacity) {
+                        given = add(given, requests.pollFirst());
+                    }
+                    break;
+            }
+        }
+
+        requests.addLast(request);
+        if (given == null) {
+            return Overflow.NONE;
+        }
+        droppedCount.addAndGet(given.size());
+        return new Overflow(given, false);
+    }
+
+    /**
+     * Removes a message, e.g., when it expires.
+     *
+     * @return false if the message isn't queued.
+     */
+    synchronized boolean remove(@NonNull final Request request) {
+        return requests.remove(request);
+    }
+
+    /**
+     * Removes all messages in order.
+     */
+    @NonNull
+    synchronized List<Request> drain() {
+        if (requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<Request> drained = new ArrayList<>(requests);
+        requests.clear();
+        return drained;
+    }
+
+    synchronized int size() {
+        return requests.size();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    @NonNull
+    private static List<Request> add(@Nullable final List<Request> list, @NonNull final Request request) {
+        final List<Request> added = list != null ? list : new ArrayList<Request>(1);
+        added.add(request);
+        return added;
+    }
+}
@@ -6,16 +6,34 @@ import androidx.annotation.Nullable;
 final class Request {
     @NonNull
     final String name;
-    @NonNull
+    /**
+     * A callback ID the JavaScript receiver replies to, or null if the message is an event without reply.
+     */
+    @Nullable
     final String callbackId;
     @Nullable
     final Object data;
+    @NonNull
+    final SendOptions.Priority priority;
+    /**
+     * A timeout failing the request if it is still queued until ready.
+     */
+    @Nullable
+    TimingWheel.Timeout readyTimeout;
 
     public Request(@NonNull final String name,
-                   @NonNull final String callbackId,
+                   @Nullable final String callbackId,
                    @Nullable final Object data) {
+        this(name, callbackId, data, SendOptions.Priority.NORMAL);
+    }
+
+    public Request(@NonNull final String name,
+                   @Nullable final String callbackId,
+                   @Nullable final Object data,
+                   @NonNull final SendOptions.Priority priority) {
         this.name = name;
         this.callbackId = callbackId;
         this.data = data;
+        this.priority = priority;
     }
 }
@@ -0,0 +1,97 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Measures the stages of a request from the JavaScript code for the metrics and the tracer.
+ * A request is probed only if metrics or a tracer are set, or the JavaScript library traces it.
+ */
+final class RequestProbe {
+    @Nullable
+    private final BridgeMetrics metrics;
+    @Nullable
+    private final Tracer tracer;
+    @NonNull
+    private final String commandName;
+    @NonNull
+    private final String requestId;
+    /**
+     * Whether the JavaScript library traces the request and waits for the timings of the native side.
+     */
+    private final boolean traced;
+    private final long receivedAtMillis;
+    private final long receivedAtNanos;
+    private volatile long startedAtNanos;
+
+    RequestProbe(@Nullable final BridgeMetrics metrics,
+                 @Nullable final Tracer tracer,
+                 @NonNull final String commandName,
+                 @NonNull final String requestId,
+                 final boolean traced) {
+        this.metrics = metrics;
+        this.tracer = tracer;
+        this.commandName = commandName;
+        this.requestId = requestId;
+        this.traced = traced;
+        this.receivedAtMillis = System.currentTimeMillis();
+        this.receivedAtNanos = System.nanoTime();
+        if (tracer != null) {
+            tracer.beginSpan(Tracer.Stage.QUEUE, commandName, requestId);
+        }
+    }
+
+    /**
+     * Called on the thread running the handler before it runs.
+     */
+    void onHandlerStart() {
+        startedAtNanos = System.nanoTime();
+        if (tracer != null) {
+            tracer.endSpan(Tracer.Stage.QUEUE, commandName, requestId);
+            tracer.beginSpan(Tracer.Stage.HANDLER, commandName, requestId);
+        }
+    }
+
+    /**
+     * Called on the thread running the handler after it returned.
+     */
+    void onHandlerReturn() {
+        if (metrics != null) {
+            metrics.recordHandler(commandName, System.nanoTime() - startedAtNanos);
+        }
+    }
+
+    /**
+     * Called before the result of the request is sent.
+     */
+    void onComplete(@NonNull final Messenger messenger) {
+        final long now = System.nanoTime();
+        final long startedAt = startedAtNanos;
+        if (tracer != null) {
+            // A request of a missing command completes without running a handler.
+            final Tracer.Stage stage = startedAt != 0 ? Tracer.Stage.HANDLER : Tracer.Stage.QUEUE;
+            tracer.endSpan(stage, commandName, requestId);
+            tracer.beginSpan(Tracer.Stage.DELIVERY, commandName, requestId);
+            messenger.runAfterFlush(() -> tracer.endSpan(Tracer.Stage.DELIVERY, commandName, requestId));
+        }
+        if (traced) {
+            final long queueNanos = (startedAt != 0 ? startedAt : now) - receivedAtNanos;
+            final long handlerNanos = startedAt != 0 ? now - startedAt : 0;
+            messenger.sendTrace(requestId, "{\"receivedAt\":" + receivedAtMillis
+                    + ",\"queue\":" + queueNanos / 1e6
+                    + ",\"handler\":" + handlerNanos / 1e6 + "}");
+        }
+    }
+
+    /**
+     * Called after the result of the request is sent.
+     *
+     * @param length The length of the JSON text of the result, or a negative number if it is unknown.
+     */
+    void onCompleted(final int length, final boolean resolved) {
+        if (metrics != null) {
+            metrics.recordCompletion(commandName, System.nanoTime() - receivedAtNanos, resolved);
+            metrics.recordOutbound(commandName, length);
+        }
+    }
+}
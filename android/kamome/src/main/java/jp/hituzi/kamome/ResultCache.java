@@ -0,0 +1,199 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the results of a command whose handler returns the same result for the same data.
+ * A request is answered from the cache without running the handler while its result is fresh.
+ * Results are keyed by the data with sorted keys, and the least recently used results are evicted first.
+ * Only resolved results are cached. A result read from a reader is never cached.
+ *
+ * @see Command#setCache(ResultCache)
+ */
+public final class ResultCache {
+    /**
+     * A snapshot of the statistics of a cache.
+     */
+    public static final class Stats {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final long expirationCount;
+        private final int entryCount;
+        private final long byteSize;
+
+        Stats(final long hitCount,
+              final long missCount,
+              final long evictionCount,
+              final long expirationCount,
+              final int entryCount,
+              final long byteSize) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.expirationCount = expirationCount;
+            this.entryCount = entryCount;
+            this.byteSize = byteSize;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        /**
+         * The number of results evicted to keep the maximum entry count and byte size.
+         */
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        /**
+         * The number of results removed after the TTL.
+         */
+        public long getExpirationCount() {
+            return expirationCount;
+        }
+
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        public long getByteSize() {
+            return byteSize;
+        }
+    }
+
+    /**
+     * A monotonic clock, replaced in tests.
+     */
+    interface Clock {
+        long nanoTime();
+    }
+
+    private static final class Entry {
+        @NonNull
+        final String result;
+        final long expiresAtNanos;
+        final long byteSize;
+
+        Entry(@NonNull final String result, final long expiresAtNanos, final long byteSize) {
+            this.result = result;
+            this.expiresAtNanos = expiresAtNanos;
+            this.byteSize = byteSize;
+        }
+    }
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final long maxBytes;
+    @NonNull
+    private final Clock clock;
+    @NonNull
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long byteSize;
+    /**
+     * Incremented by invalidation, so that results of handlers running across it aren't cached.
+     */
+    private long generation;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long expirationCount;
+
+    /**
+     * Creates a cache.
+     *
+     * @param ttlMillis  How long a result is fresh in milliseconds.
+     * @param maxEntries The maximum number of results.
+     * @param maxBytes   The maximum size of the keys and results in bytes, counting 2 bytes per character.
+     */
+    public ResultCache(final long ttlMillis, final int maxEntries, final long maxBytes) {
+        this(ttlMillis, maxEntries, maxBytes, System::nanoTime);
+    }
+
+    ResultCache(final long ttlMillis, final int maxEntries, final long maxBytes, @NonNull final Clock clock) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ttlMillis));
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxBytes = Math.max(0, maxBytes);
+        this.clock = clock;
+    }
+
+    /**
+     * Removes all results. Results of handlers running at this time aren't cached.
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+        byteSize = 0;
+        generation++;
+    }
+
+    @NonNull
+    public synchronized Stats getStats() {
+        return new Stats(hitCount, missCount, evictionCount, expirationCount, entries.size(), byteSize);
+    }
+
+    /**
+     * Returns the JSON text of a fresh result, and counts a hit or a miss.
+     */
+    @Nullable
+    synchronized String get(@NonNull final String key) {
+        final Entry entry = entries.get(key);
+        if (entry != null) {
+            if (clock.nanoTime() - entry.expiresAtNanos < 0) {
+                hitCount++;
+                return entry.result;
+            }
+            remove(key, entry);
+            expirationCount++;
+        }
+        missCount++;
+        return null;
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches the JSON text of a result unless the cache was invalidated since the generation.
+     */
+    synchronized void put(@NonNull final String key, @NonNull final String result, final long generation) {
+        if (generation != this.generation || ttlNanos == 0) {
+            return;
+        }
+        final long size = 2L * (key.length() + result.length());
+        if (size > maxBytes || maxEntries == 0) {
+            return;
+        }
+
+        final Entry previous = entries.remove(key);
+        if (previous != null) {
+            byteSize -= previous.byteSize;
+        }
+        entries.put(key, new Entry(result, clock.nanoTime() + ttlNanos, size));
+        byteSize += size;
+
+        final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || byteSize > maxBytes) && iterator.hasNext()) {
+            final Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            byteSize -= eldest.byteSize;
+            evictionCount++;
+        }
+    }
+
+    private void remove(@NonNull final String key, @NonNull final Entry entry) {
+        entries.remove(key);
+        byteSize -= entry.byteSize;
+    }
+}
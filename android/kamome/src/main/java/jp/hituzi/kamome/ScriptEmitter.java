@@ -0,0 +1,188 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Writes scripts calling the JavaScript library from templates parsed once.
+ * Each thread writes into its own builder, which is reused for the next script.
+ */
+final class ScriptEmitter {
+    /**
+     * A script of constant pieces and arguments between them. An argument is written where "{}" is in the pattern.
+     */
+    static final class Template {
+        @NonNull
+        final String[] pieces;
+
+        Template(@NonNull final String pattern) {
+            int count = 0;
+            for (int i = pattern.indexOf("{}"); i >= 0; i = pattern.indexOf("{}", i + 2)) {
+                count++;
+            }
+            pieces = new String[count + 1];
+            int start = 0;
+            for (int i = 0; i < count; i++) {
+                final int end = pattern.indexOf("{}", start);
+                pieces[i] = pattern.substring(start, end);
+                start = end + 2;
+            }
+            pieces[count] = pattern.substring(start);
+        }
+    }
+
+    /**
+     * A builder bigger than this length isn't kept for the next script, so that a large payload isn't retained.
+     */
+    private static final int MAX_RETAINED_CAPACITY = Messenger.DEFAULT_MAX_BATCH_LENGTH;
+
+    /**
+     * The escape sequences of ASCII characters in a JavaScript string literal. Null if a character needs no escape.
+     */
+    @NonNull
+    private static final String[] ESCAPES = new String[128];
+
+    static {
+        final char[] hex = "0123456789abcdef".toCharArray();
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = "\\u00" + hex[c >> 4] + hex[c & 0xf];
+        }
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['\''] = "\\'";
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\t'] = "\\t";
+    }
+
+    @NonNull
+    private static final ThreadLocal<ScriptEmitter> EMITTERS = new ThreadLocal<ScriptEmitter>() {
+        @Override
+        protected ScriptEmitter initialValue() {
+            return new ScriptEmitter();
+        }
+    };
+
+    @NonNull
+    private StringBuilder sb = new StringBuilder(256);
+    @Nullable
+    private Template template;
+    private int argument;
+
+    private ScriptEmitter() {
+    }
+
+    /**
+     * Starts writing a script of a template on the current thread.
+     */
+    @NonNull
+    static ScriptEmitter begin(@NonNull final Template template) {
+        ScriptEmitter emitter = EMITTERS.get();
+        if (emitter.template != null) {
+            // The emitter of this thread is writing another script.
+            emitter = new ScriptEmitter();
+        }
+        emitter.template = template;
+        emitter.argument = 0;
+        emitter.sb.append(template.pieces[0]);
+        return emitter;
+    }
+
+    /**
+     * Writes an argument as is, e.g., JSON text.
+     */
+    @NonNull
+    ScriptEmitter raw(@NonNull final Object value) {
+        if (value instanceof CharSequence) {
+            sb.append((CharSequence) value);
+        } else {
+            sb.append(value);
+        }
+        return next();
+    }
+
+    /**
+     * Writes an argument escaped for the inside of a JavaScript string literal.
+     */
+    @NonNull
+    ScriptEmitter string(@NonNull final String value) {
+        appendEscaped(sb, value);
+        return next();
+    }
+
+    @NonNull
+    ScriptEmitter number(final int value) {
+        sb.append(value);
+        return next();
+    }
+
+    /**
+     * Finishes the script and resets the builder for the next script.
+     */
+    @NonNull
+    String end() {
+        final String script = sb.toString();
+        template = null;
+        if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+            sb = new StringBuilder(256);
+        } else {
+            sb.setLength(0);
+        }
+        return script;
+    }
+
+    @NonNull
+    private ScriptEmitter next() {
+        sb.append(template.pieces[++argument]);
+        return this;
+    }
+
+    /**
+     * Escapes a string for safe interpolation inside a single-quoted JavaScript string literal.
+     * A string needing no escape is returned as is.
+     */
+    @NonNull
+    static String escape(@NonNull final String value) {
+        final int length = value.length();
+        int i = 0;
+        while (i < length && !needsEscape(value.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return value;
+        }
+
+        final StringBuilder sb = new StringBuilder(length + 16);
+        appendEscaped(sb, value);
+        return sb.toString();
+    }
+
+    private static void appendEscaped(@NonNull final StringBuilder sb, @NonNull final String value) {
+        final int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            final String escape;
+            if (c < 128) {
+                escape = ESCAPES[c];
+                if (escape == null) {
+                    continue;
+                }
+            } else if (c == '\u2028') {
+                escape = "\\u2028";
+            } else if (c == '\u2029') {
+                escape = "\\u2029";
+            } else {
+                continue;
+            }
+            // Appends the run of characters that need no escape at once.
+            sb.append(value, start, i).append(escape);
+            start = i + 1;
+        }
+        sb.append(value, start, length);
+    }
+
+    private static boolean needsEscape(final char c) {
+        return c < 128 ? ESCAPES[c] != null : c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,96 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Options of a message sent to the JavaScript receiver.
+ */
+public final class SendOptions {
+    /**
+     * A priority of a message. Messages of a higher priority are delivered first,
+     * and messages of the same priority are delivered in order.
+     */
+    public enum Priority {
+        /**
+         * For a message the user waits for, e.g., an update of the visible UI.
+         */
+        HIGH,
+        NORMAL,
+        /**
+         * For a message nobody waits for, e.g., analytics or background sync.
+         */
+        LOW
+    }
+
+    private boolean hasTimeout;
+    private long timeoutMillis;
+    @NonNull
+    private Priority priority = Priority.NORMAL;
+    @Nullable
+    private String conflationKey;
+    private long minIntervalMillis;
+
+    /**
+     * Sets a timeout waiting for the reply of the JavaScript receiver.
+     * If the reply doesn't arrive in time, the callback receives a "RequestTimeout" error.
+     * If the timeout is less than or equal to 0, the message waits for the reply forever.
+     * If this method is not called, {@link Client#defaultReplyTimeoutMillis} is used.
+     *
+     * @param timeoutMillis A timeout in milliseconds.
+     * @return Self.
+     */
+    @NonNull
+    public SendOptions setTimeout(final long timeoutMillis) {
+        this.hasTimeout = true;
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Sets a priority of the message. Default is {@link Priority#NORMAL}.
+     *
+     * @param priority A priority.
+     * @return Self.
+     */
+    @NonNull
+    public SendOptions setPriority(@NonNull final Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Conflates the message with other messages of the same conflation key, e.g., progress or scroll state
+     * updated faster than the page renders. A message is sent at most once per minimum interval for each key,
+     * and only the latest message within an interval is sent. The callback of a superseded message
+     * receives a "RequestDropped" error. A message with a data read from a reader isn't conflated.
+     *
+     * @param key               A conflation key.
+     * @param minIntervalMillis A minimum interval in milliseconds between messages of the key.
+     * @return Self.
+     */
+    @NonNull
+    public SendOptions setConflation(@NonNull final String key, final long minIntervalMillis) {
+        this.conflationKey = key;
+        this.minIntervalMillis = minIntervalMillis;
+        return this;
+    }
+
+    @Nullable
+    String getConflationKey() {
+        return conflationKey;
+    }
+
+    long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    @NonNull
+    Priority getPriority() {
+        return priority;
+    }
+
+    long timeoutMillis(final long defaultTimeoutMillis) {
+        return hasTimeout ? timeoutMillis : defaultTimeoutMillis;
+    }
+}
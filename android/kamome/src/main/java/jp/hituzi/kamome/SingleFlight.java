@@ -0,0 +1,297 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces concurrent requests of a command with equal data into one run of the handler.
+ * The result of the run is passed to the completions of all requests joining it.
+ */
+final class SingleFlight {
+    /**
+     * Passes a result to a completion other than the completion of a request from the JavaScript code.
+     */
+    private interface Resolution {
+        void resolve(@NonNull Completable completion);
+    }
+
+    /**
+     * A run of the handler in progress. The handler completes it, and it completes all requests joining it.
+     */
+    final class Flight implements Completable {
+        @NonNull
+        private final String key;
+        @NonNull
+        private final PayloadCodec codec;
+        @NonNull
+        private final List<Completable> completions = new ArrayList<>();
+        private boolean completed;
+        @Nullable
+        private CancelListener cancelListener;
+
+        Flight(@NonNull final String key, @NonNull final Completable completion, @NonNull final PayloadCodec codec) {
+            this.key = key;
+            this.codec = codec;
+            add(completion);
+        }
+
+        @Override
+        public synchronized boolean isCompleted() {
+            return completed;
+        }
+
+        /**
+         * The run is cancelled only if all requests joining it are cancelled.
+         */
+        @Override
+        public boolean isCancelled() {
+            for (Completable completion : snapshot()) {
+                if (!completion.isCancelled()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void setCancelListener(@Nullable final CancelListener listener) {
+            synchronized (this) {
+                cancelListener = listener;
+            }
+            if (listener != null && isCancelled()) {
+                onCancel();
+            }
+        }
+
+        /**
+         * Returns the time remaining until the latest deadline of the requests joining the run.
+         */
+        @Override
+        public long getRemainingMillis() {
+            long remaining = 0;
+            for (Completable completion : snapshot()) {
+                remaining = Math.max(remaining, completion.getRemainingMillis());
+            }
+            return remaining;
+        }
+
+        /**
+         * Adds a request joining the run, and listens for its cancellation.
+         */
+        private void add(@NonNull final Completable completion) {
+            synchronized (this) {
+                completions.add(completion);
+            }
+            completion.setCancelListener(() -> {
+                if (isCancelled()) {
+                    onCancel();
+                }
+            });
+        }
+
+        private void onCancel() {
+            final CancelListener listener;
+            synchronized (this) {
+                listener = cancelListener;
+                cancelListener = null;
+            }
+            if (listener != null) {
+                listener.onCancel();
+            }
+        }
+
+        @NonNull
+        private synchronized List<Completable> snapshot() {
+            return new ArrayList<>(completions);
+        }
+
+        @Override
+        public void resolve() {
+            complete("null", Completable::resolve);
+        }
+
+        /**
+         * Resolves with the JSON text of a result as is, e.g., a result cached on the way.
+         */
+        void resolveJson(@NonNull final String json) {
+            complete(json, completion -> CachingCompletion.resolveCached(completion, json));
+        }
+
+        @Override
+        public void resolve(@Nullable final Map data) {
+            resolve((Object) data);
+        }
+
+        @Override
+        public void resolve(@Nullable final JSONObject data) {
+            complete(data != null ? Bytes.escape(data) : "null", completion -> completion.resolve(data));
+        }
+
+        @Override
+        public void resolve(@Nullable final Collection data) {
+            resolve((Object) data);
+        }
+
+        @Override
+        public void resolve(@Nullable final JSONArray data) {
+            complete(String.valueOf(data), completion -> completion.resolve(data));
+        }
+
+        @Override
+        public void resolve(@Nullable final Object data) {
+            final String json;
+            try {
+                final StringBuilder sb = new StringBuilder();
+                codec.encode(data, sb);
+                json = Bytes.escape(sb.toString());
+            } catch (Exception e) {
+                reject("Failed to encode the data.");
+                return;
+            }
+            complete(json, completion -> completion.resolve(data));
+        }
+
+        @Override
+        public void resolve(@Nullable final byte[] data) {
+            complete(data != null ? Bytes.toJson(data) : "null", completion -> completion.resolve(data));
+        }
+
+        @Override
+        public void resolve(@Nullable final ByteBuffer data) {
+            complete(data != null ? Bytes.toJson(data) : "null", completion -> completion.resolve(data));
+        }
+
+        /**
+         * Reads the text at once, because a reader can't be passed to several requests.
+         */
+        @Override
+        public void resolveStream(@NonNull final Reader json) {
+            final String text;
+            try {
+                try {
+                    final StringBuilder sb = new StringBuilder();
+                    final char[] buffer = new char[8192];
+                    int n;
+                    while ((n = json.read(buffer)) >= 0) {
+                        sb.append(buffer, 0, n);
+                    }
+                    text = sb.toString();
+                } finally {
+                    json.close();
+                }
+            } catch (IOException e) {
+                reject("Failed to read the stream.");
+                return;
+            }
+            final String result = Bytes.escape(text);
+            complete(result, completion -> CachingCompletion.resolveCached(completion, result));
+        }
+
+        @Override
+        public void progress(@Nullable final Object data) {
+            if (isCompleted()) {
+                return;
+            }
+            for (Completable completion : snapshot()) {
+                completion.progress(data);
+            }
+        }
+
+        @Override
+        public void reject() {
+            reject(null);
+        }
+
+        @Override
+        public void reject(@Nullable final String errorMessage) {
+            final List<Completable> completions = finish();
+            if (completions == null) {
+                return;
+            }
+            for (Completable completion : completions) {
+                completion.reject(errorMessage);
+            }
+        }
+
+        /**
+         * Passes the JSON text of a result to each request. Other completions get the result as is.
+         */
+        private void complete(@NonNull final String json, @NonNull final Resolution resolution) {
+            final List<Completable> completions = finish();
+            if (completions == null) {
+                return;
+            }
+            for (Completable completion : completions) {
+                if (!CachingCompletion.resolveJson(completion, json)) {
+                    resolution.resolve(completion);
+                }
+            }
+        }
+
+        /**
+         * Ends the flight, so that a later request starts another run.
+         *
+         * @return The completions of the requests, or null if the flight already ended.
+         */
+        @Nullable
+        private List<Completable> finish() {
+            synchronized (flights) {
+                synchronized (this) {
+                    if (completed) {
+                        return null;
+                    }
+                    completed = true;
+                }
+                flights.remove(key);
+                return snapshot();
+            }
+        }
+    }
+
+    @NonNull
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    /**
+     * Joins a request to the run of the handler in progress for equal data, or starts a run.
+     *
+     * @param key        The canonical key of the data.
+     * @param completion The completion of the request.
+     * @param codec      A codec encoding the result of a new run.
+     * @return The completion the handler of a new run completes, or null if the request joined a run in progress.
+     */
+    @Nullable
+    Flight join(@NonNull final String key, @NonNull final Completable completion, @NonNull final PayloadCodec codec) {
+        synchronized (flights) {
+            final Flight flight = flights.get(key);
+            if (flight != null) {
+                flight.add(completion);
+                return null;
+            }
+            final Flight started = new Flight(key, completion, codec);
+            flights.put(key, started);
+            return started;
+        }
+    }
+
+    /**
+     * Returns the number of runs in progress.
+     */
+    int size() {
+        synchronized (flights) {
+            return flights.size();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timing wheel running all timeouts of a client on one timer.
+ * The timer ticks on the dispatcher's main thread only while timeouts are pending,
+ * and a timeout fires no earlier than its delay. Each tick is posted after the previous one runs,
+ * so timeouts fire later than their delay while the main thread is busy.
+ */
+final class TimingWheel {
+    /**
+     * A scheduled timeout.
+     */
+    static final class Timeout {
+        @NonNull
+        private final Runnable task;
+        private long rounds;
+        private int slot;
+        private boolean cancelled;
+
+        private Timeout(@NonNull final Runnable task) {
+            this.task = task;
+        }
+    }
+
+    static final long DEFAULT_TICK_MILLIS = 100;
+    static final int DEFAULT_WHEEL_SIZE = 512;
+
+    @NonNull
+    private final Dispatcher dispatcher;
+    private final long tickMillis;
+    @NonNull
+    private final List<List<Timeout>> wheel;
+    @NonNull
+    private final Runnable tickTask = this::tick;
+    private int cursor;
+    private int pendingCount;
+    private boolean ticking;
+
+    TimingWheel(@NonNull final Dispatcher dispatcher) {
+        this(dispatcher, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    TimingWheel(@NonNull final Dispatcher dispatcher, final long tickMillis, final int wheelSize) {
+        this.dispatcher = dispatcher;
+        this.tickMillis = tickMillis;
+        this.wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new ArrayList<Timeout>());
+        }
+    }
+
+    /**
+     * Schedules a task to run on the main thread after the delay.
+     *
+     * @return A timeout to cancel.
+     */
+    @NonNull
+    Timeout schedule(@NonNull final Runnable task, final long delayMillis) {
+        final Timeout timeout = new Timeout(task);
+        // Round up, so that a timeout never fires before its delay.
+        final long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        final boolean startTicking;
+        synchronized (this) {
+            timeout.rounds = (ticks - 1) / wheel.size();
+            timeout.slot = (int) ((cursor + ticks) % wheel.size());
+            wheel.get(timeout.slot).add(timeout);
+            pendingCount++;
+            startTicking = !ticking;
+            ticking = true;
+        }
+
+        if (startTicking) {
+            dispatcher.postDelayed(tickTask, tickMillis);
+        }
+
+        return timeout;
+    }
+
+    /**
+     * Cancels a timeout. A cancelled timeout never runs.
+     */
+    void cancel(@NonNull final Timeout timeout) {
+        synchronized (this) {
+            if (timeout.cancelled) {
+                return;
+            }
+            timeout.cancelled = true;
+            if (wheel.get(timeout.slot).remove(timeout)) {
+                pendingCount--;
+            }
+        }
+    }
+
+    synchronized int size() {
+        return pendingCount;
+    }
+
+    private void tick() {
+        final List<Timeout> expired = new ArrayList<>();
+        final boolean keepTicking;
+        synchronized (this) {
+            cursor = (cursor + 1) % wheel.size();
+            final List<Timeout> slot = wheel.get(cursor);
+            for (int i = slot.size() - 1; i >= 0; i--) {
+                final Timeout timeout = slot.get(i);
+                if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                } else {
+                    slot.remove(i);
+                    timeout.cancelled = true;
+                    pendingCount--;
+                    expired.add(timeout);
+                }
+            }
+            keepTicking = pendingCount > 0;
+            ticking = keepTicking;
+        }
+
+        if (keepTicking) {
+            dispatcher.postDelayed(tickTask, tickMillis);
+        }
+
+        for (int i = expired.size() - 1; i >= 0; i--) {
+            expired.get(i).task.run();
+        }
+    }
+}
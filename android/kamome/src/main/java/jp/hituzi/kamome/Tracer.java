@@ -0,0 +1,32 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives the spans of the stages of requests from the JavaScript code.
+ * A span begins and ends on any thread, and spans of concurrent requests interleave.
+ *
+ * @see Client#setTracer(Tracer)
+ * @see AndroidTracer
+ * @see MemoryTracer
+ */
+public interface Tracer {
+    enum Stage {
+        /**
+         * From receiving a request to running its handler, e.g., waiting for the command executor.
+         */
+        QUEUE,
+        /**
+         * From running a handler to resolving or rejecting the request.
+         */
+        HANDLER,
+        /**
+         * From resolving or rejecting a request to delivering its result to the WebView on the main thread.
+         */
+        DELIVERY
+    }
+
+    void beginSpan(@NonNull Stage stage, @NonNull String commandName, @NonNull String requestId);
+
+    void endSpan(@NonNull Stage stage, @NonNull String commandName, @NonNull String requestId);
+}
@@ -0,0 +1,106 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * A channel carrying messages from the native client to the JavaScript library.
+ * Each transport encodes messages in its own format and delivers a batch of encoded messages at once.
+ */
+abstract class Transport {
+    /**
+     * Receives a message sent from the JavaScript library.
+     */
+    interface Receiver {
+        void onReceive(@NonNull String message);
+    }
+
+    /**
+     * Refers to a payload sent in chunks. It is passed as the data of the message ending the stream.
+     */
+    static final class StreamRef {
+        @NonNull
+        final String id;
+
+        StreamRef(@NonNull final String id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * The name of this transport negotiated in the handshake.
+     */
+    @NonNull
+    abstract String getName();
+
+    /**
+     * @param data A JSON value, or a {@link StreamRef}.
+     */
+    @NonNull
+    abstract String encodeComplete(@Nullable Object data, @NonNull String requestId);
+
+    /**
+     * Encodes a partial result of a request, which the JavaScript library receives before the final result.
+     *
+     * @param data A JSON value, or a {@link StreamRef}.
+     */
+    @NonNull
+    abstract String encodeProgress(@Nullable Object data, @NonNull String requestId);
+
+    /**
+     * @param error An error message already encoded as a URI component, or null.
+     */
+    @NonNull
+    abstract String encodeError(@Nullable String error, @NonNull String requestId);
+
+    /**
+     * @param data A JSON value, or a {@link StreamRef}.
+     */
+    @NonNull
+    abstract String encodeReceive(@NonNull String name, @Nullable Object data, @NonNull String callbackId);
+
+    /**
+     * Encodes an event, which the JavaScript subscribers receive without replying.
+     *
+     * @param data A JSON value, or a {@link StreamRef}.
+     */
+    @NonNull
+    abstract String encodeEvent(@NonNull String name, @Nullable Object data);
+
+    /**
+     * @param chunk A piece of the JSON text of a payload.
+     */
+    @NonNull
+    abstract String encodeChunk(@NonNull String streamId, @NonNull String chunk);
+
+    /**
+     * Acknowledges chunks of a payload sent from the JavaScript library.
+     *
+     * @param received The number of chunks received so far.
+     */
+    @NonNull
+    abstract String encodeChunkAck(@NonNull String streamId, int received);
+
+    /**
+     * Tells the JavaScript library how long the stages of a traced request took on the native side.
+     * It is sent before the result of the request.
+     *
+     * @param trace A JSON object of the timings.
+     */
+    @NonNull
+    abstract String encodeTrace(@NonNull String requestId, @NonNull String trace);
+
+    /**
+     * Delivers encoded messages to the JavaScript library at once.
+     * [NOTE] This method is called on the main thread.
+     */
+    abstract void deliver(@NonNull List<String> messages);
+
+    /**
+     * Releases the channel. The transport is not used after this call.
+     */
+    void close() {
+    }
+}
@@ -0,0 +1,133 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BridgeMetricsTest extends ClientTestBase {
+
+    private static final Pattern CALLBACK_ID = Pattern.compile("'(_km_[^']+)'");
+
+    private BridgeMetrics metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new BridgeMetrics();
+        client.setMetrics(metrics);
+    }
+
+    @Test
+    public void histogramBucketsBoundValues() {
+        for (long value : new long[]{0, 1, 3, 4, 5, 7, 8, 9, 1000, 123456789L, Long.MAX_VALUE}) {
+            final long bound = Histogram.upperBoundOf(Histogram.indexOf(value));
+            assertTrue(value + " <= " + bound, value <= bound);
+            assertTrue(value + " within 25% of " + bound, bound - value <= value / 4);
+        }
+    }
+
+    @Test
+    public void estimatesPercentiles() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        final BridgeMetrics.Distribution distribution = histogram.snapshot();
+
+        assertEquals(100, distribution.getCount());
+        assertEquals(5050, distribution.getSum());
+        assertEquals(50, distribution.getMean());
+        assertEquals(100, distribution.getMax());
+        assertTrue(distribution.getPercentile(50) >= 50);
+        assertTrue(distribution.getPercentile(50) <= 63);
+        assertEquals(100, distribution.getPercentile(100));
+    }
+
+    @Test
+    public void recordsRequestsOfCommands() throws Exception {
+        client.add(new Command("echo", (commandName, data, completion) -> completion.resolve(data)));
+        client.add(new Command("fail", (commandName, data, completion) -> completion.reject("Nope")));
+
+        client.kamomeSend("{\"id\":\"a\",\"name\":\"echo\",\"data\":{\"v\":1}}");
+        client.kamomeSend("{\"id\":\"b\",\"name\":\"fail\",\"data\":null}");
+        dispatcher.runAll();
+
+        final BridgeMetrics.Snapshot snapshot = metrics.snapshot();
+        final BridgeMetrics.CommandStats echo = snapshot.getCommand("echo");
+        assertNotNull(echo);
+        assertEquals(1, echo.getHandlerNanos().getCount());
+        assertEquals(1, echo.getCompletionNanos().getCount());
+        assertEquals("{\"v\":1}".length(), echo.getInboundLength().getMax());
+        assertEquals("{\"v\":1}".length(), echo.getOutboundLength().getMax());
+        assertEquals(0, echo.getRejectedCount());
+
+        final BridgeMetrics.CommandStats fail = snapshot.getCommand("fail");
+        assertNotNull(fail);
+        assertEquals(1, fail.getRejectedCount());
+        assertEquals(0, fail.getOutboundLength().getCount());
+
+        final JSONObject json = snapshot.toJSONObject();
+        assertEquals(1, json.getJSONObject("commands").getJSONObject("echo")
+                .getJSONObject("handlerNanos").getLong("count"));
+    }
+
+    @Test
+    public void recordsQueueDepthAndRoundTrips() {
+        client.send("first", null);
+        client.send("second", null);
+
+        assertEquals(2, metrics.snapshot().getReadyQueueDepth());
+
+        sendHandshake(client, dispatcher, null);
+
+        BridgeMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getReadyQueueDepth());
+        assertEquals(2, snapshot.getMaxReadyQueueDepth());
+        assertEquals(2, snapshot.getPendingReplyCount());
+
+        final Matcher matcher = CALLBACK_ID.matcher(scripts.get(0));
+        assertTrue(matcher.find());
+        client.kamomeSend("{\"id\":\"r\",\"name\":\"" + matcher.group(1) + "\",\"data\":{\"success\":true,\"result\":1}}");
+        dispatcher.runAll();
+
+        snapshot = metrics.snapshot();
+        final BridgeMetrics.CommandStats first = snapshot.getCommand("first");
+        assertNotNull(first);
+        assertEquals(1, first.getRoundTripNanos().getCount());
+        assertEquals(1, first.getInboundLength().getCount());
+        assertEquals(1, snapshot.getPendingReplyCount());
+    }
+
+    @Test
+    public void recordsTimeouts() {
+        sendHandshake(client, dispatcher, null);
+
+        client.send("slow", new SendOptions().setTimeout(100), null);
+        dispatcher.advance(200);
+
+        final BridgeMetrics.CommandStats slow = metrics.snapshot().getCommand("slow");
+        assertNotNull(slow);
+        assertEquals(1, slow.getTimeoutCount());
+        assertEquals(0, slow.getRoundTripNanos().getCount());
+    }
+
+    @Test
+    public void measuresNothingWithoutMetrics() {
+        client.setMetrics(null);
+        client.add(new Command("echo", (commandName, data, completion) -> completion.resolve(data)));
+
+        client.kamomeSend("{\"id\":\"a\",\"name\":\"echo\",\"data\":{\"v\":1}}");
+        dispatcher.runAll();
+
+        assertNull(metrics.snapshot().getCommand("echo"));
+        assertTrue(metrics.snapshot().getCommands().isEmpty());
+    }
+}
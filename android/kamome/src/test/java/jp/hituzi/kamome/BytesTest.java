@@ -0,0 +1,191 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BytesTest {
+
+    @Test
+    public void roundTripsEveryByteValue() throws Exception {
+        final byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+
+        final JSONObject data = Bytes.parse(Bytes.toJson(bytes));
+
+        assertTrue(Bytes.isBytes(data));
+        assertArrayEquals(bytes, Bytes.from(data));
+    }
+
+    @Test
+    public void encodesRemainingBytesOfBuffer() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}, 1, 3);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(3);
+        direct.put(new byte[]{2, 3, 4}).flip();
+
+        assertArrayEquals(new byte[]{2, 3, 4}, Bytes.from(Bytes.parse(Bytes.toJson(buffer))));
+        assertArrayEquals(new byte[]{2, 3, 4}, Bytes.from(Bytes.parse(Bytes.toJson(direct))));
+        assertEquals(1, buffer.position());
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void encodesBytesAsBase64() {
+        final byte[] bytes = new byte[999];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 7);
+        }
+
+        assertEquals("{\"_kamome\":\"bytes\",\"base64\":\"\"}", Bytes.toJson(new byte[0]));
+        assertEquals("{\"_kamome\":\"bytes\",\"base64\":\"AAH/\"}", Bytes.toJson(new byte[]{0, 1, (byte) 0xff}));
+        assertEquals("{\"_kamome\":\"bytes\",\"base64\":\"AQI=\"}", Bytes.toJson(new byte[]{1, 2}));
+        assertEquals(bytes.length / 3 * 4 + "{\"_kamome\":\"bytes\",\"base64\":\"\"}".length(), Bytes.toJson(bytes).length());
+    }
+
+    @Test
+    public void tagsObjectHavingReservedKeyAsValue() throws Exception {
+        final String json = "{\"_kamome\":\"bytes\",\"base64\":\"AQ==\"}";
+        final String escaped = Bytes.escape(json);
+
+        assertEquals("{\"_kamome\":\"value\",\"value\":" + json + "}", escaped);
+        assertEquals(json, Bytes.unescape(escaped));
+        assertEquals(new JSONObject(json).toString(), Bytes.decode(new JSONObject(escaped)).toString());
+        assertFalse(Bytes.isBytes(Bytes.parse(escaped)));
+        assertTrue(Bytes.isBytes(Bytes.parse(json)));
+        assertEquals("{\"a\":1}", Bytes.escape("{\"a\":1}"));
+        assertEquals("[\"_kamome\"]", Bytes.escape("[\"_kamome\"]"));
+        assertEquals("{\"a\":1}", Bytes.unescape("{\"a\":1}"));
+    }
+
+    @Test
+    public void tagsTextOfReaderAsValue() throws Exception {
+        final Reader reader = Bytes.escape(new StringReader("[1,2]"));
+        final StringBuilder sb = new StringBuilder();
+        final char[] buffer = new char[3];
+        int n;
+        while ((n = reader.read(buffer)) >= 0) {
+            sb.append(buffer, 0, n);
+        }
+
+        assertEquals("{\"_kamome\":\"value\",\"value\":[1,2]}", sb.toString());
+    }
+
+    @Test
+    public void returnsNullForOtherData() throws Exception {
+        assertFalse(Bytes.isBytes(new JSONObject().put("a", 1)));
+        assertFalse(Bytes.isBytes(new JSONObject().put("_kamome", "value").put("value", 1)));
+        assertFalse(Bytes.isBytes(new JSONObject().put("_kamome", "bytes").put("base64", "AQ==")));
+        assertNull(Bytes.from(new JSONObject().put("a", 1)));
+        assertNull(Bytes.from(Bytes.parse("{\"_kamome\":\"bytes\",\"base64\":\"A\"}")));
+        assertNull(Bytes.from(null));
+    }
+
+    @Test
+    public void sendsAndReceivesBytesThroughClient() throws Exception {
+        final List<String> scripts = new ArrayList<>();
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        final Client client = new Client(scripts::add, null, dispatcher);
+        ClientTestBase.sendHandshake(client, dispatcher, "{\"binary\":true}");
+        scripts.clear();
+
+        final List<Object> results = new ArrayList<>();
+        client.send(new byte[]{0, 1, (byte) 0xff}, "image", null, (commandName, result, error) -> results.add(result));
+        dispatcher.runAll();
+        assertEquals(1, scripts.size());
+        assertTrue(scripts.get(0).startsWith("window.KM.onReceive('image', {\"_kamome\":\"bytes\",\"base64\":\"AAH/\"}, "));
+
+        final String callbackId = scripts.get(0).replaceAll(".*, '([^']+)'\\)$", "$1");
+        client.kamomeSend("{\"id\":\"r\",\"name\":\"" + callbackId
+                + "\",\"data\":{\"success\":true,\"result\":{\"_kamome\":\"bytes\",\"base64\":\"B/8=\"}}}");
+        assertArrayEquals(new byte[]{7, (byte) 0xff}, (byte[]) results.get(0));
+    }
+
+    @Test
+    public void resolvesCommandWithBytes() {
+        final List<String> scripts = new ArrayList<>();
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        final Client client = new Client(scripts::add, null, dispatcher);
+        ClientTestBase.sendHandshake(client, dispatcher, "{\"binary\":true}");
+        scripts.clear();
+        final List<byte[]> received = new ArrayList<>();
+        client.add(new Command("upload", (commandName, data, completion) -> {
+            received.add(Bytes.from(data));
+            completion.resolve(ByteBuffer.wrap(new byte[]{9}));
+        }));
+
+        client.kamomeSend("{\"id\":\"req\",\"name\":\"upload\",\"data\":{\"_kamome\":\"bytes\",\"base64\":\"YWI=\"}}");
+        dispatcher.runAll();
+
+        assertArrayEquals(new byte[]{'a', 'b'}, received.get(0));
+        assertEquals("window.KM.onComplete({\"_kamome\":\"bytes\",\"base64\":\"CQ==\"}, 'req')", scripts.get(0));
+    }
+
+    @Test
+    public void passesObjectHavingReservedKeyAsIs() throws Exception {
+        final List<String> scripts = new ArrayList<>();
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        final Client client = new Client(scripts::add, null, dispatcher);
+        ClientTestBase.sendHandshake(client, dispatcher, "{\"binary\":true}");
+        scripts.clear();
+        final List<Object> received = new ArrayList<>();
+        client.add(new Command("echo", (commandName, data, completion) -> {
+            received.add(Bytes.isBytes(data));
+            received.add(data.optString("base64"));
+            completion.resolve(data);
+        }));
+
+        client.kamomeSend("{\"id\":\"req\",\"name\":\"echo\",\"data\":"
+                + "{\"_kamome\":\"value\",\"value\":{\"_kamome\":\"bytes\",\"base64\":\"YWI=\"}}}");
+        dispatcher.runAll();
+
+        assertEquals(Arrays.asList((Object) false, "YWI="), received);
+        final String prefix = "window.KM.onComplete({\"_kamome\":\"value\",\"value\":";
+        assertTrue(scripts.get(0).startsWith(prefix));
+        final JSONObject value = new JSONObject(scripts.get(0).substring(prefix.length(), scripts.get(0).length() - "}, 'req')".length()));
+        assertEquals("bytes", value.optString("_kamome"));
+        assertEquals("YWI=", value.optString("base64"));
+    }
+
+    @Test
+    public void sendsPayloadsUntaggedToLibraryWithoutBinarySupport() throws Exception {
+        final List<String> scripts = new ArrayList<>();
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        final Client client = new Client(scripts::add, null, dispatcher);
+        ClientTestBase.sendHandshake(client, dispatcher, null);
+        assertTrue(scripts.get(0), scripts.get(0).contains("\"binary\":true"));
+        scripts.clear();
+        final List<Object> received = new ArrayList<>();
+        client.add(new Command("echo", (commandName, data, completion) -> {
+            received.add(Bytes.isBytes(data));
+            completion.resolve(data);
+        }));
+
+        final String json = "{\"_kamome\":\"bytes\",\"base64\":\"YWI=\"}";
+        client.kamomeSend("{\"id\":\"req\",\"name\":\"echo\",\"data\":" + json + "}");
+        client.send(new StringReader("[1,2]"), "list", null, null);
+        client.send(new JSONObject(json), "object", null);
+        dispatcher.runAll();
+
+        assertEquals(Arrays.asList((Object) false), received);
+        final String delivered = scripts.toString();
+        final String object = new JSONObject(json).toString();
+        assertTrue(delivered, delivered.contains("window.KM.onComplete(" + object + ", 'req')"));
+        assertTrue(delivered, delivered.contains("window.KM.onReceive('list', [1,2], "));
+        assertTrue(delivered, delivered.contains("window.KM.onReceive('object', " + object + ", "));
+        assertFalse(delivered, delivered.contains("\"value\""));
+    }
+}
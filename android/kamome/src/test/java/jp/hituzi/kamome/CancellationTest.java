@@ -0,0 +1,170 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CancellationTest extends ClientTestBase {
+
+    private List<Completable> runs;
+
+    @Before
+    public void setUp() {
+        runs = new ArrayList<>();
+        client.add(new Command("work", (commandName, data, completion) -> runs.add(completion)));
+    }
+
+    private void request(String id, long deadline) {
+        client.kamomeSend("{\"id\":\"" + id + "\",\"name\":\"work\",\"data\":null,\"deadline\":" + deadline + "}");
+    }
+
+    private void cancel(String id) {
+        client.kamomeSend("{\"id\":\"" + id + "\",\"name\":\"_kamomeCancel\",\"data\":null}");
+    }
+
+    @Test
+    public void tellsHandlerOfCancellation() {
+        final List<String> cancelled = new ArrayList<>();
+        request("a", System.currentTimeMillis() + 60000);
+        runs.get(0).setCancelListener(() -> cancelled.add("a"));
+        assertFalse(runs.get(0).isCancelled());
+
+        cancel("a");
+
+        assertEquals(1, cancelled.size());
+        assertTrue(runs.get(0).isCancelled());
+    }
+
+    @Test
+    public void neverSendsResultOfCancelledRequest() {
+        request("a", System.currentTimeMillis() + 60000);
+        cancel("a");
+        runs.get(0).resolve(new JSONObject());
+        runs.get(0).reject("Late");
+        dispatcher.runAll();
+
+        assertTrue(scripts.isEmpty());
+    }
+
+    @Test
+    public void callsListenerSetAfterCancellation() {
+        final List<String> cancelled = new ArrayList<>();
+        request("a", System.currentTimeMillis() + 60000);
+        cancel("a");
+
+        runs.get(0).setCancelListener(() -> cancelled.add("a"));
+
+        assertEquals(1, cancelled.size());
+    }
+
+    @Test
+    public void ignoresCancellationOfCompletedRequest() {
+        final List<String> cancelled = new ArrayList<>();
+        request("a", System.currentTimeMillis() + 60000);
+        runs.get(0).setCancelListener(() -> cancelled.add("a"));
+        runs.get(0).resolve();
+        cancel("a");
+        dispatcher.runAll();
+
+        assertTrue(cancelled.isEmpty());
+        assertEquals(1, scripts.size());
+    }
+
+    @Test
+    public void eitherCancelsOrCompletesRequestRacingOnThreads() throws Exception {
+        final int count = 500;
+        final AtomicInteger cancelled = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            request("r" + i, System.currentTimeMillis() + 60000);
+            final Completion completion = (Completion) runs.get(i);
+            completion.setCancelListener(cancelled::incrementAndGet);
+
+            final CountDownLatch start = new CountDownLatch(1);
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignored) {
+                }
+                completion.resolve();
+            });
+            thread.start();
+            start.countDown();
+            completion.cancel();
+            thread.join();
+        }
+        dispatcher.runAll();
+
+        int completed = 0;
+        for (String script : scripts) {
+            completed += script.split("onComplete\\(", -1).length - 1;
+        }
+        assertEquals(count, completed + cancelled.get());
+    }
+
+    @Test
+    public void dropsExpiredRequestBeforeHandlerRuns() {
+        request("a", System.currentTimeMillis() - 1);
+        dispatcher.runAll();
+
+        assertTrue(runs.isEmpty());
+        assertTrue(scripts.isEmpty());
+    }
+
+    @Test
+    public void skipsHandlerOfRequestCancelledWhileQueued() {
+        client.add(new Command("work", (commandName, data, completion) -> runs.add(completion))
+                .setExecutor(CommandExecutor.MAIN));
+
+        request("a", System.currentTimeMillis() + 60000);
+        cancel("a");
+        dispatcher.runAll();
+
+        assertTrue(runs.isEmpty());
+        assertTrue(scripts.isEmpty());
+    }
+
+    @Test
+    public void tellsRemainingTimeUntilDeadline() {
+        request("a", System.currentTimeMillis() + 60000);
+        client.kamomeSend("{\"id\":\"b\",\"name\":\"work\",\"data\":null}");
+
+        final long remaining = runs.get(0).getRemainingMillis();
+        assertTrue(String.valueOf(remaining), remaining > 50000 && remaining <= 60000);
+        assertEquals(Long.MAX_VALUE, runs.get(1).getRemainingMillis());
+        assertFalse(runs.get(1).isCancelled());
+    }
+
+    @Test
+    public void cancelsRunOfSingleFlightRequestsWhenAllAreCancelled() {
+        final List<String> cancelled = new ArrayList<>();
+        client.add(new Command("work", (commandName, data, completion) -> runs.add(completion)).setSingleFlight(true));
+
+        request("a", System.currentTimeMillis() + 60000);
+        request("b", System.currentTimeMillis() + 60000);
+        runs.get(0).setCancelListener(() -> cancelled.add("run"));
+
+        cancel("a");
+        assertFalse(runs.get(0).isCancelled());
+        assertTrue(cancelled.isEmpty());
+
+        cancel("b");
+        assertTrue(runs.get(0).isCancelled());
+        assertEquals(1, cancelled.size());
+    }
+
+    @Test
+    public void advertisesCancellationInHandshake() {
+        sendHandshake(client, dispatcher, null);
+
+        assertTrue(scripts.get(0), scripts.get(0).contains("\"cancellation\":true"));
+    }
+}
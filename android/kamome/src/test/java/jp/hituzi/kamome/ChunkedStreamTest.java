@@ -0,0 +1,338 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedStreamTest {
+
+    private RecordingTransport transport;
+    private Messenger messenger;
+
+    @Before
+    public void setUp() {
+        transport = new RecordingTransport();
+        messenger = new Messenger(transport, Runnable::run);
+        messenger.setChunkingEnabled(true);
+        messenger.setChunkSize(10);
+        messenger.setChunkWindow(2);
+    }
+
+    @Test
+    public void sendsSmallPayloadInOneMessage() {
+        messenger.completeMessage(new JSONObject(), "req");
+
+        assertEquals(Collections.singletonList("complete:{}:req"), transport.messages);
+    }
+
+    @Test
+    public void sendsLargePayloadInChunksWithinWindow() throws Exception {
+        final String json = new JSONArray().put("0123456789").put("abcdefghij").put("ABCDEFGHIJ").toString();
+        messenger.completeMessage(new JSONArray(json), "req");
+
+        assertEquals(2, transport.messages.size());
+        assertEquals(1, messenger.getStreamCount());
+
+        messenger.onChunkAck("n1", 1);
+        assertEquals(3, transport.messages.size());
+
+        messenger.onChunkAck("n1", 3);
+        assertEquals(5, transport.messages.size());
+        assertEquals(0, messenger.getStreamCount());
+        assertEquals("complete:ref:n1:req", transport.messages.get(transport.messages.size() - 1));
+        assertEquals(json, transport.joinChunks("n1"));
+    }
+
+    @Test
+    public void ignoresAckOfUnknownStream() {
+        messenger.onChunkAck("unknown", 1);
+
+        assertTrue(transport.messages.isEmpty());
+    }
+
+    @Test
+    public void streamsReaderWithoutSplittingSurrogatePairs() {
+        final StringBuilder text = new StringBuilder("\"");
+        for (int i = 0; i < 20; i++) {
+            text.append("a\uD83D\uDE00");
+        }
+        final String json = text.append('"').toString();
+        messenger.setChunkWindow(100);
+
+        messenger.completeMessage(new StringReader(json), "req");
+
+        for (String chunk : transport.chunks("n1")) {
+            assertFalse(Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)));
+            assertTrue(chunk.length() <= 10);
+        }
+        assertEquals(json, transport.joinChunks("n1"));
+        assertEquals("complete:ref:n1:req", transport.messages.get(transport.messages.size() - 1));
+    }
+
+    @Test
+    public void sendsReaderAtOnceWithoutChunking() {
+        messenger.setChunkingEnabled(false);
+
+        messenger.completeMessage(new StringReader("[1,2,3,4,5,6,7,8,9]"), "req");
+
+        assertEquals(Collections.singletonList("complete:[1,2,3,4,5,6,7,8,9]:req"), transport.messages);
+    }
+
+    @Test
+    public void sendsRemainingChunksThroughSwitchedTransport() throws Exception {
+        final String json = new JSONArray().put("0123456789").put("abcdefghij").toString();
+        messenger.completeMessage(new JSONArray(json), "req");
+        final RecordingTransport switched = new RecordingTransport();
+
+        messenger.setTransport(switched);
+        messenger.onChunkAck("n1", 2);
+        messenger.onChunkAck("n1", 3);
+
+        assertEquals(2, transport.chunks("n1").size());
+        assertEquals("complete:ref:n1:req", switched.messages.get(switched.messages.size() - 1));
+        assertEquals(json, transport.joinChunks("n1") + switched.joinChunks("n1"));
+    }
+
+    @Test
+    public void closesReaderOfStreamsOnReset() {
+        final ClosingReader reader = new ClosingReader("[\"0123456789abcdefghij\"]");
+        messenger.completeMessage(reader, "req");
+        assertEquals(1, messenger.getStreamCount());
+
+        messenger.resetStreams();
+        messenger.onChunkAck("n1", 2);
+
+        assertTrue(reader.closed);
+        assertEquals(0, messenger.getStreamCount());
+        assertEquals(2, transport.messages.size());
+    }
+
+    @Test
+    public void abortsStreamNotAcknowledged() {
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        messenger.setTimingWheel(new TimingWheel(dispatcher));
+        final ClosingReader reader = new ClosingReader("[\"0123456789abcdefghij0123456789abcdefghij\"]");
+        messenger.completeMessage(reader, "req");
+
+        dispatcher.advance(OutboundStream.IDLE_TIMEOUT_MILLIS / 2);
+        messenger.onChunkAck("n1", 1);
+        dispatcher.advance(OutboundStream.IDLE_TIMEOUT_MILLIS / 2 + 1000);
+        assertFalse(reader.closed);
+
+        dispatcher.advance(OutboundStream.IDLE_TIMEOUT_MILLIS);
+        assertTrue(reader.closed);
+        assertEquals(0, messenger.getStreamCount());
+        assertTrue(transport.messages.get(transport.messages.size() - 1).startsWith("error:"));
+    }
+
+    @Test
+    public void dropsInboundStreamWhenIdleOrCleared() {
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        final List<String> messages = new ArrayList<>();
+        final InboundStreams streams = new InboundStreams(new InboundStreams.Listener() {
+            @Override
+            public void onAck(String streamId, int received) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                messages.add(message);
+            }
+        }, new TimingWheel(dispatcher));
+
+        streams.append("s1", "ab", false);
+        streams.append("s2", "cd", false);
+        dispatcher.advance(InboundStreams.IDLE_TIMEOUT_MILLIS / 2);
+        streams.append("s2", "ef", false);
+        dispatcher.advance(InboundStreams.IDLE_TIMEOUT_MILLIS / 2 + 1000);
+        assertEquals(1, streams.size());
+
+        streams.clear();
+        assertEquals(0, streams.size());
+
+        streams.append("s3", "gh", true);
+        assertEquals(Collections.singletonList("gh"), messages);
+    }
+
+    @Test
+    public void reassemblesChunksFromJavaScript() {
+        final List<String> scripts = new ArrayList<>();
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        final Client client = new Client(scripts::add, null, dispatcher);
+        final List<Object> received = new ArrayList<>();
+        client.add(new Command("echo", (commandName, data, completion) -> {
+            received.add(data.optString("message"));
+            completion.resolve();
+        }));
+
+        final String message = "{\"id\":\"req\",\"name\":\"echo\",\"data\":{\"message\":\"hello\"}}";
+        client.kamomeSend(chunk("s1", message.substring(0, 20), false));
+        client.kamomeSend(chunk("s1", message.substring(20, 40), false));
+        client.kamomeSend(chunk("s1", message.substring(40), true));
+        dispatcher.runAll();
+
+        assertEquals(Collections.singletonList((Object) "hello"), received);
+        final String js = scripts.toString();
+        assertTrue(js.contains("window.KM.onChunkAck('s1', 1)"));
+        assertTrue(js.contains("window.KM.onChunkAck('s1', 2)"));
+        assertTrue(js.contains("window.KM.onComplete(null, 'req')"));
+    }
+
+    @Test
+    public void negotiatesChunkingAndStreamsSentReader() throws Exception {
+        final List<String> scripts = new ArrayList<>();
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        final Client client = new Client(scripts::add, null, dispatcher).setChunkSize(4).setChunkWindow(1);
+        ClientTestBase.sendHandshake(client, dispatcher, "{\"chunking\":true}");
+        assertTrue(scripts.get(0).contains("\"chunkSize\":4"));
+        assertTrue(scripts.get(0).contains("\"chunkWindow\":1"));
+        scripts.clear();
+
+        final List<Object> results = new ArrayList<>();
+        client.send(new StringReader("[\"abcdef\"]"), "greeting", null, (commandName, result, error) -> results.add(result));
+        dispatcher.runAll();
+        assertEquals(Collections.singletonList("window.KM.onChunk('n1', '[\\\"ab')"), scripts);
+
+        client.kamomeSend("{\"id\":\"n1\",\"name\":\"_kamomeChunkAck\",\"data\":{\"received\":1}}");
+        client.kamomeSend("{\"id\":\"n1\",\"name\":\"_kamomeChunkAck\",\"data\":{\"received\":2}}");
+        client.kamomeSend("{\"id\":\"n1\",\"name\":\"_kamomeChunkAck\",\"data\":{\"received\":3}}");
+        dispatcher.runAll();
+
+        final Matcher matcher = Pattern.compile("onReceive\\('greeting', window\\.KM\\.takeStream\\('n1'\\), '([^']+)'\\)")
+                .matcher(scripts.toString());
+        assertTrue(matcher.find());
+        client.kamomeSend("{\"id\":\"r\",\"name\":\"" + matcher.group(1) + "\",\"data\":{\"success\":true,\"result\":\"ok\"}}");
+        assertEquals(Collections.singletonList((Object) "ok"), results);
+    }
+
+    @Test
+    public void resolvesLocalExecutionWithStream() {
+        final Client client = new Client(js -> {
+        }, null, new ManualDispatcher());
+        client.add(new Command("load", (commandName, data, completion) ->
+                completion.resolveStream(new StringReader("{\"rows\":[1,2]}"))));
+        final List<Object> results = new ArrayList<>();
+
+        client.execute("load", new LocalCompletion.Callback() {
+            @Override
+            public void onResolved(Object result) {
+                results.add(result.toString());
+            }
+
+            @Override
+            public void onRejected(String errorMessage) {
+                results.add(errorMessage);
+            }
+        });
+
+        assertEquals(Collections.singletonList((Object) "{\"rows\":[1,2]}"), results);
+    }
+
+    private static final class ClosingReader extends StringReader {
+        boolean closed;
+
+        ClosingReader(String text) {
+            super(text);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            super.close();
+        }
+    }
+
+    private static String chunk(String streamId, String chunk, boolean last) {
+        return "{\"name\":\"_kamomeChunk\",\"id\":" + JSONObject.quote(streamId)
+                + ",\"chunk\":" + JSONObject.quote(chunk) + ",\"last\":" + last + "}";
+    }
+
+    private static final class RecordingTransport extends Transport {
+        final List<String> messages = new ArrayList<>();
+
+        @Override
+        String getName() {
+            return "recording";
+        }
+
+        @Override
+        String encodeComplete(Object data, String requestId) {
+            return "complete:" + dataOf(data) + ":" + requestId;
+        }
+
+        @Override
+        String encodeError(String error, String requestId) {
+            return "error:" + error + ":" + requestId;
+        }
+
+        @Override
+        String encodeReceive(String name, Object data, String callbackId) {
+            return "receive:" + name + ":" + dataOf(data) + ":" + callbackId;
+        }
+
+        @Override
+        String encodeChunk(String streamId, String chunk) {
+            return "chunk:" + streamId + ":" + chunk;
+        }
+
+        @Override
+        String encodeChunkAck(String streamId, int received) {
+            return "chunkAck:" + streamId + ":" + received;
+        }
+
+        @Override
+        String encodeEvent(String name, Object data) {
+            return "event:" + name + ":" + dataOf(data);
+        }
+
+        @Override
+        String encodeProgress(Object data, String requestId) {
+            return "progress:" + requestId + ":" + dataOf(data);
+        }
+
+        @Override
+        String encodeTrace(String requestId, String trace) {
+            return "trace:" + requestId + ":" + trace;
+        }
+
+        @Override
+        void deliver(List<String> messages) {
+            this.messages.addAll(messages);
+        }
+
+        List<String> chunks(String streamId) {
+            final String prefix = "chunk:" + streamId + ":";
+            final List<String> chunks = new ArrayList<>();
+            for (String message : messages) {
+                if (message.startsWith(prefix)) {
+                    chunks.add(message.substring(prefix.length()));
+                }
+            }
+            return chunks;
+        }
+
+        String joinChunks(String streamId) {
+            final StringBuilder sb = new StringBuilder();
+            for (String chunk : chunks(streamId)) {
+                sb.append(chunk);
+            }
+            return sb.toString();
+        }
+
+        private static String dataOf(Object data) {
+            return data instanceof StreamRef ? "ref:" + ((StreamRef) data).id : String.valueOf(data);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package jp.hituzi.kamome;
+
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A base of tests of a client evaluating scripts into a list, running the bridge on a manual dispatcher.
+ */
+public abstract class ClientTestBase {
+
+    protected List<String> scripts;
+    protected ManualDispatcher dispatcher;
+    protected Client client;
+
+    @Before
+    public void setUpClient() {
+        scripts = Collections.synchronizedList(new ArrayList<String>());
+        dispatcher = new ManualDispatcher();
+        client = new Client(scripts::add, null, dispatcher);
+    }
+
+    /**
+     * Sends the handshake of the JavaScript library to a client, and runs the tasks it posts.
+     *
+     * @param data The data of the handshake, e.g., {@code {"events":true}}, or null.
+     */
+    static void sendHandshake(Client client, ManualDispatcher dispatcher, String data) {
+        client.kamomeSend("{\"id\":\"syn\",\"name\":\"_kamomeSYN\",\"data\":" + data + "}");
+        dispatcher.runAll();
+    }
+
+    /**
+     * Completes the handshake of the client, and forgets the scripts sent by then.
+     *
+     * @param data The data of the handshake, or null.
+     */
+    protected void handshake(String data) {
+        sendHandshake(client, dispatcher, data);
+        scripts.clear();
+    }
+
+    /**
+     * Returns the messages delivered by now, each followed by a semicolon.
+     */
+    protected String delivered() {
+        final StringBuilder sb = new StringBuilder();
+        synchronized (scripts) {
+            for (String script : scripts) {
+                sb.append(Scripts.unwrap(script)).append(';');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,274 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CommandExecutorTest {
+
+    private ManualDispatcher dispatcher;
+    private CommandExecutor.Scope scope;
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        dispatcher = new ManualDispatcher();
+        scope = new CommandExecutor.Scope(dispatcher);
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void runsOnBridgeThreadByDefault() {
+        final Client client = new Client(js -> {
+        }, null, dispatcher);
+        final List<Thread> threads = new ArrayList<>();
+        client.add(new Command("bridge", (commandName, data, completion) -> threads.add(Thread.currentThread())));
+
+        client.execute("bridge", null);
+
+        assertEquals(Collections.singletonList(Thread.currentThread()), threads);
+    }
+
+    @Test
+    public void runsOnMainThread() {
+        final Client client = new Client(js -> {
+        }, null, dispatcher);
+        final AtomicInteger onMain = new AtomicInteger();
+        client.add(new Command("main", (commandName, data, completion) -> {
+            if (dispatcher.isMainThread()) {
+                onMain.incrementAndGet();
+            }
+        }).setExecutor(CommandExecutor.MAIN));
+
+        client.execute("main", null);
+        assertEquals(0, onMain.get());
+
+        dispatcher.runAll();
+        assertEquals(1, onMain.get());
+    }
+
+    @Test
+    public void runsRequestsOfSameKeyInOrder() throws Exception {
+        final CommandExecutor executor = CommandExecutor.of(pool);
+        final int count = 2000;
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+
+        for (int i = 0; i < count; i++) {
+            final int value = i;
+            executor.execute(scope, "key", () -> {
+                if (running.incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                order.add(value);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void runsRequestsOfDifferentKeysInParallel() throws Exception {
+        final CommandExecutor executor = CommandExecutor.of(pool);
+        final CountDownLatch bStarted = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final AtomicInteger aSawB = new AtomicInteger();
+
+        // A waits for B, so that this finishes only if they run at the same time.
+        executor.execute(scope, "a", () -> {
+            try {
+                if (bStarted.await(10, TimeUnit.SECONDS)) {
+                    aSawB.incrementAndGet();
+                }
+            } catch (InterruptedException ignored) {
+            }
+            done.countDown();
+        });
+        executor.execute(scope, "b", () -> {
+            bStarted.countDown();
+            done.countDown();
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, aSawB.get());
+    }
+
+    @Test
+    public void continuesKeyAfterFailedTask() throws Exception {
+        final CommandExecutor executor = CommandExecutor.of(Runnable::run);
+        final List<String> results = new ArrayList<>();
+
+        try {
+            executor.execute(scope, "key", () -> {
+                throw new IllegalStateException();
+            });
+        } catch (IllegalStateException ignored) {
+        }
+        executor.execute(scope, "key", () -> results.add("next"));
+
+        assertEquals(Collections.singletonList("next"), results);
+    }
+
+    @Test
+    public void releasesKeyWhenExecutorRejectsTask() {
+        final AtomicInteger rejections = new AtomicInteger(1);
+        final CommandExecutor executor = CommandExecutor.of(task -> {
+            if (rejections.getAndDecrement() > 0) {
+                throw new RejectedExecutionException();
+            }
+            task.run();
+        });
+        final List<String> results = new ArrayList<>();
+
+        executor.execute(scope, "key", () -> results.add("first"), () -> results.add("rejected"));
+        executor.execute(scope, "key", () -> results.add("next"), () -> results.add("rejected"));
+
+        assertEquals(Arrays.asList("rejected", "next"), results);
+        assertEquals(0, executor.getStats().getQueueDepth());
+    }
+
+    @Test
+    public void rejectsRequestNotAcceptedByExecutor() {
+        final List<String> scripts = new ArrayList<>();
+        final Client client = new Client(scripts::add, null, dispatcher);
+        client.add(new Command("write", (commandName, data, completion) -> completion.resolve())
+                .setExecutor(CommandExecutor.of(task -> {
+                    throw new RejectedExecutionException();
+                }))
+                .setOrderingKey((commandName, data) -> "table"));
+
+        client.kamomeSend("{\"id\":\"a\",\"name\":\"write\",\"data\":null}");
+        dispatcher.runAll();
+
+        assertEquals(Collections.singletonList("window.KM.onError('ExecutorRejected', 'a')"), scripts);
+    }
+
+    @Test
+    public void runsTasksOfKeyQueuedOnBridgeWithoutNesting() {
+        final int count = 100000;
+        final AtomicInteger done = new AtomicInteger();
+
+        // Each task queues the next one while the key is busy, so that they run one after another.
+        CommandExecutor.BRIDGE.execute(scope, "bridge-key", () -> {
+            for (int i = 0; i < count; i++) {
+                CommandExecutor.BRIDGE.execute(scope, "bridge-key", done::incrementAndGet);
+            }
+        });
+
+        assertEquals(count, done.get());
+    }
+
+    @Test
+    public void ordersKeysOfEachClientApart() {
+        // Clients may share a dispatcher, e.g., the one of the main looper.
+        final CommandExecutor.Scope other = new CommandExecutor.Scope(dispatcher);
+        final List<String> order = new ArrayList<>();
+
+        // The same key of another client doesn't wait for the running task.
+        CommandExecutor.BRIDGE.execute(scope, "key", () -> {
+            CommandExecutor.BRIDGE.execute(other, "key", () -> order.add("other"));
+            CommandExecutor.BRIDGE.execute(scope, "key", () -> order.add("next"));
+            order.add("first");
+        });
+
+        assertEquals(Arrays.asList("other", "first", "next"), order);
+    }
+
+    @Test
+    public void measuresEachClientApart() {
+        final Client a = new Client(js -> {
+        }, null, dispatcher);
+        final Client b = new Client(js -> {
+        }, null, dispatcher);
+        final CommandExecutor executor = CommandExecutor.of(Runnable::run);
+        a.add(new Command("work", (commandName, data, completion) -> completion.resolve()).setExecutor(executor));
+
+        a.execute("work", null);
+        a.execute("work", null);
+
+        assertEquals(2, executor.getStats().getExecutedCount());
+        assertEquals(2, a.getExecutorStats(executor).getExecutedCount());
+        assertEquals(0, b.getExecutorStats(executor).getExecutedCount());
+    }
+
+    @Test
+    public void measuresQueueDepthAndDispatchLatency() {
+        final List<Runnable> queued = new ArrayList<>();
+        final CommandExecutor executor = CommandExecutor.of(queued::add);
+
+        for (int i = 0; i < 3; i++) {
+            executor.execute(scope, null, () -> {
+            });
+        }
+        CommandExecutor.Stats stats = executor.getStats();
+        assertEquals(3, stats.getQueueDepth());
+        assertEquals(3, stats.getMaxQueueDepth());
+        assertEquals(0, stats.getExecutedCount());
+
+        for (Runnable task : queued) {
+            task.run();
+        }
+        stats = executor.getStats();
+        assertEquals(0, stats.getQueueDepth());
+        assertEquals(3, stats.getMaxQueueDepth());
+        assertEquals(3, stats.getExecutedCount());
+        assertTrue(stats.getMaxDispatchLatencyNanos() >= stats.getAverageDispatchLatencyNanos());
+    }
+
+    @Test
+    public void ordersByKeyOfRequestData() throws Exception {
+        final Client client = new Client(js -> {
+        }, null, dispatcher);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(200);
+        client.add(new Command("write", (commandName, data, completion) -> {
+            order.add(data.optString("table") + data.optInt("i"));
+            completion.resolve();
+            done.countDown();
+        }).setExecutor(CommandExecutor.of(pool)).setOrderingKey((commandName, data) -> data.optString("table")));
+
+        for (int i = 0; i < 100; i++) {
+            client.execute("write", new JSONObject().put("table", "a").put("i", i), null);
+            client.execute("write", new JSONObject().put("table", "b").put("i", i), null);
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        final List<String> a = new ArrayList<>();
+        final List<String> b = new ArrayList<>();
+        for (String entry : order) {
+            (entry.startsWith("a") ? a : b).add(entry);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("a" + i, a.get(i));
+            assertEquals("b" + i, b.get(i));
+        }
+    }
+}
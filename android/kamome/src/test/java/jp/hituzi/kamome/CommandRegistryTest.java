@@ -0,0 +1,81 @@
+package jp.hituzi.kamome;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CommandRegistryTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 5000;
+
+    @Test
+    public void unregistersOnlyTheRegisteredInstance() {
+        final CommandRegistry registry = new CommandRegistry();
+        final Command first = new Command("a", null);
+        final Command second = new Command("a", null);
+
+        registry.register(first);
+        registry.register(second);
+
+        assertFalse(registry.unregister(first));
+        assertTrue(registry.contains("a"));
+        assertTrue(registry.unregister(second));
+        assertNull(registry.unregister("a"));
+    }
+
+    @Test
+    public void registersLooksUpAndUnregistersConcurrently() throws Exception {
+        final CommandRegistry registry = new CommandRegistry();
+        final Command stable = new Command("stable", null);
+        registry.register(stable);
+
+        ConcurrentRunner.run(THREADS, thread -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                final Command command = new Command("cmd-" + thread + "-" + i, null);
+                registry.register(command);
+                assertNotNull(registry.get(command.getName()));
+                assertTrue(registry.get("stable") == stable);
+                assertTrue(registry.unregister(command));
+            }
+        });
+
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void clientDispatchesWhileCommandsComeAndGo() throws Exception {
+        final Client client = new Client(js -> {
+        }, null, new ManualDispatcher());
+        final AtomicInteger stableCalls = new AtomicInteger();
+        final AtomicInteger temporaryCalls = new AtomicInteger();
+        client.add(new Command("stable", (commandName, data, completion) -> {
+            stableCalls.incrementAndGet();
+            completion.resolve();
+        }));
+
+        ConcurrentRunner.run(THREADS, thread -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                final String name = "cmd-" + thread + "-" + i;
+                client.add(new Command(name, (commandName, data, completion) -> {
+                    temporaryCalls.incrementAndGet();
+                    completion.resolve();
+                }));
+                client.kamomeSend("{\"id\":\"" + name + "\",\"name\":\"" + name + "\",\"data\":null}");
+                client.kamomeSend("{\"id\":\"s-" + name + "\",\"name\":\"stable\",\"data\":null}");
+                client.remove(name);
+                assertFalse(client.hasCommand(name));
+            }
+        });
+
+        assertEquals(THREADS * ITERATIONS, temporaryCalls.get());
+        assertEquals(THREADS * ITERATIONS, stableCalls.get());
+        assertTrue(client.hasCommand("stable"));
+    }
+}
@@ -0,0 +1,135 @@
+package jp.hituzi.kamome;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompletableTest {
+
+    /**
+     * A completion implementing only the methods of the first release.
+     */
+    private static final class LegacyCompletion implements Completable {
+        final List<Object> results = new ArrayList<>();
+
+        @Override
+        public boolean isCompleted() {
+            return !results.isEmpty();
+        }
+
+        @Override
+        public void resolve() {
+            results.add(null);
+        }
+
+        @Override
+        public void resolve(@Nullable Map data) {
+            results.add(data);
+        }
+
+        @Override
+        public void resolve(@Nullable JSONObject data) {
+            results.add(data);
+        }
+
+        @Override
+        public void resolve(@Nullable Collection data) {
+            results.add(data);
+        }
+
+        @Override
+        public void resolve(@Nullable JSONArray data) {
+            results.add(data);
+        }
+
+        @Override
+        public void reject() {
+            reject(null);
+        }
+
+        @Override
+        public void reject(@Nullable String errorMessage) {
+            results.add("rejected: " + errorMessage);
+        }
+    }
+
+    @Test
+    public void neverCancelsByDefault() {
+        final LegacyCompletion completion = new LegacyCompletion();
+        completion.setCancelListener(() -> completion.results.add("cancelled"));
+        completion.progress("half");
+
+        assertFalse(completion.isCancelled());
+        assertEquals(Long.MAX_VALUE, completion.getRemainingMillis());
+        assertTrue(completion.results.isEmpty());
+    }
+
+    @Test
+    public void resolvesObjectThroughOriginalMethods() {
+        final LegacyCompletion completion = new LegacyCompletion();
+        final Map<String, Object> map = Collections.<String, Object>singletonMap("k", "v");
+        final List<Integer> list = Arrays.asList(1, 2);
+
+        completion.resolve((Object) map);
+        completion.resolve((Object) list);
+        completion.resolve((Object) null);
+        completion.resolve((Object) new Object());
+
+        assertEquals(Arrays.asList(map, list, null, "rejected: Failed to encode the data."), completion.results);
+    }
+
+    @Test
+    public void resolvesBytesAsBinaryData() {
+        final LegacyCompletion completion = new LegacyCompletion();
+
+        completion.resolve(new byte[]{1, 2, (byte) 0xff});
+        completion.resolve(ByteBuffer.wrap(new byte[]{0, 1, 2}, 1, 2));
+
+        assertEquals(Arrays.asList((byte) 1, (byte) 2, (byte) 0xff), toList(Bytes.from(completion.results.get(0))));
+        assertEquals(Arrays.asList((byte) 1, (byte) 2), toList(Bytes.from(completion.results.get(1))));
+    }
+
+    @Test
+    public void resolvesStreamAfterReadingIt() throws Exception {
+        final LegacyCompletion completion = new LegacyCompletion();
+        final boolean[] closed = new boolean[1];
+
+        completion.resolveStream(new StringReader("{\"items\":[1,2]}") {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        });
+        completion.resolveStream(new StringReader("null"));
+        completion.resolveStream(new StringReader("{"));
+
+        assertTrue(closed[0]);
+        assertEquals(2, ((JSONObject) completion.results.get(0)).getJSONArray("items").length());
+        assertNull(completion.results.get(1));
+        assertTrue(((String) completion.results.get(2)).startsWith("rejected: "));
+    }
+
+    private static List<Byte> toList(final byte[] bytes) {
+        final List<Byte> list = new ArrayList<>();
+        for (byte b : bytes) {
+            list.add(b);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,100 @@
+package jp.hituzi.kamome;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConflationTest extends ClientTestBase {
+
+    @Before
+    public void setUp() {
+        handshake("{\"events\":true}");
+    }
+
+    private SendOptions progress() {
+        return new SendOptions().setConflation("progress", 100);
+    }
+
+    @Test
+    public void sendsFirstMessageAtOnce() {
+        client.send(Collections.singletonMap("p", 1), "progress", progress(), null);
+        dispatcher.runAll();
+
+        assertEquals(1, scripts.size());
+        assertTrue(scripts.get(0), scripts.get(0).startsWith("window.KM.onReceive('progress', {\"p\":1}, "));
+    }
+
+    @Test
+    public void sendsOnlyLatestMessageWithinInterval() {
+        for (int i = 1; i <= 5; i++) {
+            client.send(Collections.singletonMap("p", i), "progress", progress(), null);
+            dispatcher.advance(10);
+        }
+        assertEquals(1, scripts.size());
+
+        dispatcher.advance(60);
+
+        final String js = delivered();
+        assertEquals(2, scripts.size());
+        assertTrue(js, js.contains("{\"p\":1}"));
+        assertTrue(js, js.contains("{\"p\":5}"));
+        assertEquals(3, client.getConflatedMessageCount());
+    }
+
+    @Test
+    public void dropsCallbackOfSupersededMessage() {
+        final List<String> errors = new ArrayList<>();
+        final Client.SendMessageCallback callback = (commandName, result, error) -> errors.add(commandName + ":" + error.getMessage());
+
+        client.send("first", progress(), callback);
+        client.send("second", progress(), callback);
+        client.send("third", progress(), callback);
+        dispatcher.runAll();
+
+        assertEquals(Collections.singletonList("second:RequestDropped"), errors);
+        assertEquals(1, client.getPendingReplyCount());
+        dispatcher.advance(100);
+        assertEquals(2, client.getPendingReplyCount());
+    }
+
+    @Test
+    public void conflatesKeysIndependently() {
+        client.send("a", new SendOptions().setConflation("a", 100), null);
+        client.send("b", new SendOptions().setConflation("b", 100), null);
+        dispatcher.runAll();
+
+        final String js = delivered();
+        assertTrue(js, js.contains("'a'"));
+        assertTrue(js, js.contains("'b'"));
+    }
+
+    @Test
+    public void sendsAtOnceAfterIdleInterval() {
+        client.send("progress", progress(), null);
+        dispatcher.advance(100);
+        scripts.clear();
+
+        client.send("progress", progress(), null);
+        dispatcher.runAll();
+
+        assertEquals(1, scripts.size());
+    }
+
+    @Test
+    public void conflatesEvents() {
+        for (int i = 1; i <= 3; i++) {
+            client.emit(Arrays.asList(i), "scroll", new SendOptions().setConflation("scroll", 16));
+        }
+        dispatcher.advance(16);
+
+        assertEquals(Arrays.asList("window.KM.onEvent('scroll', [1])", "window.KM.onEvent('scroll', [3])"), scripts);
+        assertEquals(1, client.getConflatedMessageCount());
+    }
+}
@@ -0,0 +1,128 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EnvelopeTest {
+
+    @Test
+    public void scansIdNameAndRawData() throws Exception {
+        final Envelope envelope = Envelope.scan("{\"name\":\"echo\",\"data\":{\"a\":[1,{\"b\":\"}]\"}],\"c\":null},\"id\":\"r1\"}");
+
+        assertEquals("r1", envelope.id);
+        assertEquals("echo", envelope.name);
+        assertEquals("{\"a\":[1,{\"b\":\"}]\"}],\"c\":null}", envelope.data);
+    }
+
+    @Test
+    public void unescapesIdAndName() throws Exception {
+        final Envelope envelope = Envelope.scan(" { \"id\" : \"a\\\"b\\\\c\\u00e9\" , \"name\":\"x\\/y\\n\", \"data\" : null } ");
+
+        assertEquals("a\"b\\c\u00e9", envelope.id);
+        assertEquals("x/y\n", envelope.name);
+        assertNull(envelope.data);
+    }
+
+    @Test
+    public void skipsOtherMembers() throws Exception {
+        final Envelope envelope = Envelope.scan("{\"id\":12,\"extra\":[\"\\\"]\",{}],\"flag\":true,\"name\":\"n\"}");
+
+        assertEquals("12", envelope.id);
+        assertEquals("n", envelope.name);
+        assertNull(envelope.data);
+    }
+
+    @Test
+    public void scansDeadline() throws Exception {
+        final Envelope envelope = Envelope.scan("{\"id\":\"r1\",\"name\":\"n\",\"data\":null,\"deadline\":1700000000123.5}");
+        final Envelope none = Envelope.scan("{\"id\":\"r1\",\"name\":\"n\",\"data\":null}");
+
+        assertTrue(envelope.hasDeadline());
+        assertEquals(1700000000123.5, envelope.deadline, 0);
+        assertFalse(none.hasDeadline());
+    }
+
+    @Test
+    public void agreesWithJSONObject() throws Exception {
+        final String message = new JSONObject()
+                .put("id", "\u2028id\ud83d\ude00")
+                .put("name", "na'me")
+                .put("data", new JSONObject().put("text", "\"quoted\" \\ \t").put("n", 1.5))
+                .toString();
+
+        final Envelope envelope = Envelope.scan(message);
+        final JSONObject object = new JSONObject(message);
+
+        assertEquals(object.getString("id"), envelope.id);
+        assertEquals(object.getString("name"), envelope.name);
+        assertEquals(object.getJSONObject("data").toString(), new JSONObject(envelope.data).toString());
+    }
+
+    @Test
+    public void rejectsMalformedMessages() {
+        final String[] messages = {
+                "",
+                "[]",
+                "{\"id\":\"a\"}",
+                "{\"name\":\"a\"}",
+                "{\"id\":\"a\",\"name\":\"b\"",
+                "{\"id\":\"a\",\"name\":\"b\",\"data\":{\"x\":1}",
+                "{\"id\":\"a\" \"name\":\"b\"}",
+                "{\"id\":\"a,\"name\":\"b\"}",
+                "{\"id\":{},\"name\":\"b\"}",
+                "{\"id\":\"\\u12\",\"name\":\"b\"}",
+        };
+
+        for (String message : messages) {
+            try {
+                Envelope.scan(message);
+                fail("Scanned " + message);
+            } catch (JSONException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void payloadParsesOnceOnFirstAccess() throws Exception {
+        final Payload payload = Payload.ofRaw("{\"a\":1}", PayloadCodec.ORG_JSON, false);
+
+        assertEquals("{\"a\":1}", payload.getRaw());
+        final JSONObject object = payload.getJSONObject();
+        assertEquals(1, object.getInt("a"));
+        assertSame(object, payload.getJSONObject());
+        assertTrue(Payload.ofRaw(null, PayloadCodec.ORG_JSON, false).isNull());
+        assertNull(Payload.ofRaw(null, PayloadCodec.ORG_JSON, false).getJSONObject());
+    }
+
+    @Test
+    public void payloadHandlerReceivesRawData() {
+        final List<String> raws = new ArrayList<>();
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        final Client client = new Client(js -> {
+        }, null, dispatcher);
+        // The data isn't a JSON object, so a handler taking a JSONObject couldn't receive it.
+        client.add(Command.withPayload("raw", (commandName, data, completion) -> {
+            raws.add(data.getRaw());
+            completion.resolve();
+        }));
+
+        client.kamomeSend("{\"id\":\"r1\",\"name\":\"raw\",\"data\":[1,2,3]}");
+        client.kamomeSend("{\"id\":\"r2\",\"name\":\"raw\",\"data\":null}");
+
+        assertEquals(2, raws.size());
+        assertEquals("[1,2,3]", raws.get(0));
+        assertNull(raws.get(1));
+    }
+}
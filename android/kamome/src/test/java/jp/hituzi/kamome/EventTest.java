@@ -0,0 +1,69 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventTest extends ClientTestBase {
+
+    @Test
+    public void emitsEventWithoutWaitingForReply() throws Exception {
+        handshake("{\"events\":true}");
+
+        client.emit(new JSONObject().put("lat", 1.5), "location");
+        client.emit(Collections.singletonMap("x", 1), "sensor");
+        client.emit("tick");
+        dispatcher.runAll();
+
+        assertEquals(Collections.singletonList("window.KM.onEvent('location', {\"lat\":1.5});"
+                + "window.KM.onEvent('sensor', {\"x\":1});"
+                + "window.KM.onEvent('tick', null)"), Collections.singletonList(Scripts.unwrap(scripts.get(0))));
+        assertEquals(0, client.getPendingReplyCount());
+    }
+
+    @Test
+    public void queuesEventsUntilReady() {
+        client.emit("early");
+
+        assertEquals(1, client.getReadyQueueDepth());
+        assertEquals(0, client.getPendingReplyCount());
+
+        sendHandshake(client, dispatcher, "{\"events\":true}");
+
+        assertTrue(scripts.get(0), scripts.get(0).contains("window.KM.onEvent('early', null)"));
+    }
+
+    @Test
+    public void dropsQueuedEventsWithoutCallbacks() {
+        client.setReadyQueueCapacity(1, Client.ReadyQueueOverflow.LATEST_PER_COMMAND);
+        client.readyTimeoutMillis = 100;
+
+        client.emit(Collections.singletonMap("v", 1), "state");
+        client.emit(Collections.singletonMap("v", 2), "state");
+        dispatcher.advance(200);
+
+        assertEquals(0, client.getReadyQueueDepth());
+        assertEquals(1, client.getDroppedMessageCount());
+    }
+
+    @Test
+    public void sendsEventAsMessageToLibraryWithoutEvents() {
+        handshake(null);
+
+        client.emit("tick");
+        dispatcher.runAll();
+
+        final String js = scripts.get(0);
+        assertEquals("window.KM.onReceive('tick', null, '_km_tick_event')", js);
+        assertEquals(0, client.getPendingReplyCount());
+
+        // The reply of the library is ignored.
+        client.kamomeSend("{\"id\":\"r\",\"name\":\"_km_tick_event\",\"data\":{\"success\":true,\"result\":null}}");
+        dispatcher.runAll();
+        assertEquals(0, client.getPendingReplyCount());
+    }
+}
@@ -0,0 +1,97 @@
+package jp.hituzi.kamome;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExecutorDispatcherTest {
+
+    private ExecutorDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        dispatcher = new ExecutorDispatcher();
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void runsPostedTasksOnItsMainThread() throws Exception {
+        final AtomicBoolean onMain = new AtomicBoolean();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        assertFalse(dispatcher.isMainThread());
+        dispatcher.post(() -> {
+            onMain.set(dispatcher.isMainThread());
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(onMain.get());
+    }
+
+    @Test
+    public void runsImmediatelyWhenAlreadyOnMainThread() throws Exception {
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        dispatcher.post(() -> {
+            dispatcher.runOnMainThread(() -> order.add("immediate"));
+            order.add("after");
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("immediate", order.get(0));
+        assertEquals("after", order.get(1));
+    }
+
+    @Test
+    public void runsDelayedTasks() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.nanoTime();
+
+        dispatcher.postDelayed(latch::countDown, 50);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+    }
+
+    @Test
+    public void drivesMessengerFlushes() throws Exception {
+        final List<String> scripts = Collections.synchronizedList(new ArrayList<String>());
+        final Messenger messenger = new Messenger(scripts::add, Messenger.looperTurn(dispatcher));
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountDownLatch queued = new CountDownLatch(1);
+        // The main thread waits until both messages are queued, so that one flush sends them.
+        dispatcher.post(() -> {
+            try {
+                queued.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        });
+
+        messenger.completeMessage(null, "a");
+        messenger.completeMessage(null, "b");
+        queued.countDown();
+        dispatcher.post(latch::countDown);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, scripts.size());
+        assertEquals("window.KM.onComplete(null, 'a');window.KM.onComplete(null, 'b')", Scripts.unwrap(scripts.get(0)));
+    }
+}
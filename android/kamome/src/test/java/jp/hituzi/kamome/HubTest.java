@@ -0,0 +1,114 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HubTest {
+
+    private ManualDispatcher dispatcher;
+    private Hub hub;
+    private List<String> handled;
+
+    @Before
+    public void setUp() {
+        dispatcher = new ManualDispatcher();
+        handled = new ArrayList<>();
+        hub = new Hub(Collections.singletonList(new Command("echo", (commandName, data, completion) -> {
+            handled.add(commandName);
+            completion.resolve(data);
+        })), dispatcher);
+    }
+
+    private Client ready(Client client) {
+        ClientTestBase.sendHandshake(client, dispatcher, "{\"events\":true}");
+        return client;
+    }
+
+    @Test
+    public void sharesCommandsWithAttachedClients() {
+        final List<String> a = new ArrayList<>();
+        final List<String> b = new ArrayList<>();
+        final Client first = hub.attach(a::add);
+        final Client second = hub.attach(b::add);
+
+        assertTrue(first.hasCommand("echo"));
+        first.kamomeSend("{\"id\":\"1\",\"name\":\"echo\",\"data\":{\"v\":1}}");
+        second.kamomeSend("{\"id\":\"2\",\"name\":\"echo\",\"data\":{\"v\":2}}");
+        dispatcher.runAll();
+
+        assertEquals(Arrays.asList("echo", "echo"), handled);
+        assertEquals(Collections.singletonList("window.KM.onComplete({\"v\":1}, '1')"), a);
+        assertEquals(Collections.singletonList("window.KM.onComplete({\"v\":2}, '2')"), b);
+    }
+
+    @Test
+    public void prefersCommandsOfClient() {
+        final Client client = hub.attach(js -> {
+        });
+        client.add(new Command("echo", (commandName, data, completion) -> completion.resolve()));
+        client.kamomeSend("{\"id\":\"1\",\"name\":\"echo\",\"data\":null}");
+        client.remove("echo");
+        client.kamomeSend("{\"id\":\"2\",\"name\":\"echo\",\"data\":null}");
+        dispatcher.runAll();
+
+        assertEquals(1, handled.size());
+        assertTrue(client.hasCommand("echo"));
+    }
+
+    @Test
+    public void broadcastsScriptBuiltOnce() throws Exception {
+        final List<String> a = new ArrayList<>();
+        final List<String> b = new ArrayList<>();
+        ready(hub.attach(a::add));
+        ready(hub.attach(b::add));
+        a.clear();
+        b.clear();
+
+        assertEquals(2, hub.broadcast(new JSONObject().put("theme", "dark"), "theme", null));
+        dispatcher.runAll();
+
+        assertEquals(Collections.singletonList("window.KM.onEvent('theme', {\"theme\":\"dark\"})"), a);
+        assertSame(a.get(0), b.get(0));
+    }
+
+    @Test
+    public void skipsClientsNotReady() {
+        final List<String> a = new ArrayList<>();
+        final List<String> b = new ArrayList<>();
+        ready(hub.attach(a::add));
+        hub.attach(b::add);
+        a.clear();
+
+        assertEquals(1, hub.broadcast("logout"));
+        dispatcher.runAll();
+
+        assertEquals(Collections.singletonList("window.KM.onEvent('logout', null)"), a);
+        assertTrue(b.isEmpty());
+    }
+
+    @Test
+    public void stopsBroadcastingToDetachedClients() {
+        final List<String> a = new ArrayList<>();
+        final Client client = ready(hub.attach(a::add));
+        a.clear();
+
+        assertTrue(hub.detach(client));
+        assertFalse(hub.detach(client));
+        assertEquals(0, hub.broadcast("logout"));
+        dispatcher.runAll();
+
+        assertTrue(a.isEmpty());
+        assertTrue(hub.getClients().isEmpty());
+    }
+}
@@ -0,0 +1,232 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LocalExecutionTest {
+
+    @SuppressWarnings("unchecked")
+    private static final Class<Map<?, ?>> MAP = (Class<Map<?, ?>>) (Class<?>) Map.class;
+
+    private static final class Point {
+        final int x;
+        final int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private static final class Recorder<T> implements LocalCompletion.TypedCallback<T> {
+        final List<Object> results = new ArrayList<>();
+
+        @Override
+        public void onResolved(T result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onRejected(String errorMessage) {
+            results.add("rejected: " + errorMessage);
+        }
+    }
+
+    private List<String> scripts;
+    private ManualDispatcher dispatcher;
+    private Client client;
+
+    @Before
+    public void setUp() {
+        scripts = new ArrayList<>();
+        dispatcher = new ManualDispatcher();
+        client = new Client(scripts::add, null, dispatcher);
+    }
+
+    @Test
+    public void passesObjectsThroughTypedHandler() {
+        final Point point = new Point(1, 2);
+        final Point moved = new Point(2, 3);
+        final List<Point> received = new ArrayList<>();
+        client.add(Command.typed("move", Point.class, (commandName, data, completion) -> {
+            received.add(data);
+            completion.resolve((Object) moved);
+        }));
+        final Recorder<Point> recorder = new Recorder<>();
+
+        client.execute("move", point, Point.class, recorder);
+
+        assertSame(point, received.get(0));
+        assertSame(moved, recorder.results.get(0));
+    }
+
+    @Test
+    public void passesMapResultAsIs() {
+        final Map<String, Object> result = new HashMap<>();
+        result.put("total", 3);
+        client.add(Command.typed("sum", Map.class, (commandName, data, completion) -> completion.resolve(result)));
+        final Recorder<Map<?, ?>> recorder = new Recorder<>();
+
+        client.execute("sum", Collections.singletonMap("values", Arrays.asList(1, 2)), MAP, recorder);
+
+        assertSame(result, recorder.results.get(0));
+    }
+
+    @Test
+    public void decodesDataFromJavaScriptForTypedHandler() {
+        client.add(Command.typed("sum", Map.class, (commandName, data, completion) ->
+                completion.resolve(((List<?>) data.get("values")).size())));
+
+        client.kamomeSend("{\"id\":\"a\",\"name\":\"sum\",\"data\":{\"values\":[1,2]}}");
+        dispatcher.runAll();
+
+        assertEquals(Collections.singletonList("window.KM.onComplete(2, 'a')"), scripts);
+    }
+
+    @Test
+    public void convertsResultOfAnotherType() {
+        client.add(new Command("config", (commandName, data, completion) ->
+                completion.resolve(new JSONObject(Collections.singletonMap("theme", "dark")))));
+        final Recorder<Map<?, ?>> recorder = new Recorder<>();
+
+        client.execute("config", null, MAP, recorder);
+
+        assertEquals(Collections.singletonMap("theme", "dark"), recorder.results.get(0));
+    }
+
+    @Test
+    public void rejectsDataNotDecodable() {
+        final List<Integer> received = new ArrayList<>();
+        client.add(Command.typed("square", Integer.class, (commandName, data, completion) -> received.add(data)));
+        final Recorder<Object> recorder = new Recorder<>();
+
+        client.execute("square", "two", Object.class, recorder);
+
+        assertTrue(received.isEmpty());
+        assertEquals(Collections.singletonList("rejected: Failed to decode the data."), recorder.results);
+    }
+
+    @Test
+    public void wrapsMapOnlyForHandlerReadingJSONObject() {
+        final List<Object> received = new ArrayList<>();
+        final Map<String, Object> data = Collections.<String, Object>singletonMap("k", "v");
+        client.add(new Command("object", (commandName, object, completion) -> received.add(object.optString("k"))));
+        client.add(Command.withPayload("payload", (commandName, payload, completion) -> {
+            try {
+                received.add(payload.as(Map.class));
+            } catch (JSONException e) {
+                completion.reject(e.getMessage());
+            }
+        }));
+
+        client.execute("object", data, null);
+        client.execute("payload", data, null);
+
+        assertEquals("v", received.get(0));
+        assertSame(data, received.get(1));
+    }
+
+    @Test
+    public void executesBatchInOrder() {
+        client.howToHandleNonExistentCommand = Client.HowToHandleNonExistentCommand.REJECTED;
+        final List<Completable> pending = new ArrayList<>();
+        final List<String> started = new ArrayList<>();
+        client.add(Command.typed("later", String.class, (commandName, data, completion) -> {
+            started.add(data);
+            pending.add(completion);
+        }));
+        client.add(Command.typed("echo", Object.class, (commandName, data, completion) -> {
+            started.add(String.valueOf(data));
+            completion.resolve(data);
+        }));
+        final List<LocalBatch.Result> results = new ArrayList<>();
+        final LocalBatch batch = new LocalBatch()
+                .add("later", "first")
+                .add("echo", "second")
+                .add("missing");
+
+        client.executeAll(batch, results::addAll);
+        assertEquals(Collections.singletonList("first"), started);
+
+        pending.get(0).resolve((Object) "done");
+
+        assertEquals(Arrays.asList("first", "second"), started);
+        assertEquals(3, results.size());
+        assertEquals("done", results.get(0).getResult());
+        assertEquals("second", results.get(1).getResult());
+        assertFalse(results.get(2).isResolved());
+        assertEquals("missing", results.get(2).getCommandName());
+        assertEquals("CommandNotAdded", results.get(2).getErrorMessage());
+        assertNull(results.get(2).getResult());
+    }
+
+    @Test
+    public void executesLongBatchOfSynchronousHandlersWithoutNesting() {
+        client.add(Command.typed("id", Integer.class, (commandName, data, completion) -> completion.resolve((Object) data)));
+        final LocalBatch batch = new LocalBatch();
+        for (int i = 0; i < 100000; i++) {
+            batch.add("id", i);
+        }
+        final List<LocalBatch.Result> results = new ArrayList<>();
+
+        client.executeAll(batch, results::addAll);
+
+        assertEquals(100000, results.size());
+        assertEquals(99999, results.get(99999).getResult());
+    }
+
+    @Test
+    public void executesBatchInParallel() throws Exception {
+        final CountDownLatch started = new CountDownLatch(2);
+        client.add(Command.typed("wait", String.class, (commandName, data, completion) -> {
+            started.countDown();
+            try {
+                // Each handler completes only after both have started.
+                completion.resolve((Object) (started.await(10, TimeUnit.SECONDS) ? data : "timeout"));
+            } catch (InterruptedException e) {
+                completion.reject(e.getMessage());
+            }
+        }));
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<List<LocalBatch.Result>> results = new AtomicReference<>();
+
+        client.executeAll(new LocalBatch().add("wait", "a").add("wait", "b").setParallel(true), list -> {
+            results.set(list);
+            done.countDown();
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("a", results.get().get(0).getResult());
+        assertEquals("b", results.get().get(1).getResult());
+    }
+
+    @Test
+    public void completesEmptyBatch() {
+        final List<List<LocalBatch.Result>> calls = new ArrayList<>();
+
+        client.executeAll(new LocalBatch(), calls::add);
+        client.executeAll(new LocalBatch().setParallel(true), calls::add);
+
+        assertEquals(2, calls.size());
+        assertTrue(calls.get(0).isEmpty());
+        assertTrue(calls.get(1).isEmpty());
+    }
+}
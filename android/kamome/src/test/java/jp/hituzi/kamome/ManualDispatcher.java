@@ -0,0 +1,96 @@
+package jp.hituzi.kamome;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A dispatcher running posted tasks only when a test asks it to.
+ * Delayed tasks run when the manual clock passes their due time.
+ */
+final class ManualDispatcher implements Dispatcher {
+    private final List<Task> tasks = new ArrayList<>();
+    private long now;
+    private long sequence;
+    private boolean running;
+
+    @Override
+    public boolean isMainThread() {
+        return running;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        synchronized (tasks) {
+            tasks.add(new Task(task, now + Math.max(0, delayMillis), sequence++));
+        }
+    }
+
+    @Override
+    public void runOnMainThread(Runnable task) {
+        if (running) {
+            task.run();
+        } else {
+            post(task);
+        }
+    }
+
+    long now() {
+        return now;
+    }
+
+    /**
+     * Runs all tasks due now, including tasks posted while running.
+     */
+    void runAll() {
+        advance(0);
+    }
+
+    /**
+     * Advances the clock, running tasks in order of their due time.
+     */
+    void advance(long millis) {
+        final long end = now + millis;
+        while (true) {
+            final Task next;
+            synchronized (tasks) {
+                Task found = null;
+                for (Task task : tasks) {
+                    if (task.at <= end && (found == null || task.at < found.at
+                            || (task.at == found.at && task.sequence < found.sequence))) {
+                        found = task;
+                    }
+                }
+                if (found == null) {
+                    break;
+                }
+                tasks.remove(found);
+                next = found;
+            }
+            now = Math.max(now, next.at);
+            running = true;
+            try {
+                next.runnable.run();
+            } finally {
+                running = false;
+            }
+        }
+        now = end;
+    }
+
+    private static final class Task {
+        final Runnable runnable;
+        final long at;
+        final long sequence;
+
+        Task(Runnable runnable, long at, long sequence) {
+            this.runnable = runnable;
+            this.at = at;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessagePortTransportTest {
+
+    private ManualDispatcher dispatcher;
+    private List<String> scripts;
+    private FakePort port;
+    private Transport.Receiver pageToNative;
+    private String portOrigin;
+    private Client client;
+
+    @Before
+    public void setUp() {
+        dispatcher = new ManualDispatcher();
+        scripts = new ArrayList<>();
+        port = new FakePort();
+        client = new Client(scripts::add, (receiver, origin) -> {
+            pageToNative = receiver;
+            portOrigin = origin;
+            return new MessagePortTransport(port);
+        }, dispatcher);
+        client.add(new Command("echo", (commandName, data, completion) -> completion.resolve(data)));
+    }
+
+    @Test
+    public void encodesMessagesAsJson() throws Exception {
+        final MessagePortTransport transport = new MessagePortTransport(port);
+
+        final JSONObject complete = new JSONObject(transport.encodeComplete(new JSONObject().put("a", 1), "id'1"));
+        assertEquals("complete", complete.getString("type"));
+        assertEquals("id'1", complete.getString("id"));
+        assertEquals(1, complete.getJSONObject("data").getInt("a"));
+
+        final JSONObject error = new JSONObject(transport.encodeError("Bad%20thing", "id2"));
+        assertEquals("error", error.getString("type"));
+        assertEquals("Bad%20thing", error.getString("error"));
+        assertTrue(new JSONObject(transport.encodeError(null, "id3")).isNull("error"));
+
+        final JSONObject receive = new JSONObject(transport.encodeReceive("greeting", null, "cb"));
+        assertEquals("receive", receive.getString("type"));
+        assertEquals("greeting", receive.getString("name"));
+        assertTrue(receive.isNull("data"));
+        assertEquals("cb", receive.getString("callbackId"));
+
+        final JSONObject event = new JSONObject(transport.encodeEvent("tick", "{\"a\":1}"));
+        assertEquals("event", event.getString("type"));
+        assertEquals("tick", event.getString("name"));
+        assertEquals(1, event.getJSONObject("data").getInt("a"));
+        assertEquals("s", new JSONObject(transport.encodeEvent("tick", new Transport.StreamRef("s"))).getString("stream"));
+
+        final JSONObject progress = new JSONObject(transport.encodeProgress("[1]", "r"));
+        assertEquals("progress", progress.getString("type"));
+        assertEquals("r", progress.getString("id"));
+        assertEquals(1, progress.getJSONArray("data").getInt(0));
+    }
+
+    @Test
+    public void keepsBridgeUnlessPreferred() throws Exception {
+        handshake();
+
+        assertEquals("bridge", synResult().getString("transport"));
+        assertEquals(null, pageToNative);
+    }
+
+    @Test
+    public void keepsBridgeWhenPageDoesNotOfferMessagePort() throws Exception {
+        client.preferredTransport = Client.TransportType.MESSAGE_PORT;
+        client.kamomeSend("{\"id\":\"syn\",\"name\":\"_kamomeSYN\",\"data\":null}");
+        dispatcher.runAll();
+
+        assertEquals("bridge", synResult().getString("transport"));
+        assertEquals(null, pageToNative);
+    }
+
+    @Test
+    public void negotiatesMessagePortAndExchangesMessagesThroughIt() throws Exception {
+        client.preferredTransport = Client.TransportType.MESSAGE_PORT;
+        handshake();
+
+        assertEquals("messagePort", synResult().getString("transport"));
+        assertNotNull(pageToNative);
+        assertEquals("https://example.com", portOrigin);
+        scripts.clear();
+
+        // JS to native through the port, and the result back through the port.
+        pageToNative.onReceive("{\"id\":\"r1\",\"name\":\"echo\",\"data\":{\"msg\":\"hi\"}}");
+        pageToNative.onReceive("{\"id\":\"r2\",\"name\":\"echo\",\"data\":null}");
+        client.send(new JSONObject().put("greeting", "hello"), "greeting", null);
+        dispatcher.runAll();
+
+        assertTrue(scripts.isEmpty());
+        assertEquals(1, port.posted.size());
+        final JSONArray batch = new JSONArray(port.posted.get(0));
+        assertEquals(3, batch.length());
+        assertEquals("r1", batch.getJSONObject(0).getString("id"));
+        assertEquals("hi", batch.getJSONObject(0).getJSONObject("data").getString("msg"));
+        assertTrue(batch.getJSONObject(1).isNull("data"));
+        assertEquals("receive", batch.getJSONObject(2).getString("type"));
+        assertEquals("hello", batch.getJSONObject(2).getJSONObject("data").getString("greeting"));
+    }
+
+    @Test
+    public void keepsBridgeForPageOfOpaqueOrigin() throws Exception {
+        client.preferredTransport = Client.TransportType.MESSAGE_PORT;
+        client.kamomeSend("{\"id\":\"syn\",\"name\":\"_kamomeSYN\",\"data\":{\"transports\":[\"messagePort\"],\"origin\":\"null\"}}");
+        dispatcher.runAll();
+
+        assertEquals("bridge", synResult().getString("transport"));
+        assertEquals(null, pageToNative);
+    }
+
+    @Test
+    public void keepsBridgeWhenPageNavigatedAwayBeforePortOpens() throws Exception {
+        client = new Client(scripts::add, (receiver, origin) -> null, dispatcher);
+        client.preferredTransport = Client.TransportType.MESSAGE_PORT;
+        handshake();
+        scripts.clear();
+
+        client.send(new JSONObject().put("greeting", "hello"), "greeting", null);
+        dispatcher.runAll();
+
+        assertEquals(1, scripts.size());
+        assertTrue(port.posted.isEmpty());
+    }
+
+    @Test
+    public void derivesOriginOfUrl() {
+        assertEquals("https://example.com", MessagePortTransport.originOf("https://Example.com/path?q=1#f"));
+        assertEquals("https://example.com", MessagePortTransport.originOf("https://example.com:443/"));
+        assertEquals("http://localhost:8080", MessagePortTransport.originOf("http://localhost:8080/index.html"));
+        assertEquals(null, MessagePortTransport.originOf("file:///android_asset/www/index.html"));
+        assertEquals(null, MessagePortTransport.originOf("data:text/html,hi"));
+        assertEquals(null, MessagePortTransport.originOf("about:blank"));
+        assertEquals(null, MessagePortTransport.originOf("null"));
+        assertEquals(null, MessagePortTransport.originOf(null));
+    }
+
+    @Test
+    public void reloadedPageStartsOverWithBridge() throws Exception {
+        client.preferredTransport = Client.TransportType.MESSAGE_PORT;
+        handshake();
+        scripts.clear();
+
+        client.kamomeSend("{\"id\":\"syn2\",\"name\":\"_kamomeSYN\",\"data\":null}");
+        dispatcher.runAll();
+
+        assertTrue(port.closed);
+        assertEquals(1, scripts.size());
+        assertTrue(scripts.get(0).contains("'syn2'"));
+        assertFalse(port.posted.toString().contains("syn2"));
+    }
+
+    private void handshake() {
+        client.kamomeSend("{\"id\":\"syn\",\"name\":\"_kamomeSYN\",\"data\":{\"transports\":[\"messagePort\"],"
+                + "\"origin\":\"https://example.com\"}}");
+        dispatcher.runAll();
+    }
+
+    private JSONObject synResult() throws Exception {
+        final String script = scripts.get(0);
+        final String prefix = "window.KM.onComplete(";
+        assertTrue(script.startsWith(prefix));
+        return new JSONObject(script.substring(prefix.length(), script.lastIndexOf(", 'syn")));
+    }
+
+    private static final class FakePort implements MessagePortTransport.Port {
+        final List<String> posted = new ArrayList<>();
+        boolean closed;
+
+        @Override
+        public void postMessage(String message) {
+            posted.add(message);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
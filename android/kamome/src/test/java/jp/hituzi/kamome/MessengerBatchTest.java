@@ -0,0 +1,132 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessengerBatchTest {
+
+    private FakeWebView webView;
+    private ManualScheduler scheduler;
+    private Messenger messenger;
+
+    @Before
+    public void setUp() {
+        webView = new FakeWebView();
+        scheduler = new ManualScheduler();
+        messenger = new Messenger(webView, scheduler);
+    }
+
+    @Test
+    public void coalescesBurstIntoOneEvaluation() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            messenger.completeMessage(new JSONObject().put("i", i), "req" + i);
+        }
+        messenger.failMessage("error", "reqE");
+        messenger.sendRequest(new Request("greeting", "cb", null));
+
+        assertEquals(0, webView.scripts.size());
+        assertEquals(1, scheduler.scheduledCount);
+
+        scheduler.runAll();
+
+        assertEquals(1, webView.scripts.size());
+        final String js = Scripts.unwrap(webView.scripts.get(0));
+        assertTrue(js.startsWith("window.KM.onComplete({\"i\":0}, 'req0');"));
+        assertTrue(js.contains("window.KM.onError('error', 'reqE')"));
+        assertTrue(js.endsWith("window.KM.onReceive('greeting', null, 'cb')"));
+    }
+
+    @Test
+    public void schedulesAgainAfterFlush() {
+        messenger.completeMessage(null, "a");
+        scheduler.runAll();
+        messenger.completeMessage(null, "b");
+        scheduler.runAll();
+
+        assertEquals(2, scheduler.scheduledCount);
+        assertEquals(2, webView.scripts.size());
+        assertEquals("window.KM.onComplete(null, 'a')", webView.scripts.get(0));
+        assertEquals("window.KM.onComplete(null, 'b')", webView.scripts.get(1));
+    }
+
+    @Test
+    public void splitsBatchAtMaxLength() {
+        final String single = "window.KM.onComplete(null, 'x')";
+        messenger.setMaxBatchLength(single.length() * 2 + 1);
+        for (int i = 0; i < 5; i++) {
+            messenger.completeMessage(null, "x");
+        }
+
+        scheduler.runAll();
+
+        assertEquals(3, webView.scripts.size());
+        assertEquals(single + ";" + single, Scripts.unwrap(webView.scripts.get(0)));
+        assertEquals(single + ";" + single, Scripts.unwrap(webView.scripts.get(1)));
+        assertEquals(single, webView.scripts.get(2));
+    }
+
+    @Test
+    public void evaluatesOversizedScriptAlone() {
+        messenger.setMaxBatchLength(1);
+        messenger.completeMessage(null, "a");
+        messenger.completeMessage(null, "b");
+
+        scheduler.runAll();
+
+        assertEquals(2, webView.scripts.size());
+    }
+
+    @Test
+    public void isolatesEachMessageOfBatch() {
+        messenger.completeMessage(null, "a");
+        messenger.completeMessage(null, "b");
+
+        scheduler.runAll();
+
+        // If the first message throws, the second message still runs, and the error is thrown later.
+        assertEquals("try{window.KM.onComplete(null, 'a')}catch(e){setTimeout(function(){throw e})}"
+                + "try{window.KM.onComplete(null, 'b')}catch(e){setTimeout(function(){throw e})}", webView.scripts.get(0));
+    }
+
+    @Test
+    public void flushWithoutPendingScriptsEvaluatesNothing() {
+        messenger.flush();
+
+        assertEquals(0, webView.scripts.size());
+    }
+
+    private static final class FakeWebView implements Messenger.Evaluator {
+        final List<String> scripts = new ArrayList<>();
+
+        @Override
+        public void evaluate(String js) {
+            scripts.add(js);
+        }
+    }
+
+    private static final class ManualScheduler implements Messenger.FlushScheduler {
+        final List<Runnable> tasks = new ArrayList<>();
+        int scheduledCount;
+
+        @Override
+        public void schedule(Runnable flush) {
+            scheduledCount++;
+            tasks.add(flush);
+        }
+
+        void runAll() {
+            final List<Runnable> copy = new ArrayList<>(tasks);
+            tasks.clear();
+            for (Runnable task : copy) {
+                task.run();
+            }
+        }
+    }
+}
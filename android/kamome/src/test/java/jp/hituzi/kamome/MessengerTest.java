@@ -1,8 +1,15 @@
 package jp.hituzi.kamome;
 
+import org.json.JSONObject;
 import org.junit.Test;
 
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class MessengerTest {
 
@@ -52,4 +59,155 @@ public class MessengerTest {
     public void emptyStringStaysEmpty() {
         assertEquals("", Messenger.escapeForJSStringLiteral(""));
     }
+
+    @Test
+    public void returnsSafeStringAsIs() {
+        final String safe = "abcXYZ123_-.~ ";
+        assertSame(safe, Messenger.escapeForJSStringLiteral(safe));
+    }
+
+    @Test
+    public void escapesLikeFormerImplementation() {
+        for (String value : samples()) {
+            assertEquals(value, Legacy.escape(value), Messenger.escapeForJSStringLiteral(value));
+        }
+    }
+
+    @Test
+    public void percentEncodesLikeURLEncoder() throws Exception {
+        for (String value : samples()) {
+            assertEquals(value, Legacy.percentEncode(value), Messenger.percentEncode(value));
+        }
+    }
+
+    @Test
+    public void emitsScriptsLikeFormerImplementation() throws Exception {
+        final BridgeTransport transport = new BridgeTransport(js -> {
+        });
+        final Object[] data = {null, new JSONObject().put("a", "b'c"), "[1,2]", new Transport.StreamRef("n1'")};
+        for (String value : samples()) {
+            for (Object d : data) {
+                assertEquals(Legacy.encodeComplete(d, value), transport.encodeComplete(d, value));
+                assertEquals(Legacy.encodeReceive(value, d, value), transport.encodeReceive(value, d, value));
+            }
+            final String error = Messenger.percentEncode(value);
+            assertEquals(Legacy.encodeError(error, value), transport.encodeError(error, value));
+            assertEquals(Legacy.encodeError(null, value), transport.encodeError(null, value));
+            assertEquals(Legacy.encodeChunk(value, value), transport.encodeChunk(value, value));
+            assertEquals(Legacy.encodeChunkAck(value, value.length()), transport.encodeChunkAck(value, value.length()));
+        }
+    }
+
+    @Test
+    public void emitsNestedScriptsOnOneThread() {
+        final ScriptEmitter.Template outer = new ScriptEmitter.Template("f({}, {})");
+        final ScriptEmitter.Template inner = new ScriptEmitter.Template("g('{}')");
+
+        final ScriptEmitter emitter = ScriptEmitter.begin(outer).number(1);
+        final String nested = ScriptEmitter.begin(inner).string("'").end();
+        final String script = emitter.raw(nested).end();
+
+        assertEquals("f(1, g('\\''))", script);
+        assertEquals("g('a')", ScriptEmitter.begin(inner).string("a").end());
+    }
+
+    /**
+     * Strings of characters that need escapes, surrogate pairs and lone surrogates, and random strings of them.
+     */
+    private static List<String> samples() {
+        final List<String> samples = new ArrayList<>();
+        samples.add("");
+        samples.add("plain text");
+        samples.add("');alert('xss");
+        samples.add("\\ \" ' \n \r \t \b \f \u0000 \u001f \u007f \u0080 \u00e9 \u2028 \u2029 \uffff");
+        samples.add("\uD83D\uDE00 \uD83D \uDE00 end\uD83D");
+        samples.add("~!@#$%^&*()_+-=`[]{}|;:,.<>/? \u3042\u0394");
+
+        final char[] alphabet = "a Z09'\"\\/\n\r\t\u0001\u001f\u007f\u00e9\u2028\u2029\u3042\uD83D\uDE00%+.*_-~".toCharArray();
+        final Random random = new Random(12);
+        for (int i = 0; i < 500; i++) {
+            final char[] chars = new char[random.nextInt(20)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            samples.add(new String(chars));
+        }
+        return samples;
+    }
+
+    /**
+     * The former implementation formatting scripts by String.format, kept as the reference of the output.
+     */
+    private static final class Legacy {
+        static String escape(String value) {
+            final StringBuilder sb = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                switch (c) {
+                    case '\\': sb.append("\\\\"); break;
+                    case '\'': sb.append("\\'"); break;
+                    case '"': sb.append("\\\""); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    case '\u2028': sb.append("\\u2028"); break;
+                    case '\u2029': sb.append("\\u2029"); break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            return sb.toString();
+        }
+
+        static String percentEncode(String error) throws Exception {
+            return URLEncoder.encode(error, "utf-8").replaceAll("\\+", "%20");
+        }
+
+        static String encodeComplete(Object data, String requestId) {
+            final String id = escape(requestId);
+            if (data != null) {
+                return String.format("%s.onComplete(%s, '%s')", "window.KM", dataOf(data), id);
+            } else {
+                return String.format("%s.onComplete(null, '%s')", "window.KM", id);
+            }
+        }
+
+        static String encodeError(String error, String requestId) {
+            final String id = escape(requestId);
+            if (error != null) {
+                return String.format("%s.onError('%s', '%s')", "window.KM", error, id);
+            } else {
+                return String.format("%s.onError(null, '%s')", "window.KM", id);
+            }
+        }
+
+        static String encodeReceive(String name, Object data, String callbackId) {
+            final String escapedName = escape(name);
+            final String id = escape(callbackId);
+            if (data != null) {
+                return String.format("%s.onReceive('%s', %s, '%s')", "window.KM", escapedName, dataOf(data), id);
+            } else {
+                return String.format("%s.onReceive('%s', null, '%s')", "window.KM", escapedName, id);
+            }
+        }
+
+        static String encodeChunk(String streamId, String chunk) {
+            return String.format("%s.onChunk('%s', '%s')", "window.KM", escape(streamId), escape(chunk));
+        }
+
+        static String encodeChunkAck(String streamId, int received) {
+            return String.format("%s.onChunkAck('%s', %d)", "window.KM", escape(streamId), received);
+        }
+
+        private static Object dataOf(Object data) {
+            if (data instanceof Transport.StreamRef) {
+                return String.format("%s.takeStream('%s')", "window.KM", escape(((Transport.StreamRef) data).id));
+            }
+            return data;
+        }
+    }
 }
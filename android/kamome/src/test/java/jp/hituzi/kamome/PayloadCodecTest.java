@@ -0,0 +1,159 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PayloadCodecTest {
+
+    @Test
+    public void directCodecWritesWhatOrgJsonWrites() throws Exception {
+        final Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("list", Arrays.asList(1, 2.5, "three", null, true));
+        nested.put("ints", new int[]{4, 5});
+        nested.put("json", new JSONObject().put("k", "v"));
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("text", "\"quoted\" \\ / \t\n\u0001 \u2028 \uD83D\uDE00");
+        map.put("long", Long.MAX_VALUE);
+        map.put("double", 0.1);
+        map.put("whole", 2.0);
+        map.put("nested", nested);
+
+        // The order of keys of a JSONObject isn't defined.
+        assertEquals(normalize(encode(PayloadCodec.ORG_JSON, map)), normalize(encode(PayloadCodec.DIRECT, map)));
+        final Object[] values = {map.get("text"), nested.get("list"), 42, -1.5, false, null, 'c', new String[]{"a", "b"}};
+        for (Object value : values) {
+            assertEquals(encode(PayloadCodec.ORG_JSON, value), encode(PayloadCodec.DIRECT, value));
+        }
+    }
+
+    @Test
+    public void rejectsUnsupportedObjects() {
+        final Object[][] cases = {
+                {PayloadCodec.ORG_JSON, new Point(1, 2)},
+                {PayloadCodec.DIRECT, new Point(1, 2)},
+                {PayloadCodec.DIRECT, Arrays.asList(new Point(1, 2))},
+        };
+        for (Object[] c : cases) {
+            try {
+                encode((PayloadCodec) c[0], c[1]);
+                fail();
+            } catch (JSONException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void decodesToRequestedType() throws Exception {
+        final String json = "{\"a\":[1,{\"b\":null}],\"c\":\"d\"}";
+
+        final Map<?, ?> map = PayloadCodec.ORG_JSON.decode(json, Map.class);
+        assertEquals("d", map.get("c"));
+        final List<?> list = (List<?>) map.get("a");
+        assertEquals(1, list.get(0));
+        assertTrue(((Map<?, ?>) list.get(1)).containsKey("b"));
+        assertEquals("d", PayloadCodec.ORG_JSON.decode(json, JSONObject.class).getString("c"));
+        assertEquals(2, PayloadCodec.ORG_JSON.decode("[1,2]", JSONArray.class).length());
+        assertEquals(Long.valueOf(3), PayloadCodec.ORG_JSON.decode("3", Long.class));
+        assertNull(PayloadCodec.ORG_JSON.decode("null", Map.class));
+    }
+
+    @Test
+    public void clientUsesConfiguredCodec() {
+        final List<String> scripts = new ArrayList<>();
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        final Client client = new Client(scripts::add, null, dispatcher);
+        final List<Object> decoded = new ArrayList<>();
+        client.setPayloadCodec(new PointCodec());
+        client.add(Command.withPayload("move", (commandName, data, completion) -> {
+            try {
+                decoded.add(data.as(Point.class));
+            } catch (JSONException e) {
+                fail();
+            }
+            completion.resolve(new Point(3, 4));
+        }));
+        client.kamomeSend("{\"id\":\"syn\",\"name\":\"_kamomeSYN\",\"data\":null}");
+
+        client.kamomeSend("{\"id\":\"r1\",\"name\":\"move\",\"data\":[1,2]}");
+        client.send(new Point(5, 6), "point", null, null);
+        dispatcher.runAll();
+
+        assertEquals("point(1, 2)", decoded.get(0).toString());
+        final String js = scripts.get(scripts.size() - 1);
+        assertTrue(js.contains("window.KM.onComplete([3,4], 'r1')"));
+        assertTrue(js.contains("window.KM.onReceive('point', [5,6], "));
+    }
+
+    @Test
+    public void failedEncodingReachesCallback() {
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        final Client client = new Client(js -> {
+        }, null, dispatcher);
+        final List<String> errors = new ArrayList<>();
+
+        client.send(new Point(1, 2), "point", null, (commandName, result, error) -> errors.add(error.getMessage()));
+
+        assertEquals(1, errors.size());
+        assertEquals(0, client.getPendingReplyCount());
+    }
+
+    private static String encode(PayloadCodec codec, Object value) throws JSONException {
+        final StringBuilder sb = new StringBuilder();
+        codec.encode(value, sb);
+        return sb.toString();
+    }
+
+    private static String normalize(String json) throws JSONException {
+        return new JSONTokener(json).nextValue().toString();
+    }
+
+    private static final class Point {
+        final int x;
+        final int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public String toString() {
+            return "point(" + x + ", " + y + ")";
+        }
+    }
+
+    private static final class PointCodec implements PayloadCodec {
+        @Override
+        public void encode(Object value, StringBuilder out) throws JSONException {
+            if (value instanceof Point) {
+                out.append('[').append(((Point) value).x).append(',').append(((Point) value).y).append(']');
+            } else {
+                PayloadCodec.ORG_JSON.encode(value, out);
+            }
+        }
+
+        @Override
+        public <T> T decode(String json, Class<T> type) throws JSONException {
+            if (type == Point.class) {
+                final JSONArray array = new JSONArray(json);
+                return type.cast(new Point(array.getInt(0), array.getInt(1)));
+            }
+            return PayloadCodec.ORG_JSON.decode(json, type);
+        }
+    }
+}
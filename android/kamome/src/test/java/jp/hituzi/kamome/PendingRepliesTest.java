@@ -0,0 +1,202 @@
+package jp.hituzi.kamome;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PendingRepliesTest extends ClientTestBase {
+
+    private List<String> results;
+
+    @Before
+    public void setUp() {
+        handshake(null);
+        results = new ArrayList<>();
+    }
+
+    @Test
+    public void timesOutWithoutReply() {
+        client.send("greeting", new SendOptions().setTimeout(1000), this::record);
+        dispatcher.runAll();
+        final String callbackId = lastCallbackId();
+
+        dispatcher.advance(900);
+        assertEquals(0, results.size());
+        assertEquals(1, client.getPendingReplyCount());
+
+        dispatcher.advance(200);
+        assertEquals(Collections.singletonList("greeting:null:RequestTimeout"), results);
+        assertEquals(0, client.getPendingReplyCount());
+
+        // A late reply is ignored.
+        reply(callbackId, "late");
+        assertEquals(1, results.size());
+    }
+
+    @Test
+    public void replyCancelsTimeout() {
+        client.send("greeting", new SendOptions().setTimeout(1000), this::record);
+        dispatcher.runAll();
+
+        reply(lastCallbackId(), "ok");
+        dispatcher.advance(5000);
+
+        assertEquals(Collections.singletonList("greeting:ok:null"), results);
+        assertEquals(0, client.getPendingReplyCount());
+    }
+
+    @Test
+    public void usesDefaultTimeout() {
+        client.defaultReplyTimeoutMillis = 300;
+        client.send("greeting", this::record);
+        dispatcher.runAll();
+
+        dispatcher.advance(400);
+
+        assertEquals(Collections.singletonList("greeting:null:RequestTimeout"), results);
+    }
+
+    @Test
+    public void waitsForReplyByDefault() {
+        client.send("greeting", this::record);
+        dispatcher.runAll();
+
+        dispatcher.advance(600000);
+
+        assertEquals(0, results.size());
+        assertEquals(1, client.getPendingReplyCount());
+    }
+
+    @Test
+    public void failsSentMessagesWhenPageReloads() {
+        client.send("greeting", new SendOptions().setTimeout(0), this::record);
+        dispatcher.runAll();
+        final String callbackId = lastCallbackId();
+
+        sendHandshake(client, dispatcher, null);
+
+        assertEquals(Collections.singletonList("greeting:null:PageReloaded"), results);
+        assertEquals(0, client.getPendingReplyCount());
+
+        // A late reply is ignored.
+        reply(callbackId, "late");
+        assertEquals(1, results.size());
+    }
+
+    @Test
+    public void keepsMessagesQueuedUntilReadyAtHandshake() {
+        final Client fresh = new Client(scripts::add, null, dispatcher);
+        fresh.send("greeting", this::record);
+
+        sendHandshake(fresh, dispatcher, null);
+
+        assertEquals(0, results.size());
+        assertEquals(1, fresh.getPendingReplyCount());
+    }
+
+    @Test
+    public void waitsForeverWithoutTimeout() {
+        client.defaultReplyTimeoutMillis = 300;
+        client.send("greeting", new SendOptions().setTimeout(0), this::record);
+        dispatcher.runAll();
+
+        dispatcher.advance(600000);
+        assertEquals(0, results.size());
+
+        reply(lastCallbackId(), "ok");
+        assertEquals(Collections.singletonList("greeting:ok:null"), results);
+    }
+
+    @Test
+    public void deliversReplyArrivingAfterItsDeadline() {
+        client.send("greeting", this::record);
+        dispatcher.runAll();
+
+        // The JavaScript library adds a deadline to every message, including replies.
+        client.kamomeSend("{\"id\":\"r\",\"name\":\"" + lastCallbackId()
+                + "\",\"data\":{\"success\":true,\"result\":\"late\"},\"deadline\":"
+                + (System.currentTimeMillis() - 1) + "}");
+
+        assertEquals(Collections.singletonList("greeting:late:null"), results);
+        assertEquals(0, client.getPendingReplyCount());
+    }
+
+    @Test
+    public void firesTimeoutBeyondOneWheelRotation() {
+        client.send("greeting", new SendOptions().setTimeout(120000), this::record);
+        dispatcher.runAll();
+
+        dispatcher.advance(119000);
+        assertEquals(0, results.size());
+
+        dispatcher.advance(1100);
+        assertEquals(Collections.singletonList("greeting:null:RequestTimeout"), results);
+    }
+
+    @Test
+    public void claimsEntryOnce() {
+        final PendingReplies replies = new PendingReplies(new TimingWheel(dispatcher));
+        final String callbackId = replies.add("greeting", null, 0, entry -> {
+        });
+
+        assertEquals("greeting", replies.claim(callbackId).commandName);
+        assertNull(replies.claim(callbackId));
+        assertEquals(0, replies.size());
+    }
+
+    @Test
+    public void deliversEachReplyToItsCallbackOnce() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        final int sends = 1000;
+        for (int i = 0; i < sends; i++) {
+            client.send("greeting", (commandName, result, error) -> count.incrementAndGet());
+        }
+        dispatcher.runAll();
+
+        final List<String> callbackIds = callbackIds();
+        assertEquals(sends, callbackIds.size());
+
+        // Every reply arrives twice at the same time.
+        ConcurrentRunner.run(2, thread -> {
+            for (String callbackId : callbackIds) {
+                client.kamomeSend("{\"id\":\"r" + thread + callbackId + "\",\"name\":\"" + callbackId
+                        + "\",\"data\":{\"success\":true,\"result\":null}}");
+            }
+        });
+
+        assertEquals(sends, count.get());
+        assertEquals(0, client.getPendingReplyCount());
+    }
+
+    private void record(String commandName, Object result, Error error) {
+        results.add(commandName + ":" + result + ":" + (error != null ? error.getMessage() : null));
+    }
+
+    private void reply(String callbackId, String result) {
+        client.kamomeSend("{\"id\":\"r" + callbackId + "\",\"name\":\"" + callbackId
+                + "\",\"data\":{\"success\":true,\"result\":\"" + result + "\"}}");
+    }
+
+    private List<String> callbackIds() {
+        final List<String> callbackIds = new ArrayList<>();
+        final Matcher matcher = Pattern.compile("onReceive\\('greeting', null, '([^']+)'\\)").matcher(scripts.toString());
+        while (matcher.find()) {
+            callbackIds.add(matcher.group(1));
+        }
+        return callbackIds;
+    }
+
+    private String lastCallbackId() {
+        final List<String> callbackIds = callbackIds();
+        return callbackIds.get(callbackIds.size() - 1);
+    }
+}
@@ -0,0 +1,152 @@
+package jp.hituzi.kamome;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityLanesTest {
+
+    private List<String> scripts;
+    private List<Runnable> flushes;
+    private Messenger messenger;
+
+    @Before
+    public void setUp() {
+        scripts = new ArrayList<>();
+        flushes = new ArrayList<>();
+        messenger = new Messenger(scripts::add, flushes::add);
+    }
+
+    private void send(String name, SendOptions.Priority priority) {
+        messenger.sendRequest(new Request(name, "cb", null, priority));
+    }
+
+    /**
+     * Runs one looper turn flushing once.
+     */
+    private void turn() {
+        final List<Runnable> due = new ArrayList<>(flushes);
+        flushes.clear();
+        for (Runnable flush : due) {
+            flush.run();
+        }
+    }
+
+    private String delivered() {
+        final StringBuilder sb = new StringBuilder();
+        for (String script : scripts) {
+            sb.append(Scripts.unwrap(script)).append(';');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the number of turns until a message is delivered.
+     */
+    private int turnsUntilDelivered(String name) {
+        for (int turns = 1; turns <= 10000; turns++) {
+            turn();
+            if (delivered().contains("'" + name + "'")) {
+                return turns;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void deliversHigherPriorityFirst() {
+        send("low", SendOptions.Priority.LOW);
+        send("normal", SendOptions.Priority.NORMAL);
+        send("high", SendOptions.Priority.HIGH);
+
+        turn();
+
+        assertEquals(1, scripts.size());
+        assertEquals("window.KM.onReceive('high', null, 'cb');"
+                + "window.KM.onReceive('normal', null, 'cb');"
+                + "window.KM.onReceive('low', null, 'cb')", Scripts.unwrap(scripts.get(0)));
+    }
+
+    @Test
+    public void keepsHighPriorityLatencyUnderLowPriorityFlood() {
+        final int length = "window.KM.onReceive('flood', null, 'cb')".length();
+        messenger.setMaxFlushLength(length * 10);
+        for (int i = 0; i < 1000; i++) {
+            send("flood", SendOptions.Priority.LOW);
+        }
+
+        final List<Integer> highTurns = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            send("high" + i, SendOptions.Priority.HIGH);
+            highTurns.add(turnsUntilDelivered("high" + i));
+        }
+        for (int turns : highTurns) {
+            assertEquals(1, turns);
+        }
+
+        // Without priorities, the same message waits for the whole flood.
+        setUp();
+        messenger.setMaxFlushLength(length * 10);
+        for (int i = 0; i < 1000; i++) {
+            send("flood", SendOptions.Priority.NORMAL);
+        }
+        send("late", SendOptions.Priority.NORMAL);
+        assertTrue(turnsUntilDelivered("late") > 90);
+    }
+
+    @Test
+    public void neverStarvesLowerLanes() {
+        final int length = "window.KM.onReceive('high', null, 'cb')".length();
+        messenger.setMaxFlushLength(length * 8);
+        for (int i = 0; i < 16; i++) {
+            send("low" + i, SendOptions.Priority.LOW);
+        }
+
+        for (int turn = 0; turn < 16; turn++) {
+            // Each turn, more high priority messages arrive than a flush delivers.
+            for (int i = 0; i < 20; i++) {
+                send("high", SendOptions.Priority.HIGH);
+            }
+            turn();
+            assertTrue(delivered().contains("'low" + turn + "'"));
+        }
+    }
+
+    @Test
+    public void leavesMessagesBeyondMaxFlushLengthToNextFlush() {
+        final int length = "window.KM.onReceive('a', null, 'cb')".length();
+        messenger.setMaxFlushLength(length * 2);
+        send("a", SendOptions.Priority.NORMAL);
+        send("b", SendOptions.Priority.NORMAL);
+        send("c", SendOptions.Priority.NORMAL);
+
+        turn();
+        assertEquals("window.KM.onReceive('a', null, 'cb');window.KM.onReceive('b', null, 'cb');", delivered());
+        assertEquals(1, flushes.size());
+
+        turn();
+        assertTrue(delivered().endsWith("window.KM.onReceive('c', null, 'cb');"));
+        assertTrue(flushes.isEmpty());
+    }
+
+    @Test
+    public void sendsHighPriorityMessagesQueuedBeforeReadyFirst() {
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        final List<String> clientScripts = new ArrayList<>();
+        final Client client = new Client(clientScripts::add, null, dispatcher);
+
+        client.send("analytics", new SendOptions().setPriority(SendOptions.Priority.LOW), null);
+        client.send("sync", null);
+        client.send("render", new SendOptions().setPriority(SendOptions.Priority.HIGH), null);
+        ClientTestBase.sendHandshake(client, dispatcher, null);
+
+        final String js = clientScripts.get(0);
+        assertTrue(js, js.indexOf("'render'") < js.indexOf("'sync'"));
+        assertTrue(js, js.indexOf("'sync'") < js.indexOf("'analytics'"));
+    }
+}
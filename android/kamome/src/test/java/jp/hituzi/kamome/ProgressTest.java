@@ -0,0 +1,144 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProgressTest extends ClientTestBase {
+
+    private List<Completable> runs;
+
+    @Before
+    public void setUp() {
+        runs = new ArrayList<>();
+        client.add(new Command("import", (commandName, data, completion) -> runs.add(completion)));
+    }
+
+    private void request(String id) {
+        client.kamomeSend("{\"id\":\"" + id + "\",\"name\":\"import\",\"data\":null}");
+        dispatcher.runAll();
+    }
+
+    @Test
+    public void sendsPartialResultsBeforeFinalResult() throws Exception {
+        handshake("{\"progress\":true}");
+        request("a");
+
+        runs.get(0).progress(Collections.singletonMap("done", 1));
+        runs.get(0).progress(Collections.singletonMap("done", 2));
+        runs.get(0).resolve(new JSONObject().put("done", 3));
+        dispatcher.runAll();
+
+        assertEquals("window.KM.onProgress({\"done\":1}, 'a');"
+                + "window.KM.onProgress({\"done\":2}, 'a');"
+                + "window.KM.onComplete({\"done\":3}, 'a');", delivered());
+    }
+
+    @Test
+    public void ignoresProgressAfterCompletion() {
+        handshake("{\"progress\":true}");
+        request("a");
+
+        runs.get(0).resolve();
+        runs.get(0).progress(1);
+        dispatcher.runAll();
+
+        assertEquals(Collections.singletonList("window.KM.onComplete(null, 'a')"), scripts);
+    }
+
+    @Test
+    public void sendsNoProgressToLibraryWithoutIt() {
+        handshake("null");
+        request("a");
+
+        runs.get(0).progress(1);
+        runs.get(0).resolve();
+        dispatcher.runAll();
+
+        assertEquals(Collections.singletonList("window.KM.onComplete(null, 'a')"), scripts);
+    }
+
+    @Test
+    public void sendsBinaryProgressAsBytes() {
+        handshake("{\"progress\":true}");
+        request("a");
+
+        runs.get(0).progress(new byte[]{7});
+        dispatcher.runAll();
+
+        assertEquals(Collections.singletonList("window.KM.onProgress({\"_kamome\":\"bytes\",\"base64\":\"Bw==\"}, 'a')"), scripts);
+        scripts.clear();
+
+        runs.get(0).progress(ByteBuffer.wrap(new byte[]{0, 7}, 1, 1));
+        dispatcher.runAll();
+
+        assertEquals(Collections.singletonList("window.KM.onProgress({\"_kamome\":\"bytes\",\"base64\":\"Bw==\"}, 'a')"), scripts);
+    }
+
+    @Test
+    public void sendsLongProgressInChunks() {
+        client.setChunkSize(8);
+        handshake("{\"progress\":true,\"chunking\":true}");
+        request("a");
+
+        runs.get(0).progress("0123456789");
+        dispatcher.runAll();
+
+        final String js = delivered();
+        assertTrue(js, js.contains("window.KM.onChunk("));
+        assertTrue(js, js.contains("window.KM.onProgress(window.KM.takeStream('"));
+    }
+
+    @Test
+    public void passesProgressToLocalCallback() {
+        final List<Object> received = new ArrayList<>();
+        client.add(new Command("count", (commandName, data, completion) -> {
+            completion.progress(1);
+            completion.progress(2);
+            completion.resolve();
+        }));
+
+        client.execute("count", new LocalCompletion.ProgressCallback() {
+            @Override
+            public void onProgress(Object data) {
+                received.add(data);
+            }
+
+            @Override
+            public void onResolved(Object result) {
+                received.add("resolved");
+            }
+
+            @Override
+            public void onRejected(String errorMessage) {
+            }
+        });
+        dispatcher.runAll();
+
+        assertEquals(Arrays.<Object>asList(1, 2, "resolved"), received);
+    }
+
+    @Test
+    public void passesProgressToSingleFlightRequests() {
+        client.add(new Command("import", (commandName, data, completion) -> runs.add(completion)).setSingleFlight(true));
+        handshake("{\"progress\":true}");
+        request("a");
+        request("b");
+
+        runs.get(0).progress(50);
+        dispatcher.runAll();
+
+        final String js = delivered();
+        assertTrue(js, js.contains("window.KM.onProgress(50, 'a')"));
+        assertTrue(js, js.contains("window.KM.onProgress(50, 'b')"));
+    }
+}
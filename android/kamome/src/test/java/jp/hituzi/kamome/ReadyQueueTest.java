@@ -0,0 +1,143 @@
+package jp.hituzi.kamome;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadyQueueTest extends ClientTestBase {
+
+    private List<String> errors;
+
+    @Before
+    public void setUp() {
+        errors = new ArrayList<>();
+    }
+
+    private void send(String commandName, int value) {
+        client.send(Collections.singletonMap("v", value), commandName,
+                (name, result, error) -> errors.add(name + ":" + value + ":" + (error != null ? error.getMessage() : null)));
+    }
+
+    private String ready() {
+        sendHandshake(client, dispatcher, null);
+        return scripts.isEmpty() ? "" : scripts.get(0);
+    }
+
+    @Test
+    public void dropsOldestMessages() {
+        client.setReadyQueueCapacity(2, Client.ReadyQueueOverflow.DROP_OLDEST);
+
+        send("a", 1);
+        send("b", 2);
+        send("c", 3);
+
+        assertEquals(2, client.getReadyQueueDepth());
+        assertEquals(1, client.getDroppedMessageCount());
+        assertEquals(2, client.getPendingReplyCount());
+        final String js = ready();
+        assertFalse(js, js.contains("'a'"));
+        assertTrue(js, js.indexOf("'b'") < js.indexOf("'c'"));
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void dropsNewestMessages() {
+        client.setReadyQueueCapacity(2, Client.ReadyQueueOverflow.DROP_NEWEST);
+
+        send("a", 1);
+        send("b", 2);
+        send("c", 3);
+
+        assertEquals(1, client.getDroppedMessageCount());
+        final String js = ready();
+        assertTrue(js, js.contains("'a'") && js.contains("'b'"));
+        assertFalse(js, js.contains("'c'"));
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void failsNewMessagesToCallbacks() {
+        client.setReadyQueueCapacity(1, Client.ReadyQueueOverflow.FAIL);
+
+        send("a", 1);
+        send("b", 2);
+
+        assertEquals(1, client.getReadyQueueDepth());
+        assertEquals(1, client.getDroppedMessageCount());
+        assertEquals(1, client.getPendingReplyCount());
+        assertEquals(1, errors.size());
+        assertEquals("b:2:QueueFull", errors.get(0));
+    }
+
+    @Test
+    public void keepsLatestMessagePerCommand() {
+        client.setReadyQueueCapacity(2, Client.ReadyQueueOverflow.LATEST_PER_COMMAND);
+
+        send("state", 1);
+        send("other", 2);
+        send("state", 3);
+        send("state", 4);
+
+        assertEquals(2, client.getReadyQueueDepth());
+        assertEquals(2, client.getDroppedMessageCount());
+        final String js = ready();
+        assertFalse(js, js.contains("{\"v\":1}"));
+        assertFalse(js, js.contains("{\"v\":3}"));
+        assertTrue(js, js.indexOf("'other'") < js.indexOf("{\"v\":4}"));
+
+        send("third", 5);
+        assertEquals(2, client.getDroppedMessageCount());
+    }
+
+    @Test
+    public void sendsAfterReadyWithoutQueueing() {
+        client.setReadyQueueCapacity(1, Client.ReadyQueueOverflow.FAIL);
+        ready();
+
+        send("a", 1);
+        send("b", 2);
+
+        assertEquals(0, client.getReadyQueueDepth());
+        assertEquals(0, client.getDroppedMessageCount());
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void boundsMessagesSentConcurrently() throws Exception {
+        client.setReadyQueueCapacity(100, Client.ReadyQueueOverflow.DROP_OLDEST);
+        final int threads = 4;
+        final int perThread = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    client.send("flood", null);
+                }
+            });
+            thread.start();
+            senders.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : senders) {
+            thread.join();
+        }
+
+        assertEquals(100, client.getReadyQueueDepth());
+        assertEquals(threads * perThread - 100, client.getDroppedMessageCount());
+        assertEquals(100, client.getPendingReplyCount());
+    }
+}
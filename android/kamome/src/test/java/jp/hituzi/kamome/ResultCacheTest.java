@@ -0,0 +1,187 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResultCacheTest {
+
+    private List<String> scripts;
+    private ManualDispatcher dispatcher;
+    private Client client;
+    private long nanos;
+    private int runs;
+
+    @Before
+    public void setUp() {
+        scripts = new ArrayList<>();
+        dispatcher = new ManualDispatcher();
+        client = new Client(scripts::add, null, dispatcher);
+        nanos = 0;
+        runs = 0;
+    }
+
+    private ResultCache cache(long ttlMillis, int maxEntries, long maxBytes) {
+        return new ResultCache(ttlMillis, maxEntries, maxBytes, () -> nanos);
+    }
+
+    private void addConfig(ResultCache cache) {
+        client.add(new Command("config", (commandName, data, completion) -> {
+            runs++;
+            try {
+                completion.resolve(new JSONObject().put("run", runs));
+            } catch (Exception e) {
+                completion.reject(e.getMessage());
+            }
+        }).setCache(cache));
+    }
+
+    private String request(String id, String data) {
+        scripts.clear();
+        client.kamomeSend("{\"id\":\"" + id + "\",\"name\":\"config\",\"data\":" + data + "}");
+        dispatcher.runAll();
+        return scripts.get(0);
+    }
+
+    @Test
+    public void answersEqualDataFromCache() {
+        final ResultCache cache = cache(1000, 10, 1024);
+        addConfig(cache);
+
+        assertEquals("window.KM.onComplete({\"run\":1}, 'a')", request("a", "{\"x\":1,\"y\":[2,{\"b\":1,\"a\":2}]}"));
+        assertEquals("window.KM.onComplete({\"run\":1}, 'b')", request("b", "{\"y\":[2,{\"a\":2,\"b\":1}],\"x\":1}"));
+        assertEquals("window.KM.onComplete({\"run\":2}, 'c')", request("c", "{\"x\":2}"));
+        assertEquals(2, runs);
+
+        final ResultCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+        assertEquals(2, stats.getEntryCount());
+        assertTrue(stats.getByteSize() > 0);
+    }
+
+    @Test
+    public void expiresResultsAfterTtl() {
+        final ResultCache cache = cache(1000, 10, 1024);
+        addConfig(cache);
+
+        request("a", "null");
+        nanos += 999_000_000L;
+        request("b", "null");
+        assertEquals(1, runs);
+
+        nanos += 1_000_000L;
+        assertEquals("window.KM.onComplete({\"run\":2}, 'c')", request("c", "null"));
+        assertEquals(1, cache.getStats().getExpirationCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedResults() {
+        final ResultCache cache = cache(1000, 2, 1024);
+        addConfig(cache);
+
+        request("a", "{\"k\":1}");
+        request("b", "{\"k\":2}");
+        request("c", "{\"k\":1}");
+        request("d", "{\"k\":3}");
+        assertEquals(3, runs);
+        assertEquals(1, cache.getStats().getEvictionCount());
+
+        request("e", "{\"k\":1}");
+        assertEquals(3, runs);
+        request("f", "{\"k\":2}");
+        assertEquals(4, runs);
+    }
+
+    @Test
+    public void keepsMaxBytes() {
+        final ResultCache cache = cache(1000, 10, 2 * ("{\"k\":1}".length() + "{\"run\":1}".length()));
+        addConfig(cache);
+
+        request("a", "{\"k\":1}");
+        request("b", "{\"k\":2}");
+        assertEquals(1, cache.getStats().getEntryCount());
+        assertEquals(1, cache.getStats().getEvictionCount());
+    }
+
+    @Test
+    public void invalidatesCacheOfCommand() {
+        final ResultCache cache = cache(1000, 10, 1024);
+        addConfig(cache);
+
+        request("a", "null");
+        client.invalidateCache("config");
+        assertEquals("window.KM.onComplete({\"run\":2}, 'b')", request("b", "null"));
+    }
+
+    @Test
+    public void skipsResultOfHandlerRunningAcrossInvalidation() {
+        final ResultCache cache = cache(1000, 10, 1024);
+        final List<Completable> pending = new ArrayList<>();
+        client.add(new Command("config", (commandName, data, completion) -> pending.add(completion)).setCache(cache));
+
+        client.kamomeSend("{\"id\":\"a\",\"name\":\"config\",\"data\":null}");
+        cache.invalidate();
+        pending.get(0).resolve(Arrays.asList(1, 2));
+
+        assertEquals(0, cache.getStats().getEntryCount());
+    }
+
+    @Test
+    public void doesNotCacheRejections() {
+        final ResultCache cache = cache(1000, 10, 1024);
+        client.add(new Command("config", (commandName, data, completion) -> {
+            runs++;
+            completion.reject("Nope");
+        }).setCache(cache));
+
+        request("a", "null");
+        request("b", "null");
+        assertEquals(2, runs);
+    }
+
+    @Test
+    public void answersLocalExecutionFromCache() {
+        final ResultCache cache = cache(1000, 10, 1024);
+        client.add(new Command("bytes", (commandName, data, completion) -> {
+            runs++;
+            completion.resolve(new byte[]{1, 2});
+        }).setCache(cache));
+        final List<Object> results = new ArrayList<>();
+        final LocalCompletion.Callback callback = new LocalCompletion.Callback() {
+            @Override
+            public void onResolved(Object result) {
+                results.add(result);
+            }
+
+            @Override
+            public void onRejected(String errorMessage) {
+                results.add(errorMessage);
+            }
+        };
+
+        client.execute("bytes", callback);
+        client.execute("bytes", callback);
+
+        assertEquals(1, runs);
+        assertEquals(2, results.size());
+        assertTrue(Arrays.equals(new byte[]{1, 2}, (byte[]) results.get(1)));
+    }
+
+    @Test
+    public void ignoresInvalidationOfCommandsWithoutCache() {
+        client.add(new Command("plain", (commandName, data, completion) -> completion.resolve()));
+
+        client.invalidateCache("plain");
+        client.invalidateCache("missing");
+
+        assertTrue(client.hasCommand("plain"));
+    }
+}
@@ -0,0 +1,20 @@
+package jp.hituzi.kamome;
+
+/**
+ * Reads scripts evaluated by the bridge transport.
+ */
+final class Scripts {
+    private Scripts() {
+    }
+
+    /**
+     * Returns the messages of a batch joined with semicolons, without the blocks isolating them.
+     */
+    static String unwrap(String script) {
+        if (!script.startsWith(BridgeTransport.ISOLATE_BEGIN)) {
+            return script;
+        }
+        return script.substring(BridgeTransport.ISOLATE_BEGIN.length(), script.length() - BridgeTransport.ISOLATE_END.length())
+                .replace(BridgeTransport.ISOLATE_END + BridgeTransport.ISOLATE_BEGIN, ";");
+    }
+}
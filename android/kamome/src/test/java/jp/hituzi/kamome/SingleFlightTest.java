@@ -0,0 +1,124 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest extends ClientTestBase {
+
+    private List<Completable> runs;
+
+    @Before
+    public void setUp() {
+        runs = new ArrayList<>();
+    }
+
+    private Command lookup() {
+        return new Command("lookup", (commandName, data, completion) -> runs.add(completion)).setSingleFlight(true);
+    }
+
+    private void request(String id, String data) {
+        client.kamomeSend("{\"id\":\"" + id + "\",\"name\":\"lookup\",\"data\":" + data + "}");
+        dispatcher.runAll();
+    }
+
+    @Test
+    public void coalescesConcurrentRequestsWithEqualData() throws Exception {
+        client.add(lookup());
+
+        request("a", "{\"x\":1,\"y\":2}");
+        request("b", "{\"y\":2,\"x\":1}");
+        assertEquals(1, runs.size());
+        assertTrue(scripts.isEmpty());
+
+        runs.get(0).resolve(new JSONObject().put("v", 1));
+        dispatcher.runAll();
+
+        assertEquals(1, scripts.size());
+        final String js = scripts.get(0);
+        assertTrue(js, js.contains("window.KM.onComplete({\"v\":1}, 'a')"));
+        assertTrue(js, js.contains("window.KM.onComplete({\"v\":1}, 'b')"));
+    }
+
+    @Test
+    public void rejectsEveryJoinedRequest() {
+        client.add(lookup());
+
+        request("a", "null");
+        request("b", "null");
+        runs.get(0).reject("Nope");
+        dispatcher.runAll();
+
+        final String js = scripts.get(0);
+        assertTrue(js, js.contains("window.KM.onError('Nope', 'a')"));
+        assertTrue(js, js.contains("window.KM.onError('Nope', 'b')"));
+    }
+
+    @Test
+    public void runsAgainAfterCompletion() {
+        client.add(lookup());
+
+        request("a", "null");
+        runs.get(0).resolve();
+        request("b", "null");
+
+        assertEquals(2, runs.size());
+        assertFalse(runs.get(1).isCompleted());
+    }
+
+    @Test
+    public void runsDifferentDataSeparately() {
+        client.add(lookup());
+
+        request("a", "{\"x\":1}");
+        request("b", "{\"x\":2}");
+        assertEquals(2, runs.size());
+
+        runs.get(1).resolve();
+        dispatcher.runAll();
+
+        assertEquals(Collections.singletonList("window.KM.onComplete(null, 'b')"), scripts);
+    }
+
+    @Test
+    public void endsRunOfThrowingHandler() {
+        client.add(new Command("lookup", (commandName, data, completion) -> {
+            runs.add(completion);
+            if (runs.size() == 1) {
+                throw new IllegalStateException("Broken");
+            }
+        }).setSingleFlight(true));
+
+        try {
+            request("a", "null");
+        } catch (IllegalStateException ignored) {
+        }
+        request("b", "null");
+
+        assertEquals(2, runs.size());
+    }
+
+    @Test
+    public void cachesResultOfCoalescedRun() {
+        final ResultCache cache = new ResultCache(1000, 10, 1024);
+        client.add(lookup().setCache(cache));
+
+        request("a", "null");
+        request("b", "null");
+        runs.get(0).resolve(1);
+        dispatcher.runAll();
+        scripts.clear();
+        request("c", "null");
+
+        assertEquals(1, runs.size());
+        assertEquals(Collections.singletonList("window.KM.onComplete(1, 'c')"), scripts);
+    }
+}
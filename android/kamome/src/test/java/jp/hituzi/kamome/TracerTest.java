@@ -0,0 +1,94 @@
+package jp.hituzi.kamome;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TracerTest extends ClientTestBase {
+
+    private MemoryTracer tracer;
+
+    @Before
+    public void setUp() {
+        tracer = new MemoryTracer();
+    }
+
+    @Test
+    public void emitsSpansOfStagesInOrder() {
+        client.setTracer(tracer);
+        client.add(new Command("echo", (commandName, data, completion) -> completion.resolve(data))
+                .setExecutor(CommandExecutor.MAIN));
+
+        client.kamomeSend("{\"id\":\"a\",\"name\":\"echo\",\"data\":null}");
+        assertTrue(tracer.getSpans().isEmpty());
+
+        dispatcher.runAll();
+
+        final List<MemoryTracer.Span> spans = tracer.getSpans();
+        assertEquals(3, spans.size());
+        assertEquals(Tracer.Stage.QUEUE, spans.get(0).getStage());
+        assertEquals(Tracer.Stage.HANDLER, spans.get(1).getStage());
+        assertEquals(Tracer.Stage.DELIVERY, spans.get(2).getStage());
+        for (MemoryTracer.Span span : spans) {
+            assertEquals("echo", span.getCommandName());
+            assertEquals("a", span.getRequestId());
+            assertTrue(span.getDurationNanos() >= 0);
+        }
+        assertTrue(spans.get(0).getEndNanos() <= spans.get(1).getStartNanos());
+        assertTrue(spans.get(1).getEndNanos() <= spans.get(2).getStartNanos());
+    }
+
+    @Test
+    public void skipsHandlerSpanOfMissingCommand() {
+        client.setTracer(tracer);
+
+        client.kamomeSend("{\"id\":\"a\",\"name\":\"missing\",\"data\":null}");
+        dispatcher.runAll();
+
+        final List<MemoryTracer.Span> spans = tracer.getSpans();
+        assertEquals(2, spans.size());
+        assertEquals(Tracer.Stage.QUEUE, spans.get(0).getStage());
+        assertEquals(Tracer.Stage.DELIVERY, spans.get(1).getStage());
+    }
+
+    @Test
+    public void sendsTimingsBeforeResultOfTracedRequest() throws Exception {
+        client.add(new Command("echo", (commandName, data, completion) -> completion.resolve(data)));
+
+        client.kamomeSend("{\"id\":\"a\",\"name\":\"echo\",\"data\":{\"v\":1},\"sentAt\":1700000000000.5}");
+        dispatcher.runAll();
+
+        assertEquals(1, scripts.size());
+        final String js = Scripts.unwrap(scripts.get(0));
+        final String prefix = "window.KM.onTrace('a', ";
+        assertTrue(js, js.startsWith(prefix));
+        final JSONObject trace = new JSONObject(js.substring(prefix.length(), js.indexOf(")")));
+        assertTrue(trace.getLong("receivedAt") > 0);
+        assertTrue(trace.getDouble("queue") >= 0);
+        assertTrue(trace.getDouble("handler") >= 0);
+        assertTrue(js.indexOf("onTrace") < js.indexOf("window.KM.onComplete({\"v\":1}, 'a')"));
+    }
+
+    @Test
+    public void sendsNoTimingsOfUntracedRequest() {
+        client.setTracer(tracer);
+        client.add(new Command("echo", (commandName, data, completion) -> completion.resolve(data)));
+
+        client.kamomeSend("{\"id\":\"a\",\"name\":\"echo\",\"data\":null}");
+        dispatcher.runAll();
+
+        assertFalse(scripts.get(0).contains("onTrace"));
+    }
+
+    @Test
+    public void scansSentAtOfEnvelope() throws Exception {
+        assertEquals(1700000000000.5, Envelope.scan("{\"id\":\"a\",\"name\":\"b\",\"sentAt\":1700000000000.5}").sentAt, 0);
+        assertFalse(Envelope.scan("{\"id\":\"a\",\"name\":\"b\"}").isTraced());
+    }
+}
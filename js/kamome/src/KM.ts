@@ -2,8 +2,11 @@ import { KamomeError } from './KamomeError';
 import { KamomeEventData } from './KamomeEventData';
 import { KamomeEventResult } from './KamomeEventResult';
 import { KamomeRequest } from './KamomeRequest';
+import { KamomeTraceStage, KamomeTracer } from './KamomeTracer';
 import { VERSION_CODE } from './VERSION_CODE';
-import { AndroidPlatform, FlutterPlatform, IosPlatform } from './platform';
+import { AndroidPlatform, FlutterPlatform, IosPlatform, NativeMessage, NativeTrace } from './platform';
+import { decodeBinary, encodeBinary } from './util/binary';
+import { now } from './util/now';
 import { undefinedToNull } from './util/undefinedToNull';
 import { uuid } from './util/uuid';
 
@@ -100,6 +103,16 @@ export class WebPlatform {
     });
   }
 
+  /**
+   * Emits an event to the listeners subscribed by `KM.subscribe` method, like the native client does.
+   *
+   * @param name An event name.
+   * @param data A JSON data.
+   */
+  emit(name: string, data?: KamomeEventData | null) {
+    setTimeout(() => KM.onEvent(name, undefinedToNull<KamomeEventData>(data)), 0);
+  }
+
   /**
    * Executes a command with specified request.
    *
@@ -127,6 +140,14 @@ export class WebPlatform {
  * The ready event listener.
  */
 export type OnReadyListener = () => void;
+/**
+ * Event listener function. It receives an event emitted by the native client, and never replies.
+ */
+export type OnEvent = (data: KamomeEventData | null) => void;
+/**
+ * Progress function. It receives each partial result the native handler sends before the final result.
+ */
+export type OnProgress = (data: KamomeEventResult | null) => void;
 /**
  * Receiver function.
  */
@@ -138,6 +159,14 @@ export type OnReceiver = (
 
 const COMMAND_SYN: string = '_kamomeSYN';
 const COMMAND_ACK: string = '_kamomeACK';
+const COMMAND_CHUNK: string = '_kamomeChunk';
+const COMMAND_CHUNK_ACK: string = '_kamomeChunkAck';
+const COMMAND_CANCEL: string = '_kamomeCancel';
+const TRANSPORT_MESSAGE_PORT: string = 'messagePort';
+/**
+ * How long to wait for the message port after the native client agreed to use it.
+ */
+const MESSAGE_PORT_TIMEOUT: number = 1000;
 
 const android = new AndroidPlatform();
 const iOS = new IosPlatform();
@@ -145,13 +174,37 @@ const flutter = new FlutterPlatform();
 const browser = new WebPlatform();
 
 let isReady = false;
-let retryCountForReady = 0;
-let isWaitingForReady = false;
 let onReady: OnReadyListener | null = null;
+/**
+ * The chunk size and the window negotiated with the KM Android client,
+ * or null if chunks are not supported.
+ */
+let chunking: { size: number; window: number } | null = null;
+/**
+ * Whether the KM Android client stops the handler of a request the JavaScript code gave up waiting for.
+ */
+let cancellation = false;
+/**
+ * Whether the KM Android client tags binary data and objects having the reserved key.
+ * Otherwise, payloads are passed as is, and binary data arrives as an object of Base64.
+ */
+let binary = false;
+let tracer: KamomeTracer | null = null;
 
-// Internal request shape — carries a dispatch flag that must not leak
-// into the public KamomeRequest type consumers can see.
-type InternalRequest = KamomeRequest & { sent?: boolean };
+// A JSON text sent to the native client in chunks.
+type OutboundStream = { json: string; offset: number; sent: number; acked: number };
+
+// Internal request shape — carries a dispatch flag and the ready deadline timer
+// that must not leak into the public KamomeRequest type consumers can see.
+type InternalRequest = KamomeRequest & {
+  sent?: boolean;
+  onProgress?: OnProgress;
+  readyTimer?: ReturnType<typeof setTimeout>;
+  trace?: RequestTrace;
+};
+
+// The timestamps of a traced request in milliseconds since the epoch.
+type RequestTrace = { createdAt: number; sentAt?: number; native?: NativeTrace };
 
 export class KM {
   /**
@@ -160,12 +213,17 @@ export class KM {
    * @param receivers The receiver dictionary.
    * @param requests The request dictionary.
    * @param requestTimeout Default value is 10 seconds.
+   * @param readyTimeout Default value is 10 seconds.
    * @private
    */
   private constructor(
     private receivers: { [commandName: string]: OnReceiver } = {},
     private requests: { [id: string]: InternalRequest } = {},
     private requestTimeout = 10000,
+    private readyTimeout = 10000,
+    private inboundStreams: { [streamId: string]: string[] } = {},
+    private outboundStreams: { [streamId: string]: OutboundStream } = {},
+    private listeners: { [eventName: string]: OnEvent[] } = {},
   ) {}
 
   private static instance = new KM();
@@ -215,6 +273,19 @@ export class KM {
     return this.instance;
   }
 
+  /**
+   * Sets a tracer receiving the spans of the stages of each request sent by `KM.send`.
+   * Requests sent while a tracer is set carry a timestamp, and the KM Android client tells
+   * how long its stages took, so that a request breaks down into bridge, queue and handler time.
+   *
+   * @param aTracer A tracer. If `null` is passed, requests are not traced.
+   * @returns This instance.
+   */
+  static setTracer(aTracer: KamomeTracer | null): KM {
+    tracer = aTracer;
+    return this.instance;
+  }
+
   /**
    * `KM.send` method expects a 'resolve'/'reject' response will be returned in a duration.
    * If the request is timed out, it's callback calls `reject` with requestTimeout error.
@@ -229,6 +300,20 @@ export class KM {
     return this.instance;
   }
 
+  /**
+   * Requests sent before the native client is ready are queued and sent as soon as it goes ready state.
+   * If a request is still queued after the ready timeout,
+   * it's callback calls `reject` with requestTimeout error.
+   * If given `time` <= 0, queued requests wait for ready forever.
+   *
+   * @param timeMillis Timeout in millisecond.
+   * @returns This instance.
+   */
+  static setReadyTimeout(timeMillis: number): KM {
+    this.instance.readyTimeout = timeMillis;
+    return this.instance;
+  }
+
   /**
    * Tells whether the Kamome native client is not present.
    *
@@ -274,51 +359,198 @@ export class KM {
     return this.instance;
   }
 
+  /**
+   * Subscribes to events emitted by the native client, e.g., frequent sensor updates.
+   * Unlike a receiver, a listener never replies, so an event crosses the bridge once.
+   *
+   * @param name An event name.
+   * @param listener A listener receiving the data of each event.
+   * @returns A function unsubscribing the listener.
+   */
+  static subscribe(name: string, listener: OnEvent): () => void {
+    this.instance.listeners[name] = [...(this.instance.listeners[name] ?? []), listener];
+    return () => {
+      const current = this.instance.listeners[name];
+      if (!current) {
+        return;
+      }
+      // Copy on write, so that an event being dispatched still reaches the listeners it started with.
+      const rest = current.filter(l => l !== listener);
+      if (rest.length > 0) {
+        this.instance.listeners[name] = rest;
+      } else {
+        delete this.instance.listeners[name];
+      }
+    };
+  }
+
   /**
    * Sends a JSON message to the native.
    *
    * @param name A command name.
-   * @param data A data.
+   * @param data A data. A `Uint8Array` or an `ArrayBuffer` arrives at the native client as bytes.
    * @param timeoutMillis Timeout in milliseconds for this request. If this argument is omitted or null, default timeout is used.
+   * @param onProgress A function receiving each partial result before the final result. Supported on Android.
    * @returns A promise object.
    */
   static send(
     name: string,
     data?: KamomeEventData | null,
     timeoutMillis?: number | null,
+    onProgress?: OnProgress | null,
   ): Promise<KamomeEventResult | null> {
     const timeout = timeoutMillis ?? this.instance.requestTimeout;
 
     return new Promise<KamomeEventResult | null>((resolve, reject) => {
       const id = uuid();
-      const req: KamomeRequest = {
+      const req: InternalRequest = {
         id,
         name,
         data,
         timeout,
         resolve,
         reject,
+        ...(onProgress ? { onProgress } : {}),
       };
+      if (tracer) {
+        req.trace = { createdAt: now() };
+      }
       this.instance.requests[id] = req;
 
-      if (name === COMMAND_SYN || name === COMMAND_ACK) {
+      if (isReady || name === COMMAND_SYN || name === COMMAND_ACK) {
         // Send initialization commands to ready.
         this.sendRequest(req);
       } else {
-        this.waitForReadyAndSendRequests();
+        // Queue the request until ready.
+        this.waitForReady(req);
       }
     });
   }
 
+  /**
+   * Sends a JSON message to the native, and iterates its partial results followed by its final result.
+   * A final result of null isn't iterated. The iteration throws the error `KM.send` would reject with.
+   *
+   * ```javascript
+   * for await (const page of KM.stream('search', { query }, 0)) {
+   *   render(page);
+   * }
+   * ```
+   *
+   * @param name A command name.
+   * @param data A data.
+   * @param timeoutMillis Timeout in milliseconds for this request. If this argument is omitted or null, default timeout is used.
+   * @returns An async iterator of the results.
+   */
+  static stream(
+    name: string,
+    data?: KamomeEventData | null,
+    timeoutMillis?: number | null,
+  ): AsyncIterableIterator<KamomeEventResult | null> {
+    const results: (KamomeEventResult | null)[] = [];
+    let wake: (() => void) | null = null;
+    let done = false;
+    let failure: { reason: unknown } | null = null;
+    const notify = () => {
+      const w = wake;
+      wake = null;
+      w?.();
+    };
+
+    this.send(name, data, timeoutMillis, partial => {
+      if (!done) {
+        results.push(partial);
+        notify();
+      }
+    }).then(
+      result => {
+        if (!done && result !== null && result !== undefined) {
+          results.push(result);
+        }
+        done = true;
+        notify();
+      },
+      reason => {
+        failure = done ? null : { reason };
+        done = true;
+        notify();
+      },
+    );
+
+    const iterator: AsyncIterableIterator<KamomeEventResult | null> = {
+      async next(): Promise<IteratorResult<KamomeEventResult | null>> {
+        while (results.length === 0 && !done) {
+          await new Promise<void>(resolve => (wake = resolve));
+        }
+        if (results.length > 0) {
+          return { value: results.shift()!, done: false };
+        }
+        if (failure) {
+          const { reason } = failure;
+          failure = null;
+          throw reason;
+        }
+        return { value: undefined, done: true };
+      },
+      async return(): Promise<IteratorResult<KamomeEventResult | null>> {
+        // Results arriving after the loop breaks are discarded.
+        done = true;
+        results.length = 0;
+        notify();
+        return { value: undefined, done: true };
+      },
+      [Symbol.asyncIterator]() {
+        return iterator;
+      },
+    };
+    return iterator;
+  }
+
+  private static waitForReady(req: InternalRequest) {
+    const timeout = this.instance.readyTimeout;
+    if (timeout <= 0) {
+      return;
+    }
+
+    req.readyTimer = setTimeout(() => {
+      const queuedReq = this.instance.requests[req.id];
+      if (queuedReq && !queuedReq.sent) {
+        queuedReq.reject(KamomeError.requestTimeout + ':' + queuedReq.name);
+        delete this.instance.requests[queuedReq.id];
+      }
+    }, timeout);
+  }
+
   private static sendRequest(req: InternalRequest) {
+    if (req.readyTimer !== undefined) {
+      clearTimeout(req.readyTimer);
+      req.readyTimer = undefined;
+    }
+
     try {
       const data = undefinedToNull<KamomeEventData>(req.data);
-      const json = JSON.stringify({ name: req.name, data, id: req.id });
+      const trace = req.trace;
+      if (trace) {
+        trace.sentAt = now();
+      }
+      // The KM Android client drops a request still waiting for its handler after the deadline.
+      const deadline = req.timeout > 0 && android.hasClient() ? Date.now() + req.timeout : undefined;
+      const json = JSON.stringify({
+        name: req.name,
+        data: binary ? encodeBinary(data) : data,
+        id: req.id,
+        ...(trace ? { sentAt: trace.sentAt } : {}),
+        ...(deadline !== undefined ? { deadline } : {}),
+      });
 
       if (iOS.hasClient()) {
         iOS.send(json);
       } else if (android.hasClient()) {
-        android.send(json);
+        if (chunking && json.length > chunking.size) {
+          this.sendInChunks(json);
+        } else {
+          android.send(json);
+        }
       } else if (flutter.hasClient()) {
         flutter.send(json);
       } else if (browser.hasCommand(req.name)) {
@@ -341,30 +573,33 @@ export class KM {
         if (timedOutReq) {
           timedOutReq.reject(KamomeError.requestTimeout + ':' + timedOutReq.name);
           delete this.instance.requests[timedOutReq.id];
+          this.cancel(timedOutReq);
         }
       }, req.timeout);
     }
   }
 
-  private static waitForReadyAndSendRequests() {
-    // Waiting for ready.
-    if (!isReady) {
-      if (isWaitingForReady) {
-        return;
-      }
-      if (retryCountForReady < 50) {
-        retryCountForReady++;
-        isWaitingForReady = true;
-        setTimeout(() => {
-          isWaitingForReady = false;
-          this.waitForReadyAndSendRequests();
-        }, 200);
-      } else {
-        console.error('[kamome.js] Waiting for ready has timed out.');
-      }
+  /**
+   * Tells the KM Android client that nobody waits for the result of a request any longer,
+   * so that its handler can stop and the result is never sent.
+   *
+   * @param req A request given up.
+   */
+  private static cancel(req: InternalRequest) {
+    if (!cancellation || !android.hasClient()) {
       return;
     }
+    try {
+      android.send(JSON.stringify({ name: COMMAND_CANCEL, id: req.id, data: null }));
+    } catch (e) {
+      console.warn('[kamome.js] Failed to cancel the request.', e);
+    }
+  }
 
+  /**
+   * Sends requests queued until ready.
+   */
+  private static sendQueuedRequests() {
     for (const id in this.instance.requests) {
       const req = this.instance.requests[id];
       if (req.sent) {
@@ -374,6 +609,89 @@ export class KM {
     }
   }
 
+  /**
+   * Sends a JSON text to the KM Android client in chunks.
+   * At most a window of chunks is sent before the native client acknowledges them.
+   *
+   * @param json A JSON text.
+   */
+  private static sendInChunks(json: string) {
+    const streamId = uuid();
+    this.instance.outboundStreams[streamId] = { json, offset: 0, sent: 0, acked: 0 };
+    this.pumpChunks(streamId);
+  }
+
+  private static pumpChunks(streamId: string) {
+    const stream = this.instance.outboundStreams[streamId];
+    if (!stream || !chunking) {
+      return;
+    }
+
+    const { size, window } = chunking;
+    while (stream.sent - stream.acked < window && stream.offset < stream.json.length) {
+      let end = Math.min(stream.json.length, stream.offset + size);
+      // Keep a surrogate pair in one chunk.
+      const code = stream.json.charCodeAt(end - 1);
+      if (end < stream.json.length && end - 1 > stream.offset && code >= 0xd800 && code <= 0xdbff) {
+        end--;
+      }
+      const chunk = stream.json.slice(stream.offset, end);
+      const last = end >= stream.json.length;
+      stream.offset = end;
+      stream.sent++;
+      android.send(JSON.stringify({ name: COMMAND_CHUNK, id: streamId, chunk, last }));
+      if (last) {
+        delete this.instance.outboundStreams[streamId];
+      }
+    }
+  }
+
+  /**
+   * Called from the native client when it received chunks sent by `sendInChunks`.
+   *
+   * @param streamId A stream ID.
+   * @param received The number of chunks the native client received so far.
+   * @returns null
+   */
+  static onChunkAck(streamId: string, received: number) {
+    const stream = this.instance.outboundStreams[streamId];
+    if (stream) {
+      stream.acked = Math.max(stream.acked, received);
+      this.pumpChunks(streamId);
+    }
+    return null;
+  }
+
+  /**
+   * Called from the native client with a chunk of a large payload.
+   * The payload is taken out by `takeStream` after the last chunk.
+   *
+   * @param streamId A stream ID.
+   * @param chunk A piece of the JSON text of the payload.
+   * @returns null
+   */
+  static onChunk(streamId: string, chunk: string) {
+    const chunks = (this.instance.inboundStreams[streamId] ??= []);
+    chunks.push(chunk);
+    android.send(
+      JSON.stringify({ name: COMMAND_CHUNK_ACK, id: streamId, data: { received: chunks.length } }),
+    );
+    return null;
+  }
+
+  /**
+   * Called from the native client in place of the data of a message
+   * whose payload was sent in chunks.
+   *
+   * @param streamId A stream ID.
+   * @returns The payload.
+   */
+  static takeStream(streamId: string): any {
+    const chunks = this.instance.inboundStreams[streamId];
+    delete this.instance.inboundStreams[streamId];
+    return chunks ? JSON.parse(chunks.join('')) : null;
+  }
+
   /**
    * Called from the native client when sent message is processed successfully.
    *
@@ -384,12 +702,32 @@ export class KM {
   static onComplete(result: KamomeEventResult | null, requestId: string) {
     const req = this.instance.requests[requestId];
     if (req) {
-      req.resolve(result);
+      this.emitSpans(req);
+      req.resolve(binary ? decodeBinary(result) : result);
       delete this.instance.requests[requestId];
     }
     return null;
   }
 
+  /**
+   * Called from the native client when the handler of sent message sends a partial result.
+   *
+   * @param data A JSON object passed from the native client, or null.
+   * @param requestId A request ID.
+   * @returns null
+   */
+  static onProgress(data: KamomeEventResult | null, requestId: string) {
+    const req = this.instance.requests[requestId];
+    if (req?.onProgress) {
+      try {
+        req.onProgress(binary ? decodeBinary(data) : data);
+      } catch (error) {
+        console.error(`[kamome.js] The progress function of '${req.name}' threw.`, error);
+      }
+    }
+    return null;
+  }
+
   /**
    * Called from the native client when sent message is processed incorrectly.
    *
@@ -400,6 +738,7 @@ export class KM {
   static onError(errorMessage: string | null, requestId: string) {
     const req = this.instance.requests[requestId];
     if (req) {
+      this.emitSpans(req);
       const msg = errorMessage ? ':' + decodeURIComponent(errorMessage) : '';
       req.reject(KamomeError.rejected + ':' + req.name + msg);
       delete this.instance.requests[requestId];
@@ -407,6 +746,54 @@ export class KM {
     return null;
   }
 
+  /**
+   * Called from the native client before the result of a traced request with the timings of the native side.
+   *
+   * @param requestId A request ID.
+   * @param trace The timings of the native side.
+   * @returns null
+   */
+  static onTrace(requestId: string, trace: NativeTrace) {
+    const req = this.instance.requests[requestId];
+    if (req?.trace) {
+      req.trace.native = trace;
+    }
+    return null;
+  }
+
+  /**
+   * Emits the spans of a traced request settling now.
+   *
+   * @param req A request.
+   */
+  private static emitSpans(req: InternalRequest) {
+    const trace = req.trace;
+    const currentTracer = tracer;
+    if (!trace || trace.sentAt === undefined || !currentTracer) {
+      return;
+    }
+
+    const end = now();
+    const emit = (stage: KamomeTraceStage, start: number, stageEnd: number) =>
+      currentTracer.onSpan({ name: req.name, requestId: req.id, stage, start, end: stageEnd });
+
+    const sentAt = trace.sentAt;
+    emit('queue', trace.createdAt, sentAt);
+    const native = trace.native;
+    if (native) {
+      // The clocks of both sides may differ slightly, so the stages are kept within the round trip.
+      const receivedAt = Math.min(Math.max(native.receivedAt, sentAt), end);
+      const startedAt = Math.min(receivedAt + native.queue, end);
+      const completedAt = Math.min(startedAt + native.handler, end);
+      emit('bridge', sentAt, receivedAt);
+      emit('nativeQueue', receivedAt, startedAt);
+      emit('handler', startedAt, completedAt);
+      emit('delivery', completedAt, end);
+    } else {
+      emit('roundTrip', sentAt, end);
+    }
+  }
+
   /**
    * Receives a message from the native client.
    *
@@ -420,27 +807,160 @@ export class KM {
       new Promise<KamomeEventResult | null>((resolve, reject) => {
         const fn = this.instance.receivers[name];
         // Process a message from the native client.
-        fn(data, resolve, reject);
+        fn(binary ? decodeBinary(data) : data, resolve, reject);
       })
         // If succeeded, sends a result to the native.
-        .then(result => this.send(callbackId, { result: result || null, success: true }))
+        .then(result =>
+          this.send(callbackId, {
+            result: binary ? encodeBinary(result || null) : result || null,
+            success: true,
+          }),
+        )
         // If failed, sends an error message as string type to the native.
         .catch(error => this.send(callbackId, { error: error || null, success: false }));
     }
     return null;
   }
 
+  /**
+   * Receives an event from the native client, and passes it to the subscribed listeners.
+   * Without listeners, the receiver of the same name receives it instead, and its result is discarded.
+   *
+   * @param name An event name.
+   * @param data A JSON object passed from the native client, or null.
+   * @returns null
+   */
+  static onEvent(name: string, data: KamomeEventData | null) {
+    const listeners = this.instance.listeners[name];
+    const decoded = binary ? decodeBinary(data) : data;
+    if (listeners) {
+      for (const listener of listeners) {
+        try {
+          listener(decoded);
+        } catch (error) {
+          console.error(`[kamome.js] A listener of the event '${name}' threw.`, error);
+        }
+      }
+    } else if (name in this.instance.receivers) {
+      this.instance.receivers[name](
+        decoded,
+        () => {},
+        () => {},
+      );
+    }
+    return null;
+  }
+
+  /**
+   * Dispatches messages posted by the native client through a message port.
+   *
+   * @param messages Messages.
+   */
+  private static onNativeMessages(messages: NativeMessage[]) {
+    for (const message of messages) {
+      try {
+        this.onNativeMessage(message);
+      } catch (error) {
+        // The following messages still run, and the error stays visible in the console.
+        setTimeout(() => {
+          throw error;
+        });
+      }
+    }
+  }
+
+  /**
+   * Dispatches a message posted by the native client through a message port.
+   *
+   * @param message A message.
+   */
+  private static onNativeMessage(message: NativeMessage) {
+    switch (message.type) {
+      case 'complete':
+        this.onComplete(this.dataOf(message), message.id);
+        break;
+      case 'progress':
+        this.onProgress(this.dataOf(message), message.id);
+        break;
+      case 'error':
+        this.onError(message.error, message.id);
+        break;
+      case 'receive':
+        this.onReceive(message.name, this.dataOf(message), message.callbackId);
+        break;
+      case 'event':
+        this.onEvent(message.name, this.dataOf(message));
+        break;
+      case 'chunk':
+        this.onChunk(message.stream, message.chunk);
+        break;
+      case 'chunkAck':
+        this.onChunkAck(message.stream, message.received);
+        break;
+      case 'trace':
+        this.onTrace(message.id, message.trace);
+        break;
+    }
+  }
+
+  private static dataOf(message: { data?: any; stream?: string }) {
+    return message.stream !== undefined ? this.takeStream(message.stream) : message.data;
+  }
+
+  private static async attachMessagePort(portPromise: Promise<MessagePort>) {
+    let timer: ReturnType<typeof setTimeout> | undefined;
+    const timeout = new Promise<null>(resolve => {
+      timer = setTimeout(() => resolve(null), MESSAGE_PORT_TIMEOUT);
+    });
+    const port = await Promise.race([portPromise, timeout]);
+    clearTimeout(timer);
+
+    if (port) {
+      android.attachPort(port, messages => this.onNativeMessages(messages));
+    } else {
+      console.warn(
+        '[kamome.js] The message port did not arrive. Falls back to the JavaScript interface.',
+      );
+    }
+  }
+
   private static handshake() {
-    this.send(COMMAND_SYN, null, 5000)
-      .then(data => {
+    // Listen for the message port before sending SYN, because the native client posts the port
+    // as soon as it agrees to use it.
+    const portPromise =
+      android.hasClient() && android.supportsMessagePort() ? android.listenForMessagePort() : null;
+    const synData = android.hasClient()
+      ? {
+          chunking: true,
+          events: true,
+          progress: true,
+          binary: true,
+          // The native client hands the port to this origin only.
+          ...(portPromise ? { transports: [TRANSPORT_MESSAGE_PORT], origin: location.origin } : {}),
+        }
+      : null;
+
+    this.send(COMMAND_SYN, synData, 5000)
+      .then(async data => {
         if (VERSION_CODE !== data.versionCode) {
           console.warn(
             '[kamome.js] The Kamome native library version does not match. Please update it to latest version.',
           );
         }
 
+        cancellation = data.cancellation === true;
+        binary = data.binary === true;
+        chunking =
+          data.chunkSize > 0
+            ? { size: data.chunkSize, window: Math.max(1, data.chunkWindow) }
+            : null;
+
+        if (portPromise && data.transport === TRANSPORT_MESSAGE_PORT) {
+          await this.attachMessagePort(portPromise);
+        }
+
         isReady = true;
-        this.waitForReadyAndSendRequests();
+        this.sendQueuedRequests();
 
         setTimeout(() => onReady?.(), 0);
 
@@ -454,7 +974,7 @@ export class KM {
         );
         // Set true for backward compatibility. (< 5.1.0)
         isReady = true;
-        this.waitForReadyAndSendRequests();
+        this.sendQueuedRequests();
       });
   }
 
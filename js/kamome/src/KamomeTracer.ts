@@ -0,0 +1,45 @@
+/**
+ * A stage of a request sent by `KM.send`.
+ *
+ * - `queue`: From `KM.send` to sending the request, e.g., waiting for ready.
+ * - `bridge`: From sending the request to the native client receiving it.
+ * - `nativeQueue`: From the native client receiving the request to running its handler.
+ * - `handler`: From running the handler to resolving or rejecting the request.
+ * - `delivery`: From the native client resolving or rejecting the request to the promise settling.
+ * - `roundTrip`: From sending the request to the promise settling, if the native client doesn't tell its timings.
+ */
+export type KamomeTraceStage = 'queue' | 'bridge' | 'nativeQueue' | 'handler' | 'delivery' | 'roundTrip';
+
+/**
+ * A stage of a request. Times are in milliseconds since the epoch.
+ */
+export type KamomeSpan = {
+  name: string;
+  requestId: string;
+  stage: KamomeTraceStage;
+  start: number;
+  end: number;
+};
+
+/**
+ * Receives the spans of requests. Set it by `KM.setTracer`.
+ * The spans of a request are emitted at once when it settles.
+ */
+export interface KamomeTracer {
+  onSpan(span: KamomeSpan): void;
+}
+
+/**
+ * Keeps spans in memory, e.g., to check the stages of requests in tests.
+ */
+export class MemoryTracer implements KamomeTracer {
+  readonly spans: KamomeSpan[] = [];
+
+  onSpan(span: KamomeSpan): void {
+    this.spans.push(span);
+  }
+
+  clear(): void {
+    this.spans.length = 0;
+  }
+}
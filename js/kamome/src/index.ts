@@ -3,5 +3,6 @@ export * from './KamomeError';
 export * from './KamomeEventData';
 export * from './KamomeEventResult';
 export * from './KamomeRequest';
+export * from './KamomeTracer';
 export * from './KM';
 export * from './VERSION_CODE';
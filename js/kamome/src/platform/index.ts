@@ -14,7 +14,33 @@ export interface Index {
   send(json: string): void;
 }
 
+/**
+ * A message posted by the KM native client through a message port.
+ */
+export type NativeMessage =
+  | { type: 'complete'; id: string; data?: any; stream?: string }
+  | { type: 'progress'; id: string; data?: any; stream?: string }
+  | { type: 'error'; id: string; error: string | null }
+  | { type: 'receive'; name: string; data?: any; stream?: string; callbackId: string }
+  | { type: 'event'; name: string; data?: any; stream?: string }
+  | { type: 'chunk'; stream: string; chunk: string }
+  | { type: 'chunkAck'; stream: string; received: number }
+  | { type: 'trace'; id: string; trace: NativeTrace };
+
+/**
+ * The timings of a traced request on the native side.
+ * `receivedAt` is in milliseconds since the epoch, and the others are durations in milliseconds.
+ */
+export type NativeTrace = { receivedAt: number; queue: number; handler: number };
+
+/**
+ * The message carrying the port posted by the KM Android client.
+ */
+const PORT_MESSAGE = '_kamomePort';
+
 export class AndroidPlatform implements Index {
+  private port: MessagePort | null = null;
+
   /**
    * Tells whether your app has the KM Android client.
    *
@@ -25,9 +51,62 @@ export class AndroidPlatform implements Index {
   }
 
   send(json: string): void {
+    if (this.port) {
+      this.port.postMessage(json);
+      return;
+    }
     // @ts-ignore
     setTimeout(() => window.kamomeAndroid.kamomeSend(json), 0);
   }
+
+  /**
+   * Tells whether this page can exchange messages with the KM Android client through a message port.
+   *
+   * @returns `true` if message ports are supported, otherwise `false`.
+   */
+  supportsMessagePort(): boolean {
+    return typeof MessagePort !== 'undefined';
+  }
+
+  /**
+   * Listens for the message port posted by the KM Android client.
+   *
+   * @returns A promise resolving the port.
+   */
+  listenForMessagePort(): Promise<MessagePort> {
+    return new Promise<MessagePort>(resolve => {
+      const listener = (event: MessageEvent) => {
+        if (event.data === PORT_MESSAGE && event.ports && event.ports.length > 0) {
+          window.removeEventListener('message', listener);
+          resolve(event.ports[0]);
+        }
+      };
+      window.addEventListener('message', listener);
+    });
+  }
+
+  /**
+   * Exchanges messages with the KM Android client through given port from now on.
+   *
+   * @param port A port posted by the KM Android client.
+   * @param listener A listener receiving messages posted by the KM Android client.
+   */
+  attachPort(port: MessagePort, listener: (messages: NativeMessage[]) => void): void {
+    this.port?.close();
+    this.port = port;
+    port.onmessage = (event: MessageEvent) => {
+      const messages = typeof event.data === 'string' ? JSON.parse(event.data) : event.data;
+      listener(Array.isArray(messages) ? messages : [messages]);
+    };
+  }
+
+  /**
+   * Stops using the message port, and falls back to the JavaScript interface.
+   */
+  detachPort(): void {
+    this.port?.close();
+    this.port = null;
+  }
 }
 
 export class IosPlatform implements Index {
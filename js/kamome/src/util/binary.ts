@@ -0,0 +1,57 @@
+/**
+ * The key reserved to tag binary data, and objects having the key themselves.
+ */
+const KEY = '_kamome';
+
+/**
+ * Encodes binary data as Base64 in an object tagged by the reserved key,
+ * e.g., `{ _kamome: 'bytes', base64: 'AAE=' }`. Base64 takes 4 characters per 3 bytes, and never needs escapes in JSON.
+ * An object having the reserved key itself is tagged as a value, so that it isn't mistaken for binary data.
+ * Other values are returned as is.
+ */
+export function encodeBinary(value: any): any {
+  let bytes: Uint8Array;
+  if (value instanceof Uint8Array) {
+    bytes = value;
+  } else if (value instanceof ArrayBuffer) {
+    bytes = new Uint8Array(value);
+  } else if (ArrayBuffer.isView(value)) {
+    bytes = new Uint8Array(value.buffer, value.byteOffset, value.byteLength);
+  } else if (value !== null && typeof value === 'object' && Object.prototype.hasOwnProperty.call(value, KEY)) {
+    return { [KEY]: 'value', value };
+  } else {
+    return value;
+  }
+
+  let text = '';
+  for (let i = 0; i < bytes.length; i += 8192) {
+    text += String.fromCharCode.apply(null, bytes.subarray(i, i + 8192) as unknown as number[]);
+  }
+  return { [KEY]: 'bytes', base64: btoa(text) };
+}
+
+/**
+ * Decodes a value encoded by `encodeBinary` or the native client:
+ * binary data into a `Uint8Array`, and an object tagged as a value into the object.
+ * Other values are returned as is.
+ */
+export function decodeBinary(value: any): any {
+  if (value === null || typeof value !== 'object') {
+    return value;
+  }
+
+  const tag = value[KEY];
+  if (tag === 'value') {
+    return value.value;
+  }
+  if (tag !== 'bytes' || typeof value.base64 !== 'string') {
+    return value;
+  }
+
+  const text = atob(value.base64);
+  const bytes = new Uint8Array(text.length);
+  for (let i = 0; i < text.length; i++) {
+    bytes[i] = text.charCodeAt(i);
+  }
+  return bytes;
+}
@@ -0,0 +1,10 @@
+/**
+ * Returns the current time in milliseconds since the epoch with sub-millisecond precision if available.
+ *
+ * @returns The current time.
+ */
+export function now(): number {
+  return typeof performance !== 'undefined' && performance.timeOrigin
+    ? performance.timeOrigin + performance.now()
+    : Date.now();
+}
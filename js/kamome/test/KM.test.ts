@@ -1,8 +1,9 @@
 import { describe, it, expect, vi, beforeAll, beforeEach, afterEach } from 'vitest';
 
-import { KM, WebPlatform } from '../src';
+import { AndroidPlatform, KM, MemoryTracer, WebPlatform } from '../src';
 import { KamomeError } from '../src/KamomeError';
 import { VERSION_CODE } from '../src/VERSION_CODE';
+import { decodeBinary, encodeBinary } from '../src/util/binary';
 import { undefinedToNull } from '../src/util/undefinedToNull';
 import { uuid } from '../src/util/uuid';
 
@@ -169,6 +170,67 @@ describe('KM.onReceive', () => {
   });
 });
 
+describe('KM.subscribe', () => {
+  afterEach(() => {
+    KM.removeReceiver('testEvent');
+  });
+
+  it('passes events to every listener until it unsubscribes', () => {
+    const first = vi.fn();
+    const second = vi.fn();
+    const unsubscribeFirst = KM.subscribe('testEvent', first);
+    const unsubscribeSecond = KM.subscribe('testEvent', second);
+
+    expect(KM.onEvent('testEvent', { x: 1 })).toBeNull();
+    unsubscribeFirst();
+    KM.onEvent('testEvent', { x: 2 });
+    unsubscribeSecond();
+    KM.onEvent('testEvent', { x: 3 });
+
+    expect(first.mock.calls).toEqual([[{ x: 1 }]]);
+    expect(second.mock.calls).toEqual([[{ x: 1 }], [{ x: 2 }]]);
+  });
+
+  it('keeps dispatching after a listener throws', () => {
+    const error = vi.spyOn(console, 'error').mockImplementation(() => {});
+    const listener = vi.fn();
+    const unsubscribeThrowing = KM.subscribe('testEvent', () => {
+      throw new Error('broken');
+    });
+    const unsubscribe = KM.subscribe('testEvent', listener);
+
+    KM.onEvent('testEvent', null);
+
+    expect(listener).toHaveBeenCalledWith(null);
+    expect(error).toHaveBeenCalled();
+    unsubscribeThrowing();
+    unsubscribe();
+    error.mockRestore();
+  });
+
+  it('passes an event without listeners to the receiver', () => {
+    const receiver = vi.fn();
+    KM.addReceiver('testEvent', receiver);
+
+    KM.onEvent('testEvent', { x: 1 });
+
+    expect(receiver).toHaveBeenCalledWith({ x: 1 }, expect.any(Function), expect.any(Function));
+  });
+
+  it('receives an event emitted in browser mode', async () => {
+    const received = new Promise(resolve => {
+      const unsubscribe = KM.subscribe('testEvent', data => {
+        unsubscribe();
+        resolve(data);
+      });
+    });
+
+    KM.browser.emit('testEvent', { x: 1 });
+
+    await expect(received).resolves.toEqual({ x: 1 });
+  });
+});
+
 describe('KM.send (browser mode)', () => {
   beforeAll(async () => {
     await waitForReady();
@@ -395,6 +457,379 @@ describe('KM pre-ready queue drain (BUG-H01 regression)', () => {
   }, 15000);
 });
 
+describe('KM ready timeout', () => {
+  it('rejects requests still queued after the ready timeout', async () => {
+    vi.useFakeTimers();
+    try {
+      vi.resetModules();
+      const mod = await import('../src');
+      const FreshKM = mod.KM;
+
+      // Never resolve SYN, so that the client never goes ready state.
+      FreshKM.browser.addCommand('_kamomeSYN', () => {});
+      window.dispatchEvent(new Event('DOMContentLoaded'));
+      await vi.advanceTimersByTimeAsync(1);
+
+      const handler = vi.fn((_data, resolve) => resolve());
+      FreshKM.browser.addCommand('neverReady', handler);
+      FreshKM.setReadyTimeout(3000);
+
+      const promise = FreshKM.send('neverReady').catch(e => e);
+      await vi.advanceTimersByTimeAsync(2900);
+      expect(handler).not.toHaveBeenCalled();
+
+      await vi.advanceTimersByTimeAsync(200);
+      expect(await promise).toBe(KamomeError.requestTimeout + ':neverReady');
+      expect(handler).not.toHaveBeenCalled();
+    } finally {
+      vi.useRealTimers();
+    }
+  }, 15000);
+
+  it('keeps queued requests until ready if the ready timeout is disabled', async () => {
+    vi.useFakeTimers();
+    try {
+      vi.resetModules();
+      const mod = await import('../src');
+      const FreshKM = mod.KM;
+
+      let synResolve: (() => void) | null = null;
+      FreshKM.browser.addCommand('_kamomeSYN', (_data, resolve) => {
+        synResolve = () => resolve({ versionCode: FreshKM.VERSION_CODE });
+      });
+      window.dispatchEvent(new Event('DOMContentLoaded'));
+      await vi.advanceTimersByTimeAsync(1);
+
+      FreshKM.setReadyTimeout(0);
+      FreshKM.browser.addCommand('late', (_data, resolve) => resolve({ ok: true }));
+      const promise = FreshKM.send('late', null, 0);
+
+      // Releases SYN before its own request timeout.
+      await vi.advanceTimersByTimeAsync(4000);
+      synResolve!();
+      await vi.advanceTimersByTimeAsync(1);
+
+      expect(await promise).toEqual({ ok: true });
+    } finally {
+      vi.useRealTimers();
+    }
+  }, 15000);
+});
+
+describe('KM on Android', () => {
+  let sent: any[];
+  let FreshKM: typeof KM;
+
+  beforeEach(async () => {
+    vi.useFakeTimers();
+    sent = [];
+    Object.defineProperty(navigator, 'userAgent', {
+      value: 'Mozilla/5.0 (Linux; Android 14)',
+      configurable: true,
+    });
+    // @ts-ignore
+    window.kamomeAndroid = { kamomeSend: (json: string) => sent.push(JSON.parse(json)) };
+
+    vi.resetModules();
+    FreshKM = (await import('../src')).KM;
+    window.dispatchEvent(new Event('DOMContentLoaded'));
+    await vi.advanceTimersByTimeAsync(1);
+
+    // Modules imported by other tests also listen for the event,
+    // so the fresh module sends the last SYN.
+    const syn = sent.filter(message => message.name === '_kamomeSYN').pop();
+    expect(syn.data.chunking).toBe(true);
+    expect(syn.data.events).toBe(true);
+    expect(syn.data.progress).toBe(true);
+    expect(syn.data.binary).toBe(true);
+    FreshKM.onComplete(
+      {
+        versionCode: FreshKM.VERSION_CODE,
+        transport: 'bridge',
+        chunkSize: 200,
+        chunkWindow: 2,
+        cancellation: true,
+        binary: true,
+      },
+      syn.id,
+    );
+    await vi.advanceTimersByTimeAsync(1);
+    sent.length = 0;
+  });
+
+  afterEach(() => {
+    // @ts-ignore
+    delete navigator.userAgent;
+    // @ts-ignore
+    delete window.kamomeAndroid;
+    vi.useRealTimers();
+  });
+
+  it('sends a large request in chunks within the window', async () => {
+    FreshKM.send('big', { text: 'x'.repeat(1000) });
+    await vi.advanceTimersByTimeAsync(1);
+
+    expect(sent.length).toBe(2);
+    expect(sent.every(message => message.name === '_kamomeChunk')).toBe(true);
+    const streamId = sent[0].id;
+
+    while (!sent[sent.length - 1].last) {
+      FreshKM.onChunkAck(streamId, sent.length);
+      await vi.advanceTimersByTimeAsync(1);
+    }
+
+    for (const message of sent) {
+      expect(message.chunk.length).toBeLessThanOrEqual(200);
+    }
+    const request = JSON.parse(sent.map(message => message.chunk).join(''));
+    expect(request.name).toBe('big');
+    expect(request.data).toEqual({ text: 'x'.repeat(1000) });
+  });
+
+  it('sends a Uint8Array as bytes and receives bytes as a Uint8Array', async () => {
+    const promise = FreshKM.send('upload', new Uint8Array([0, 1, 255]));
+    await vi.advanceTimersByTimeAsync(1);
+
+    expect(sent[0].data).toEqual({ _kamome: 'bytes', base64: 'AAH/' });
+    FreshKM.onComplete({ _kamome: 'bytes', base64: 'Bw==' }, sent[0].id);
+    expect(await promise).toEqual(new Uint8Array([7]));
+  });
+
+  it('decodes bytes of an event', () => {
+    const listener = vi.fn();
+    const unsubscribe = FreshKM.subscribe('testEvent', listener);
+
+    FreshKM.onEvent('testEvent', { _kamome: 'bytes', base64: 'AQ==' });
+
+    expect(listener).toHaveBeenCalledWith(new Uint8Array([1]));
+    unsubscribe();
+  });
+
+  it('sends a small request at once', async () => {
+    FreshKM.send('a');
+    await vi.advanceTimersByTimeAsync(1);
+
+    expect(sent.length).toBe(1);
+    expect(sent[0].name).toBe('a');
+  });
+
+  it('breaks down a traced request with the timings of the native client', async () => {
+    const tracer = new MemoryTracer();
+    FreshKM.setTracer(tracer);
+    const promise = FreshKM.send('traced', { a: 1 });
+    await vi.advanceTimersByTimeAsync(1);
+
+    const sentAt = sent[0].sentAt;
+    expect(typeof sentAt).toBe('number');
+    FreshKM.onTrace(sent[0].id, { receivedAt: sentAt + 2, queue: 1, handler: 3 });
+    FreshKM.onComplete({ ok: true }, sent[0].id);
+    expect(await promise).toEqual({ ok: true });
+    FreshKM.setTracer(null);
+
+    expect(tracer.spans.map(span => span.stage)).toEqual([
+      'queue',
+      'bridge',
+      'nativeQueue',
+      'handler',
+      'delivery',
+    ]);
+    for (const span of tracer.spans) {
+      expect(span.name).toBe('traced');
+      expect(span.end).toBeGreaterThanOrEqual(span.start);
+    }
+    expect(tracer.spans[1].start).toBe(sentAt);
+    for (let i = 1; i < tracer.spans.length; i++) {
+      expect(tracer.spans[i].start).toBe(tracer.spans[i - 1].end);
+    }
+  });
+
+  it('sends no timestamp without a tracer', async () => {
+    FreshKM.send('plain');
+    await vi.advanceTimersByTimeAsync(1);
+
+    expect('sentAt' in sent[0]).toBe(false);
+  });
+
+  it('sends the deadline of a request', async () => {
+    const before = Date.now();
+    FreshKM.send('timed', null, 500).catch(() => {});
+    FreshKM.send('untimed', null, 0);
+    await vi.advanceTimersByTimeAsync(1);
+
+    expect(sent[0].deadline).toBeGreaterThanOrEqual(before + 500);
+    expect('deadline' in sent[1]).toBe(false);
+  });
+
+  it('cancels a timed-out request on the native client', async () => {
+    const promise = FreshKM.send('slow', null, 500).catch((e: string) => e);
+    await vi.advanceTimersByTimeAsync(1);
+    const id = sent[0].id;
+
+    await vi.advanceTimersByTimeAsync(500);
+
+    expect(await promise).toContain('RequestTimeout');
+    expect(sent[1]).toEqual({ name: '_kamomeCancel', id, data: null });
+  });
+
+  it('cancels nothing after a request completes', async () => {
+    const promise = FreshKM.send('fast', null, 500);
+    await vi.advanceTimersByTimeAsync(1);
+    FreshKM.onComplete(null, sent[0].id);
+    await promise;
+
+    await vi.advanceTimersByTimeAsync(500);
+
+    expect(sent.length).toBe(1);
+  });
+
+  it('passes partial results to the progress function before the final result', async () => {
+    const partials: any[] = [];
+    const promise = FreshKM.send('import', null, 0, data => partials.push(data));
+    await vi.advanceTimersByTimeAsync(1);
+
+    FreshKM.onProgress({ done: 1 }, sent[0].id);
+    FreshKM.onProgress({ _kamome: 'bytes', base64: 'Bw==' }, sent[0].id);
+    FreshKM.onComplete({ done: 2 }, sent[0].id);
+    FreshKM.onProgress({ done: 3 }, sent[0].id);
+
+    expect(await promise).toEqual({ done: 2 });
+    expect(partials).toEqual([{ done: 1 }, new Uint8Array([7])]);
+  });
+
+  it('iterates partial results and the final result', async () => {
+    const iterated: any[] = [];
+    const iteration = (async () => {
+      for await (const page of FreshKM.stream('search', { q: 'a' }, 0)) {
+        iterated.push(page);
+      }
+    })();
+    await vi.advanceTimersByTimeAsync(1);
+
+    FreshKM.onProgress([1], sent[0].id);
+    FreshKM.onProgress([2], sent[0].id);
+    FreshKM.onComplete([3], sent[0].id);
+    await iteration;
+
+    expect(iterated).toEqual([[1], [2], [3]]);
+  });
+
+  it('throws the error of a failed request from the iteration', async () => {
+    const iteration = (async () => {
+      const iterated: any[] = [];
+      for await (const page of FreshKM.stream('search', null, 0)) {
+        iterated.push(page);
+      }
+      return iterated;
+    })().catch((e: string) => e);
+    await vi.advanceTimersByTimeAsync(1);
+
+    FreshKM.onProgress([1], sent[0].id);
+    FreshKM.onError('Broken', sent[0].id);
+
+    expect(await iteration).toBe('Rejected:search:Broken');
+  });
+
+  it('receives partial results through the message port', async () => {
+    const partials: any[] = [];
+    FreshKM.send('import', null, 0, data => partials.push(data));
+    await vi.advanceTimersByTimeAsync(1);
+
+    // @ts-ignore
+    FreshKM.onNativeMessages([{ type: 'progress', id: sent[0].id, data: 42 }]);
+
+    expect(partials).toEqual([42]);
+  });
+
+  it('reassembles a payload sent in chunks and acknowledges each chunk', async () => {
+    FreshKM.onChunk('s1', '{"a"');
+    FreshKM.onChunk('s1', ':[1,2]}');
+    await vi.advanceTimersByTimeAsync(1);
+
+    expect(FreshKM.takeStream('s1')).toEqual({ a: [1, 2] });
+    expect(sent).toEqual([
+      { name: '_kamomeChunkAck', id: 's1', data: { received: 1 } },
+      { name: '_kamomeChunkAck', id: 's1', data: { received: 2 } },
+    ]);
+  });
+});
+
+describe('KM on Android without binary support', () => {
+  it('passes payloads as is', async () => {
+    vi.useFakeTimers();
+    const sent: any[] = [];
+    Object.defineProperty(navigator, 'userAgent', {
+      value: 'Mozilla/5.0 (Linux; Android 14)',
+      configurable: true,
+    });
+    // @ts-ignore
+    window.kamomeAndroid = { kamomeSend: (json: string) => sent.push(JSON.parse(json)) };
+    try {
+      vi.resetModules();
+      const FreshKM = (await import('../src')).KM;
+      window.dispatchEvent(new Event('DOMContentLoaded'));
+      await vi.advanceTimersByTimeAsync(1);
+
+      // An older native client doesn't tell that it supports binary data.
+      const syn = sent.filter(message => message.name === '_kamomeSYN').pop();
+      FreshKM.onComplete({ versionCode: FreshKM.VERSION_CODE, transport: 'bridge' }, syn.id);
+      await vi.advanceTimersByTimeAsync(1);
+      sent.length = 0;
+
+      const tagged = { _kamome: 'bytes', base64: 'AQ==' };
+      const promise = FreshKM.send('echo', tagged);
+      await vi.advanceTimersByTimeAsync(1);
+      expect(sent[0].data).toEqual(tagged);
+      FreshKM.onComplete(tagged, sent[0].id);
+      expect(await promise).toEqual(tagged);
+
+      const listener = vi.fn();
+      const unsubscribe = FreshKM.subscribe('testEvent', listener);
+      FreshKM.onEvent('testEvent', tagged);
+      expect(listener).toHaveBeenCalledWith(tagged);
+      unsubscribe();
+    } finally {
+      // @ts-ignore
+      delete navigator.userAgent;
+      // @ts-ignore
+      delete window.kamomeAndroid;
+      vi.useRealTimers();
+    }
+  }, 15000);
+});
+
+describe('binary', () => {
+  it('round-trips every byte value', () => {
+    const bytes = new Uint8Array(256).map((_, i) => i);
+    const encoded = encodeBinary(bytes);
+
+    expect(encoded.base64.length).toBe(344);
+    expect(decodeBinary(JSON.parse(JSON.stringify(encoded)))).toEqual(bytes);
+  });
+
+  it('encodes an ArrayBuffer and a view of a part of a buffer', () => {
+    const buffer = new Uint8Array([1, 2, 3, 4]).buffer;
+
+    expect(decodeBinary(encodeBinary(buffer))).toEqual(new Uint8Array([1, 2, 3, 4]));
+    expect(decodeBinary(encodeBinary(new DataView(buffer, 1, 2)))).toEqual(new Uint8Array([2, 3]));
+  });
+
+  it('tags an object having the reserved key as a value', () => {
+    const data = { _kamome: 'bytes', base64: 'AQ==' };
+    const encoded = encodeBinary(data);
+
+    expect(encoded).toEqual({ _kamome: 'value', value: data });
+    expect(decodeBinary(JSON.parse(JSON.stringify(encoded)))).toEqual(data);
+  });
+
+  it('returns other values as is', () => {
+    const data = { a: 1 };
+
+    expect(encodeBinary(data)).toBe(data);
+    expect(decodeBinary(data)).toBe(data);
+    expect(decodeBinary(null)).toBeNull();
+  });
+});
+
 describe('WebPlatform.execCommand missing-command guard (BUG-M01 regression)', () => {
   it('rejects with Rejected:<name>:CommandNotAdded instead of throwing when the command is unregistered', async () => {
     // Use a direct execCommand request id and observe the propagated rejection
@@ -474,6 +909,107 @@ describe('WebPlatform', () => {
   });
 });
 
+describe('batched native messages', () => {
+  it('keeps running a script batch after a message throws', () => {
+    const timeout = vi.spyOn(globalThis, 'setTimeout').mockImplementation(() => 0 as any);
+    const listener = vi.fn();
+    // The script calls the library on the window, which is reloaded by other tests.
+    const unsubscribe = (window as any).KM.subscribe('testEvent', listener);
+
+    try {
+      // A batch as evaluated by the Android client, whose first message fails to parse its data.
+      new Function(
+        "try{window.KM.onEvent('testEvent', JSON.parse('{'))}catch(e){setTimeout(function(){throw e})}" +
+          "try{window.KM.onEvent('testEvent', {\"x\":1})}catch(e){setTimeout(function(){throw e})}",
+      )();
+    } finally {
+      unsubscribe();
+      timeout.mockRestore();
+    }
+
+    expect(listener).toHaveBeenCalledWith({ x: 1 });
+    expect(timeout).toHaveBeenCalledTimes(1);
+  });
+
+  it('keeps dispatching a port batch after a message throws', () => {
+    const timeout = vi.spyOn(globalThis, 'setTimeout').mockImplementation(() => 0 as any);
+    const onComplete = vi.spyOn(KM, 'onComplete').mockImplementation(() => {
+      throw new Error('broken');
+    });
+    const listener = vi.fn();
+    const unsubscribe = KM.subscribe('testEvent', listener);
+
+    try {
+      (KM as any).onNativeMessages([
+        { type: 'complete', id: 'a', data: null },
+        { type: 'event', name: 'testEvent', data: { x: 1 } },
+      ]);
+    } finally {
+      unsubscribe();
+      onComplete.mockRestore();
+      timeout.mockRestore();
+    }
+
+    expect(listener).toHaveBeenCalledWith({ x: 1 });
+    expect(timeout).toHaveBeenCalledTimes(1);
+  });
+});
+
+describe('AndroidPlatform message port', () => {
+  let platform: AndroidPlatform;
+  let channel: MessageChannel;
+
+  beforeEach(() => {
+    platform = new AndroidPlatform();
+    channel = new MessageChannel();
+  });
+
+  afterEach(() => {
+    platform.detachPort();
+    channel.port2.close();
+  });
+
+  it('should resolve the port posted by the native client', async () => {
+    const promise = platform.listenForMessagePort();
+
+    window.dispatchEvent(Object.assign(new Event('message'), { data: 'other', ports: [] }));
+    window.dispatchEvent(
+      Object.assign(new Event('message'), { data: '_kamomePort', ports: [channel.port1] }),
+    );
+
+    await expect(promise).resolves.toBe(channel.port1);
+  });
+
+  it('should dispatch a batch of native messages', async () => {
+    const listener = vi.fn();
+    platform.attachPort(channel.port1, listener);
+
+    channel.port2.postMessage(
+      JSON.stringify([
+        { type: 'complete', id: 'a', data: { x: 1 } },
+        { type: 'error', id: 'b', error: 'oops' },
+      ]),
+    );
+    await new Promise(resolve => setTimeout(resolve, 10));
+
+    expect(listener).toHaveBeenCalledWith([
+      { type: 'complete', id: 'a', data: { x: 1 } },
+      { type: 'error', id: 'b', error: 'oops' },
+    ]);
+  });
+
+  it('should post requests through the attached port', async () => {
+    const received = new Promise(resolve => {
+      channel.port2.onmessage = event => resolve(event.data);
+    });
+    platform.attachPort(channel.port1, vi.fn());
+
+    platform.send('{"id":"1","name":"echo","data":null}');
+
+    await expect(received).resolves.toBe('{"id":"1","name":"echo","data":null}');
+  });
+});
+
 describe('uuid', () => {
   it('should generate a valid UUID v4 format', () => {
     const id = uuid();